@@ -29,6 +29,7 @@ import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
@@ -706,19 +707,115 @@ public abstract class FileSystem extends Configured implements Closeable {
    * @throws IOException
    */
   public abstract FileStatus[] listStatus(Path f) throws IOException;
+
+  /**
+   * List the statuses of the files/directories in the given path if the path is
+   * a directory, fetching them as they are needed.  File systems that can
+   * list a directory in parts do, so that a large directory is never held
+   * in memory at once.  This implementation iterates over
+   * {@link #listStatus(Path)}.
+   *
+   * @param f
+   *          given path
+   * @return an iterator over the statuses of the files/directories in the
+   *         given path
+   * @throws FileNotFoundException if f does not exist
+   * @throws IOException
+   */
+  public RemoteIterator<FileStatus> listStatusIterator(final Path f)
+                                                       throws IOException {
+    final FileStatus[] listing = listStatus(f);
+    if (listing == null) {
+      throw new FileNotFoundException("File " + f + " does not exist.");
+    }
+    return new RemoteIterator<FileStatus>() {
+      private int i = 0;
+
+      public boolean hasNext() {
+        return i < listing.length;
+      }
+
+      public FileStatus next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException("No more entries in " + f);
+        }
+        return listing[i++];
+      }
+    };
+  }
     
+  /**
+   * List the statuses of the files/directories in the given path if the
+   * path is a directory, with the locations of the blocks of the files.
+   * File systems that can, get the statuses and the locations together
+   * in one call per part of the directory, instead of one call per file.
+   * This implementation asks {@link #getFileBlockLocations} for each file.
+   *
+   * @param f
+   *          given path
+   * @return an iterator over the statuses of the files/directories in the
+   *         given path
+   * @throws FileNotFoundException if f does not exist
+   * @throws IOException
+   */
+  public RemoteIterator<LocatedFileStatus> listLocatedStatus(final Path f)
+                                                        throws IOException {
+    final RemoteIterator<FileStatus> listing = listStatusIterator(f);
+    return new RemoteIterator<LocatedFileStatus>() {
+      public boolean hasNext() throws IOException {
+        return listing.hasNext();
+      }
+
+      public LocatedFileStatus next() throws IOException {
+        FileStatus stat = listing.next();
+        return new LocatedFileStatus(stat, stat.isDir() ? null :
+            getFileBlockLocations(stat, 0, stat.getLen()));
+      }
+    };
+  }
+
+  /**
+   * Get the statuses of the given paths, with the locations of the blocks
+   * of the files among them.  File systems that can, get them in a few
+   * calls for all the paths, instead of two calls per path.
+   *
+   * @param paths the paths
+   * @return the statuses, in the order of the paths; null for a path that
+   *         does not exist
+   * @throws IOException
+   */
+  public LocatedFileStatus[] getLocatedFileStatus(Path[] paths)
+                                                  throws IOException {
+    LocatedFileStatus[] results = new LocatedFileStatus[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      FileStatus stat;
+      try {
+        stat = getFileStatus(paths[i]);
+      } catch (FileNotFoundException e) {
+        continue;
+      }
+      results[i] = new LocatedFileStatus(stat, stat.isDir() ? null :
+          getFileBlockLocations(stat, 0, stat.getLen()));
+    }
+    return results;
+  }
+
   /*
    * Filter files/directories in the given path using the user-supplied path
    * filter. Results are added to the given array <code>results</code>.
    */
   private void listStatus(ArrayList<FileStatus> results, Path f,
       PathFilter filter) throws IOException {
-    FileStatus listing[] = listStatus(f);
-    if (listing != null) {
-      for (int i = 0; i < listing.length; i++) {
-        if (filter.accept(listing[i].getPath())) {
-          results.add(listing[i]);
-        }
+    RemoteIterator<FileStatus> listing;
+    try {
+      listing = listStatusIterator(f);
+    } catch (FileNotFoundException e) {
+      return;
+    }
+    while (listing.hasNext()) {
+      FileStatus stat = listing.next();
+      if (filter.accept(stat.getPath())) {
+        results.add(stat);
       }
     }
   }
@@ -593,54 +593,87 @@ public class FsShell extends Configured implements Tool {
   private int ls(FileStatus src, FileSystem srcFs, boolean recursive,
       boolean printHeader) throws IOException {
     final String cmd = recursive? "lsr": "ls";
-    final FileStatus[] items = shellListStatus(cmd, srcFs, src);
-    if (items == null) {
+    final RemoteIterator<FileStatus> listing =
+      shellListStatusIterator(cmd, srcFs, src);
+    if (listing == null) {
       return 1;
-    } else {
-      int numOfErrors = 0;
-      if (!recursive && printHeader) {
-        if (items.length != 0) {
-          System.out.println("Found " + items.length + " items");
+    }
+    // a large directory is listed LS_BATCH_SIZE entries at a time
+    int numOfErrors = 0;
+    List<FileStatus> batch = new ArrayList<FileStatus>();
+    boolean firstBatch = true;
+    try {
+      while (firstBatch || listing.hasNext()) {
+        batch.clear();
+        while (batch.size() < LS_BATCH_SIZE && listing.hasNext()) {
+          batch.add(listing.next());
         }
+        FileStatus[] items = batch.toArray(new FileStatus[batch.size()]);
+        // the number of entries is known if they fit in one batch
+        boolean printCount = firstBatch && printHeader && !listing.hasNext();
+        numOfErrors += ls(items, srcFs, recursive, printCount);
+        firstBatch = false;
       }
-      
-      int maxReplication = 3, maxLen = 10, maxOwner = 0,maxGroup = 0;
+    } catch (IOException e) {
+      System.err.println(cmd + ": could not get listing for '" +
+                         src.getPath() + "' : " +
+                         e.getMessage().split("\n")[0]);
+      numOfErrors++;
+    }
+    return numOfErrors;
+  }
 
-      for(int i = 0; i < items.length; i++) {
-        FileStatus stat = items[i];
-        int replication = String.valueOf(stat.getReplication()).length();
-        int len = String.valueOf(stat.getLen()).length();
-        int owner = String.valueOf(stat.getOwner()).length();
-        int group = String.valueOf(stat.getGroup()).length();
-        
-        if (replication > maxReplication) maxReplication = replication;
-        if (len > maxLen) maxLen = len;
-        if (owner > maxOwner)  maxOwner = owner;
-        if (group > maxGroup)  maxGroup = group;
+  /** The most entries of a directory that ls formats together. */
+  private static final int LS_BATCH_SIZE = 1000;
+
+  /* print the given entries of a directory, and list the subdirectories
+   * among them if recursive.
+   */
+  private int ls(FileStatus[] items, FileSystem srcFs, boolean recursive,
+      boolean printHeader) throws IOException {
+    int numOfErrors = 0;
+    if (!recursive && printHeader) {
+      if (items.length != 0) {
+        System.out.println("Found " + items.length + " items");
       }
+    }
+    
+    int maxReplication = 3, maxLen = 10, maxOwner = 0,maxGroup = 0;
+
+    for(int i = 0; i < items.length; i++) {
+      FileStatus stat = items[i];
+      int replication = String.valueOf(stat.getReplication()).length();
+      int len = String.valueOf(stat.getLen()).length();
+      int owner = String.valueOf(stat.getOwner()).length();
+      int group = String.valueOf(stat.getGroup()).length();
       
-      for (int i = 0; i < items.length; i++) {
-        FileStatus stat = items[i];
-        Path cur = stat.getPath();
-        String mdate = dateForm.format(new Date(stat.getModificationTime()));
-        
-        System.out.print((stat.isDir() ? "d" : "-") + 
-          stat.getPermission() + " ");
-        System.out.printf("%"+ maxReplication + 
-          "s ", (!stat.isDir() ? stat.getReplication() : "-"));
-        if (maxOwner > 0)
-          System.out.printf("%-"+ maxOwner + "s ", stat.getOwner());
-        if (maxGroup > 0)
-          System.out.printf("%-"+ maxGroup + "s ", stat.getGroup());
-        System.out.printf("%"+ maxLen + "d ", stat.getLen());
-        System.out.print(mdate + " ");
-        System.out.println(cur.toUri().getPath());
-        if (recursive && stat.isDir()) {
-          numOfErrors += ls(stat,srcFs, recursive, printHeader);
-        }
+      if (replication > maxReplication) maxReplication = replication;
+      if (len > maxLen) maxLen = len;
+      if (owner > maxOwner)  maxOwner = owner;
+      if (group > maxGroup)  maxGroup = group;
+    }
+    
+    for (int i = 0; i < items.length; i++) {
+      FileStatus stat = items[i];
+      Path cur = stat.getPath();
+      String mdate = dateForm.format(new Date(stat.getModificationTime()));
+      
+      System.out.print((stat.isDir() ? "d" : "-") + 
+        stat.getPermission() + " ");
+      System.out.printf("%"+ maxReplication + 
+        "s ", (!stat.isDir() ? stat.getReplication() : "-"));
+      if (maxOwner > 0)
+        System.out.printf("%-"+ maxOwner + "s ", stat.getOwner());
+      if (maxGroup > 0)
+        System.out.printf("%-"+ maxGroup + "s ", stat.getGroup());
+      System.out.printf("%"+ maxLen + "d ", stat.getLen());
+      System.out.print(mdate + " ");
+      System.out.println(cur.toUri().getPath());
+      if (recursive && stat.isDir()) {
+        numOfErrors += ls(stat,srcFs, recursive, printHeader);
       }
-      return numOfErrors;
     }
+    return numOfErrors;
   }
 
   /**
@@ -1142,6 +1175,47 @@ public class FsShell extends Configured implements Tool {
     public abstract void run(FileStatus file, FileSystem fs) throws IOException;
   }
   
+  /** helper returns listStatusIterator() */
+  private static RemoteIterator<FileStatus> shellListStatusIterator(
+      String cmd, FileSystem srcFs, FileStatus src) {
+    if (!src.isDir()) {
+      FileStatus[] files = { src };
+      return new ArrayIterator(files);
+    }
+    Path path = src.getPath();
+    try {
+      return srcFs.listStatusIterator(path);
+    } catch (FileNotFoundException e) {
+      System.err.println(cmd + 
+                         ": could not get listing for '" + path + "'");
+    } catch (IOException e) {
+      System.err.println(cmd + 
+                         ": could not get get listing for '" + path + "' : " +
+                         e.getMessage().split("\n")[0]);
+    }
+    return null;
+  }
+
+  private static class ArrayIterator implements RemoteIterator<FileStatus> {
+    private final FileStatus[] files;
+    private int i = 0;
+
+    ArrayIterator(FileStatus[] files) {
+      this.files = files;
+    }
+
+    public boolean hasNext() {
+      return i < files.length;
+    }
+
+    public FileStatus next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return files[i++];
+    }
+  }
+
   /** helper returns listStatus() */
   private static FileStatus[] shellListStatus(String cmd, 
                                                    FileSystem srcFs,
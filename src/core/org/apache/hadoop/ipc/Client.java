@@ -35,7 +35,12 @@ import java.io.InputStream;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.SocketFactory;
@@ -71,6 +76,11 @@ public class Client {
   final private int maxIdleTime; //connections will be culled if it was idle for 
                            //maxIdleTime msecs
   final private int maxRetries; //the max. no. of retries for socket connections
+  final private int maxBusyRetries; //the max. no. of retries of a call
+                                    //rejected by a busy server
+  final private long busyBackoff; //initial back off time after such a call
+  final private int connectionsPerServer; //connections calls are striped over
+  private AtomicInteger nextStripe = new AtomicInteger();
   private boolean tcpNoDelay; // if T then disable Nagle's Algorithm
   private int pingInterval; // how often sends ping to the server in msecs
 
@@ -601,6 +611,100 @@ public class Client {
     }
   }
 
+  /** Call implementation used for asynchronous calls.  The call is its own
+   * future; an optional callback is notified when the call completes. */
+  private class AsyncCall extends Call implements Future<Writable> {
+    private InetSocketAddress addr;
+    private Callback callback;
+
+    public AsyncCall(Writable param, InetSocketAddress addr,
+                     Callback callback) {
+      super(param);
+      this.addr = addr;
+      this.callback = callback;
+    }
+
+    /** Only the first result counts: a call that failed to be sent may be
+     * failed both by its connection and by the caller. */
+    public synchronized void setException(IOException error) {
+      if (!done) {
+        super.setException(error);
+      }
+    }
+
+    public synchronized void setValue(Writable value) {
+      if (!done) {
+        super.setValue(value);
+      }
+    }
+
+    /** Wake up all waiters and run the callback. */
+    protected synchronized void callComplete() {
+      this.done = true;
+      notifyAll();
+      if (callback != null) {
+        try {
+          if (error != null) {
+            callback.onFailure(getError());
+          } else {
+            callback.onSuccess(value);
+          }
+        } catch (Throwable t) {
+          LOG.warn("Callback of call " + id + " to " + addr + " threw", t);
+        }
+      }
+    }
+
+    private IOException getError() {
+      if (error instanceof RemoteException) {
+        return error;
+      }
+      return wrapException(addr, error);
+    }
+
+    /** Calls that have been sent cannot be cancelled. */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    public boolean isCancelled() {
+      return false;
+    }
+
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    public synchronized Writable get()
+      throws InterruptedException, ExecutionException {
+      while (!done) {
+        wait();
+      }
+      return getValue();
+    }
+
+    public synchronized Writable get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+      long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+      while (!done) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          throw new TimeoutException("Call " + id + " to " + addr +
+                                     " did not complete in time");
+        }
+        wait(remaining);
+      }
+      return getValue();
+    }
+
+    private Writable getValue() throws ExecutionException {
+      if (error != null) {
+        throw new ExecutionException(getError());
+      }
+      return value;
+    }
+  }
+
   /** Result collector for parallel calls. */
   private static class ParallelResults {
     private Writable[] values;
@@ -629,6 +733,10 @@ public class Client {
     this.maxIdleTime = 
       conf.getInt("ipc.client.connection.maxidletime", 10000); //10s
     this.maxRetries = conf.getInt("ipc.client.connect.max.retries", 10);
+    this.maxBusyRetries = conf.getInt("ipc.client.busy.max.retries", 5);
+    this.busyBackoff = conf.getLong("ipc.client.busy.backoff.ms", 100);
+    this.connectionsPerServer =
+      Math.max(1, conf.getInt("ipc.client.connections.per.server", 1));
     this.tcpNoDelay = conf.getBoolean("ipc.client.tcpnodelay", false);
     this.pingInterval = getPingInterval(conf);
     if (LOG.isDebugEnabled()) {
@@ -711,10 +819,70 @@ public class Client {
    * <code>address</code> which is servicing the <code>protocol</code> protocol, 
    * with the <code>ticket</code> credentials, returning the value.  
    * Throws exceptions if there are network problems or if the remote code 
-   * threw an exception. */
+   * threw an exception.
+   * If the server rejects the call with a {@link ServerBusyException}, the
+   * call is retried with an exponential back off. */
   public Writable call(Writable param, InetSocketAddress addr, 
                        Class<?> protocol, UserGroupInformation ticket)  
                        throws InterruptedException, IOException {
+    for (int retries = 0; ; retries++) {
+      try {
+        return callOnce(param, addr, protocol, ticket);
+      } catch (RemoteException re) {
+        if (retries >= maxBusyRetries ||
+            !ServerBusyException.class.getName().equals(re.getClassName())) {
+          throw re;
+        }
+        long sleepTime = busyBackoff << retries;
+        sleepTime += (long)(Math.random() * sleepTime);  // spread retries
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Server at " + addr + " is busy, retrying in " +
+                    sleepTime + " ms");
+        }
+        Thread.sleep(sleepTime);
+      }
+    }
+  }
+
+  /** Receives the outcome of an asynchronous call.  The methods are run by
+   * the thread that reads responses from the server, so they must not block
+   * or make further synchronous calls on the same client. */
+  public static interface Callback {
+    /** The call returned <code>value</code>. */
+    void onSuccess(Writable value);
+
+    /** The call failed, either locally or in the remote code. */
+    void onFailure(IOException e);
+  }
+
+  /** Make a call, passing <code>param</code>, to the IPC server running at
+   * <code>address</code> which is servicing the <code>protocol</code> protocol,
+   * with the <code>ticket</code> credentials, without waiting for the value.
+   * Any number of asynchronous calls may be outstanding on one connection;
+   * their responses are matched to them as they arrive.
+   * Errors, including failures to connect or to send the parameter, are
+   * reported through the returned future, whose {@link Future#get()} throws
+   * an {@link ExecutionException} wrapping the IOException, and through
+   * <code>callback</code> if it is not null.
+   * Unlike the synchronous calls, calls rejected by a busy server are not
+   * retried. */
+  public Future<Writable> asyncCall(Writable param, InetSocketAddress addr,
+                                    Class<?> protocol,
+                                    UserGroupInformation ticket,
+                                    Callback callback) {
+    AsyncCall call = new AsyncCall(param, addr, callback);
+    try {
+      Connection connection = getConnection(addr, protocol, ticket, call);
+      connection.sendParam(call);
+    } catch (IOException e) {
+      call.setException(e);    // a no-op if the connection already failed it
+    }
+    return call;
+  }
+
+  private Writable callOnce(Writable param, InetSocketAddress addr, 
+                            Class<?> protocol, UserGroupInformation ticket)  
+                            throws InterruptedException, IOException {
     Call call = new Call(param);
     Connection connection = getConnection(addr, protocol, ticket, call);
     connection.sendParam(call);                 // send the parameter
@@ -826,7 +994,9 @@ public class Client {
   }
 
   /** Get a connection from the pool, or create a new one and add it to the
-   * pool.  Connections to a given host/port are reused. */
+   * pool.  Connections to a given host/port are reused.  If
+   * ipc.client.connections.per.server is greater than one, successive calls
+   * are striped round robin over that many connections to the server. */
   private Connection getConnection(InetSocketAddress addr,
                                    Class<?> protocol,
                                    UserGroupInformation ticket,
@@ -841,7 +1011,12 @@ public class Client {
      * connectionsId object and with set() method. We need to manage the
      * refs for keys in HashMap properly. For now its ok.
      */
-    ConnectionId remoteId = new ConnectionId(addr, protocol, ticket);
+    int stripe = 0;
+    if (connectionsPerServer > 1) {
+      stripe = (nextStripe.getAndIncrement() & Integer.MAX_VALUE)
+               % connectionsPerServer;
+    }
+    ConnectionId remoteId = new ConnectionId(addr, protocol, ticket, stripe);
     do {
       synchronized (connections) {
         connection = connections.get(remoteId);
@@ -862,19 +1037,22 @@ public class Client {
 
   /**
    * This class holds the address and the user ticket. The client connections
-   * to servers are uniquely identified by <remoteAddress, protocol, ticket>
+   * to servers are uniquely identified by <remoteAddress, protocol, ticket,
+   * stripe>
    */
   private static class ConnectionId {
     InetSocketAddress address;
     UserGroupInformation ticket;
     Class<?> protocol;
+    int stripe;
     private static final int PRIME = 16777619;
     
     ConnectionId(InetSocketAddress address, Class<?> protocol, 
-                 UserGroupInformation ticket) {
+                 UserGroupInformation ticket, int stripe) {
       this.protocol = protocol;
       this.address = address;
       this.ticket = ticket;
+      this.stripe = stripe;
     }
     
     InetSocketAddress getAddress() {
@@ -895,7 +1073,7 @@ public class Client {
      if (obj instanceof ConnectionId) {
        ConnectionId id = (ConnectionId) obj;
        return address.equals(id.address) && protocol == id.protocol && 
-              ticket == id.ticket;
+              ticket == id.ticket && stripe == id.stripe;
        //Note : ticket is a ref comparision.
      }
      return false;
@@ -903,8 +1081,8 @@ public class Client {
     
     @Override
     public int hashCode() {
-      return (address.hashCode() + PRIME * System.identityHashCode(protocol)) ^ 
-             System.identityHashCode(ticket);
+      return ((address.hashCode() + PRIME * System.identityHashCode(protocol)) ^ 
+             System.identityHashCode(ticket)) + stripe;
     }
   }  
 }
@@ -0,0 +1,289 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A call queue that shares the handlers fairly among users.
+ * <p>
+ * The queue has a number of priority levels, each with its own sub-queue.
+ * A call is put in a level according to the share of the recent calls
+ * made by its user: a user that made more than half of the recent calls
+ * goes to the lowest level, more than a quarter to the next one, and so
+ * on. Call counts decay periodically, so a user regains its priority
+ * once it slows down.
+ * <p>
+ * Handlers take calls from the levels in a weighted round-robin fashion,
+ * level <i>i</i> getting twice as many turns as level <i>i+1</i>, so that
+ * light users keep a bounded latency while a heavy user is still served.
+ * <p>
+ * Since every level has its own capacity, a heavy user filling up its
+ * sub-queue does not block the calls of other users.
+ */
+public class FairCallQueue<E extends Schedulable> extends AbstractQueue<E>
+    implements BlockingQueue<E> {
+  private final int numLevels;
+  private final BlockingQueue<E>[] queues;
+  /** number of calls in all the levels; taking blocks on it */
+  private final Semaphore available = new Semaphore(0);
+
+  // weighted round-robin multiplexer
+  private final int[] weights;
+  private int currentLevel = 0;
+  private int takenFromCurrentLevel = 0;
+
+  // scheduler
+  private final double[] thresholds;
+  private final ConcurrentHashMap<String, AtomicLong> callCounts =
+    new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicLong totalCalls = new AtomicLong();
+  private final long decayPeriod;
+  private final double decayFactor;
+  private volatile long lastDecay = System.currentTimeMillis();
+
+  /**
+   * Create a queue.
+   * @param capacity total capacity, divided equally among the levels
+   * @param conf configuration
+   */
+  @SuppressWarnings("unchecked")
+  public FairCallQueue(int capacity, Configuration conf) {
+    numLevels = conf.getInt("ipc.server.callqueue.priority.levels", 4);
+    if (numLevels < 1) {
+      throw new IllegalArgumentException("Number of priority levels must "
+                                         + "be positive: " + numLevels);
+    }
+    decayPeriod = conf.getLong("ipc.server.callqueue.decay.period.ms", 5000);
+    decayFactor = conf.getFloat("ipc.server.callqueue.decay.factor", 0.5f);
+    int levelCapacity = Math.max(1, capacity / numLevels);
+    queues = new BlockingQueue[numLevels];
+    weights = new int[numLevels];
+    thresholds = new double[numLevels];
+    for (int i = 0; i < numLevels; i++) {
+      queues[i] = new LinkedBlockingQueue<E>(levelCapacity);
+      weights[i] = 1 << (numLevels - 1 - i);
+      // level i is for users making at least 1/2^(numLevels-i) of the calls
+      thresholds[i] = 1.0 / (1L << (numLevels - i));
+    }
+  }
+
+  /** @return the number of priority levels */
+  public int getNumLevels() {
+    return numLevels;
+  }
+
+  /** @return the number of calls queued in the given level */
+  public int size(int level) {
+    return queues[level].size();
+  }
+
+  /**
+   * Compute the priority level of a call made by the given user,
+   * and count the call.
+   */
+  int computePriorityLevel(String user) {
+    decayIfNeeded();
+    if (user == null) {
+      user = "";
+    }
+    AtomicLong count = callCounts.get(user);
+    if (count == null) {
+      count = new AtomicLong();
+      AtomicLong old = callCounts.putIfAbsent(user, count);
+      if (old != null) {
+        count = old;
+      }
+    }
+    long userCalls = count.incrementAndGet();
+    long total = totalCalls.incrementAndGet();
+    double share = (double)userCalls / total;
+    for (int level = numLevels - 1; level > 0; level--) {
+      if (share >= thresholds[level]) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  private void decayIfNeeded() {
+    long now = System.currentTimeMillis();
+    if (now - lastDecay < decayPeriod) {
+      return;
+    }
+    synchronized (callCounts) {
+      if (now - lastDecay < decayPeriod) {
+        return;
+      }
+      long total = 0;
+      for (Iterator<AtomicLong> it = callCounts.values().iterator();
+           it.hasNext();) {
+        AtomicLong count = it.next();
+        long decayed = (long)(count.get() * decayFactor);
+        count.set(decayed);
+        if (decayed == 0) {
+          it.remove();
+        }
+        total += decayed;
+      }
+      totalCalls.set(total);
+      lastDecay = now;
+    }
+  }
+
+  private int schedule(E e) {
+    int level = computePriorityLevel(e.getUserName());
+    e.setPriorityLevel(level);
+    return level;
+  }
+
+  /**
+   * Remove the next call according to the weighted round-robin order,
+   * or return null if all the levels are empty.
+   */
+  private synchronized E removeNext() {
+    for (int i = 0; i < numLevels; i++) {
+      E e = queues[currentLevel].poll();
+      if (e != null) {
+        if (++takenFromCurrentLevel >= weights[currentLevel]) {
+          advanceLevel();
+        }
+        return e;
+      }
+      // an empty level gives up the rest of its turns
+      advanceLevel();
+    }
+    return null;
+  }
+
+  private void advanceLevel() {
+    currentLevel = (currentLevel + 1) % numLevels;
+    takenFromCurrentLevel = 0;
+  }
+
+  public void put(E e) throws InterruptedException {
+    queues[schedule(e)].put(e);
+    available.release();
+  }
+
+  public boolean offer(E e) {
+    if (queues[schedule(e)].offer(e)) {
+      available.release();
+      return true;
+    }
+    return false;
+  }
+
+  public boolean offer(E e, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    if (queues[schedule(e)].offer(e, timeout, unit)) {
+      available.release();
+      return true;
+    }
+    return false;
+  }
+
+  public E take() throws InterruptedException {
+    available.acquire();
+    return removeNext();
+  }
+
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!available.tryAcquire(timeout, unit)) {
+      return null;
+    }
+    return removeNext();
+  }
+
+  public E poll() {
+    if (!available.tryAcquire()) {
+      return null;
+    }
+    return removeNext();
+  }
+
+  public E peek() {
+    for (int i = 0; i < numLevels; i++) {
+      E e = queues[i].peek();
+      if (e != null) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  public int size() {
+    return available.availablePermits();
+  }
+
+  public int remainingCapacity() {
+    int remaining = 0;
+    for (BlockingQueue<E> q : queues) {
+      remaining += q.remainingCapacity();
+    }
+    return remaining;
+  }
+
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    int n = 0;
+    E e;
+    while (n < maxElements && (e = poll()) != null) {
+      c.add(e);
+      n++;
+    }
+    return n;
+  }
+
+  /** The iterator is weakly consistent and does not support removal. */
+  public Iterator<E> iterator() {
+    List<E> all = new ArrayList<E>();
+    for (BlockingQueue<E> q : queues) {
+      all.addAll(q);
+    }
+    final Iterator<E> it = all.iterator();
+    return new Iterator<E>() {
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      public E next() {
+        return it.next();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("remove");
+      }
+    };
+  }
+}
@@ -30,6 +30,7 @@ import java.net.SocketTimeoutException;
 import java.io.*;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.SocketFactory;
 import javax.security.auth.Subject;
@@ -70,60 +71,220 @@ public class RPC {
   private RPC() {}                                  // no public ctor
 
 
-  /** A method invocation, including the method name and its parameters.*/
+  /** A method invocation, including the method name and its parameters.
+   * Parameters are encoded against the types the method declares, so class
+   * names are only sent for values that are not exactly of their declared
+   * type.  The server decodes the parameters when it dispatches the call,
+   * once it knows the method. */
   private static class Invocation implements Writable, Configurable {
-    private String methodName;
+    // tags of parameters that are not of a primitive type
+    private static final byte NULL = 0;         // null
+    private static final byte DECLARED = 1;     // exactly of the declared type
+    private static final byte OTHER = 2;        // anything else, with classes
+
+    private String methodKey;
     private Class[] parameterClasses;
     private Object[] parameters;
+    private DataInputBuffer encodedParameters;  // until they are decoded
     private Configuration conf;
 
     public Invocation() {}
 
-    public Invocation(Method method, Object[] parameters) {
-      this.methodName = method.getName();
+    public Invocation(Method method, Class<?> protocol, Object[] parameters) {
+      this.methodKey = RPC.getCachedMethodKey(method, protocol);
       this.parameterClasses = method.getParameterTypes();
       this.parameters = parameters;
     }
 
-    /** The name of the method invoked. */
-    public String getMethodName() { return methodName; }
-
-    /** The parameter classes. */
-    public Class[] getParameterClasses() { return parameterClasses; }
-
-    /** The parameter instances. */
-    public Object[] getParameters() { return parameters; }
+    /** The key of the method invoked.
+     * @see RPC#getMethodKey(Method, Class) */
+    public String getMethodKey() { return methodKey; }
+
+    /** The parameter instances, decoded on first use against the parameter
+     * classes of the method that is called. */
+    public Object[] getParameters(Class<?>[] classes) throws IOException {
+      if (parameters == null) {
+        int count = WritableUtils.readVInt(encodedParameters);
+        if (count != classes.length) {
+          throw new IOException(methodKey + " called with " + count +
+                                " parameters instead of " + classes.length);
+        }
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+          values[i] = readParameter(encodedParameters, classes[i], conf);
+        }
+        parameterClasses = classes;
+        parameters = values;
+        encodedParameters = null;
+      }
+      return parameters;
+    }
 
     public void readFields(DataInput in) throws IOException {
-      methodName = UTF8.readString(in);
-      parameters = new Object[in.readInt()];
-      parameterClasses = new Class[parameters.length];
-      ObjectWritable objectWritable = new ObjectWritable();
-      for (int i = 0; i < parameters.length; i++) {
-        parameters[i] = ObjectWritable.readObject(in, objectWritable, this.conf);
-        parameterClasses[i] = objectWritable.getDeclaredClass();
-      }
+      methodKey = Text.readString(in);
+      int length = WritableUtils.readVInt(in);
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      encodedParameters = new DataInputBuffer();
+      encodedParameters.reset(bytes, length);
+      parameterClasses = null;
+      parameters = null;
     }
 
     public void write(DataOutput out) throws IOException {
-      UTF8.writeString(out, methodName);
-      out.writeInt(parameterClasses.length);
+      Text.writeString(out, methodKey);
+      DataOutputBuffer buffer = new DataOutputBuffer();
+      WritableUtils.writeVInt(buffer, parameterClasses.length);
       for (int i = 0; i < parameterClasses.length; i++) {
-        ObjectWritable.writeObject(out, parameters[i], parameterClasses[i],
-                                   conf);
+        writeParameter(buffer, parameters[i], parameterClasses[i], conf);
+      }
+      WritableUtils.writeVInt(out, buffer.getLength());
+      out.write(buffer.getData(), 0, buffer.getLength());
+    }
+
+    private static void writeParameter(DataOutput out, Object value,
+                                       Class<?> type, Configuration conf)
+      throws IOException {
+      if (type.isPrimitive()) {
+        if (type == Boolean.TYPE) {
+          out.writeBoolean(((Boolean)value).booleanValue());
+        } else if (type == Character.TYPE) {
+          out.writeChar(((Character)value).charValue());
+        } else if (type == Byte.TYPE) {
+          out.writeByte(((Byte)value).byteValue());
+        } else if (type == Short.TYPE) {
+          out.writeShort(((Short)value).shortValue());
+        } else if (type == Integer.TYPE) {
+          out.writeInt(((Integer)value).intValue());
+        } else if (type == Long.TYPE) {
+          out.writeLong(((Long)value).longValue());
+        } else if (type == Float.TYPE) {
+          out.writeFloat(((Float)value).floatValue());
+        } else if (type == Double.TYPE) {
+          out.writeDouble(((Double)value).doubleValue());
+        } else {
+          throw new IOException("Cannot send a parameter of type " + type);
+        }
+      } else if (value == null) {
+        out.writeByte(NULL);
+      } else if (type == String.class) {
+        out.writeByte(DECLARED);
+        Text.writeString(out, (String)value);
+      } else if (type.isEnum()) {
+        out.writeByte(DECLARED);
+        Text.writeString(out, ((Enum<?>)value).name());
+      } else if (value.getClass() == type && type.isArray()) {
+        out.writeByte(DECLARED);
+        writeArray(out, value, type.getComponentType(), conf);
+      } else if (value.getClass() == type && value instanceof Writable) {
+        out.writeByte(DECLARED);
+        ((Writable)value).write(out);
+      } else {
+        out.writeByte(OTHER);
+        ObjectWritable.writeObject(out, value, type, conf);
+      }
+    }
+
+    private static void writeArray(DataOutput out, Object array,
+                                   Class<?> component, Configuration conf)
+      throws IOException {
+      int length = Array.getLength(array);
+      WritableUtils.writeVInt(out, length);
+      if (component == Long.TYPE) {               // avoid boxing block lists
+        long[] longs = (long[])array;
+        for (int i = 0; i < length; i++) {
+          out.writeLong(longs[i]);
+        }
+      } else if (component == Byte.TYPE) {
+        out.write((byte[])array, 0, length);
+      } else {
+        for (int i = 0; i < length; i++) {
+          writeParameter(out, Array.get(array, i), component, conf);
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object readParameter(DataInput in, Class<?> type,
+                                        Configuration conf)
+      throws IOException {
+      if (type.isPrimitive()) {
+        if (type == Boolean.TYPE) {
+          return Boolean.valueOf(in.readBoolean());
+        } else if (type == Character.TYPE) {
+          return Character.valueOf(in.readChar());
+        } else if (type == Byte.TYPE) {
+          return Byte.valueOf(in.readByte());
+        } else if (type == Short.TYPE) {
+          return Short.valueOf(in.readShort());
+        } else if (type == Integer.TYPE) {
+          return Integer.valueOf(in.readInt());
+        } else if (type == Long.TYPE) {
+          return Long.valueOf(in.readLong());
+        } else if (type == Float.TYPE) {
+          return Float.valueOf(in.readFloat());
+        } else if (type == Double.TYPE) {
+          return Double.valueOf(in.readDouble());
+        }
+        throw new IOException("Cannot receive a parameter of type " + type);
       }
+      byte tag = in.readByte();
+      if (tag == NULL) {
+        return null;
+      } else if (tag == OTHER) {
+        return ObjectWritable.readObject(in, conf);
+      } else if (tag != DECLARED) {
+        throw new IOException("Unknown tag " + tag + " of a parameter of type "
+                              + type.getName());
+      } else if (type == String.class) {
+        return Text.readString(in);
+      } else if (type.isEnum()) {
+        return Enum.valueOf((Class<? extends Enum>)type, Text.readString(in));
+      } else if (type.isArray()) {
+        return readArray(in, type.getComponentType(), conf);
+      } else if (Writable.class.isAssignableFrom(type)) {
+        Writable writable = WritableFactories.newInstance(
+            (Class<? extends Writable>)type, conf);
+        writable.readFields(in);
+        return writable;
+      }
+      throw new IOException("Cannot receive a parameter of type " +
+                            type.getName());
+    }
+
+    private static Object readArray(DataInput in, Class<?> component,
+                                    Configuration conf) throws IOException {
+      int length = WritableUtils.readVInt(in);
+      if (component == Long.TYPE) {
+        long[] longs = new long[length];
+        for (int i = 0; i < length; i++) {
+          longs[i] = in.readLong();
+        }
+        return longs;
+      } else if (component == Byte.TYPE) {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+      }
+      Object array = Array.newInstance(component, length);
+      for (int i = 0; i < length; i++) {
+        Array.set(array, i, readParameter(in, component, conf));
+      }
+      return array;
     }
 
     public String toString() {
       StringBuffer buffer = new StringBuffer();
-      buffer.append(methodName);
-      buffer.append("(");
-      for (int i = 0; i < parameters.length; i++) {
-        if (i != 0)
-          buffer.append(", ");
-        buffer.append(parameters[i]);
+      buffer.append(methodKey);
+      if (parameters != null) {
+        buffer.append("(");
+        for (int i = 0; i < parameters.length; i++) {
+          if (i != 0)
+            buffer.append(", ");
+          buffer.append(parameters[i]);
+        }
+        buffer.append(")");
       }
-      buffer.append(")");
       return buffer.toString();
     }
 
@@ -137,6 +298,51 @@ public class RPC {
 
   }
 
+  private static final Map<Class<?>, Map<Method, String>> METHOD_KEYS =
+    new ConcurrentHashMap<Class<?>, Map<Method, String>>();
+
+  /** The key a client calls a method of a protocol by, cached per protocol
+   * and method.  A method inherited by the protocol may be overloaded by
+   * it, so the key depends on the protocol, not on the declaring class. */
+  private static String getCachedMethodKey(Method method, Class<?> protocol) {
+    Map<Method, String> keys = METHOD_KEYS.get(protocol);
+    if (keys == null) {
+      keys = new ConcurrentHashMap<Method, String>();
+      METHOD_KEYS.put(protocol, keys);
+    }
+    String key = keys.get(method);
+    if (key == null) {
+      key = getMethodKey(method, protocol);
+      keys.put(method, key);
+    }
+    return key;
+  }
+
+  /**
+   * The key a method of a protocol is called by: the name of the method,
+   * followed by its parameter classes if the protocol overloads the name.
+   */
+  static String getMethodKey(Method method, Class<?> protocol) {
+    int overloads = 0;
+    for (Method m : protocol.getMethods()) {
+      if (m.getName().equals(method.getName())) {
+        overloads++;
+      }
+    }
+    if (overloads <= 1) {
+      return method.getName();
+    }
+    StringBuffer key = new StringBuffer(method.getName()).append('(');
+    Class<?>[] classes = method.getParameterTypes();
+    for (int i = 0; i < classes.length; i++) {
+      if (i != 0) {
+        key.append(',');
+      }
+      key.append(classes[i].getName());
+    }
+    return key.append(')').toString();
+  }
+
   /* Cache a client using its socket factory as the hash key */
   static private class ClientCache {
     private Map<SocketFactory, Client> clients =
@@ -197,13 +403,16 @@ public class RPC {
   private static ClientCache CLIENTS=new ClientCache();
   
   private static class Invoker implements InvocationHandler {
+    private Class<?> protocol;
     private InetSocketAddress address;
     private UserGroupInformation ticket;
     private Client client;
     private boolean isClosed = false;
 
-    public Invoker(InetSocketAddress address, UserGroupInformation ticket, 
-                   Configuration conf, SocketFactory factory) {
+    public Invoker(Class<?> protocol, InetSocketAddress address,
+                   UserGroupInformation ticket, Configuration conf,
+                   SocketFactory factory) {
+      this.protocol = protocol;
       this.address = address;
       this.ticket = ticket;
       this.client = CLIENTS.getClient(conf, factory);
@@ -218,8 +427,8 @@ public class RPC {
       }
 
       ObjectWritable value = (ObjectWritable)
-        client.call(new Invocation(method, args), address, 
-                    method.getDeclaringClass(), ticket);
+        client.call(new Invocation(method, protocol, args), address, 
+                    protocol, ticket);
       if (logDebug) {
         long callTime = System.currentTimeMillis() - startTime;
         LOG.debug("Call: " + method.getName() + " " + callTime);
@@ -355,7 +564,7 @@ public class RPC {
     VersionedProtocol proxy =
         (VersionedProtocol) Proxy.newProxyInstance(
             protocol.getClassLoader(), new Class[] { protocol },
-            new Invoker(addr, ticket, conf, factory));
+            new Invoker(protocol, addr, ticket, conf, factory));
     long serverVersion = proxy.getProtocolVersion(protocol.getName(), 
                                                   clientVersion);
     if (serverVersion == clientVersion) {
@@ -412,7 +621,8 @@ public class RPC {
 
     Invocation[] invocations = new Invocation[params.length];
     for (int i = 0; i < params.length; i++)
-      invocations[i] = new Invocation(method, params[i]);
+      invocations[i] =
+        new Invocation(method, method.getDeclaringClass(), params[i]);
     Client client = CLIENTS.getClient(conf);
     try {
     Writable[] wrappedValues = 
@@ -455,6 +665,9 @@ public class RPC {
     private Object instance;
     private boolean verbose;
     private boolean authorize = false;
+    // methods of each protocol, by method key
+    private Map<Class<?>, Map<String, Method>> protocolMethods =
+      new ConcurrentHashMap<Class<?>, Map<String, Method>>();
 
     /** Construct an RPC server.
      * @param instance the instance whose methods will be called
@@ -497,19 +710,17 @@ public class RPC {
     throws IOException {
       try {
         Invocation call = (Invocation)param;
+        Method method = getMethod(protocol, call.getMethodKey());
+        Object[] parameters = call.getParameters(method.getParameterTypes());
         if (verbose) log("Call: " + call);
 
-        Method method =
-          protocol.getMethod(call.getMethodName(),
-                                   call.getParameterClasses());
-        method.setAccessible(true);
-
         long startTime = System.currentTimeMillis();
-        Object value = method.invoke(instance, call.getParameters());
+        Object value = method.invoke(instance, parameters);
         int processingTime = (int) (System.currentTimeMillis() - startTime);
         int qTime = (int) (startTime-receivedTime);
+        String methodName = method.getName();
         if (LOG.isDebugEnabled()) {
-          LOG.debug("Served: " + call.getMethodName() +
+          LOG.debug("Served: " + methodName +
                     " queueTime= " + qTime +
                     " procesingTime= " + processingTime);
         }
@@ -517,16 +728,14 @@ public class RPC {
         rpcMetrics.rpcProcessingTime.inc(processingTime);
 
         MetricsTimeVaryingRate m =
-         (MetricsTimeVaryingRate) rpcMetrics.registry.get(call.getMethodName());
+         (MetricsTimeVaryingRate) rpcMetrics.registry.get(methodName);
       	if (m == null) {
       	  try {
-      	    m = new MetricsTimeVaryingRate(call.getMethodName(),
-      	                                        rpcMetrics.registry);
+      	    m = new MetricsTimeVaryingRate(methodName, rpcMetrics.registry);
       	  } catch (IllegalArgumentException iae) {
       	    // the metrics has been registered; re-fetch the handle
-      	    LOG.info("Error register " + call.getMethodName(), iae);
-      	    m = (MetricsTimeVaryingRate) rpcMetrics.registry.get(
-      	        call.getMethodName());
+      	    LOG.info("Error register " + methodName, iae);
+      	    m = (MetricsTimeVaryingRate) rpcMetrics.registry.get(methodName);
       	  }
       	}
         m.inc(processingTime);
@@ -551,6 +760,27 @@ public class RPC {
       }
     }
 
+    /** Find the method of a protocol a call is dispatched to.  The methods
+     * of a protocol are looked up, and made accessible, only once. */
+    private Method getMethod(Class<?> protocol, String methodKey)
+      throws IOException {
+      Map<String, Method> methods = protocolMethods.get(protocol);
+      if (methods == null) {
+        methods = new HashMap<String, Method>();
+        for (Method method : protocol.getMethods()) {
+          method.setAccessible(true);
+          methods.put(getMethodKey(method, protocol), method);
+        }
+        protocolMethods.put(protocol, methods);
+      }
+      Method method = methods.get(methodKey);
+      if (method == null) {
+        throw new IOException("Unknown method " + methodKey + " called on " +
+                              protocol.getName() + " protocol.");
+      }
+      return method;
+    }
+
     @Override
     public void authorize(Subject user, ConnectionHeader connection) 
     throws AuthorizationException {
@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+/**
+ * A call that can be scheduled by a call queue according to the user
+ * that made it.
+ */
+public interface Schedulable {
+  /**
+   * @return the name of the user that made the call, or null if it is
+   *         not known
+   */
+  public String getUserName();
+
+  /**
+   * @return the priority level assigned to the call by the call queue;
+   *         0 is the highest priority
+   */
+  public int getPriorityLevel();
+
+  /** Set the priority level of the call. */
+  public void setPriorityLevel(int level);
+}
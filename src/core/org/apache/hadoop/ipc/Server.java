@@ -23,6 +23,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Constructor;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
@@ -61,6 +62,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.security.SecurityUtil;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.util.ReflectionUtils;
@@ -83,7 +85,8 @@ public abstract class Server {
   
   // 1 : Introduce ping and server does not throw away RPCs
   // 3 : Introduce the protocol into the RPC connection header
-  public static final byte CURRENT_VERSION = 3;
+  // 4 : RPC parameters are encoded against the declared parameter types
+  public static final byte CURRENT_VERSION = 4;
   
   /**
    * How many calls/handler are allowed in the queue.
@@ -162,6 +165,8 @@ public abstract class Server {
 
   volatile private boolean running = true;         // true while server runs
   private BlockingQueue<Call> callQueue; // queued calls
+  private final boolean backoffEnabled; // reject calls when queue is full
+  private final int numPriorityLevels;  // levels of a fair call queue
 
   private List<Connection> connectionList = 
     Collections.synchronizedList(new LinkedList<Connection>());
@@ -203,14 +208,44 @@ public abstract class Server {
     }
   }
 
+  /**
+   * Create the call queue. The class is set by ipc.server.callqueue.impl
+   * and must implement BlockingQueue. It is constructed with the
+   * capacity and the configuration if it has such a constructor, or
+   * with the capacity only.
+   */
+  @SuppressWarnings("unchecked")
+  static <E> BlockingQueue<E> createCallQueue(int capacity,
+                                             Configuration conf) {
+    Class<?> queueClass = conf.getClass("ipc.server.callqueue.impl",
+                                        LinkedBlockingQueue.class,
+                                        BlockingQueue.class);
+    try {
+      try {
+        Constructor<?> ctor =
+          queueClass.getDeclaredConstructor(int.class, Configuration.class);
+        ctor.setAccessible(true);
+        return (BlockingQueue<E>)ctor.newInstance(capacity, conf);
+      } catch (NoSuchMethodException e) {
+        Constructor<?> ctor = queueClass.getDeclaredConstructor(int.class);
+        ctor.setAccessible(true);
+        return (BlockingQueue<E>)ctor.newInstance(capacity);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Cannot create call queue " +
+                                 queueClass.getName(), e);
+    }
+  }
+
   /** A call queued for handling. */
-  private static class Call {
+  private static class Call implements Schedulable {
     private int id;                               // the client's call id
     private Writable param;                       // the parameter passed
     private Connection connection;                // connection to client
     private long timestamp;     // the time received when response is null
                                    // the time served when response is not null
     private ByteBuffer response;                      // the response for this call
+    private int priorityLevel;                    // set by the call queue
 
     public Call(int id, Writable param, Connection connection) { 
       this.id = id;
@@ -228,6 +263,19 @@ public abstract class Server {
     public void setResponse(ByteBuffer response) {
       this.response = response;
     }
+
+    public String getUserName() {
+      UserGroupInformation ugi = connection.header.getUgi();
+      return ugi == null ? null : ugi.getUserName();
+    }
+
+    public int getPriorityLevel() {
+      return priorityLevel;
+    }
+
+    public void setPriorityLevel(int level) {
+      this.priorityLevel = level;
+    }
   }
 
   /** Listens on the socket. Creates jobs for the handler threads*/
@@ -235,6 +283,8 @@ public abstract class Server {
     
     private ServerSocketChannel acceptChannel = null; //the accept channel
     private Selector selector = null; //the selector that we use for the server
+    private Reader[] readers = null;
+    private int currentReader = 0;
     private InetSocketAddress address; //the address we bind at
     private Random rand = new Random();
     private long lastCleanupRunTime = 0; //the last time when a cleanup connec-
@@ -242,6 +292,7 @@ public abstract class Server {
     private long cleanupInterval = 10000; //the minimum interval between 
                                           //two cleanup runs
     private int backlogLength = conf.getInt("ipc.server.listen.queue.size", 128);
+    private int readThreads = conf.getInt("ipc.server.read.threadpool.size", 1);
     
     public Listener() throws IOException {
       address = new InetSocketAddress(bindAddress, port);
@@ -254,12 +305,102 @@ public abstract class Server {
       port = acceptChannel.socket().getLocalPort(); //Could be an ephemeral port
       // create a selector;
       selector= Selector.open();
+      readers = new Reader[readThreads];
+      for (int i = 0; i < readThreads; i++) {
+        readers[i] = new Reader(Selector.open(), i);
+      }
 
       // Register accepts on the server socket with the selector.
       acceptChannel.register(selector, SelectionKey.OP_ACCEPT);
       this.setName("IPC Server listener on " + port);
       this.setDaemon(true);
     }
+
+    /**
+     * Reads calls from the connections assigned to it. Each reader has
+     * its own selector, so that reading and deserializing requests is
+     * spread over several threads while the listener only accepts.
+     */
+    private class Reader extends Thread {
+      private volatile boolean adding = false;
+      private Selector readSelector = null;
+
+      Reader(Selector readSelector, int instanceNumber) {
+        this.readSelector = readSelector;
+        this.setName("IPC Server reader " + instanceNumber + " on " + port);
+        this.setDaemon(true);
+      }
+
+      @Override
+      public void run() {
+        LOG.info(getName() + ": starting");
+        SERVER.set(Server.this);
+        synchronized (this) {
+          while (running) {
+            SelectionKey key = null;
+            try {
+              readSelector.select();
+              // let the listener finish registering a new connection
+              while (adding) {
+                this.wait(1000);
+              }
+
+              Iterator<SelectionKey> iter =
+                readSelector.selectedKeys().iterator();
+              while (iter.hasNext()) {
+                key = iter.next();
+                iter.remove();
+                if (key.isValid() && key.isReadable()) {
+                  doRead(key);
+                }
+                key = null;
+              }
+            } catch (OutOfMemoryError e) {
+              // we can run out of memory if we have too many threads
+              // log the event and sleep for a minute and give 
+              // some thread(s) a chance to finish
+              LOG.warn("Out of Memory in server select", e);
+              closeCurrentConnection(key, e);
+              try { this.wait(60000); } catch (Exception ie) {}
+            } catch (InterruptedException e) {
+              if (running) {                      // unexpected -- log it
+                LOG.info(getName() + " caught: " +
+                         StringUtils.stringifyException(e));
+              }
+            } catch (Exception e) {
+              closeCurrentConnection(key, e);
+            }
+          }
+          try {
+            readSelector.close();
+          } catch (IOException e) { }
+        }
+        LOG.info("Stopping " + this.getName());
+      }
+
+      /**
+       * Wake the reader up before registering a channel with its
+       * selector; registration blocks while the reader is selecting.
+       */
+      void startAdd() {
+        adding = true;
+        readSelector.wakeup();
+      }
+
+      synchronized SelectionKey registerChannel(SocketChannel channel)
+          throws IOException {
+        return channel.register(readSelector, SelectionKey.OP_READ);
+      }
+
+      synchronized void finishAdd() {
+        adding = false;
+        this.notify();
+      }
+
+      void shutdown() {
+        readSelector.wakeup();
+      }
+    }
     /** cleanup connections from connectionList. Choose a random range
      * to scan and also have a limit on the number of the connections
      * that will be cleanedup per run. The criteria for cleanup is the time
@@ -312,6 +453,9 @@ public abstract class Server {
     public void run() {
       LOG.info(getName() + ": starting");
       SERVER.set(Server.this);
+      for (Reader reader : readers) {
+        reader.start();
+      }
       while (running) {
         SelectionKey key = null;
         try {
@@ -324,8 +468,6 @@ public abstract class Server {
               if (key.isValid()) {
                 if (key.isAcceptable())
                   doAccept(key);
-                else if (key.isReadable())
-                  doRead(key);
               }
             } catch (IOException e) {
             }
@@ -339,11 +481,6 @@ public abstract class Server {
           closeCurrentConnection(key, e);
           cleanupConnections(true);
           try { Thread.sleep(60000); } catch (Exception ie) {}
-        } catch (InterruptedException e) {
-          if (running) {                          // unexpected -- log it
-            LOG.info(getName() + " caught: " +
-                     StringUtils.stringifyException(e));
-          }
         } catch (Exception e) {
           closeCurrentConnection(key, e);
         }
@@ -356,6 +493,9 @@ public abstract class Server {
           acceptChannel.close();
           selector.close();
         } catch (IOException e) { }
+        for (Reader reader : readers) {
+          reader.shutdown();
+        }
 
         selector= null;
         acceptChannel= null;
@@ -393,12 +533,18 @@ public abstract class Server {
 
         channel.configureBlocking(false);
         channel.socket().setTcpNoDelay(tcpNoDelay);
-        SelectionKey readKey = channel.register(selector, SelectionKey.OP_READ);
-        c = new Connection(readKey, channel, System.currentTimeMillis());
-        readKey.attach(c);
-        synchronized (connectionList) {
-          connectionList.add(numConnections, c);
-          numConnections++;
+        Reader reader = getReader();
+        try {
+          reader.startAdd();
+          SelectionKey readKey = reader.registerChannel(channel);
+          c = new Connection(readKey, channel, System.currentTimeMillis());
+          readKey.attach(c);
+          synchronized (connectionList) {
+            connectionList.add(numConnections, c);
+            numConnections++;
+          }
+        } finally {
+          reader.finishAdd();
         }
         if (LOG.isDebugEnabled())
           LOG.debug("Server connection from " + c.toString() +
@@ -407,6 +553,12 @@ public abstract class Server {
       }
     }
 
+    /** Assign connections to the readers in a round-robin fashion. */
+    Reader getReader() {
+      currentReader = (currentReader + 1) % readers.length;
+      return readers[currentReader];
+    }
+
     void doRead(SelectionKey key) throws InterruptedException {
       int count = 0;
       Connection c = (Connection)key.attachment();
@@ -442,6 +594,10 @@ public abstract class Server {
         selector.wakeup();
         Thread.yield();
       }
+      for (Reader reader : readers) {
+        reader.interrupt();
+        reader.shutdown();
+      }
       if (acceptChannel != null) {
         try {
           acceptChannel.socket().close();
@@ -906,7 +1062,17 @@ public abstract class Server {
       param.readFields(dis);        
         
       Call call = new Call(id, param, this);
-      callQueue.put(call);              // queue the call; maybe blocked here
+      if (!backoffEnabled) {
+        callQueue.put(call);              // queue the call; maybe blocked here
+      } else if (!callQueue.offer(call)) {
+        // tell the client to back off instead of blocking the reader
+        rpcMetrics.rpcBackoffs.inc();
+        setupResponse(new ByteArrayOutputStream(), call, Status.ERROR, null,
+                      ServerBusyException.class.getName(),
+                      "Call queue is full for user " + call.getUserName() +
+                      ", retry later");
+        responder.doRespond(call);
+      }
     }
 
     private synchronized void close() throws IOException {
@@ -937,6 +1103,10 @@ public abstract class Server {
       while (running) {
         try {
           final Call call = callQueue.take(); // pop the queue; maybe blocked here
+          if (numPriorityLevels > 1) {
+            rpcMetrics.getQueueTimeForLevel(call.getPriorityLevel()).inc(
+                (int) (System.currentTimeMillis() - call.timestamp));
+          }
 
           if (LOG.isDebugEnabled())
             LOG.debug(getName() + ": has #" + call.id + " from " +
@@ -1017,7 +1187,10 @@ public abstract class Server {
     this.handlerCount = handlerCount;
     this.socketSendBufferSize = 0;
     this.maxQueueSize = handlerCount * MAX_QUEUE_SIZE_PER_HANDLER;
-    this.callQueue  = new LinkedBlockingQueue<Call>(maxQueueSize); 
+    this.callQueue  = createCallQueue(maxQueueSize, conf);
+    this.numPriorityLevels = (callQueue instanceof FairCallQueue) ?
+        ((FairCallQueue<?>)callQueue).getNumLevels() : 1;
+    this.backoffEnabled = conf.getBoolean("ipc.server.backoff.enable", false);
     this.maxIdleTime = 2*conf.getInt("ipc.client.connection.maxidletime", 1000);
     this.maxConnectionsToNuke = conf.getInt("ipc.client.kill.max", 10);
     this.thresholdIdleConnections = conf.getInt("ipc.client.idlethreshold", 4000);
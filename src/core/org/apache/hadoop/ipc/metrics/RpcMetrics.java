@@ -27,6 +27,7 @@ import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsIntValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingInt;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 
 /**
@@ -79,6 +80,22 @@ public class RpcMetrics implements Updater {
           new MetricsIntValue("NumOpenConnections", registry);
   public MetricsIntValue callQueueLen = 
           new MetricsIntValue("callQueueLen", registry);
+  public MetricsTimeVaryingInt rpcBackoffs =
+          new MetricsTimeVaryingInt("RpcBackoffs", registry);
+
+  /**
+   * Get the queue time metric of calls with the given priority level
+   * in a {@link org.apache.hadoop.ipc.FairCallQueue}.
+   * The metric is created on first use.
+   */
+  public synchronized MetricsTimeVaryingRate getQueueTimeForLevel(int level) {
+    String name = "RpcQueueTimeLevel" + level;
+    MetricsTimeVaryingRate m = (MetricsTimeVaryingRate) registry.get(name);
+    if (m == null) {
+      m = new MetricsTimeVaryingRate(name, registry);
+    }
+    return m;
+  }
   
   /**
    * Push the metrics to the monitoring subsystem on doUpdate() call.
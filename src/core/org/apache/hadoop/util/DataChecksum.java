@@ -22,6 +22,9 @@ import java.util.zip.Checksum;
 import java.util.zip.CRC32;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.fs.ChecksumException;
 
 /**
  * This class provides inteface and utilities for processing checksums for
@@ -36,9 +39,11 @@ public class DataChecksum implements Checksum {
   // checksum types
   public static final int CHECKSUM_NULL    = 0;
   public static final int CHECKSUM_CRC32   = 1;
+  public static final int CHECKSUM_CRC32C  = 2;
   
   private static final int CHECKSUM_NULL_SIZE  = 0;
   private static final int CHECKSUM_CRC32_SIZE = 4;
+  private static final int CHECKSUM_CRC32C_SIZE = 4;
   
   
   public static DataChecksum newDataChecksum( int type, int bytesPerChecksum ) {
@@ -53,11 +58,30 @@ public class DataChecksum implements Checksum {
     case CHECKSUM_CRC32 :
       return new DataChecksum( CHECKSUM_CRC32, new CRC32(), 
                                CHECKSUM_CRC32_SIZE, bytesPerChecksum );
+    case CHECKSUM_CRC32C :
+      return new DataChecksum( CHECKSUM_CRC32C, new PureJavaCrc32C(), 
+                               CHECKSUM_CRC32C_SIZE, bytesPerChecksum );
     default:
       return null;  
     }
   }
   
+  /**
+   * Returns the checksum type with the given name, "NULL", "CRC32" or
+   * "CRC32C", ignoring case.
+   * @throws IllegalArgumentException if there is no such checksum type
+   */
+  public static int getChecksumType( String name ) {
+    if ( "NULL".equalsIgnoreCase( name ) ) {
+      return CHECKSUM_NULL;
+    } else if ( "CRC32".equalsIgnoreCase( name ) ) {
+      return CHECKSUM_CRC32;
+    } else if ( "CRC32C".equalsIgnoreCase( name ) ) {
+      return CHECKSUM_CRC32C;
+    }
+    throw new IllegalArgumentException( "Unknown checksum type " + name );
+  }
+  
   /**
    * Creates a DataChecksum from HEADER_LEN bytes from arr[offset].
    * @return DataChecksum of the type in the array or null in case of an error.
@@ -122,7 +146,7 @@ public class DataChecksum implements Checksum {
        return 0;
      }
 
-     if ( type == CHECKSUM_CRC32 ) {
+     if ( isCrc() ) {
        out.writeInt( (int) summer.getValue() );
      } else {
        throw new IOException( "Unknown Checksum " + type );
@@ -146,7 +170,7 @@ public class DataChecksum implements Checksum {
         return 0;
       }
 
-      if ( type == CHECKSUM_CRC32 ) {
+      if ( isCrc() ) {
         int checksum = (int) summer.getValue();
         buf[offset+0] = (byte) ((checksum >>> 24) & 0xff);
         buf[offset+1] = (byte) ((checksum >>> 16) & 0xff);
@@ -168,7 +192,7 @@ public class DataChecksum implements Checksum {
     * @return true if the checksum matches and false otherwise.
     */
    public boolean compare( byte buf[], int offset ) {
-     if ( size > 0 && type == CHECKSUM_CRC32 ) {
+     if ( size > 0 && isCrc() ) {
        int checksum = ( (buf[offset+0] & 0xff) << 24 ) | 
                       ( (buf[offset+1] & 0xff) << 16 ) |
                       ( (buf[offset+2] & 0xff) << 8 )  |
@@ -183,6 +207,7 @@ public class DataChecksum implements Checksum {
   private final Checksum summer;
   private final int bytesPerChecksum;
   private int inSum = 0;
+  private byte[] chunkBuf = null;    // copy of a chunk of a direct buffer
   
   private DataChecksum( int checksumType, Checksum checksum,
                         int sumSize, int chunkSize ) {
@@ -205,6 +230,11 @@ public class DataChecksum implements Checksum {
   public int getNumBytesInSum() {
     return inSum;
   }
+  
+  /** Is this a 4 byte CRC? */
+  private boolean isCrc() {
+    return type == CHECKSUM_CRC32 || type == CHECKSUM_CRC32C;
+  }
   
   public static final int SIZE_OF_INTEGER = Integer.SIZE / Byte.SIZE;
   static public int getChecksumHeaderSize() {
@@ -229,6 +259,163 @@ public class DataChecksum implements Checksum {
     inSum += 1;
   }
   
+  /**
+   * Verify that the checksums of the chunks of <i>data</i> match the
+   * checksums stored back to back in <i>checksums</i>.  Every chunk is
+   * bytesPerChecksum long except for the last one.  The positions of the
+   * buffers are not changed, and the running checksum is reset.
+   * Heap buffers are verified in place; chunks of direct (e.g. memory
+   * mapped) buffers are copied one at a time.
+   * 
+   * @param data the data to verify, from its position to its limit
+   * @param checksums the checksums, starting at its position
+   * @param fileName the name of the file the data belongs to
+   * @param basePos the position in the file of the first byte of data
+   * @throws ChecksumException if a chunk does not match its checksum
+   */
+  public void verifyChunkedSums( ByteBuffer data, ByteBuffer checksums,
+                                 String fileName, long basePos )
+                                 throws ChecksumException {
+    if ( size <= 0 ) {
+      return;
+    }
+    if ( data.hasArray() && checksums.hasArray() ) {
+      verifyChunkedSums( data.array(), data.arrayOffset() + data.position(),
+                         data.remaining(), checksums.array(),
+                         checksums.arrayOffset() + checksums.position(),
+                         fileName, basePos );
+      return;
+    }
+    
+    int dataPos = data.position();
+    int sumPos = checksums.position();
+    try {
+      for ( int off = 0; off < data.remaining(); off += bytesPerChecksum ) {
+        int n = Math.min( bytesPerChecksum, data.remaining() - off );
+        int calculated = checksumOf( data, dataPos + off, n );
+        int stored = checksums.getInt( sumPos );
+        if ( calculated != stored ) {
+          throw newChecksumException( fileName, basePos + off,
+                                      stored, calculated );
+        }
+        sumPos += size;
+      }
+    } finally {
+      reset();
+    }
+  }
+  
+  /**
+   * Same as {@link #verifyChunkedSums(ByteBuffer, ByteBuffer, String, long)}
+   * for data and checksums in byte arrays.
+   */
+  public void verifyChunkedSums( byte[] data, int dataOff, int dataLen,
+                                 byte[] checksums, int checksumsOff,
+                                 String fileName, long basePos )
+                                 throws ChecksumException {
+    if ( size <= 0 ) {
+      return;
+    }
+    try {
+      for ( int off = 0; off < dataLen; off += bytesPerChecksum ) {
+        int n = Math.min( bytesPerChecksum, dataLen - off );
+        summer.reset();
+        summer.update( data, dataOff + off, n );
+        int calculated = (int) summer.getValue();
+        int stored = ( (checksums[checksumsOff+0] & 0xff) << 24 ) | 
+                     ( (checksums[checksumsOff+1] & 0xff) << 16 ) |
+                     ( (checksums[checksumsOff+2] & 0xff) << 8 )  |
+                     ( (checksums[checksumsOff+3] & 0xff) );
+        if ( calculated != stored ) {
+          throw newChecksumException( fileName, basePos + off,
+                                      stored, calculated );
+        }
+        checksumsOff += size;
+      }
+    } finally {
+      reset();
+    }
+  }
+  
+  /**
+   * Calculate the checksums of the chunks of <i>data</i> and store them
+   * back to back in <i>checksums</i>, starting at its position.
+   * The positions of the buffers are not changed, and the running
+   * checksum is reset.
+   * 
+   * @param data the data to checksum, from its position to its limit
+   * @param checksums the buffer to store the checksums in
+   */
+  public void calculateChunkedSums( ByteBuffer data, ByteBuffer checksums ) {
+    if ( size <= 0 ) {
+      return;
+    }
+    if ( data.hasArray() && checksums.hasArray() ) {
+      calculateChunkedSums( data.array(), data.arrayOffset() + data.position(),
+                            data.remaining(), checksums.array(),
+                            checksums.arrayOffset() + checksums.position() );
+      return;
+    }
+    
+    int dataPos = data.position();
+    int sumPos = checksums.position();
+    try {
+      for ( int off = 0; off < data.remaining(); off += bytesPerChecksum ) {
+        int n = Math.min( bytesPerChecksum, data.remaining() - off );
+        checksums.putInt( sumPos, checksumOf( data, dataPos + off, n ) );
+        sumPos += size;
+      }
+    } finally {
+      reset();
+    }
+  }
+  
+  /**
+   * Same as {@link #calculateChunkedSums(ByteBuffer, ByteBuffer)}
+   * for data and checksums in byte arrays.
+   */
+  public void calculateChunkedSums( byte[] data, int dataOff, int dataLen,
+                                    byte[] checksums, int checksumsOff ) {
+    if ( size <= 0 ) {
+      return;
+    }
+    try {
+      for ( int off = 0; off < dataLen; off += bytesPerChecksum ) {
+        int n = Math.min( bytesPerChecksum, dataLen - off );
+        summer.reset();
+        summer.update( data, dataOff + off, n );
+        int checksum = (int) summer.getValue();
+        checksums[checksumsOff+0] = (byte) ((checksum >>> 24) & 0xff);
+        checksums[checksumsOff+1] = (byte) ((checksum >>> 16) & 0xff);
+        checksums[checksumsOff+2] = (byte) ((checksum >>> 8) & 0xff);
+        checksums[checksumsOff+3] = (byte) (checksum & 0xff);
+        checksumsOff += size;
+      }
+    } finally {
+      reset();
+    }
+  }
+  
+  /** Checksum of len bytes of a buffer without an accessible array. */
+  private int checksumOf( ByteBuffer data, int pos, int len ) {
+    if ( chunkBuf == null ) {
+      chunkBuf = new byte[bytesPerChecksum];
+    }
+    ByteBuffer chunk = data.duplicate();
+    chunk.position( pos );
+    chunk.get( chunkBuf, 0, len );
+    summer.reset();
+    summer.update( chunkBuf, 0, len );
+    return (int) summer.getValue();
+  }
+  
+  private static ChecksumException newChecksumException( String fileName,
+      long pos, int stored, int calculated ) {
+    return new ChecksumException( "Checksum error: " + fileName + " at " +
+                                  pos + " exp: " + stored + 
+                                  " got: " + calculated, pos );
+  }
+  
   /**
    * This just provides a dummy implimentation for Checksum class
    * This is used when there is no checksum available or required for 
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * A pure-java implementation of the CRC32C checksum, which uses the
+ * Castagnoli polynomial 0x1EDC6F41 instead of the polynomial of
+ * {@link java.util.zip.CRC32}.
+ *
+ * It processes 8 bytes per step with eight lookup tables
+ * ("slicing-by-8"), and needs no native code or JNI call per update.
+ */
+public class PureJavaCrc32C implements Checksum {
+
+  /** the current CRC value, bit-flipped */
+  private int crc;
+
+  /** Create a new PureJavaCrc32C object. */
+  public PureJavaCrc32C() {
+    reset();
+  }
+
+  /** {@inheritDoc} */
+  public long getValue() {
+    return (~crc) & 0xffffffffL;
+  }
+
+  /** {@inheritDoc} */
+  public void reset() {
+    crc = 0xffffffff;
+  }
+
+  /** {@inheritDoc} */
+  public void update(byte[] b, int off, int len) {
+    int localCrc = crc;
+    while (len > 7) {
+      int c0 = (b[off+0] ^ localCrc) & 0xff;
+      int c1 = (b[off+1] ^ (localCrc >>>= 8)) & 0xff;
+      int c2 = (b[off+2] ^ (localCrc >>>= 8)) & 0xff;
+      int c3 = (b[off+3] ^ (localCrc >>>= 8)) & 0xff;
+      localCrc = (T8_7[c0] ^ T8_6[c1]) ^ (T8_5[c2] ^ T8_4[c3]);
+
+      int c4 = b[off+4] & 0xff;
+      int c5 = b[off+5] & 0xff;
+      int c6 = b[off+6] & 0xff;
+      int c7 = b[off+7] & 0xff;
+      localCrc ^= (T8_3[c4] ^ T8_2[c5]) ^ (T8_1[c6] ^ T8_0[c7]);
+
+      off += 8;
+      len -= 8;
+    }
+    while (len > 0) {
+      localCrc = (localCrc >>> 8) ^ T8_0[(localCrc ^ b[off++]) & 0xff];
+      len--;
+    }
+    crc = localCrc;
+  }
+
+  /** {@inheritDoc} */
+  public void update(int b) {
+    crc = (crc >>> 8) ^ T8_0[(crc ^ b) & 0xff];
+  }
+
+  /** The reversed Castagnoli polynomial. */
+  private static final int POLY = 0x82F63B78;
+
+  /*
+   * T8_0 is the usual byte-at-a-time table.  T8_k[b] is the CRC of
+   * byte b followed by k zero bytes.
+   */
+  private static final int[] T8_0 = new int[256];
+  private static final int[] T8_1 = new int[256];
+  private static final int[] T8_2 = new int[256];
+  private static final int[] T8_3 = new int[256];
+  private static final int[] T8_4 = new int[256];
+  private static final int[] T8_5 = new int[256];
+  private static final int[] T8_6 = new int[256];
+  private static final int[] T8_7 = new int[256];
+
+  static {
+    int[][] tables = {T8_0, T8_1, T8_2, T8_3, T8_4, T8_5, T8_6, T8_7};
+    for (int i = 0; i < 256; i++) {
+      int c = i;
+      for (int bit = 0; bit < 8; bit++) {
+        c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+      }
+      T8_0[i] = c;
+    }
+    for (int k = 1; k < tables.length; k++) {
+      for (int i = 0; i < 256; i++) {
+        int c = tables[k-1][i];
+        tables[k][i] = (c >>> 8) ^ T8_0[c & 0xff];
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+
+/**
+ * A least recently used cache of the block locations of files, so that
+ * opening the same file again does not ask the namenode again.
+ *
+ * Only the locations of files that are not under construction are
+ * cached, and only for a limited time.  A file replaced by another
+ * client within that time may be read from its old locations, until a
+ * read error refreshes them.  Each stream gets a copy of the cached
+ * list, since streams insert the blocks they fetch later into it.
+ */
+class BlockLocationCache {
+  private static class Entry {
+    final LocatedBlocks blocks;
+    final long expires;
+
+    Entry(LocatedBlocks blocks, long expires) {
+      this.blocks = blocks;
+      this.expires = expires;
+    }
+  }
+
+  private final long ttl;
+  private final Map<String, Entry> entries;
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * @param capacity the number of files to cache the locations of
+   * @param ttl how long the locations are used, in milliseconds
+   */
+  BlockLocationCache(final int capacity, long ttl) {
+    this.ttl = ttl;
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /** Return a copy of the cached locations of a file, or null. */
+  synchronized LocatedBlocks get(String src) {
+    Entry entry = entries.get(src);
+    if (entry != null && entry.expires <= System.currentTimeMillis()) {
+      entries.remove(src);
+      entry = null;
+    }
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return copy(entry.blocks);
+  }
+
+  /**
+   * Cache the locations of a file.  The locations of a file under
+   * construction are dropped instead.  The expiry time of a file already
+   * cached is kept, so that a stream reading a file for long does not
+   * keep its locations alive.
+   */
+  synchronized void put(String src, LocatedBlocks blocks) {
+    if (blocks.isUnderConstruction()) {
+      entries.remove(src);
+      return;
+    }
+    Entry old = entries.get(src);
+    long expires = old != null && old.blocks.getFileLength() == blocks.getFileLength() ?
+        old.expires : System.currentTimeMillis() + ttl;
+    entries.put(src, new Entry(copy(blocks), expires));
+  }
+
+  /** Drop the locations of a path and of everything under it. */
+  synchronized void invalidate(String src) {
+    String prefix = src.endsWith(Path.SEPARATOR) ? src : src + Path.SEPARATOR;
+    for (Iterator<String> i = entries.keySet().iterator(); i.hasNext();) {
+      String path = i.next();
+      if (path.equals(src) || path.startsWith(prefix)) {
+        i.remove();
+      }
+    }
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  private static LocatedBlocks copy(LocatedBlocks blocks) {
+    List<LocatedBlock> list = blocks.getLocatedBlocks();
+    return new LocatedBlocks(blocks.getFileLength(),
+        list == null ? null : new ArrayList<LocatedBlock>(list),
+        blocks.isUnderConstruction());
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
+import org.apache.hadoop.hdfs.DFSClient.BlockReader;
+import org.apache.hadoop.hdfs.server.datanode.FSDataset;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.DataChecksum;
+
+/**
+ * BlockReaderLocal reads a block replica stored on the local machine
+ * directly from its data and meta files, instead of streaming it from
+ * the datanode over a socket.  The datanode only tells the client where
+ * the files are; checksums are verified by the client.
+ */
+class BlockReaderLocal extends BlockReader {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileInputStream dataIn;      // block data file
+  private final FileInputStream checksumIn;  // block meta file
+  private final DataInputStream data;
+  private final DataInputStream checksums;  // null if the block has none
+
+  private final long blockLength;           // length of the replica on disk
+  private final long endOffset;             // end of the requested range
+  private final int bytesPerChecksum;
+  private final int checksumSize;
+  private int skipLeft;                     // bytes before startOffset
+  private long nextChunkOffset;
+
+  private BlockReaderLocal(String file, Block block, DataChecksum checksum,
+                           boolean verifyChecksum, FileInputStream dataIn,
+                           FileInputStream checksumIn, long blockLength,
+                           long startOffset, long endOffset
+                           ) throws IOException {
+    super(new Path("/blk_" + block.getBlockId() + ":of:" + file),
+          checksum, verifyChecksum);
+    this.dataIn = dataIn;
+    this.checksumIn = checksumIn;
+    this.blockLength = blockLength;
+    this.endOffset = endOffset;
+    this.bytesPerChecksum = checksum.getBytesPerChecksum();
+    this.checksumSize = checksum.getChecksumSize();
+
+    // position both files at the chunk containing startOffset
+    long firstChunk = startOffset / bytesPerChecksum;
+    this.nextChunkOffset = firstChunk * bytesPerChecksum;
+    this.skipLeft = (int)(startOffset - nextChunkOffset);
+    dataIn.getChannel().position(nextChunkOffset);
+    this.data = new DataInputStream(
+        new BufferedInputStream(dataIn, BUFFER_SIZE));
+    if (checksumSize > 0) {
+      checksumIn.getChannel().position(checksumIn.getChannel().position()
+                                       + firstChunk * checksumSize);
+      this.checksums = new DataInputStream(
+          new BufferedInputStream(checksumIn,
+              (BUFFER_SIZE / bytesPerChecksum + 1) * checksumSize));
+    } else {
+      this.checksums = null;
+    }
+  }
+
+  /**
+   * Open a reader for the given range of a local block replica.
+   * @param file name of the file the block belongs to, for messages
+   * @param pathinfo local paths of the replica, from its datanode
+   * @param startOffset offset in the block of the first byte to read
+   * @param len number of bytes to read
+   * @param verifyChecksum verify the checksums of the data read?
+   */
+  static BlockReaderLocal newBlockReader(String file,
+                                         BlockLocalPathInfo pathinfo,
+                                         long startOffset, long len,
+                                         boolean verifyChecksum
+                                         ) throws IOException {
+    Block block = pathinfo.getBlock();
+    FileInputStream dataIn = null;
+    FileInputStream checksumIn = null;
+    try {
+      dataIn = new FileInputStream(pathinfo.getBlockPath());
+      long blockLength = dataIn.getChannel().size();
+      if (startOffset < 0 || startOffset + len > blockLength) {
+        throw new IOException("Local block " + block + " of " + file
+                              + " has " + blockLength + " bytes, cannot read "
+                              + len + " bytes at offset " + startOffset);
+      }
+      checksumIn = new FileInputStream(pathinfo.getMetaPath());
+      DataInputStream header = new DataInputStream(checksumIn);
+      short version = header.readShort();
+      if (version != FSDataset.METADATA_VERSION) {
+        DFSClient.LOG.warn("Wrong version (" + version + ") for metadata"
+                           + " file of " + block + ", ignoring");
+      }
+      DataChecksum checksum = DataChecksum.newDataChecksum(header);
+      BlockReaderLocal reader = new BlockReaderLocal(file, block, checksum,
+          verifyChecksum, dataIn, checksumIn, blockLength, startOffset,
+          startOffset + len);
+      dataIn = null;
+      checksumIn = null;
+      return reader;
+    } finally {
+      IOUtils.closeStream(dataIn);
+      IOUtils.closeStream(checksumIn);
+    }
+  }
+
+  /* The first read skips the bytes between the start of the first chunk
+   * and startOffset.  Like the remote reader, this may fill the user
+   * buffer before a checksum error is detected.
+   */
+  @Override
+  public synchronized int read(byte[] buf, int off, int len)
+                               throws IOException {
+    if (skipLeft > 0 && len > 0) {
+      byte[] skipBuf = new byte[skipLeft];
+      if (super.read(skipBuf, 0, skipLeft) != skipLeft) {
+        throw new IOException("Could not skip required number of bytes");
+      }
+      skipLeft = 0;
+    }
+    return super.read(buf, off, len);
+  }
+
+  @Override
+  protected synchronized int readChunk(long pos, byte[] buf, int offset,
+                                       int len, byte[] checksumBuf)
+                                       throws IOException {
+    if (nextChunkOffset >= endOffset) {
+      return -1;
+    }
+    int chunkLen = (int)Math.min(bytesPerChecksum,
+                                 blockLength - nextChunkOffset);
+    IOUtils.readFully(data, buf, offset, chunkLen);
+    if (checksums != null) {
+      checksums.readFully(checksumBuf, 0, checksumSize);
+    }
+    nextChunkOffset += chunkLen;
+    return chunkLen;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    IOUtils.closeStream(dataIn);
+    IOUtils.closeStream(checksumIn);
+    super.close();
+  }
+}
@@ -43,9 +43,19 @@ import org.apache.commons.logging.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
-import java.util.zip.CRC32;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
@@ -83,6 +93,28 @@ public class DFSClient implements FSConstants, java.io.Closeable {
   final int writePacketSize;
   private final FileSystem.Statistics stats;
   private int maxBlockAcquireFailures;
+  private final int lsLimit; // entries asked for by each getListing call
+  private volatile boolean shortCircuitLocalReads;
+  private final int checksumType;
+  /** local paths of the blocks read directly from this machine */
+  private final Map<Block, BlockLocalPathInfo> localPathCache =
+    new LinkedHashMap<Block, BlockLocalPathInfo>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry(
+          Map.Entry<Block, BlockLocalPathInfo> eldest) {
+        return size() > LOCAL_PATH_CACHE_SIZE;
+      }
+    };
+  private static final int LOCAL_PATH_CACHE_SIZE = 1024;
+  /** runs the reads of positional reads; null if they are not hedged */
+  private final ThreadPoolExecutor hedgedReadPool;
+  private final long hedgedReadThresholdMillis;
+  private final HedgedReadMetrics hedgedReadMetrics = new HedgedReadMetrics();
+  /** block locations of recently opened files; null if not cached */
+  private final BlockLocationCache blockLocationCache;
+  /** whether an address is one of this machine's */
+  private static final Map<InetAddress, Boolean> localAddrMap =
+    Collections.synchronizedMap(new HashMap<InetAddress, Boolean>());
     
  
   public static ClientProtocol createNamenode(Configuration conf) throws IOException {
@@ -167,6 +199,31 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     this.maxBlockAcquireFailures = 
                           conf.getInt("dfs.client.max.block.acquire.failures",
                                       MAX_BLOCK_ACQUIRE_FAILURES);
+    this.shortCircuitLocalReads = 
+                          conf.getBoolean("dfs.client.read.shortcircuit", false);
+    this.lsLimit = conf.getInt("dfs.ls.limit", 1000);
+    String checksumName = conf.get("dfs.checksum.type", "CRC32");
+    try {
+      this.checksumType = DataChecksum.getChecksumType(checksumName);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage());
+    }
+    if (checksumType == DataChecksum.CHECKSUM_NULL) {
+      throw new IOException("dfs.checksum.type " + checksumName + 
+                            " is not supported for writes");
+    }
+    this.hedgedReadThresholdMillis =
+      conf.getLong("dfs.client.hedged.read.threshold.millis", 500);
+    int hedgedReadThreads =
+      conf.getInt("dfs.client.hedged.read.threadpool.size", 0);
+    this.hedgedReadPool = hedgedReadThreads > 0 ?
+      createHedgedReadPool(hedgedReadThreads) : null;
+    int locationCacheSize =
+      conf.getInt("dfs.client.block.location.cache.size", 0);
+    this.blockLocationCache = locationCacheSize > 0 ?
+      new BlockLocationCache(locationCacheSize,
+          conf.getLong("dfs.client.block.location.cache.ttl.millis", 60000)) :
+      null;
     
     try {
       this.ugi = UnixUserGroupInformation.login(conf, true);
@@ -192,6 +249,143 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     this(nameNodeAddr, conf, null);
   }
 
+  /** Is the given address one of the addresses of this machine? */
+  static boolean isLocalAddress(InetSocketAddress targetAddr) {
+    InetAddress addr = targetAddr.getAddress();
+    if (addr == null) {
+      return false;
+    }
+    Boolean cached = localAddrMap.get(addr);
+    if (cached != null) {
+      return cached.booleanValue();
+    }
+    boolean local = addr.isLoopbackAddress() || addr.isAnyLocalAddress();
+    if (!local) {
+      try {
+        local = NetworkInterface.getByInetAddress(addr) != null;
+      } catch (SocketException e) {
+        local = false;
+      }
+    }
+    localAddrMap.put(addr, local);
+    return local;
+  }
+
+  /**
+   * Get the local paths of a block replica from the datanode on this
+   * machine that stores it.
+   */
+  private BlockLocalPathInfo getBlockLocalPathInfo(Block blk,
+      DatanodeInfo node) throws IOException {
+    synchronized (localPathCache) {
+      BlockLocalPathInfo pathinfo = localPathCache.get(blk);
+      if (pathinfo != null) {
+        return pathinfo;
+      }
+    }
+    ClientDatanodeProtocol datanode =
+      createClientDatanodeProtocolProxy(node, conf);
+    try {
+      BlockLocalPathInfo pathinfo = datanode.getBlockLocalPathInfo(blk);
+      synchronized (localPathCache) {
+        localPathCache.put(blk, pathinfo);
+      }
+      return pathinfo;
+    } catch (RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class);
+    } finally {
+      RPC.stopProxy(datanode);
+    }
+  }
+
+  /**
+   * Open a reader that reads a range of a block replica directly from
+   * the local file system.  Returns null if the replica cannot be read
+   * that way, in which case it has to be read from the datanode.
+   */
+  private BlockReader getLocalBlockReader(String src, Block blk,
+      DatanodeInfo node, long offset, long len, boolean verifyChecksum) {
+    try {
+      BlockLocalPathInfo pathinfo = getBlockLocalPathInfo(blk, node);
+      return BlockReaderLocal.newBlockReader(src, pathinfo, offset, len,
+                                             verifyChecksum);
+    } catch (AccessControlException ace) {
+      LOG.warn("Short circuit access failed, disabling local reads: "
+               + ace.getMessage());
+      shortCircuitLocalReads = false;
+    } catch (IOException e) {
+      LOG.info("Cannot read " + blk + " of " + src + " locally from "
+               + node.getName() + ", reading it from the datanode: "
+               + e.getMessage());
+      synchronized (localPathCache) {
+        localPathCache.remove(blk);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Create the pool of hedged reads.  When all its threads are busy, a
+   * read runs in the thread that asked for it.
+   */
+  private ThreadPoolExecutor createHedgedReadPool(int threads) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, threads,
+        60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicLong count = new AtomicLong();
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "hedgedRead-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy() {
+          public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            hedgedReadMetrics.readsInCurThread.incrementAndGet();
+            super.rejectedExecution(r, e);
+          }
+        });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /** Counts of the hedged positional reads of this client. */
+  public static class HedgedReadMetrics {
+    final AtomicLong reads = new AtomicLong();
+    final AtomicLong wins = new AtomicLong();
+    final AtomicLong readsInCurThread = new AtomicLong();
+
+    /** Number of hedged reads, i.e. of second reads of the same range. */
+    public long getHedgedReadOps() {
+      return reads.get();
+    }
+
+    /** Number of hedged reads that finished before the first read. */
+    public long getHedgedReadOpsWin() {
+      return wins.get();
+    }
+
+    /** Number of reads run by the caller because the pool was busy. */
+    public long getHedgedReadOpsInCurThread() {
+      return readsInCurThread.get();
+    }
+  }
+
+  public HedgedReadMetrics getHedgedReadMetrics() {
+    return hedgedReadMetrics;
+  }
+
+  BlockLocationCache getBlockLocationCache() {
+    return blockLocationCache;
+  }
+
+  /** Forget the cached block locations of a path and everything under it. */
+  private void invalidateBlockLocations(String src) {
+    if (blockLocationCache != null) {
+      blockLocationCache.invalidate(src);
+    }
+  }
+
   private void checkOpen() throws IOException {
     if (!clientRunning) {
       IOException result = new IOException("Filesystem closed");
@@ -212,6 +406,9 @@ public class DFSClient implements FSConstants, java.io.Closeable {
       } catch (InterruptedException ie) {
       }
   
+      if (hedgedReadPool != null) {
+        hedgedReadPool.shutdownNow();
+      }
       // close connections to the namenode
       RPC.stopProxy(rpcNamenode);
     }
@@ -302,6 +499,15 @@ public class DFSClient implements FSConstants, java.io.Closeable {
   public BlockLocation[] getBlockLocations(String src, long start, 
     long length) throws IOException {
     LocatedBlocks blocks = callGetBlockLocations(namenode, src, start, length);
+    return locatedBlocks2Locations(blocks);
+  }
+
+  /**
+   * Convert the located blocks of a file, as returned by the namenode,
+   * to the {@link BlockLocation}s of the file.
+   * @return the locations; empty if blocks is null
+   */
+  public static BlockLocation[] locatedBlocks2Locations(LocatedBlocks blocks) {
     if (blocks == null) {
       return new BlockLocation[0];
     }
@@ -455,6 +661,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                              int buffersize
                              ) throws IOException {
     checkOpen();
+    invalidateBlockLocations(src);
     if (permission == null) {
       permission = FsPermission.getDefault();
     }
@@ -480,6 +687,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
   OutputStream append(String src, int buffersize, Progressable progress
       ) throws IOException {
     checkOpen();
+    invalidateBlockLocations(src);
     FileStatus stat = null;
     LocatedBlock lastBlock = null;
     try {
@@ -521,6 +729,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
    */
   public boolean rename(String src, String dst) throws IOException {
     checkOpen();
+    invalidateBlockLocations(src);
+    invalidateBlockLocations(dst);
     try {
       return namenode.rename(src, dst);
     } catch(RemoteException re) {
@@ -536,6 +746,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
   @Deprecated
   public boolean delete(String src) throws IOException {
     checkOpen();
+    invalidateBlockLocations(src);
     return namenode.delete(src, true);
   }
 
@@ -546,6 +757,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
    */
   public boolean delete(String src, boolean recursive) throws IOException {
     checkOpen();
+    invalidateBlockLocations(src);
     try {
       return namenode.delete(src, recursive);
     } catch(RemoteException re) {
@@ -571,11 +783,61 @@ public class DFSClient implements FSConstants, java.io.Closeable {
   }
 
   /**
+   * List a directory.  A large directory is fetched in parts, so that
+   * each call holds the namenode lock only briefly.
+   * @return the listing, or null if src does not exist
    */
   public FileStatus[] listPaths(String src) throws IOException {
+    DirectoryListing thisListing = listPaths(src, "");
+    if (thisListing == null) {
+      return null;
+    }
+    if (!thisListing.hasMore()) {
+      return thisListing.getPartialListing();
+    }
+    List<FileStatus> listing = new ArrayList<FileStatus>(
+        thisListing.getPartialListing().length +
+        thisListing.getRemainingEntries());
+    do {
+      listing.addAll(Arrays.asList(thisListing.getPartialListing()));
+      if (!thisListing.hasMore()) {
+        break;
+      }
+      thisListing = listPaths(src, thisListing.getLastName());
+    } while (thisListing != null);
+    if (thisListing == null) { // deleted meanwhile
+      return null;
+    }
+    return listing.toArray(new FileStatus[listing.size()]);
+  }
+
+  /**
+   * Get a part of the listing of a directory, after the entry named
+   * startAfter ("" for the first part).
+   * @return the part of the listing, or null if src does not exist
+   */
+  public DirectoryListing listPaths(String src, String startAfter)
+                                    throws IOException {
+    checkOpen();
+    try {
+      return namenode.getListing(src, startAfter, lsLimit);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class);
+    }
+  }
+
+  /**
+   * Get a part of the listing of a directory, like
+   * {@link #listPaths(String, String)}, with the locations of the blocks
+   * of the files in it.
+   * @return the part of the listing, whose entries are
+   *         {@link HdfsLocatedFileStatus}es, or null if src does not exist
+   */
+  public DirectoryListing listLocatedPaths(String src, String startAfter)
+                                           throws IOException {
     checkOpen();
     try {
-      return namenode.getListing(src);
+      return namenode.getLocatedListing(src, startAfter, lsLimit);
     } catch(RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class);
     }
@@ -590,6 +852,30 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     }
   }
 
+  /**
+   * Get the file info of many paths, with the locations of the blocks of
+   * the files, in one call to the namenode per dfs.ls.limit paths.
+   * @return the file info in the order of srcs, null for a path that is
+   *         not found
+   */
+  public HdfsLocatedFileStatus[] getLocatedFileInfo(String[] srcs)
+                                                    throws IOException {
+    checkOpen();
+    HdfsLocatedFileStatus[] results = new HdfsLocatedFileStatus[srcs.length];
+    try {
+      for (int start = 0; start < srcs.length; start += lsLimit) {
+        int count = Math.min(lsLimit, srcs.length - start);
+        String[] part = new String[count];
+        System.arraycopy(srcs, start, part, 0, count);
+        System.arraycopy(namenode.getLocatedFileInfo(part), 0,
+                         results, start, count);
+      }
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class);
+    }
+    return results;
+  }
+
   /**
    * Get the checksum of a file.
    * @param src The file path
@@ -1272,6 +1558,21 @@ public class DFSClient implements FSConstants, java.io.Closeable {
       return chunkLen;
     }
     
+    /** 
+     * For readers that get the block from somewhere else than
+     * a datanode connection.
+     */
+    protected BlockReader(Path file, DataChecksum checksum,
+                          boolean verifyChecksum) {
+      super(file, 1, verifyChecksum,
+            checksum.getChecksumSize() > 0? checksum : null,
+            checksum.getBytesPerChecksum(),
+            checksum.getChecksumSize());
+      this.checksum = checksum;
+      bytesPerChecksum = checksum.getBytesPerChecksum();
+      checksumSize = checksum.getChecksumSize();
+    }
+
     private BlockReader( String file, long blockId, DataInputStream in, 
                          DataChecksum checksum, boolean verifyChecksum,
                          long startOffset, long firstChunkOffset, 
@@ -1424,6 +1725,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     
     void addToDeadNodes(DatanodeInfo dnInfo) {
       deadNodes.put(dnInfo, dnInfo);
+      // the cached locations may be stale, the next open asks the namenode
+      invalidateBlockLocations(src);
     }
     
     DFSInputStream(String src, int buffersize, boolean verifyChecksum
@@ -1432,16 +1735,30 @@ public class DFSClient implements FSConstants, java.io.Closeable {
       this.buffersize = buffersize;
       this.src = src;
       prefetchSize = conf.getLong("dfs.read.prefetch.size", prefetchSize);
-      openInfo();
+      openInfo(true);
     }
 
     /**
      * Grab the open-file info from namenode
      */
     synchronized void openInfo() throws IOException {
-      LocatedBlocks newInfo = callGetBlockLocations(namenode, src, 0, prefetchSize);
+      openInfo(false);
+    }
+
+    /**
+     * Grab the open-file info from the block location cache of the
+     * client if useCache is set and it is there, from namenode otherwise.
+     */
+    private synchronized void openInfo(boolean useCache) throws IOException {
+      LocatedBlocks newInfo = null;
+      if (useCache && blockLocationCache != null) {
+        newInfo = blockLocationCache.get(src);
+      }
       if (newInfo == null) {
-        throw new IOException("Cannot open filename " + src);
+        newInfo = callGetBlockLocations(namenode, src, 0, prefetchSize);
+        if (newInfo == null) {
+          throw new IOException("Cannot open filename " + src);
+        }
       }
 
       if (locatedBlocks != null) {
@@ -1449,12 +1766,23 @@ public class DFSClient implements FSConstants, java.io.Closeable {
         Iterator<LocatedBlock> newIter = newInfo.getLocatedBlocks().iterator();
         while (oldIter.hasNext() && newIter.hasNext()) {
           if (! oldIter.next().getBlock().equals(newIter.next().getBlock())) {
+            invalidateBlockLocations(src);
             throw new IOException("Blocklist for " + src + " has changed!");
           }
         }
       }
       this.locatedBlocks = newInfo;
       this.currentNode = null;
+      cacheBlockLocations();
+    }
+
+    /**
+     * Share the blocks located so far with the streams opened later.
+     */
+    private void cacheBlockLocations() {
+      if (blockLocationCache != null) {
+        blockLocationCache.put(src, locatedBlocks);
+      }
     }
     
     public synchronized long getFileLength() {
@@ -1501,6 +1829,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
         newBlocks = callGetBlockLocations(namenode, src, offset, prefetchSize);
         assert (newBlocks != null) : "Could not find target position " + offset;
         locatedBlocks.insertRange(targetBlockIdx, newBlocks.getLocatedBlocks());
+        cacheBlockLocations();
       }
       LocatedBlock blk = locatedBlocks.get(targetBlockIdx);
       // update current position
@@ -1539,6 +1868,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
           LocatedBlocks newBlocks;
           newBlocks = callGetBlockLocations(namenode, src, curOff, remaining);
           locatedBlocks.insertRange(blockIdx, newBlocks.getLocatedBlocks());
+          cacheBlockLocations();
           continue;
         }
         assert curOff >= blk.getStartOffset() : "Block not found";
@@ -1586,6 +1916,16 @@ public class DFSClient implements FSConstants, java.io.Closeable {
         chosenNode = retval.info;
         InetSocketAddress targetAddr = retval.addr;
 
+        if (shortCircuitLocalReads && isLocalAddress(targetAddr)) {
+          Block blk = targetBlock.getBlock();
+          blockReader = getLocalBlockReader(src, blk, chosenNode, 
+              offsetIntoBlock, blk.getNumBytes() - offsetIntoBlock,
+              verifyChecksum);
+          if (blockReader != null) {
+            return chosenNode;
+          }
+        }
+
         try {
           s = socketFactory.createSocket();
           NetUtils.connect(s, targetAddr, socketTimeout);
@@ -1778,57 +2118,200 @@ public class DFSClient implements FSConstants, java.io.Closeable {
       //
       // Connect to best DataNode for desired Block, with potential offset
       //
-      Socket dn = null;
       int numAttempts = block.getLocations().length;
       IOException ioe = null;
       
-      while (dn == null && numAttempts-- > 0 ) {
+      while (numAttempts-- > 0) {
         DNAddrPair retval = chooseDataNode(block);
-        DatanodeInfo chosenNode = retval.info;
-        InetSocketAddress targetAddr = retval.addr;
-        BlockReader reader = null;
-            
         try {
-          dn = socketFactory.createSocket();
-          NetUtils.connect(dn, targetAddr, socketTimeout);
-          dn.setSoTimeout(socketTimeout);
-              
-          int len = (int) (end - start + 1);
-              
-          reader = BlockReader.newBlockReader(dn, src, 
-                                              block.getBlock().getBlockId(),
-                                              block.getBlock().getGenerationStamp(),
-                                              start, len, buffersize, 
-                                              verifyChecksum, clientName);
-          int nread = reader.readAll(buf, offset, len);
-          if (nread != len) {
-            throw new IOException("truncated return from reader.read(): " +
-                                  "excpected " + len + ", got " + nread);
-          }
+          fetchFromDataNode(retval, block, start, end, buf, offset);
           return;
-        } catch (ChecksumException e) {
-          ioe = e;
-          LOG.warn("fetchBlockByteRange(). Got a checksum exception for " +
-                   src + " at " + block.getBlock() + ":" + 
-                   e.getPos() + " from " + chosenNode.getName());
-          reportChecksumFailure(src, block.getBlock(), chosenNode);
         } catch (IOException e) {
           ioe = e;
-          LOG.warn("Failed to connect to " + targetAddr + 
-                   " for file " + src + 
-                   " for block " + block.getBlock().getBlockId() + ":"  +
-                   StringUtils.stringifyException(e));
-        } finally {
-          IOUtils.closeStream(reader);
-          IOUtils.closeSocket(dn);
-          dn = null;
         }
         // Put chosen node into dead list, continue
-        addToDeadNodes(chosenNode);
+        addToDeadNodes(retval.info);
       }
       throw (ioe == null) ? new IOException("Could not read data") : ioe;
     }
 
+    /**
+     * Read a byte range of a block from one datanode.
+     */
+    private void fetchFromDataNode(DNAddrPair retval, LocatedBlock block,
+                                   long start, long end, byte[] buf,
+                                   int offset) throws IOException {
+      DatanodeInfo chosenNode = retval.info;
+      InetSocketAddress targetAddr = retval.addr;
+      Socket dn = null;
+      BlockReader reader = null;
+          
+      try {
+        int len = (int) (end - start + 1);
+
+        if (shortCircuitLocalReads && isLocalAddress(targetAddr)) {
+          reader = getLocalBlockReader(src, block.getBlock(), chosenNode,
+                                       start, len, verifyChecksum);
+        }
+        if (reader == null) {
+          dn = socketFactory.createSocket();
+          NetUtils.connect(dn, targetAddr, socketTimeout);
+          dn.setSoTimeout(socketTimeout);
+            
+          reader = BlockReader.newBlockReader(dn, src, 
+                                            block.getBlock().getBlockId(),
+                                            block.getBlock().getGenerationStamp(),
+                                            start, len, buffersize, 
+                                            verifyChecksum, clientName);
+        }
+        int nread = reader.readAll(buf, offset, len);
+        if (nread != len) {
+          throw new IOException("truncated return from reader.read(): " +
+                                "excpected " + len + ", got " + nread);
+        }
+      } catch (ChecksumException e) {
+        LOG.warn("fetchBlockByteRange(). Got a checksum exception for " +
+                 src + " at " + block.getBlock() + ":" + 
+                 e.getPos() + " from " + chosenNode.getName());
+        reportChecksumFailure(src, block.getBlock(), chosenNode);
+        throw e;
+      } catch (IOException e) {
+        LOG.warn("Failed to connect to " + targetAddr + 
+                 " for file " + src + 
+                 " for block " + block.getBlock().getBlockId() + ":"  +
+                 StringUtils.stringifyException(e));
+        throw e;
+      } finally {
+        IOUtils.closeStream(reader);
+        IOUtils.closeSocket(dn);
+      }
+    }
+
+    /**
+     * Like fetchBlockByteRange, but if the read from the first datanode
+     * takes longer than dfs.client.hedged.read.threshold.millis, the
+     * range is also read from another datanode, and the first read to
+     * finish wins.  Each read fills a buffer of its own; the winner is
+     * copied to buf and the others are cancelled.
+     */
+    private void hedgedFetchBlockByteRange(final LocatedBlock block,
+                                           final long start, final long end,
+                                           byte[] buf, int offset
+                                           ) throws IOException {
+      final int len = (int) (end - start + 1);
+      final AtomicBoolean done = new AtomicBoolean(false);
+      CompletionService<byte[]> hedgedService =
+        new ExecutorCompletionService<byte[]>(hedgedReadPool);
+      Map<Future<byte[]>, DatanodeInfo> futures =
+        new HashMap<Future<byte[]>, DatanodeInfo>();
+      Future<byte[]> firstRead = null;
+      int numAttempts = block.getLocations().length;
+      IOException ioe = null;
+
+      try {
+        while (true) {
+          if (futures.isEmpty()) {
+            // the first read, or all the reads so far failed
+            if (numAttempts-- <= 0) {
+              throw (ioe == null) ? new IOException("Could not read data") : ioe;
+            }
+            DNAddrPair retval = chooseDataNode(block);
+            firstRead = hedgedService.submit(
+                readFromDataNode(retval, block, start, end, len, done));
+            futures.put(firstRead, retval.info);
+          } else {
+            // the reads are slow, hedge with another datanode if any
+            DatanodeInfo hedgeNode = chooseHedgeNode(block, futures);
+            if (hedgeNode != null) {
+              DNAddrPair retval = new DNAddrPair(hedgeNode,
+                  NetUtils.createSocketAddr(hedgeNode.getName()));
+              futures.put(hedgedService.submit(
+                  readFromDataNode(retval, block, start, end, len, done)),
+                  hedgeNode);
+              hedgedReadMetrics.reads.incrementAndGet();
+            }
+          }
+
+          // wait for a read to finish, or hedge if a lone read is slow
+          // and there is a datanode left to hedge with
+          Future<byte[]> finished;
+          try {
+            if (futures.size() == 1 &&
+                chooseHedgeNode(block, futures) != null) {
+              finished = hedgedService.poll(hedgedReadThresholdMillis,
+                                            TimeUnit.MILLISECONDS);
+              if (finished == null) {
+                continue;
+              }
+            } else {
+              finished = hedgedService.take();
+            }
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while reading "
+                                             + block.getBlock() + " of " + src);
+          }
+          futures.remove(finished);
+          try {
+            byte[] result = finished.get();
+            System.arraycopy(result, 0, buf, offset, len);
+            if (finished != firstRead) {
+              hedgedReadMetrics.wins.incrementAndGet();
+            }
+            return;
+          } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            ioe = cause instanceof IOException ? (IOException)cause :
+              (IOException)new IOException("Could not read data").initCause(cause);
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while reading "
+                                             + block.getBlock() + " of " + src);
+          }
+        }
+      } finally {
+        done.set(true);
+        for (Future<byte[]> future : futures.keySet()) {
+          future.cancel(true);
+        }
+      }
+    }
+
+    /**
+     * Choose a datanode of the block that is not dead and not read from
+     * yet by a hedged read, or null if there is none.
+     */
+    private DatanodeInfo chooseHedgeNode(LocatedBlock block,
+        Map<Future<byte[]>, DatanodeInfo> futures) {
+      for (DatanodeInfo node : block.getLocations()) {
+        if (!deadNodes.containsKey(node) && !futures.containsValue(node)) {
+          return node;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * A read of a byte range from one datanode, for a hedged read.  A read
+     * that fails before the hedged read is done marks its datanode dead.
+     */
+    private Callable<byte[]> readFromDataNode(final DNAddrPair retval,
+        final LocatedBlock block, final long start, final long end,
+        final int len, final AtomicBoolean done) {
+      return new Callable<byte[]>() {
+        public byte[] call() throws IOException {
+          byte[] result = new byte[len];
+          try {
+            fetchFromDataNode(retval, block, start, end, result, 0);
+          } catch (IOException e) {
+            if (!done.get()) {
+              addToDeadNodes(retval.info);
+            }
+            throw e;
+          }
+          return result;
+        }
+      };
+    }
+
     /**
      * Read bytes starting from the specified position.
      * 
@@ -1863,8 +2346,13 @@ public class DFSClient implements FSConstants, java.io.Closeable {
       for (LocatedBlock blk : blockRange) {
         long targetStart = position - blk.getStartOffset();
         long bytesToRead = Math.min(remaining, blk.getBlockSize() - targetStart);
-        fetchBlockByteRange(blk, targetStart, 
-                            targetStart + bytesToRead - 1, buffer, offset);
+        if (hedgedReadPool != null) {
+          hedgedFetchBlockByteRange(blk, targetStart,
+                                    targetStart + bytesToRead - 1, buffer, offset);
+        } else {
+          fetchBlockByteRange(blk, targetStart, 
+                              targetStart + bytesToRead - 1, buffer, offset);
+        }
         remaining -= bytesToRead;
         position += bytesToRead;
         offset += bytesToRead;
@@ -2610,7 +3098,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
 
     private DFSOutputStream(String src, long blockSize, Progressable progress,
         int bytesPerChecksum) throws IOException {
-      super(new CRC32(), bytesPerChecksum, 4);
+      super(DataChecksum.newDataChecksum(checksumType, bytesPerChecksum),
+            bytesPerChecksum, 4);
       this.src = src;
       this.blockSize = blockSize;
       this.progress = progress;
@@ -2625,8 +3114,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                               "multiple of io.bytes.per.checksum");
                               
       }
-      checksum = DataChecksum.newDataChecksum(DataChecksum.CHECKSUM_CRC32, 
-                                              bytesPerChecksum);
+      checksum = DataChecksum.newDataChecksum(checksumType, bytesPerChecksum);
     }
 
     /**
@@ -20,12 +20,15 @@ package org.apache.hadoop.hdfs;
 
 import java.io.*;
 import java.net.*;
+import java.util.NoSuchElementException;
 
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
+import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.FSConstants.DatanodeReportType;
@@ -258,6 +261,108 @@ public class DistributedFileSystem extends FileSystem {
     return stats;
   }
 
+  /**
+   * List a directory one part at a time, so that a large directory is
+   * never held in memory at once.  Entries are returned in the order of
+   * their names.  Entries added or removed during the iteration may or
+   * may not be returned.
+   */
+  @Override
+  public RemoteIterator<FileStatus> listStatusIterator(final Path p)
+                                                       throws IOException {
+    return new DirListingIterator<FileStatus>(p, false);
+  }
+
+  /**
+   * List a directory one part at a time like {@link #listStatusIterator},
+   * getting the locations of the blocks of the files with each part.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listLocatedStatus(final Path p)
+                                                             throws IOException {
+    return new DirListingIterator<LocatedFileStatus>(p, true);
+  }
+
+  /**
+   * Get the statuses and block locations of all the paths from the
+   * namenode in one call per dfs.ls.limit paths.
+   */
+  @Override
+  public LocatedFileStatus[] getLocatedFileStatus(Path[] paths)
+                                                  throws IOException {
+    String[] srcs = new String[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      srcs[i] = getPathName(paths[i]);
+    }
+    HdfsLocatedFileStatus[] infos = dfs.getLocatedFileInfo(srcs);
+    LocatedFileStatus[] results = new LocatedFileStatus[infos.length];
+    for (int i = 0; i < infos.length; i++) {
+      if (infos[i] != null) {
+        results[i] = makeQualifiedLocated(infos[i]);
+      }
+    }
+    return results;
+  }
+
+  private LocatedFileStatus makeQualifiedLocated(HdfsLocatedFileStatus f) {
+    return new LocatedFileStatus(makeQualified(f),
+        f.isDir() || f.getBlockLocations() == null ? null :
+        DFSClient.locatedBlocks2Locations(f.getBlockLocations()));
+  }
+
+  /**
+   * Iterates over a directory listing fetched one part at a time, with or
+   * without the block locations of the files.
+   */
+  private class DirListingIterator<T extends FileStatus>
+      implements RemoteIterator<T> {
+    private final Path p;
+    private final String src;
+    private final boolean needLocation;
+    private DirectoryListing thisListing;
+    private int i = 0;
+
+    DirListingIterator(Path p, boolean needLocation) throws IOException {
+      this.p = p;
+      this.src = getPathName(p);
+      this.needLocation = needLocation;
+      this.thisListing = listPart("");
+      if (thisListing == null) {
+        throw new FileNotFoundException("File " + p + " does not exist.");
+      }
+    }
+
+    private DirectoryListing listPart(String startAfter) throws IOException {
+      return needLocation ? dfs.listLocatedPaths(src, startAfter) :
+                            dfs.listPaths(src, startAfter);
+    }
+
+    public boolean hasNext() throws IOException {
+      if (i >= thisListing.getPartialListing().length &&
+          thisListing.hasMore()) {
+        thisListing = listPart(thisListing.getLastName());
+        if (thisListing == null) {
+          throw new FileNotFoundException("Directory " + p +
+                                          " was deleted while listing it.");
+        }
+        i = 0;
+      }
+      return i < thisListing.getPartialListing().length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException("No more entries in " + p);
+      }
+      FileStatus stat = thisListing.getPartialListing()[i++];
+      if (needLocation) {
+        return (T)makeQualifiedLocated((HdfsLocatedFileStatus)stat);
+      }
+      return (T)makeQualified(stat);
+    }
+  }
+
   public boolean mkdirs(Path f, FsPermission permission) throws IOException {
     return dfs.mkdirs(getPathName(f), permission);
   }
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableFactories;
+import org.apache.hadoop.io.WritableFactory;
+
+/**
+ * The local paths of the data and meta files of a block replica.
+ * A client running on the same machine as the datanode uses them to
+ * read the replica directly from the file system.
+ */
+public class BlockLocalPathInfo implements Writable {
+
+  static {                                      // register a ctor
+    WritableFactories.setFactory
+      (BlockLocalPathInfo.class,
+       new WritableFactory() {
+         public Writable newInstance() { return new BlockLocalPathInfo(); }
+       });
+  }
+
+  private Block block;
+  private String localBlockPath = "";  // local path of the block data file
+  private String localMetaPath = "";   // local path of the block meta file
+
+  public BlockLocalPathInfo() {
+    this(new Block(), "", "");
+  }
+
+  public BlockLocalPathInfo(Block block, String file, String metafile) {
+    this.block = block;
+    this.localBlockPath = file;
+    this.localMetaPath = metafile;
+  }
+
+  /** @return the block, with the length of the replica on disk. */
+  public Block getBlock() {
+    return block;
+  }
+
+  /** @return the local path of the block data file. */
+  public String getBlockPath() {
+    return localBlockPath;
+  }
+
+  /** @return the local path of the block meta file. */
+  public String getMetaPath() {
+    return localMetaPath;
+  }
+
+  ///////////////////////////////////////////
+  // Writable
+  ///////////////////////////////////////////
+  public void write(DataOutput out) throws IOException {
+    block.write(out);
+    Text.writeString(out, localBlockPath);
+    Text.writeString(out, localMetaPath);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    block = new Block();
+    block.readFields(in);
+    localBlockPath = Text.readString(in);
+    localMetaPath = Text.readString(in);
+  }
+
+  /** {@inheritDoc} */
+  public String toString() {
+    return block + " at " + localBlockPath;
+  }
+}
@@ -29,9 +29,9 @@ public interface ClientDatanodeProtocol extends VersionedProtocol {
   public static final Log LOG = LogFactory.getLog(ClientDatanodeProtocol.class);
 
   /**
-   * 3: add keepLength parameter.
+   * 4: add getBlockLocalPathInfo.
    */
-  public static final long versionID = 3L;
+  public static final long versionID = 4L;
 
   /** Start generation-stamp recovery for specified block
    * @param block the specified block
@@ -44,4 +44,14 @@ public interface ClientDatanodeProtocol extends VersionedProtocol {
    */
   LocatedBlock recoverBlock(Block block, boolean keepLength,
       DatanodeInfo[] targets) throws IOException;
+
+  /** Get the local paths of the data and meta files of a block, so that
+   * a client on the same machine can read the block directly.
+   * Only the users listed in dfs.block.local-path-access.user may call it.
+   * @param block the specified block
+   * @return the block with its length on disk, and its local paths
+   * @throws IOException if the caller is not allowed to access the
+   * local paths or the block is not valid
+   */
+  BlockLocalPathInfo getBlockLocalPathInfo(Block block) throws IOException;
 }
@@ -40,9 +40,9 @@ public interface ClientProtocol extends VersionedProtocol {
    * Compared to the previous version the following changes have been introduced:
    * (Only the latest change is reflected.
    * The log of historical changes can be retrieved from the svn).
-   * 41: saveNamespace introduced.
+   * 43: getLocatedListing and getLocatedFileInfo introduced.
    */
-  public static final long versionID = 41L;
+  public static final long versionID = 43L;
   
   ///////////////////////////////////////
   // File contents
@@ -259,6 +259,37 @@ public interface ClientProtocol extends VersionedProtocol {
    */
   public FileStatus[] getListing(String src) throws IOException;
 
+  /**
+   * Get a part of the listing of the indicated directory.  Entries are
+   * listed in the order of their names, and a part holds no more than
+   * the namenode's dfs.ls.limit of them, so that listing a large
+   * directory neither holds the namespace lock for long nor needs a
+   * huge response.
+   *
+   * @param src the directory name
+   * @param startAfter the name of the entry to start the listing after,
+   *                   the last entry of the previous part; the empty
+   *                   string to start at the first entry
+   * @param limit the most entries to return; not positive for the
+   *              namenode's default
+   * @return the part of the listing, or null if src does not exist
+   */
+  public DirectoryListing getListing(String src, String startAfter, int limit)
+                                     throws IOException;
+
+  /**
+   * Get a part of the listing of the indicated directory, like
+   * {@link #getListing(String, String, int)}, with the locations of all
+   * the blocks of the files in it.  The entries are
+   * {@link HdfsLocatedFileStatus}es, and the locations of each block are
+   * sorted by their distance to the client.  The access times of the
+   * files are not changed.
+   *
+   * @return the part of the listing, or null if src does not exist
+   */
+  public DirectoryListing getLocatedListing(String src, String startAfter,
+                                            int limit) throws IOException;
+
   ///////////////////////////////////////
   // System issues and management
   ///////////////////////////////////////
@@ -427,6 +458,22 @@ public interface ClientProtocol extends VersionedProtocol {
    */
   public FileStatus getFileInfo(String src) throws IOException;
 
+  /**
+   * Get the file info of many files or directories at once, with the
+   * locations of all the blocks of the files, so that a client needs one
+   * call instead of a getFileInfo and a getBlockLocations per file.  The
+   * locations of each block are sorted by their distance to the client.
+   * The access times of the files are not changed.
+   *
+   * @param srcs the string representations of the paths
+   * @throws IOException if permission to access a file is denied by the
+   *                     system
+   * @return the file info, in the order of srcs; a null element for a
+   *         path that is not found
+   */
+  public HdfsLocatedFileStatus[] getLocatedFileInfo(String[] srcs)
+                                                    throws IOException;
+
   /**
    * Get {@link ContentSummary} rooted at the specified directory.
    * @param path The string representation of the path
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableFactories;
+import org.apache.hadoop.io.WritableFactory;
+
+/**
+ * A part of a directory listing: the statuses of some of the entries of
+ * a directory, in the order of their names, and the number of entries
+ * after them.  The entries of a located listing are all
+ * {@link HdfsLocatedFileStatus}es.
+ */
+public class DirectoryListing implements Writable {
+
+  static {                                      // register a ctor
+    WritableFactories.setFactory
+      (DirectoryListing.class,
+       new WritableFactory() {
+         public Writable newInstance() { return new DirectoryListing(); }
+       });
+  }
+
+  private FileStatus[] partialListing;
+  private int remainingEntries;
+
+  public DirectoryListing() {
+    this(new FileStatus[0], 0);
+  }
+
+  public DirectoryListing(FileStatus[] partialListing, int remainingEntries) {
+    if (partialListing == null) {
+      throw new IllegalArgumentException("partial listing should not be null");
+    }
+    if (partialListing.length == 0 && remainingEntries != 0) {
+      throw new IllegalArgumentException("Partial listing is empty but " +
+          "the number of remaining entries is not zero");
+    }
+    this.partialListing = partialListing;
+    this.remainingEntries = remainingEntries;
+  }
+
+  /** @return the statuses of the entries in this part of the listing. */
+  public FileStatus[] getPartialListing() {
+    return partialListing;
+  }
+
+  /** @return the number of entries after this part of the listing. */
+  public int getRemainingEntries() {
+    return remainingEntries;
+  }
+
+  /** @return true if the directory has entries after this part. */
+  public boolean hasMore() {
+    return remainingEntries != 0;
+  }
+
+  /**
+   * @return the name of the last entry of this part, to continue the
+   *         listing after it; the empty string if this part is empty.
+   */
+  public String getLastName() {
+    if (partialListing.length == 0) {
+      return "";
+    }
+    return partialListing[partialListing.length - 1].getPath().getName();
+  }
+
+  ///////////////////////////////////////////
+  // Writable
+  ///////////////////////////////////////////
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(partialListing.length);
+    out.writeBoolean(partialListing.length > 0 &&
+                     partialListing[0] instanceof HdfsLocatedFileStatus);
+    for (FileStatus status : partialListing) {
+      status.write(out);
+    }
+    out.writeInt(remainingEntries);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    int numEntries = in.readInt();
+    boolean located = in.readBoolean();
+    partialListing = new FileStatus[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      partialListing[i] = located ? new HdfsLocatedFileStatus() :
+                                    new FileStatus();
+      partialListing[i].readFields(in);
+    }
+    remainingEntries = in.readInt();
+  }
+}
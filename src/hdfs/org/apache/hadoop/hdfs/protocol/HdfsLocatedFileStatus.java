@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableFactories;
+import org.apache.hadoop.io.WritableFactory;
+
+/**
+ * The status of a file together with the locations of all its blocks, so
+ * that a client gets both in one call to the namenode.
+ */
+public class HdfsLocatedFileStatus extends FileStatus {
+
+  static {                                      // register a ctor
+    WritableFactories.setFactory
+      (HdfsLocatedFileStatus.class,
+       new WritableFactory() {
+         public Writable newInstance() { return new HdfsLocatedFileStatus(); }
+       });
+  }
+
+  private LocatedBlocks locations;
+
+  public HdfsLocatedFileStatus() {
+  }
+
+  /**
+   * @param stat the status of the file
+   * @param locations the locations of the blocks of the file; null for a
+   *                  directory
+   */
+  public HdfsLocatedFileStatus(FileStatus stat, LocatedBlocks locations) {
+    super(stat.getLen(), stat.isDir(), stat.getReplication(),
+          stat.getBlockSize(), stat.getModificationTime(),
+          stat.getAccessTime(), stat.getPermission(), stat.getOwner(),
+          stat.getGroup(), stat.getPath());
+    this.locations = locations;
+  }
+
+  /** @return the locations of the blocks of the file; null for a directory */
+  public LocatedBlocks getBlockLocations() {
+    return locations;
+  }
+
+  ///////////////////////////////////////////
+  // Writable
+  ///////////////////////////////////////////
+  public void write(DataOutput out) throws IOException {
+    super.write(out);
+    out.writeBoolean(locations != null);
+    if (locations != null) {
+      locations.write(out);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    super.readFields(in);
+    if (in.readBoolean()) {
+      locations = new LocatedBlocks();
+      locations.readFields(in);
+    } else {
+      locations = null;
+    }
+  }
+}
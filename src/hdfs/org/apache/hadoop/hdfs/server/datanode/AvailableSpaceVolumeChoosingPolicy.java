@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.hdfs.server.datanode.FSDataset.FSVolume;
+import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
+
+/**
+ * Write each new block to a volume picked at random, with a probability
+ * proportional to the space available on the volume.  Emptier volumes,
+ * such as newly added disks, get more of the new blocks until the
+ * volumes fill up evenly, while every volume keeps taking some writes.
+ */
+public class AvailableSpaceVolumeChoosingPolicy
+    implements BlockVolumeChoosingPolicy {
+  private final Random random = new Random();
+
+  public FSVolume chooseVolume(FSVolume[] volumes, long blockSize)
+      throws IOException {
+    long[] available = new long[volumes.length];
+    long totalAvailable = 0;
+    for (int idx = 0; idx < volumes.length; idx++) {
+      long avail = volumes[idx].getAvailable();
+      if (avail > blockSize) {
+        available[idx] = avail;
+        totalAvailable += avail;
+      }
+    }
+    if (totalAvailable == 0) {
+      throw new DiskOutOfSpaceException("Insufficient space for an additional block");
+    }
+    long target = (long)(random.nextDouble() * totalAvailable);
+    for (int idx = 0; idx < volumes.length; idx++) {
+      if (target < available[idx]) {
+        return volumes[idx];
+      }
+      target -= available[idx];
+    }
+    // rounding of the random target; return the last candidate
+    for (int idx = volumes.length - 1; ; idx--) {
+      if (available[idx] > 0) {
+        return volumes[idx];
+      }
+    }
+  }
+}
@@ -25,10 +25,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
-import java.util.zip.CRC32;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.Checksum;
 
 import org.apache.commons.logging.Log;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSInputChecker;
 import org.apache.hadoop.fs.FSOutputSummer;
 import org.apache.hadoop.hdfs.protocol.Block;
@@ -67,6 +70,7 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
   private String mirrorAddr;
   private DataOutputStream mirrorOut;
   private Daemon responder = null;
+  private DiskWriter diskWriter = null; // null if packets are written inline
   private BlockTransferThrottler throttler;
   private FSDataset.BlockWriteStreams streams;
   private boolean isRecovery = false;
@@ -74,6 +78,7 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
   DatanodeInfo srcDataNode = null;
   private Checksum partialCrc = null;
   private DataNode datanode = null;
+  private FSDataset.FSVolume volume = null; // counts the bytes received
 
   BlockReceiver(Block block, DataInputStream in, String inAddr,
                 String myAddr, boolean isRecovery, String clientName, 
@@ -96,6 +101,9 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
       //
       streams = datanode.data.writeToBlock(block, isRecovery);
       this.finalized = datanode.data.isValidBlock(block);
+      if (datanode.data instanceof FSDataset) {
+        volume = ((FSDataset)datanode.data).getVolume(block);
+      }
       if (streams != null) {
         this.out = streams.dataOut;
         this.checksumOut = new DataOutputStream(new BufferedOutputStream(
@@ -194,34 +202,28 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
    * Verify multiple CRC chunks. 
    */
   private void verifyChunks( byte[] dataBuf, int dataOff, int len, 
-                             byte[] checksumBuf, int checksumOff ) 
-                             throws IOException {
-    while (len > 0) {
-      int chunkLen = Math.min(len, bytesPerChecksum);
-      
-      checksum.update(dataBuf, dataOff, chunkLen);
-
-      if (!checksum.compare(checksumBuf, checksumOff)) {
-        if (srcDataNode != null) {
-          try {
-            LOG.info("report corrupt block " + block + " from datanode " +
-                      srcDataNode + " to namenode");
-            LocatedBlock lb = new LocatedBlock(block, 
-                                            new DatanodeInfo[] {srcDataNode});
-            datanode.namenode.reportBadBlocks(new LocatedBlock[] {lb});
-          } catch (IOException e) {
-            LOG.warn("Failed to report bad block " + block + 
-                      " from datanode " + srcDataNode + " to namenode");
-          }
+                             byte[] checksumBuf, int checksumOff,
+                             long packetOffset ) throws IOException {
+    try {
+      checksum.verifyChunkedSums(dataBuf, dataOff, len, 
+                                 checksumBuf, checksumOff, 
+                                 block.toString(), packetOffset);
+    } catch (ChecksumException ce) {
+      if (srcDataNode != null) {
+        try {
+          LOG.info("report corrupt block " + block + " from datanode " +
+                    srcDataNode + " to namenode");
+          LocatedBlock lb = new LocatedBlock(block, 
+                                          new DatanodeInfo[] {srcDataNode});
+          datanode.namenode.reportBadBlocks(new LocatedBlock[] {lb});
+        } catch (IOException e) {
+          LOG.warn("Failed to report bad block " + block + 
+                    " from datanode " + srcDataNode + " to namenode");
         }
-        throw new IOException("Unexpected checksum mismatch " + 
-                              "while writing " + block + " from " + inAddr);
       }
-
-      checksum.reset();
-      dataOff += chunkLen;
-      checksumOff += checksumSize;
-      len -= chunkLen;
+      throw new IOException("Unexpected checksum mismatch " + 
+                            "while writing " + block + " from " + inAddr + 
+                            " at offset " + ce.getPos());
     }
   }
 
@@ -393,7 +395,7 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
                 " lastPacketInBlock " + lastPacketInBlock);
     }
     
-    setBlockPosition(offsetInBlock);
+    long packetOffset = offsetInBlock;
     
     //First write the packet to the mirror:
     if (mirrorOut != null) {
@@ -414,39 +416,74 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
                             offsetInBlock + ": " + len); 
     } 
 
+    int checksumOff = buf.position();
+    int checksumLen = 0;
     if (len == 0) {
       LOG.debug("Receiving empty packet for block " + block);
     } else {
       offsetInBlock += len;
 
-      int checksumLen = ((len + bytesPerChecksum - 1)/bytesPerChecksum)*
+      checksumLen = ((len + bytesPerChecksum - 1)/bytesPerChecksum)*
                                                             checksumSize;
 
       if ( buf.remaining() != (checksumLen + len)) {
         throw new IOException("Data remaining in packet does not match " +
                               "sum of checksumLen and dataLen");
       }
-      int checksumOff = buf.position();
-      int dataOff = checksumOff + checksumLen;
-      byte pktBuf[] = buf.array();
+    }
+    buf.position(buf.limit()); // move to the end of the data.
+
+    /* skip verifying checksum iff this is not the last one in the 
+     * pipeline and clientName is non-null. i.e. Checksum is verified
+     * on all the datanodes when the data is being written by a 
+     * datanode rather than a client. Whe client is writing the data, 
+     * protocol includes acks and only the last datanode needs to verify 
+     * checksum.
+     */
+    boolean verify = (mirrorOut == null || clientName.length() == 0);
+    
+    DiskPacket packet = new DiskPacket(buf, seqno, lastPacketInBlock,
+                                       packetOffset, len, checksumOff,
+                                       checksumLen, verify);
+    if (diskWriter != null) {
+      buf = diskWriter.enqueue(packet);
+    } else {
+      writePacket(packet);
+    }
+    
+    if (throttler != null) { // throttle I/O
+      throttler.throttle(payloadLen);
+    }
+    
+    return payloadLen;
+  }
 
-      buf.position(buf.limit()); // move to the end of the data.
+  /**
+   * Verifies a received packet, writes it to the local disk and queues it
+   * for its ack.
+   */
+  private void writePacket(DiskPacket packet) throws IOException {
+    setBlockPosition(packet.offsetInBlock);
+    
+    int len = packet.len;
+    if (len > 0) {
+      byte pktBuf[] = packet.buf.array();
+      int checksumOff = packet.checksumOff;
+      int checksumLen = packet.checksumLen;
+      int dataOff = checksumOff + checksumLen;
 
-      /* skip verifying checksum iff this is not the last one in the 
-       * pipeline and clientName is non-null. i.e. Checksum is verified
-       * on all the datanodes when the data is being written by a 
-       * datanode rather than a client. Whe client is writing the data, 
-       * protocol includes acks and only the last datanode needs to verify 
-       * checksum.
-       */
-      if (mirrorOut == null || clientName.length() == 0) {
-        verifyChunks(pktBuf, dataOff, len, pktBuf, checksumOff);
+      if (packet.verify) {
+        verifyChunks(pktBuf, dataOff, len, pktBuf, checksumOff,
+                     packet.offsetInBlock);
       }
 
       try {
         if (!finalized) {
           //finally write to the disk :
           out.write(pktBuf, dataOff, len);
+          if (volume != null) {
+            volume.incTransferBytes(len);
+          }
 
           // If this is a partial chunk, then verify that this is the only
           // chunk in the packet. Calculate new crc for this chunk.
@@ -479,15 +516,9 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
 
     // put in queue for pending acks
     if (responder != null) {
-      ((PacketResponder)responder.getRunnable()).enqueue(seqno,
-                                      lastPacketInBlock); 
-    }
-    
-    if (throttler != null) { // throttle I/O
-      throttler.throttle(payloadLen);
+      ((PacketResponder)responder.getRunnable()).enqueue(packet.seqno,
+                                      packet.lastPacketInBlock); 
     }
-    
-    return payloadLen;
   }
 
   void writeChecksumHeader(DataOutputStream mirrorOut) throws IOException {
@@ -517,6 +548,10 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
                                                    replyOut, numTargets));
         responder.start(); // start thread to processes reponses
       }
+      if (datanode.asyncWritePackets > 0) {
+        diskWriter = new DiskWriter(datanode.asyncWritePackets);
+        diskWriter.start();
+      }
 
       /* 
        * Receive until packet length is zero.
@@ -533,6 +568,11 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
         }
       }
 
+      // the acks of the last packets are queued once they are on disk
+      if (diskWriter != null) {
+        diskWriter.finish();
+      }
+
       // wait for all outstanding packet responses. And then
       // indicate responder to gracefully shutdown.
       if (responder != null) {
@@ -555,6 +595,9 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
     } catch (IOException ioe) {
       LOG.info("Exception in receiveBlock for block " + block + 
                " " + ioe);
+      if (diskWriter != null) {
+        diskWriter.abort();
+      }
       IOUtils.closeStream(this);
       if (responder != null) {
         responder.interrupt();
@@ -562,6 +605,11 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
       cleanupBlock();
       throw ioe;
     } finally {
+      // a runtime exception must not leave the disk writer waiting for
+      // packets that never come
+      if (diskWriter != null && !diskWriter.isFinished()) {
+        diskWriter.abort();
+      }
       if (responder != null) {
         try {
           responder.join();
@@ -667,7 +715,8 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
     }
 
     // compute crc of partial chunk from data read in the block file.
-    partialCrc = new CRC32();
+    partialCrc = DataChecksum.newDataChecksum(checksum.getChecksumType(),
+                                              bytesPerChecksum);
     partialCrc.update(buf, 0, sizePartialChunk);
     LOG.info("Read in partial CRC chunk from disk for block " + block);
 
@@ -1005,4 +1054,161 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
       this.lastPacketInBlock = lastPacketInBlock;
     }
   }
+
+  /**
+   * A received packet, to be written to the local disk.
+   */
+  static private class DiskPacket {
+    final ByteBuffer buf;      // holds the packet
+    final long seqno;
+    final boolean lastPacketInBlock;
+    final long offsetInBlock;  // of the first byte of data
+    final int len;             // bytes of data
+    final int checksumOff;     // offset of the checksums in buf
+    final int checksumLen;     // data follows the checksums
+    final boolean verify;      // verify the checksums?
+
+    DiskPacket(ByteBuffer buf, long seqno, boolean lastPacketInBlock,
+               long offsetInBlock, int len, int checksumOff,
+               int checksumLen, boolean verify) {
+      this.buf = buf;
+      this.seqno = seqno;
+      this.lastPacketInBlock = lastPacketInBlock;
+      this.offsetInBlock = offsetInBlock;
+      this.len = len;
+      this.checksumOff = checksumOff;
+      this.checksumLen = checksumLen;
+      this.verify = verify;
+    }
+  }
+
+  /**
+   * DiskWriter verifies packets and writes them to the local disk in a
+   * thread of its own.  Meanwhile the receiving thread reads the next
+   * packets and forwards them to the mirror.  Each packet in flight owns
+   * a buffer, and the buffers are recycled, so packets are never copied.
+   * The ack of a packet is queued when it is on disk, as before.
+   */
+  private class DiskWriter implements Runnable {
+    private final BlockingQueue<DiskPacket> packets;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final int maxBuffers;
+    private int numBuffers = 1; // the receiving buffer
+    private volatile IOException error = null;
+    private Daemon thread;
+
+    /**
+     * @param maxPackets the number of packets the disk may fall behind
+     *        the receiving thread
+     */
+    DiskWriter(int maxPackets) {
+      maxBuffers = maxPackets + 1;
+      packets = new ArrayBlockingQueue<DiskPacket>(maxBuffers + 1);
+      freeBuffers = new ArrayBlockingQueue<ByteBuffer>(maxBuffers);
+    }
+
+    void start() {
+      thread = new Daemon(datanode.threadGroup, this);
+      thread.start();
+    }
+
+    private void checkError() throws IOException {
+      IOException e = error;
+      if (e != null) {
+        throw e;
+      }
+    }
+
+    /**
+     * Hand a received packet over to be written, and get a buffer for the
+     * next packet.  Bytes of the next packet already read after this one
+     * are moved to the new buffer.  Waits while the disk is maxPackets
+     * behind.
+     */
+    ByteBuffer enqueue(DiskPacket packet) throws IOException {
+      checkError();
+      ByteBuffer full = packet.buf;
+      int leftover = bufRead - full.limit();
+      
+      ByteBuffer next = freeBuffers.poll();
+      if (next == null && numBuffers < maxBuffers) {
+        next = ByteBuffer.allocate(full.capacity());
+        numBuffers++;
+      }
+      packets.add(packet);
+      try {
+        while (next == null) {
+          next = freeBuffers.poll(1, TimeUnit.SECONDS);
+          checkError();
+        }
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while writing " + block);
+      }
+      
+      if (next.capacity() < leftover) {
+        next = ByteBuffer.allocate(full.capacity());
+      }
+      if (leftover > 0) {
+        System.arraycopy(full.array(), full.limit(), next.array(), 0, leftover);
+      }
+      next.position(0);
+      next.limit(leftover);
+      bufRead = leftover;
+      return next;
+    }
+
+    public void run() {
+      while (true) {
+        DiskPacket packet;
+        try {
+          packet = packets.take();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (packet.buf == null) { // end of the block
+          return;
+        }
+        if (error == null) {
+          try {
+            writePacket(packet);
+          } catch (IOException e) {
+            error = e;
+          } catch (RuntimeException e) {
+            error = (IOException)new IOException(
+                "Failed to write " + block).initCause(e);
+          }
+        }
+        packet.buf.clear();
+        freeBuffers.offer(packet.buf);
+      }
+    }
+
+    /** Wait for the packets handed over to be written. */
+    void finish() throws IOException {
+      packets.add(new DiskPacket(null, -1, false, 0, 0, 0, 0, false));
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while writing " + block);
+      }
+      checkError();
+    }
+
+    /** @return true if the writer thread has exited */
+    boolean isFinished() {
+      return !thread.isAlive();
+    }
+
+    /** Stop writing; the packets not written yet are dropped. */
+    void abort() {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException ignored) {}
+    }
+
+    public String toString() {
+      return "DiskWriter for block " + block;
+    }
+  }
 }
@@ -64,6 +64,8 @@ class BlockSender implements java.io.Closeable, FSConstants {
   private boolean verifyChecksum; //if true, check is verified while reading
   private BlockTransferThrottler throttler;
   private final String clientTraceFmt; // format of client trace log message
+  private final FSDataset.FSVolume volume; // counts the bytes sent
+  private boolean countTransferBytes = true; // count the bytes in volume
 
   /**
    * Minimum buffer used while sending data to clients. Used only if
@@ -92,6 +94,8 @@ class BlockSender implements java.io.Closeable, FSConstants {
       this.blockLength = datanode.data.getLength(block);
       this.transferToAllowed = datanode.transferToAllowed;
       this.clientTraceFmt = clientTraceFmt;
+      this.volume = (datanode.data instanceof FSDataset)
+          ? ((FSDataset)datanode.data).getVolume(block) : null;
 
       if ( !corruptChecksumOk || datanode.data.metaFileExists(block) ) {
         checksumIn = new DataInputStream(
@@ -326,6 +330,9 @@ class BlockSender implements java.io.Closeable, FSConstants {
       throw ioeToSocketException(e);
     }
 
+    if (volume != null && countTransferBytes) {
+      volume.incTransferBytes(len);
+    }
     if (throttler != null) { // rebalancing so throttle
       throttler.throttle(packetLen);
     }
@@ -348,10 +355,25 @@ class BlockSender implements java.io.Closeable, FSConstants {
    */
   long sendBlock(DataOutputStream out, OutputStream baseStream, 
                  BlockTransferThrottler throttler) throws IOException {
+    return sendBlock(out, baseStream, throttler, true);
+  }
+
+  /**
+   * Like {@link #sendBlock(DataOutputStream, OutputStream,
+   * BlockTransferThrottler)}.
+   *
+   * @param countTransferBytes whether the bytes sent count in the transfer
+   *        bytes of the volume, i.e. are load served to clients and other
+   *        datanodes rather than reads of the block scanner.
+   */
+  long sendBlock(DataOutputStream out, OutputStream baseStream, 
+                 BlockTransferThrottler throttler,
+                 boolean countTransferBytes) throws IOException {
     if( out == null ) {
       throw new IOException( "out stream is null" );
     }
     this.throttler = throttler;
+    this.countTransferBytes = countTransferBytes;
 
     long initialOffset = offset;
     long totalRead = 0;
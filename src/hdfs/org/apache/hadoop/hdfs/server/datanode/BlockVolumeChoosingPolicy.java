@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hdfs.server.datanode.FSDataset.FSVolume;
+
+/**
+ * BlockVolumeChoosingPolicy decides which volume of a datanode a new
+ * block is written to.  The policy is set with
+ * <code>dfs.datanode.block.volume.choice.policy</code>; an implementation
+ * that also implements {@link org.apache.hadoop.conf.Configurable} gets
+ * the datanode's configuration.
+ */
+public interface BlockVolumeChoosingPolicy {
+
+  /**
+   * Choose a volume with room for a new block.  Calls are serialized by
+   * the caller, so a policy may keep state between calls without locking.
+   *
+   * @param volumes the volumes of the datanode, never empty
+   * @param blockSize the size of the block to be written
+   * @return the volume to write the block to
+   * @throws org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException
+   *         if no volume has room for the block
+   */
+  public FSVolume chooseVolume(FSVolume[] volumes, long blockSize)
+      throws IOException;
+}
@@ -29,11 +29,14 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
@@ -49,12 +52,20 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.datanode.FSDataset.FSVolume;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.StringUtils;
 
 /*
  * This keeps track of blocks and their last verification times.
  * Currently it does not modify the metadata for block.
+ *
+ * Each volume is scanned by a thread of its own, which keeps the
+ * verification times of the blocks of the volume in a log in the
+ * volume's directory.  The scan rate of a volume backs off while
+ * clients and other datanodes read and write a lot on it.
  */
 
 class DataBlockScanner implements Runnable {
@@ -67,6 +78,9 @@ class DataBlockScanner implements Runnable {
   static final long DEFAULT_SCAN_PERIOD_HOURS = 21*24L; // three weeks
   private static final long ONE_DAY = 24*3600*1000L;
   
+  // transfer rate above which a volume is busy
+  static final long DEFAULT_BUSY_BANDWIDTH = 10 * 1024 * 1024;
+  
   static final DateFormat dateFormat = 
                     new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
   
@@ -74,28 +88,15 @@ class DataBlockScanner implements Runnable {
   static final int verficationLogLimit = 5; // * numBlocks.
 
   private long scanPeriod = DEFAULT_SCAN_PERIOD_HOURS * 3600 * 1000;
+  private final long busyBandwidth;
   DataNode datanode;
   FSDataset dataset;
   
-  // sorted set
-  TreeSet<BlockScanInfo> blockInfoSet;
-  HashMap<Block, BlockScanInfo> blockMap;
-  
-  long totalScans = 0;
-  long totalVerifications = 0; // includes remote verification by clients.
-  long totalScanErrors = 0;
-  long totalTransientErrors = 0;
-  
-  long currentPeriodStart = System.currentTimeMillis();
-  long bytesLeft = 0; // Bytes to scan in this period
-  long totalBytesToScan = 0;
-  
-  private LogFileHandler verificationLog;
+  // the scanner of each volume, set when the scanner thread starts
+  private volatile Map<FSVolume, VolumeScanner> volumeScanners = null;
   
   Random random = new Random();
   
-  BlockTransferThrottler throttler = null;
-  
   private static enum ScanType {
     REMOTE_READ,           // Verified when a block read by a client etc
     VERIFICATION_SCAN,     // scanned as part of periodic verfication
@@ -142,153 +143,68 @@ class DataBlockScanner implements Runnable {
       scanPeriod = DEFAULT_SCAN_PERIOD_HOURS;
     }
     scanPeriod *= 3600 * 1000;
+    busyBandwidth = conf.getLong("dfs.datanode.scan.busy.bandwidthPerSec",
+                                 DEFAULT_BUSY_BANDWIDTH);
     // initialized when the scanner thread is started.
   }
   
-  private synchronized boolean isInitiliazed() {
-    return throttler != null;
-  }
-  
-  private void updateBytesToScan(long len, long lastScanTime) {
-    // len could be negative when a block is deleted.
-    totalBytesToScan += len;
-    if ( lastScanTime < currentPeriodStart ) {
-      bytesLeft += len;
-    }
-    // Should we change throttler bandwidth every time bytesLeft changes?
-    // not really required.
-  }
-  
-  private synchronized void addBlockInfo(BlockScanInfo info) {
-    boolean added = blockInfoSet.add(info);
-    blockMap.put(info.block, info);
-    
-    if ( added ) {
-      LogFileHandler log = verificationLog;
-      if (log != null) {
-        log.setMaxNumLines(blockMap.size() * verficationLogLimit);
-      }
-      updateBytesToScan(info.block.getNumBytes(), info.lastScanTime);
+  boolean isInitiliazed() {
+    Map<FSVolume, VolumeScanner> scanners = volumeScanners;
+    if (scanners == null) {
+      return false;
     }
-  }
-  
-  private synchronized void delBlockInfo(BlockScanInfo info) {
-    boolean exists = blockInfoSet.remove(info);
-    blockMap.remove(info.block);
-    if ( exists ) {
-      LogFileHandler log = verificationLog;
-      if (log != null) {
-        log.setMaxNumLines(blockMap.size() * verficationLogLimit);
+    for (VolumeScanner scanner : scanners.values()) {
+      if (!scanner.isInitiliazed()) {
+        return false;
       }
-      updateBytesToScan(-info.block.getNumBytes(), info.lastScanTime);
     }
+    return true;
   }
   
-  /** Update blockMap by the given LogEntry */
-  private synchronized void updateBlockInfo(LogEntry e) {
-    BlockScanInfo info = blockMap.get(new Block(e.blockId, 0, e.genStamp));
-    
-    if(info != null && e.verificationTime > 0 && 
-        info.lastScanTime < e.verificationTime) {
-      delBlockInfo(info);
-      info.lastScanTime = e.verificationTime;
-      info.lastScanType = ScanType.VERIFICATION_SCAN;
-      addBlockInfo(info);
+  /** @return the scanner of the volume of the block, if any */
+  private VolumeScanner getVolumeScanner(Block block) {
+    Map<FSVolume, VolumeScanner> scanners = volumeScanners;
+    if (scanners == null) {
+      return null;
     }
+    FSVolume volume = dataset.getVolume(block);
+    return (volume == null) ? null : scanners.get(volume);
   }
-
-  private void init() {
-    
-    // get the list of blocks and arrange them in random order
-    Block arr[] = dataset.getBlockReport();
-    Collections.shuffle(Arrays.asList(arr));
-    
-    blockInfoSet = new TreeSet<BlockScanInfo>();
-    blockMap = new HashMap<Block, BlockScanInfo>();
-    
-    long scanTime = -1;
-    for (Block block : arr) {
-      BlockScanInfo info = new BlockScanInfo( block );
-      info.lastScanTime = scanTime--; 
-      //still keep 'info.lastScanType' to NONE.
-      addBlockInfo(info);
-    }
-
-    /* Pick the first directory that has any existing scanner log.
-     * otherwise, pick the first directory.
-     */
-    File dir = null;
-    FSDataset.FSVolume[] volumes = dataset.volumes.volumes;
-    for(FSDataset.FSVolume vol : volumes) {
-      if (LogFileHandler.isFilePresent(vol.getDir(), verificationLogFile)) {
-        dir = vol.getDir();
-        break;
-      }
-    }
-    if (dir == null) {
-      dir = volumes[0].getDir();
-    }
-    
-    try {
-      // max lines will be updated later during initialization.
-      verificationLog = new LogFileHandler(dir, verificationLogFile, 100);
-    } catch (IOException e) {
-      LOG.warn("Could not open verfication log. " +
-               "Verification times are not stored.");
-    }
-    
-    synchronized (this) {
-      throttler = new BlockTransferThrottler(200, MAX_SCAN_RATE);
+  
+  /** @return the scanners of all the volumes */
+  private Iterable<VolumeScanner> getVolumeScanners() {
+    Map<FSVolume, VolumeScanner> scanners = volumeScanners;
+    if (scanners == null) {
+      return Collections.<VolumeScanner>emptyList();
     }
-  }
-
-  private synchronized long getNewBlockScanTime() {
-    /* If there are a lot of blocks, this returns a random time with in 
-     * the scan period. Otherwise something sooner.
-     */
-    long period = Math.min(scanPeriod, 
-                           Math.max(blockMap.size(),1) * 600 * 1000L);
-    return System.currentTimeMillis() - scanPeriod + 
-           random.nextInt((int)period);    
+    return scanners.values();
   }
 
   /** Adds block to list of blocks */
-  synchronized void addBlock(Block block) {
-    if (!isInitiliazed()) {
-      return;
+  void addBlock(Block block) {
+    VolumeScanner scanner = getVolumeScanner(block);
+    if (scanner != null) {
+      scanner.addBlock(block);
     }
-    
-    BlockScanInfo info = blockMap.get(block);
-    if ( info != null ) {
-      LOG.warn("Adding an already existing block " + block);
-      delBlockInfo(info);
-    }
-    
-    info = new BlockScanInfo(block);    
-    info.lastScanTime = getNewBlockScanTime();
-    
-    addBlockInfo(info);
-    adjustThrottler();
   }
   
   /** Deletes the block from internal structures */
-  synchronized void deleteBlock(Block block) {
-    if (!isInitiliazed()) {
-      return;
-    }
-    BlockScanInfo info = blockMap.get(block);
-    if ( info != null ) {
-      delBlockInfo(info);
+  void deleteBlock(Block block) {
+    // the block may not be in the dataset anymore, so ask every volume
+    for (VolumeScanner scanner : getVolumeScanners()) {
+      scanner.deleteBlock(block);
     }
   }
 
   /** @return the last scan time */
-  synchronized long getLastScanTime(Block block) {
-    if (!isInitiliazed()) {
-      return 0;
+  long getLastScanTime(Block block) {
+    for (VolumeScanner scanner : getVolumeScanners()) {
+      long lastScanTime = scanner.getLastScanTime(block);
+      if (lastScanTime != 0) {
+        return lastScanTime;
+      }
     }
-    BlockScanInfo info = blockMap.get(block);
-    return info == null? 0: info.lastScanTime;
+    return 0;
   }
 
   /** Deletes blocks from internal structures */
@@ -299,43 +215,9 @@ class DataBlockScanner implements Runnable {
   }
   
   void verifiedByClient(Block block) {
-    updateScanStatus(block, ScanType.REMOTE_READ, true);
-  }
-  
-  private synchronized void updateScanStatus(Block block, 
-                                             ScanType type,
-                                             boolean scanOk) {
-    BlockScanInfo info = blockMap.get(block);
-    
-    if ( info != null ) {
-      delBlockInfo(info);
-    } else {
-      // It might already be removed. Thats ok, it will be caught next time.
-      info = new BlockScanInfo(block);
-    }
-    
-    long now = System.currentTimeMillis();
-    info.lastScanType = type;
-    info.lastScanTime = now;
-    info.lastScanOk = scanOk;
-    addBlockInfo(info);
-    
-    if (type == ScanType.REMOTE_READ) {
-      totalVerifications++;
-    }
-        
-    // Don't update meta data too often in case of REMOTE_READ
-    // of if the verification failed.
-    long diff = now - info.lastLogTime;
-    if (!scanOk || (type == ScanType.REMOTE_READ &&
-                    diff < scanPeriod/3 && diff < ONE_DAY)) {
-      return;
-    }
-    
-    info.lastLogTime = now;
-    LogFileHandler log = verificationLog;
-    if (log != null) {
-      log.appendLine(LogEntry.newEnry(block, now));
+    VolumeScanner scanner = getVolumeScanner(block);
+    if (scanner != null) {
+      scanner.updateScanStatus(block, ScanType.REMOTE_READ, true);
     }
   }
   
@@ -403,217 +285,557 @@ class DataBlockScanner implements Runnable {
     }
   }
   
-  private synchronized void adjustThrottler() {
-    long timeLeft = currentPeriodStart+scanPeriod - System.currentTimeMillis();
-    long bw = Math.max(bytesLeft*1000/timeLeft, MIN_SCAN_RATE);
-    throttler.setBandwidth(Math.min(bw, MAX_SCAN_RATE));
-  }
   
-  private void verifyBlock(Block block) {
+  /**
+   * VolumeScanner verifies the blocks of one volume.  Its monitor guards
+   * the scan state of the volume; the blocks are read without it.
+   */
+  class VolumeScanner implements Runnable {
+    final FSVolume volume;
+    
+    // sorted set
+    TreeSet<BlockScanInfo> blockInfoSet = new TreeSet<BlockScanInfo>();
+    HashMap<Block, BlockScanInfo> blockMap = new HashMap<Block, BlockScanInfo>();
+    
+    long totalScans = 0;
+    long totalVerifications = 0; // includes remote verification by clients.
+    long totalScanErrors = 0;
+    long totalTransientErrors = 0;
+    
+    long currentPeriodStart = System.currentTimeMillis();
+    long bytesLeft = 0; // Bytes to scan in this period
+    long totalBytesToScan = 0;
+    
+    private LogFileHandler verificationLog;
+    private boolean hadVerificationLog = false;
+    
+    BlockTransferThrottler throttler = null;
+    
+    // bytes read and written by clients and other datanodes per second
+    private long transferRate = 0;
+    private long lastTransferBytes = 0;
+    private long lastTransferTime = 0;
+    
+    VolumeScanner(FSVolume volume) {
+      this.volume = volume;
+    }
+    
+    private synchronized boolean isInitiliazed() {
+      return throttler != null;
+    }
     
-    BlockSender blockSender = null;
+    private void updateBytesToScan(long len, long lastScanTime) {
+      // len could be negative when a block is deleted.
+      totalBytesToScan += len;
+      if ( lastScanTime < currentPeriodStart ) {
+        bytesLeft += len;
+      }
+      // Should we change throttler bandwidth every time bytesLeft changes?
+      // not really required.
+    }
+    
+    private synchronized void addBlockInfo(BlockScanInfo info) {
+      boolean added = blockInfoSet.add(info);
+      blockMap.put(info.block, info);
+      
+      if ( added ) {
+        LogFileHandler log = verificationLog;
+        if (log != null) {
+          log.setMaxNumLines(blockMap.size() * verficationLogLimit);
+        }
+        updateBytesToScan(info.block.getNumBytes(), info.lastScanTime);
+      }
+    }
+    
+    private synchronized void delBlockInfo(BlockScanInfo info) {
+      boolean exists = blockInfoSet.remove(info);
+      blockMap.remove(info.block);
+      if ( exists ) {
+        LogFileHandler log = verificationLog;
+        if (log != null) {
+          log.setMaxNumLines(blockMap.size() * verficationLogLimit);
+        }
+        updateBytesToScan(-info.block.getNumBytes(), info.lastScanTime);
+      }
+    }
+    
+    /** Update blockMap by the given LogEntry */
+    private synchronized void updateBlockInfo(LogEntry e) {
+      BlockScanInfo info = blockMap.get(new Block(e.blockId, 0, e.genStamp));
+      
+      if(info != null && e.verificationTime > 0 && 
+          info.lastScanTime < e.verificationTime) {
+        delBlockInfo(info);
+        info.lastScanTime = e.verificationTime;
+        info.lastScanType = ScanType.VERIFICATION_SCAN;
+        addBlockInfo(info);
+      }
+    }
 
-    /* In case of failure, attempt to read second time to reduce
-     * transient errors. How do we flush block data from kernel 
-     * buffers before the second read? 
-     */
-    for (int i=0; i<2; i++) {
-      boolean second = (i > 0);
+    private void init() {
       
-      try {
-        adjustThrottler();
-        
-        blockSender = new BlockSender(block, 0, -1, false, 
-                                               false, true, datanode);
+      // get the list of blocks and arrange them in random order
+      TreeSet<Block> blockSet = new TreeSet<Block>();
+      volume.getBlockInfo(blockSet);
+      Block arr[] = blockSet.toArray(new Block[blockSet.size()]);
+      Collections.shuffle(Arrays.asList(arr));
+      
+      long scanTime = -1;
+      for (Block block : arr) {
+        BlockScanInfo info = new BlockScanInfo( block );
+        info.lastScanTime = scanTime--; 
+        //still keep 'info.lastScanType' to NONE.
+        addBlockInfo(info);
+      }
 
-        DataOutputStream out = 
-                new DataOutputStream(new IOUtils.NullOutputStream());
-        
-        blockSender.sendBlock(out, null, throttler);
+      File dir = volume.getDir();
+      hadVerificationLog = LogFileHandler.isFilePresent(dir,
+                                                        verificationLogFile);
+      try {
+        // max lines will be updated later during initialization.
+        verificationLog = new LogFileHandler(dir, verificationLogFile, 100);
+      } catch (IOException e) {
+        LOG.warn("Could not open verfication log in " + dir + ". " +
+                 "Verification times are not stored.");
+      }
+      
+      synchronized (this) {
+        throttler = new BlockTransferThrottler(200, MAX_SCAN_RATE);
+        lastTransferBytes = volume.getTransferBytes();
+        lastTransferTime = System.currentTimeMillis();
+      }
+    }
 
-        LOG.info((second ? "Second " : "") +
-                 "Verification succeeded for " + block);
-        
-        if ( second ) {
-          totalTransientErrors++;
-        }
-        
-        updateScanStatus(block, ScanType.VERIFICATION_SCAN, true);
+    private synchronized long getNewBlockScanTime() {
+      /* If there are a lot of blocks, this returns a random time with in 
+       * the scan period. Otherwise something sooner.
+       */
+      long period = Math.min(scanPeriod, 
+                             Math.max(blockMap.size(),1) * 600 * 1000L);
+      return System.currentTimeMillis() - scanPeriod + 
+             random.nextInt((int)period);    
+    }
 
+    /** Adds block to list of blocks */
+    synchronized void addBlock(Block block) {
+      if (!isInitiliazed()) {
         return;
-      } catch (IOException e) {
-
-        totalScanErrors++;
-        updateScanStatus(block, ScanType.VERIFICATION_SCAN, false);
+      }
+      
+      BlockScanInfo info = blockMap.get(block);
+      if ( info != null ) {
+        LOG.warn("Adding an already existing block " + block);
+        delBlockInfo(info);
+      }
+      
+      info = new BlockScanInfo(block);    
+      info.lastScanTime = getNewBlockScanTime();
+      
+      addBlockInfo(info);
+      adjustThrottler();
+    }
+    
+    /** Deletes the block from internal structures */
+    synchronized void deleteBlock(Block block) {
+      if (!isInitiliazed()) {
+        return;
+      }
+      BlockScanInfo info = blockMap.get(block);
+      if ( info != null ) {
+        delBlockInfo(info);
+      }
+    }
 
-        // If the block does not exists anymore, then its not an error
-        if ( dataset.getFile(block) == null ) {
-          LOG.info("Verification failed for " + block + ". Its ok since " +
-          "it not in datanode dataset anymore.");
-          deleteBlock(block);
-          return;
-        }
+    /** @return the last scan time */
+    synchronized long getLastScanTime(Block block) {
+      if (!isInitiliazed()) {
+        return 0;
+      }
+      BlockScanInfo info = blockMap.get(block);
+      return info == null? 0: info.lastScanTime;
+    }
 
-        LOG.warn((second ? "Second " : "First ") + 
-                 "Verification failed for " + block + ". Exception : " +
-                 StringUtils.stringifyException(e));
-        
-        if (second) {
-          datanode.getMetrics().blockVerificationFailures.inc(); 
-          handleScanFailure(block);
-          return;
-        } 
-      } finally {
-        IOUtils.closeStream(blockSender);
-        datanode.getMetrics().blocksVerified.inc();
-        totalScans++;
+    private synchronized void updateScanStatus(Block block, 
+                                               ScanType type,
+                                               boolean scanOk) {
+      if (!isInitiliazed()) {
+        return;
+      }
+      BlockScanInfo info = blockMap.get(block);
+      
+      if ( info != null ) {
+        delBlockInfo(info);
+      } else {
+        // It might already be removed. Thats ok, it will be caught next time.
+        info = new BlockScanInfo(block);
+      }
+      
+      long now = System.currentTimeMillis();
+      info.lastScanType = type;
+      info.lastScanTime = now;
+      info.lastScanOk = scanOk;
+      addBlockInfo(info);
+      
+      if (type == ScanType.REMOTE_READ) {
         totalVerifications++;
       }
-    }
-  }
-  
-  private synchronized long getEarliestScanTime() {
-    if ( blockInfoSet.size() > 0 ) {
-      return blockInfoSet.first().lastScanTime;
-    }
-    return Long.MAX_VALUE; 
-  }
-  
-  // Picks one block and verifies it
-  private void verifyFirstBlock() {
-    Block block = null;
-    synchronized (this) {
-      if ( blockInfoSet.size() > 0 ) {
-        block = blockInfoSet.first().block;
+          
+      // Don't update meta data too often in case of REMOTE_READ
+      // of if the verification failed.
+      long diff = now - info.lastLogTime;
+      if (!scanOk || (type == ScanType.REMOTE_READ &&
+                      diff < scanPeriod/3 && diff < ONE_DAY)) {
+        return;
+      }
+      
+      info.lastLogTime = now;
+      LogFileHandler log = verificationLog;
+      if (log != null) {
+        log.appendLine(LogEntry.newEnry(block, now));
       }
     }
     
-    if ( block != null ) {
-      verifyBlock(block);
+    /**
+     * Set the scan rate from the bytes left to scan in this period.  While
+     * the volume transfers less than the busy bandwidth for clients and
+     * other datanodes, scan due blocks at the maximum rate.  Above it, slow
+     * down in proportion to the transfer rate, to no less than the
+     * minimum rate.
+     */
+    private synchronized void adjustThrottler() {
+      long now = System.currentTimeMillis();
+      long elapsed = now - lastTransferTime;
+      if (elapsed >= 1000) {
+        long transferBytes = volume.getTransferBytes();
+        transferRate = (transferBytes - lastTransferBytes) * 1000 / elapsed;
+        lastTransferBytes = transferBytes;
+        lastTransferTime = now;
+      }
+      
+      long timeLeft = Math.max(currentPeriodStart+scanPeriod - now, 1);
+      long bw = Math.max(bytesLeft*1000/timeLeft, MIN_SCAN_RATE);
+      if (busyBandwidth > 0) {
+        if (transferRate < busyBandwidth) {
+          bw = MAX_SCAN_RATE;
+        } else {
+          bw = Math.max(bw * busyBandwidth / transferRate, MIN_SCAN_RATE);
+        }
+      }
+      throttler.setBandwidth(Math.min(bw, MAX_SCAN_RATE));
     }
-  }
-  
-  /** returns false if the process was interrupted
-   * because the thread is marked to exit.
-   */
-  private boolean assignInitialVerificationTimes() {
-    int numBlocks = 1;
-    synchronized (this) {
-      numBlocks = Math.max(blockMap.size(), 1);
+    
+    private void verifyBlock(Block block) {
+      
+      BlockSender blockSender = null;
+
+      /* In case of failure, attempt to read second time to reduce
+       * transient errors. How do we flush block data from kernel 
+       * buffers before the second read? 
+       */
+      for (int i=0; i<2; i++) {
+        boolean second = (i > 0);
+        
+        try {
+          adjustThrottler();
+          
+          blockSender = new BlockSender(block, 0, -1, false, 
+                                                 false, true, datanode);
+
+          DataOutputStream out = 
+                  new DataOutputStream(new IOUtils.NullOutputStream());
+          
+          // the scan is not load on the volume for adjustThrottler()
+          blockSender.sendBlock(out, null, throttler, false);
+
+          LOG.info((second ? "Second " : "") +
+                   "Verification succeeded for " + block);
+          
+          DataNodeMetrics.VolumeMetrics metrics = volume.getMetrics();
+          if (metrics != null) {
+            metrics.bytesVerified.inc(block.getNumBytes());
+          }
+          
+          synchronized (this) {
+            if ( second ) {
+              totalTransientErrors++;
+            }
+          }
+          
+          updateScanStatus(block, ScanType.VERIFICATION_SCAN, true);
+
+          return;
+        } catch (IOException e) {
+
+          synchronized (this) {
+            totalScanErrors++;
+          }
+          updateScanStatus(block, ScanType.VERIFICATION_SCAN, false);
+
+          // If the block does not exists anymore, then its not an error
+          if ( dataset.getFile(block) == null ) {
+            LOG.info("Verification failed for " + block + ". Its ok since " +
+            "it not in datanode dataset anymore.");
+            deleteBlock(block);
+            return;
+          }
+
+          LOG.warn((second ? "Second " : "First ") + 
+                   "Verification failed for " + block + ". Exception : " +
+                   StringUtils.stringifyException(e));
+          
+          if (second) {
+            datanode.getMetrics().blockVerificationFailures.inc(); 
+            handleScanFailure(block);
+            return;
+          } 
+        } finally {
+          IOUtils.closeStream(blockSender);
+          datanode.getMetrics().blocksVerified.inc();
+          synchronized (this) {
+            totalScans++;
+            totalVerifications++;
+          }
+        }
+      }
     }
     
-    //First udpates the last verification times from the log file.
-    LogFileHandler.Reader logReader = null;
-    try {
-      if (verificationLog != null) {
-        logReader = verificationLog.new Reader(false);
+    private synchronized long getEarliestScanTime() {
+      if ( blockInfoSet.size() > 0 ) {
+        return blockInfoSet.first().lastScanTime;
       }
-    } catch (IOException e) {
-      LOG.warn("Could not read previous verification times : " +
-               StringUtils.stringifyException(e));
+      return Long.MAX_VALUE; 
     }
     
-    if (verificationLog != null) {
-      verificationLog.updateCurNumLines();
+    /**
+     * @return how long the most overdue block is past its scan period,
+     *         in milliseconds
+     */
+    private long getScanLag(long now) {
+      long earliest = getEarliestScanTime();
+      return (earliest == Long.MAX_VALUE) ? 0 :
+             Math.max(now - earliest - scanPeriod, 0);
     }
     
-    try {
-    // update verification times from the verificationLog.
-    while (logReader != null && logReader.hasNext()) {
-      if (!datanode.shouldRun || Thread.interrupted()) {
-        return false;
+    // Picks one block and verifies it
+    private void verifyFirstBlock() {
+      Block block = null;
+      synchronized (this) {
+        if ( blockInfoSet.size() > 0 ) {
+          block = blockInfoSet.first().block;
+        }
       }
-      LogEntry entry = LogEntry.parseEntry(logReader.next());
-      if (entry != null) {
-        updateBlockInfo(entry);
+      
+      if ( block != null ) {
+        verifyBlock(block);
       }
     }
-    } finally {
-      IOUtils.closeStream(logReader);
-    }
     
-    /* Initially spread the block reads over half of 
-     * MIN_SCAN_PERIOD so that we don't keep scanning the 
-     * blocks too quickly when restarted.
+    /** returns false if the process was interrupted
+     * because the thread is marked to exit.
      */
-    long verifyInterval = (long) (Math.min( scanPeriod/2.0/numBlocks,
-                                            10*60*1000 ));
-    long lastScanTime = System.currentTimeMillis() - scanPeriod;
-    
-    /* Before this loop, entries in blockInfoSet that are not
-     * updated above have lastScanTime of <= 0 . Loop until first entry has
-     * lastModificationTime > 0.
-     */    
-    synchronized (this) {
-      if (blockInfoSet.size() > 0 ) {
-        BlockScanInfo info;
-        while ((info =  blockInfoSet.first()).lastScanTime < 0) {
-          delBlockInfo(info);        
-          info.lastScanTime = lastScanTime;
-          lastScanTime += verifyInterval;
-          addBlockInfo(info);
+    private boolean readVerificationLog(LogFileHandler log) {
+      LogFileHandler.Reader logReader = null;
+      try {
+        logReader = log.new Reader(false);
+      } catch (IOException e) {
+        LOG.warn("Could not read previous verification times : " +
+                 StringUtils.stringifyException(e));
+      }
+      
+      if (log == verificationLog) {
+        log.updateCurNumLines();
+      }
+      
+      try {
+        // update verification times from the verificationLog.
+        while (logReader != null && logReader.hasNext()) {
+          if (!datanode.shouldRun || Thread.interrupted()) {
+            return false;
+          }
+          LogEntry entry = LogEntry.parseEntry(logReader.next());
+          if (entry != null) {
+            updateBlockInfo(entry);
+          }
         }
+      } finally {
+        IOUtils.closeStream(logReader);
       }
+      return true;
     }
     
-    return true;
-  }
-  
-  private synchronized void startNewPeriod() {
-    LOG.info("Starting a new period : work left in prev period : " +
-             String.format("%.2f%%", (bytesLeft * 100.0)/totalBytesToScan));
-    // reset the byte counts :
-    bytesLeft = totalBytesToScan;
-    currentPeriodStart = System.currentTimeMillis();
-  }
-  
-  public void run() {
-    try {
+    /** returns false if the process was interrupted
+     * because the thread is marked to exit.
+     */
+    private boolean assignInitialVerificationTimes() {
+      int numBlocks = 1;
+      synchronized (this) {
+        numBlocks = Math.max(blockMap.size(), 1);
+      }
       
-      init();
+      //First udpates the last verification times from the log file.
+      if (verificationLog != null &&
+          !readVerificationLog(verificationLog)) {
+        return false;
+      }
       
-      //Read last verification times
-      if (!assignInitialVerificationTimes()) {
-        return;
+      /* A single log used to keep the verification times of all the
+       * volumes.  Until this volume has a log of its own, read the times
+       * of its blocks from the logs of the other volumes.
+       */
+      if (!hadVerificationLog) {
+        for (FSVolume other : dataset.volumes.volumes) {
+          File dir = other.getDir();
+          if (other == volume ||
+              !LogFileHandler.isFilePresent(dir, verificationLogFile)) {
+            continue;
+          }
+          LogFileHandler log = null;
+          try {
+            log = new LogFileHandler(dir, verificationLogFile, 100);
+            if (!readVerificationLog(log)) {
+              return false;
+            }
+          } catch (IOException e) {
+            LOG.warn("Could not read verification times in " + dir + " : " +
+                     StringUtils.stringifyException(e));
+          } finally {
+            if (log != null) {
+              log.close();
+            }
+          }
+        }
       }
       
-      adjustThrottler();
+      /* Initially spread the block reads over half of 
+       * MIN_SCAN_PERIOD so that we don't keep scanning the 
+       * blocks too quickly when restarted.
+       */
+      long verifyInterval = (long) (Math.min( scanPeriod/2.0/numBlocks,
+                                              10*60*1000 ));
+      long lastScanTime = System.currentTimeMillis() - scanPeriod;
       
-      while (datanode.shouldRun && !Thread.interrupted()) {
-        long now = System.currentTimeMillis();
-        synchronized (this) {
-          if ( now >= (currentPeriodStart + scanPeriod)) {
-            startNewPeriod();
+      /* Before this loop, entries in blockInfoSet that are not
+       * updated above have lastScanTime of <= 0 . Loop until first entry has
+       * lastModificationTime > 0.
+       */    
+      synchronized (this) {
+        if (blockInfoSet.size() > 0 ) {
+          BlockScanInfo info;
+          while ((info =  blockInfoSet.first()).lastScanTime < 0) {
+            delBlockInfo(info);        
+            info.lastScanTime = lastScanTime;
+            lastScanTime += verifyInterval;
+            addBlockInfo(info);
           }
         }
-        if ( (now - getEarliestScanTime()) >= scanPeriod ) {
-          verifyFirstBlock();
-        } else {
-          try {
-            Thread.sleep(1000);
-          } catch (InterruptedException ignored) {}
+      }
+      
+      return true;
+    }
+    
+    private synchronized void startNewPeriod() {
+      LOG.info("Starting a new period for " + volume +
+               " : work left in prev period : " +
+               String.format("%.2f%%", (bytesLeft * 100.0)/totalBytesToScan));
+      // reset the byte counts :
+      bytesLeft = totalBytesToScan;
+      currentPeriodStart = System.currentTimeMillis();
+    }
+    
+    public void run() {
+      try {
+        
+        init();
+        
+        //Read last verification times
+        if (!assignInitialVerificationTimes()) {
+          return;
         }
+        
+        adjustThrottler();
+        
+        while (datanode.shouldRun && !Thread.interrupted()) {
+          long now = System.currentTimeMillis();
+          synchronized (this) {
+            if ( now >= (currentPeriodStart + scanPeriod)) {
+              startNewPeriod();
+            }
+          }
+          DataNodeMetrics.VolumeMetrics metrics = volume.getMetrics();
+          if (metrics != null) {
+            metrics.scanLag.set(getScanLag(now));
+          }
+          if ( (now - getEarliestScanTime()) >= scanPeriod ) {
+            verifyFirstBlock();
+          } else {
+            try {
+              Thread.sleep(1000);
+            } catch (InterruptedException ignored) {
+              return;
+            }
+          }
+        }
+      } catch (RuntimeException e) {
+        LOG.warn("RuntimeException during DataBlockScanner.run() for " +
+                 volume + " : " + StringUtils.stringifyException(e));
+        throw e;
+      } finally {
+        shutdown();
+        LOG.info("Exiting DataBlockScanner thread for " + volume + ".");
       }
-    } catch (RuntimeException e) {
-      LOG.warn("RuntimeException during DataBlockScanner.run() : " +
-               StringUtils.stringifyException(e));
-      throw e;
-    } finally {
-      shutdown();
-      LOG.info("Exiting DataBlockScanner thread.");
+    }
+    
+    synchronized void shutdown() {
+      LogFileHandler log = verificationLog;
+      verificationLog = null;
+      if (log != null) {
+        log.close();
+      }
+    }
+    
+    public String toString() {
+      return "DataBlockScanner-" + volume;
     }
   }
   
-  synchronized void shutdown() {
-    LogFileHandler log = verificationLog;
-    verificationLog = null;
-    if (log != null) {
-      log.close();
+  /**
+   * Start a scanner thread for each volume and wait for them to exit.
+   * Interrupting this thread stops the scanners.
+   */
+  public void run() {
+    Map<FSVolume, VolumeScanner> scanners =
+      new HashMap<FSVolume, VolumeScanner>();
+    for (FSVolume volume : dataset.volumes.volumes) {
+      scanners.put(volume, new VolumeScanner(volume));
     }
+    volumeScanners = scanners;
+    
+    List<Thread> threads = new ArrayList<Thread>();
+    for (VolumeScanner scanner : scanners.values()) {
+      Thread thread = new Daemon(scanner);
+      thread.start();
+      threads.add(thread);
+    }
+    
+    boolean interrupted = false;
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          if (!interrupted) {
+            interrupted = true;
+            for (Thread t : threads) {
+              t.interrupt();
+            }
+          }
+        }
+      }
+    }
+    LOG.info("Exiting DataBlockScanner thread.");
   }
   
-  synchronized void printBlockReport(StringBuilder buffer, 
-                                     boolean summaryOnly) {
+  void printBlockReport(StringBuilder buffer, boolean summaryOnly) {
     long oneHour = 3600*1000;
     long oneDay = 24*oneHour;
     long oneWeek = 7*oneDay;
@@ -626,38 +848,72 @@ class DataBlockScanner implements Runnable {
     int inScanPeriod = 0;
     int neverScanned = 0;
     
-    int total = blockInfoSet.size();
+    int total = 0;
+    long totalVerifications = 0;
+    long totalScans = 0;
+    long totalScanErrors = 0;
+    long totalTransientErrors = 0;
+    long bandwidth = 0;
+    long bytesLeft = 0;
+    long totalBytesToScan = 0;
+    long currentPeriodStart = Long.MAX_VALUE;
+    StringBuilder volumeReport = new StringBuilder();
     
     long now = System.currentTimeMillis();
     
     Date date = new Date();
     
-    for(Iterator<BlockScanInfo> it = blockInfoSet.iterator(); it.hasNext();) {
-      BlockScanInfo info = it.next();
-      
-      long scanTime = info.getLastScanTime();
-      long diff = now - scanTime;
-      
-      if (diff <= oneHour) inOneHour++;
-      if (diff <= oneDay) inOneDay++;
-      if (diff <= oneWeek) inOneWeek++;
-      if (diff <= fourWeeks) inFourWeeks++;
-      if (diff <= scanPeriod) inScanPeriod++;      
-      if (scanTime <= 0) neverScanned++;
-      
-      if (!summaryOnly) {
-        date.setTime(scanTime);
-        String scanType = 
-          (info.lastScanType == ScanType.REMOTE_READ) ? "remote" : 
-            ((info.lastScanType == ScanType.VERIFICATION_SCAN) ? "local" :
-              "none");
-        buffer.append(String.format("%-26s : status : %-6s type : %-6s" +
-        		                        " scan time : " +
-                                    "%-15d %s\n", info.block, 
-                                    (info.lastScanOk ? "ok" : "failed"),
-                                    scanType, scanTime,
-                                    (scanTime <= 0) ? "not yet verified" : 
-                                      dateFormat.format(date)));
+    for (VolumeScanner scanner : getVolumeScanners()) {
+      synchronized (scanner) {
+        total += scanner.blockInfoSet.size();
+        for(Iterator<BlockScanInfo> it = scanner.blockInfoSet.iterator();
+            it.hasNext();) {
+          BlockScanInfo info = it.next();
+          
+          long scanTime = info.getLastScanTime();
+          long diff = now - scanTime;
+          
+          if (diff <= oneHour) inOneHour++;
+          if (diff <= oneDay) inOneDay++;
+          if (diff <= oneWeek) inOneWeek++;
+          if (diff <= fourWeeks) inFourWeeks++;
+          if (diff <= scanPeriod) inScanPeriod++;      
+          if (scanTime <= 0) neverScanned++;
+          
+          if (!summaryOnly) {
+            date.setTime(scanTime);
+            String scanType = 
+              (info.lastScanType == ScanType.REMOTE_READ) ? "remote" : 
+                ((info.lastScanType == ScanType.VERIFICATION_SCAN) ? "local" :
+                  "none");
+            buffer.append(String.format("%-26s : status : %-6s type : %-6s" +
+            		                        " scan time : " +
+                                        "%-15d %s\n", info.block, 
+                                        (info.lastScanOk ? "ok" : "failed"),
+                                        scanType, scanTime,
+                                        (scanTime <= 0) ? "not yet verified" : 
+                                          dateFormat.format(date)));
+          }
+        }
+        
+        totalVerifications += scanner.totalVerifications;
+        totalScans += scanner.totalScans;
+        totalScanErrors += scanner.totalScanErrors;
+        totalTransientErrors += scanner.totalTransientErrors;
+        bytesLeft += scanner.bytesLeft;
+        totalBytesToScan += scanner.totalBytesToScan;
+        currentPeriodStart = Math.min(currentPeriodStart,
+                                      scanner.currentPeriodStart);
+        long volumeBandwidth = (scanner.throttler == null) ? 0 :
+                               scanner.throttler.getBandwidth();
+        bandwidth += volumeBandwidth;
+        volumeReport.append(String.format(
+            "\nVolume %s : blocks %d, scan rate limit KBps %d," +
+            " transfer rate KBps %d, scan lag ms %d",
+            scanner.volume, scanner.blockInfoSet.size(),
+            Math.round(volumeBandwidth/1024.0),
+            Math.round(scanner.transferRate/1024.0),
+            scanner.getScanLag(now)));
       }
     }
     
@@ -686,8 +942,9 @@ class DataBlockScanner implements Runnable {
                                 inFourWeeks, inScanPeriod, neverScanned,
                                 totalVerifications, totalScans, 
                                 totalScanErrors, totalTransientErrors, 
-                                Math.round(throttler.getBandwidth()/1024.0),
+                                Math.round(bandwidth/1024.0),
                                 pctProgress, pctPeriodLeft));
+    buffer.append(volumeReport).append("\n");
   }
   
   /**
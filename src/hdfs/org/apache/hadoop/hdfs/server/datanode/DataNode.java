@@ -35,10 +35,12 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
@@ -48,6 +50,7 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.hdfs.HDFSPolicyProvider;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
 import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
 import org.apache.hadoop.hdfs.protocol.DataTransferProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
@@ -82,7 +85,9 @@ import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.net.DNS;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.SecurityUtil;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.authorize.ConfiguredPolicy;
 import org.apache.hadoop.security.authorize.PolicyProvider;
 import org.apache.hadoop.security.authorize.ServiceAuthorizationManager;
@@ -162,6 +167,10 @@ public class DataNode extends Configured
   /** list of blocks being recovered */
   private final Map<Block, Block> ongoingRecovery = new HashMap<Block, Block>();
   private LinkedList<String> delHints = new LinkedList<String>();
+  /** blocks deleted since the last incremental block report */
+  private LinkedList<Block> deletedBlockList = new LinkedList<Block>();
+  /** report deleted blocks incrementally? */
+  boolean incrementalBlockReports = true;
   public final static String EMPTY_DEL_HINT = "";
   AtomicInteger xmitsInProgress = new AtomicInteger();
   Daemon dataXceiverServer = null;
@@ -186,6 +195,9 @@ public class DataNode extends Configured
   int socketWriteTimeout = 0;  
   boolean transferToAllowed = true;
   int writePacketSize = 0;
+  int asyncWritePackets = 0; // packets the disk writer may fall behind
+  /** users allowed to read block files directly */
+  private Set<String> localPathAccessUsers = new HashSet<String>();
   
   public DataBlockScanner blockScanner = null;
   public Daemon blockScannerThread = null;
@@ -254,6 +266,9 @@ public class DataNode extends Configured
     this.transferToAllowed = conf.getBoolean("dfs.datanode.transferTo.allowed", 
                                              true);
     this.writePacketSize = conf.getInt("dfs.write.packet.size", 64*1024);
+    this.asyncWritePackets = conf.getInt("dfs.datanode.write.async.packets", 0);
+    this.localPathAccessUsers.addAll(Arrays.asList(
+        conf.getStrings("dfs.block.local-path-access.user", new String[0])));
     String address = 
       NetUtils.getServerAddress(conf,
                                 "dfs.datanode.bindAddress", 
@@ -306,7 +321,8 @@ public class DataNode extends Configured
     // find free port
     ServerSocket ss = (socketWriteTimeout > 0) ? 
           ServerSocketChannel.open().socket() : new ServerSocket();
-    Server.bind(ss, socAddr, 0);
+    Server.bind(ss, socAddr, 
+                conf.getInt("dfs.datanode.listen.queue.size", 128));
     ss.setReceiveBufferSize(DEFAULT_DATA_SOCKET_SIZE); 
     // adjust machine name with the actual port
     tmpPort = ss.getLocalPort();
@@ -320,8 +336,13 @@ public class DataNode extends Configured
         new DataXceiverServer(ss, conf, this));
     this.threadGroup.setDaemon(true); // auto destroy when empty
 
+    this.incrementalBlockReports =
+      conf.getBoolean("dfs.blockreport.incremental", true);
+    // incremental reports keep the namenode up to date in between, so the
+    // full reports may be rarer unless an interval is configured
     this.blockReportInterval =
-      conf.getLong("dfs.blockreport.intervalMsec", BLOCKREPORT_INTERVAL);
+      conf.getLong("dfs.blockreport.intervalMsec", incrementalBlockReports
+                   ? INCREMENTAL_BLOCKREPORT_INTERVAL : BLOCKREPORT_INTERVAL);
     this.initialBlockReportDelay = conf.getLong("dfs.blockreport.initialDelay",
                                             BLOCKREPORT_INITIAL_DELAY)* 1000L; 
     if (this.initialBlockReportDelay >= blockReportInterval) {
@@ -376,6 +397,9 @@ public class DataNode extends Configured
     // adjust info port
     this.dnRegistration.setInfoPort(this.infoServer.getPort());
     myMetrics = new DataNodeMetrics(conf, dnRegistration.getStorageID());
+    if (data instanceof FSDataset) {
+      ((FSDataset)data).registerVolumeMetrics(myMetrics);
+    }
     
     // set service-level authorization security policy
     if (conf.getBoolean(
@@ -666,7 +690,16 @@ public class DataNode extends Configured
     
   /** Number of concurrent xceivers per node. */
   int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    if (threadGroup == null) {
+      return 0;
+    }
+    // idle handlers of the data transfer server do not serve anybody
+    int count = threadGroup.activeCount();
+    if (dataXceiverServer != null) {
+      count -= ((DataXceiverServer)dataXceiverServer.getRunnable())
+                 .getIdleHandlerCount();
+    }
+    return count;
   }
     
   /**
@@ -711,9 +744,10 @@ public class DataNode extends Configured
             continue;
         }
             
-        // check if there are newly received blocks
+        // check if there are newly received or deleted blocks
         Block [] blockArray=null;
         String [] delHintArray=null;
+        Block [] deletedArray=null;
         synchronized(receivedBlockList) {
           synchronized(delHints) {
             int numBlocks = receivedBlockList.size();
@@ -728,12 +762,32 @@ public class DataNode extends Configured
               delHintArray = delHints.toArray(new String[numBlocks]);
             }
           }
+          //
+          // Deleted blocks are not urgent: they are batched and sent once
+          // per heartbeat interval, or together with received blocks.
+          //
+          int numDeleted = deletedBlockList.size();
+          if (numDeleted > 0 &&
+              (blockArray != null || lastHeartbeat == startTime)) {
+            deletedArray = deletedBlockList.toArray(new Block[numDeleted]);
+          }
         }
-        if (blockArray != null) {
+        if (blockArray != null || deletedArray != null) {
+          if (blockArray == null) {
+            blockArray = new Block[0];
+            delHintArray = new String[0];
+          }
           if(delHintArray == null || delHintArray.length != blockArray.length ) {
             LOG.warn("Panic: block array & delHintArray are not the same" );
           }
-          namenode.blockReceived(dnRegistration, blockArray, delHintArray);
+          long ibrStartTime = now();
+          if (deletedArray == null) {
+            namenode.blockReceived(dnRegistration, blockArray, delHintArray);
+          } else {
+            namenode.blockReceivedAndDeleted(dnRegistration, blockArray,
+                                             delHintArray, deletedArray);
+          }
+          myMetrics.incrementalBlockReports.inc(now() - ibrStartTime);
           synchronized (receivedBlockList) {
             synchronized (delHints) {
               for(int i=0; i<blockArray.length; i++) {
@@ -741,6 +795,11 @@ public class DataNode extends Configured
                 delHints.remove(delHintArray[i]);
               }
             }
+            if (deletedArray != null) {
+              for(int i=0; i<deletedArray.length; i++) {
+                deletedBlockList.remove(deletedArray[i]);
+              }
+            }
           }
         }
 
@@ -870,6 +929,7 @@ public class DataNode extends Configured
         checkDiskError();
         throw e;
       }
+      notifyNamenodeDeletedBlocks(toDelete);
       myMetrics.blocksRemoved.inc(toDelete.length);
       break;
     case DatanodeProtocol.DNA_SHUTDOWN:
@@ -989,11 +1049,35 @@ public class DataNode extends Configured
       synchronized (delHints) {
         receivedBlockList.add(block);
         delHints.add(delHint);
+        deletedBlockList.remove(block);
         receivedBlockList.notifyAll();
       }
     }
   }
 
+  /**
+   * Queue deleted blocks for the next incremental block report.
+   * A deleted block is dropped from the received list, if it is there,
+   * so that a block is never reported as both received and deleted.
+   */
+  void notifyNamenodeDeletedBlocks(Block[] blocks) {
+    if (!incrementalBlockReports) {
+      return;
+    }
+    synchronized (receivedBlockList) {
+      synchronized (delHints) {
+        for (Block b : blocks) {
+          int i = receivedBlockList.indexOf(b);
+          if (i >= 0) {
+            receivedBlockList.remove(i);
+            delHints.remove(i);
+          }
+          deletedBlockList.add(b);
+        }
+      }
+    }
+  }
+
   
 
 
@@ -1590,6 +1674,23 @@ public class DataNode extends Configured
     return recoverBlock(block, keepLength, targets, false);
   }
 
+  /** {@inheritDoc} */
+  public BlockLocalPathInfo getBlockLocalPathInfo(Block block
+      ) throws IOException {
+    UserGroupInformation ugi = UserGroupInformation.getCurrentUGI();
+    if (ugi == null || !localPathAccessUsers.contains(ugi.getUserName())) {
+      throw new AccessControlException("Cannot get the local path of " + block
+          + ": user " + (ugi == null ? null : ugi.getUserName())
+          + " is not in dfs.block.local-path-access.user");
+    }
+    BlockLocalPathInfo info = data.getBlockLocalPathInfo(block);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("getBlockLocalPathInfo for " + info);
+    }
+    myMetrics.blocksGetLocalPathInfo.inc();
+    return info;
+  }
+
   private static void logRecoverBlock(String who,
       Block block, DatanodeID[] targets) {
     StringBuilder msg = new StringBuilder(targets[0].getName());
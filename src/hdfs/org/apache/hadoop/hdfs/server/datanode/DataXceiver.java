@@ -21,6 +21,7 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
@@ -38,12 +39,17 @@ import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.StringUtils;
 import static org.apache.hadoop.hdfs.server.datanode.DataNode.DN_CLIENTTRACE_FORMAT;
 
 /**
  * Thread for processing incoming/outgoing data stream.
+ *
+ * A connection run by the handler pool of {@link DataXceiverServer} is
+ * returned to the server after a read request, so the client can send
+ * the next request on it.  Writes are handed to a thread of their own.
  */
 class DataXceiver implements Runnable, FSConstants {
   public static final Log LOG = DataNode.LOG;
@@ -54,13 +60,19 @@ class DataXceiver implements Runnable, FSConstants {
   final String localAddress;  // local address of this daemon
   DataNode datanode;
   DataXceiverServer dataXceiverServer;
+  private boolean pooled;       // run by the handler pool of the server
+  private DataInputStream in;   // kept across the requests of a connection
+  private int pendingOp = -1;   // read by a handler, served by another thread
+  private int opsServed;        // requests served on this connection
+  long lastActive;              // when the connection was last parked
   
   public DataXceiver(Socket s, DataNode datanode, 
-      DataXceiverServer dataXceiverServer) {
+      DataXceiverServer dataXceiverServer, boolean pooled) {
     
     this.s = s;
     this.datanode = datanode;
     this.dataXceiverServer = dataXceiverServer;
+    this.pooled = pooled;
     dataXceiverServer.childSockets.put(s, s);
     remoteAddress = s.getRemoteSocketAddress().toString();
     localAddress = s.getLocalSocketAddress().toString();
@@ -71,70 +83,150 @@ class DataXceiver implements Runnable, FSConstants {
    * Read/write data from/to the DataXceiveServer.
    */
   public void run() {
-    DataInputStream in=null; 
+    boolean handedOff = false;
     try {
-      in = new DataInputStream(
-          new BufferedInputStream(NetUtils.getInputStream(s), 
-                                  SMALL_BUFFER_SIZE));
-      short version = in.readShort();
-      if ( version != DataTransferProtocol.DATA_TRANSFER_VERSION ) {
-        throw new IOException( "Version Mismatch" );
-      }
-      boolean local = s.getInetAddress().equals(s.getLocalAddress());
-      byte op = in.readByte();
-      // Make sure the xciver count is not exceeded
-      int curXceiverCount = datanode.getXceiverCount();
-      if (curXceiverCount > dataXceiverServer.maxXceiverCount) {
-        throw new IOException("xceiverCount " + curXceiverCount
-                              + " exceeds the limit of concurrent xcievers "
-                              + dataXceiverServer.maxXceiverCount);
+      if (in == null) {
+        in = new DataInputStream(
+            new BufferedInputStream(NetUtils.getInputStream(s), 
+                                    SMALL_BUFFER_SIZE));
       }
-      long startTime = DataNode.now();
-      switch ( op ) {
-      case DataTransferProtocol.OP_READ_BLOCK:
-        readBlock( in );
-        datanode.myMetrics.readBlockOp.inc(DataNode.now() - startTime);
-        if (local)
-          datanode.myMetrics.readsFromLocalClient.inc();
-        else
-          datanode.myMetrics.readsFromRemoteClient.inc();
-        break;
-      case DataTransferProtocol.OP_WRITE_BLOCK:
-        writeBlock( in );
-        datanode.myMetrics.writeBlockOp.inc(DataNode.now() - startTime);
-        if (local)
-          datanode.myMetrics.writesFromLocalClient.inc();
-        else
-          datanode.myMetrics.writesFromRemoteClient.inc();
-        break;
-      case DataTransferProtocol.OP_READ_METADATA:
-        readMetadata( in );
-        datanode.myMetrics.readMetadataOp.inc(DataNode.now() - startTime);
-        break;
-      case DataTransferProtocol.OP_REPLACE_BLOCK: // for balancing purpose; send to a destination
-        replaceBlock(in);
-        datanode.myMetrics.replaceBlockOp.inc(DataNode.now() - startTime);
-        break;
-      case DataTransferProtocol.OP_COPY_BLOCK:
-            // for balancing purpose; send to a proxy source
-        copyBlock(in);
-        datanode.myMetrics.copyBlockOp.inc(DataNode.now() - startTime);
-        break;
-      case DataTransferProtocol.OP_BLOCK_CHECKSUM: //get the checksum of a block
-        getBlockChecksum(in);
-        datanode.myMetrics.blockChecksumOp.inc(DataNode.now() - startTime);
-        break;
-      default:
-        throw new IOException("Unknown opcode " + op + " in data stream");
+      while (true) {
+        int op = pendingOp;
+        pendingOp = -1;
+        if (op < 0) {
+          op = readOp();
+          if (op < 0) {
+            break;        // the client closed a connection it had reused
+          }
+          if (pooled && (op == DataTransferProtocol.OP_WRITE_BLOCK ||
+                         op == DataTransferProtocol.OP_REPLACE_BLOCK)) {
+            // FSDataset identifies the writers of a block by their thread
+            // and waits for them to exit, so they cannot be pooled.
+            pendingOp = op;
+            pooled = false;
+            handedOff = true;
+            new Daemon(datanode.threadGroup, this).start();
+            break;
+          }
+        }
+        processOp((byte)op);
+        opsServed++;
+        if (!pooled || (op != DataTransferProtocol.OP_READ_BLOCK &&
+                        op != DataTransferProtocol.OP_READ_METADATA &&
+                        op != DataTransferProtocol.OP_BLOCK_CHECKSUM)) {
+          break;
+        }
+        if (in.available() == 0) {
+          // wait on the selector for the next request
+          handedOff = true;
+          dataXceiverServer.park(this);
+          break;
+        }
       }
     } catch (Throwable t) {
       LOG.error(datanode.dnRegistration + ":DataXceiver",t);
     } finally {
-      LOG.debug(datanode.dnRegistration + ":Number of active connections is: "
-                               + datanode.getXceiverCount());
-      IOUtils.closeStream(in);
-      IOUtils.closeSocket(s);
-      dataXceiverServer.childSockets.remove(s);
+      if (!handedOff) {
+        LOG.debug(datanode.dnRegistration + ":Number of active connections is: "
+                                 + datanode.getXceiverCount());
+        close();
+      }
+    }
+  }
+
+  /** Close the connection. */
+  void close() {
+    IOUtils.closeStream(in);
+    IOUtils.closeSocket(s);
+    dataXceiverServer.childSockets.remove(s);
+  }
+
+  /**
+   * Read the version and the op code of the next request.
+   * @return the op code, or -1 if the client closed a connection
+   *         that has already served a request
+   * @throws IOException
+   */
+  private int readOp() throws IOException {
+    short version;
+    try {
+      version = in.readShort();
+    } catch (EOFException e) {
+      if (opsServed > 0) {
+        return -1;
+      }
+      throw e;
+    }
+    if ( version != DataTransferProtocol.DATA_TRANSFER_VERSION ) {
+      throw new IOException( "Version Mismatch" );
+    }
+    return in.readUnsignedByte();
+  }
+
+  /**
+   * Serve a request.
+   * @param op The op code of the request
+   * @throws IOException
+   */
+  private void processOp(byte op) throws IOException {
+    boolean local = s.getInetAddress().equals(s.getLocalAddress());
+    // Make sure the xciver count is not exceeded
+    int curXceiverCount = datanode.getXceiverCount();
+    if (curXceiverCount > dataXceiverServer.maxXceiverCount) {
+      throw new IOException("xceiverCount " + curXceiverCount
+                            + " exceeds the limit of concurrent xcievers "
+                            + dataXceiverServer.maxXceiverCount);
+    }
+    long startTime = DataNode.now();
+    switch ( op ) {
+    case DataTransferProtocol.OP_READ_BLOCK:
+      readBlock( in );
+      datanode.myMetrics.readBlockOp.inc(DataNode.now() - startTime);
+      if (local)
+        datanode.myMetrics.readsFromLocalClient.inc();
+      else
+        datanode.myMetrics.readsFromRemoteClient.inc();
+      break;
+    case DataTransferProtocol.OP_WRITE_BLOCK:
+      writeBlock( in );
+      datanode.myMetrics.writeBlockOp.inc(DataNode.now() - startTime);
+      if (local)
+        datanode.myMetrics.writesFromLocalClient.inc();
+      else
+        datanode.myMetrics.writesFromRemoteClient.inc();
+      break;
+    case DataTransferProtocol.OP_READ_METADATA:
+      readMetadata( in );
+      datanode.myMetrics.readMetadataOp.inc(DataNode.now() - startTime);
+      break;
+    case DataTransferProtocol.OP_REPLACE_BLOCK: // for balancing purpose; send to a destination
+      replaceBlock(in);
+      datanode.myMetrics.replaceBlockOp.inc(DataNode.now() - startTime);
+      break;
+    case DataTransferProtocol.OP_COPY_BLOCK:
+          // for balancing purpose; send to a proxy source
+      copyBlock(in);
+      datanode.myMetrics.copyBlockOp.inc(DataNode.now() - startTime);
+      break;
+    case DataTransferProtocol.OP_BLOCK_CHECKSUM: //get the checksum of a block
+      getBlockChecksum(in);
+      datanode.myMetrics.blockChecksumOp.inc(DataNode.now() - startTime);
+      break;
+    default:
+      throw new IOException("Unknown opcode " + op + " in data stream");
+    }
+  }
+
+  /**
+   * Flush a response without closing its stream, which would close the
+   * socket: the connection may serve another request.
+   */
+  private static void flushStream(OutputStream out) {
+    if (out != null) {
+      try {
+        out.flush();
+      } catch (IOException ignored) {
+      }
     }
   }
 
@@ -205,7 +297,7 @@ class DataXceiver implements Runnable, FSConstants {
                 StringUtils.stringifyException(ioe) );
       throw ioe;
     } finally {
-      IOUtils.closeStream(out);
+      flushStream(out);
       IOUtils.closeStream(blockSender);
     }
   }
@@ -418,7 +510,7 @@ class DataXceiver implements Runnable, FSConstants {
       //last DATA_CHUNK
       out.writeInt(0);
     } finally {
-      IOUtils.closeStream(out);
+      flushStream(out);
       IOUtils.closeStream(checksumIn);
     }
   }
@@ -460,7 +552,7 @@ class DataXceiver implements Runnable, FSConstants {
       md5.write(out);
       out.flush();
     } finally {
-      IOUtils.closeStream(out);
+      flushStream(out);
       IOUtils.closeStream(checksumIn);
       IOUtils.closeStream(metadataIn);
     }
@@ -21,15 +21,27 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.server.balancer.Balancer;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.StringUtils;
 
@@ -38,6 +50,17 @@ import org.apache.hadoop.util.StringUtils;
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ *
+ * If the server socket has a channel, connections that have not sent
+ * their request yet are parked on a selector instead of holding a thread.
+ * Once the request arrives it is served by a fixed-size pool of handlers,
+ * and after a read the connection goes back to the selector to wait for
+ * the next request.  Connections idle since their last request for longer
+ * than the socket timeout are closed.  Writes get a thread of their own:
+ * FSDataset identifies the writers of a block by their thread and waits
+ * for them to exit when the block is recovered.  If the server socket has
+ * no channel, every connection gets its own thread as soon as it is
+ * accepted.
  */
 class DataXceiverServer implements Runnable, FSConstants {
   public static final Log LOG = DataNode.LOG;
@@ -56,6 +79,11 @@ class DataXceiverServer implements Runnable, FSConstants {
   static final int MAX_XCEIVER_COUNT = 256;
   int maxXceiverCount = MAX_XCEIVER_COUNT;
 
+  private Selector selector;            // parked connections
+  // connections to park again once their request has been served
+  private final List<DataXceiver> toPark = new ArrayList<DataXceiver>();
+  private final ThreadPoolExecutor handlers;
+
   /** A manager to make sure that cluster balancing does not
    * take too much resources.
    * 
@@ -120,17 +148,50 @@ class DataXceiverServer implements Runnable, FSConstants {
     //set up parameter for cluster balancing
     this.balanceThrottler = new BlockBalanceThrottler(
       conf.getLong("dfs.balance.bandwidthPerSec", 1024L*1024));
+
+    int handlerCount = conf.getInt("dfs.datanode.xceiver.handler.count",
+                                   maxXceiverCount);
+    this.handlers = new ThreadPoolExecutor(handlerCount, handlerCount,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            return new Daemon(DataXceiverServer.this.datanode.threadGroup, r);
+          }
+        });
+    this.handlers.allowCoreThreadTimeOut(true);
   }
 
   /**
    */
   public void run() {
+    ServerSocketChannel channel = ss.getChannel();
+    if (channel == null) {
+      acceptConnections();
+    } else {
+      try {
+        selectConnections(channel);
+      } catch (IOException ie) {
+        LOG.error(datanode.dnRegistration + ":DataXceiveServer: Exiting due to:" 
+                                 + StringUtils.stringifyException(ie));
+        datanode.shouldRun = false;
+      }
+    }
+    try {
+      ss.close();
+    } catch (IOException ie) {
+      LOG.warn(datanode.dnRegistration + ":DataXceiveServer: " 
+                              + StringUtils.stringifyException(ie));
+    }
+  }
+
+  /** Serve every accepted connection with a thread of its own. */
+  private void acceptConnections() {
     while (datanode.shouldRun) {
       try {
         Socket s = ss.accept();
         s.setTcpNoDelay(true);
         new Daemon(datanode.threadGroup, 
-            new DataXceiver(s, datanode, this)).start();
+            new DataXceiver(s, datanode, this, false)).start();
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (IOException ie) {
@@ -142,13 +203,148 @@ class DataXceiverServer implements Runnable, FSConstants {
         datanode.shouldRun = false;
       }
     }
+  }
+
+  /**
+   * Accept connections and park them on a selector until their request
+   * arrives, then serve them.  Connections that stay idle for
+   * longer than the socket timeout are closed.
+   */
+  private void selectConnections(ServerSocketChannel channel)
+    throws IOException {
+    synchronized (this) {
+      if (!datanode.shouldRun) {
+        return;
+      }
+      selector = Selector.open();
+    }
+    channel.configureBlocking(false);
+    channel.register(selector, SelectionKey.OP_ACCEPT);
+    long idleTimeout = datanode.socketTimeout;
+    long lastIdleCheck = System.currentTimeMillis();
+    while (datanode.shouldRun) {
+      try {
+        selector.select(1000);
+        registerParked();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            doAccept(channel);
+          } else if (key.isReadable()) {
+            doDispatch(key);
+          }
+        }
+        long now = System.currentTimeMillis();
+        if (idleTimeout > 0 && now - lastIdleCheck > 1000) {
+          closeIdleConnections(now - idleTimeout);
+          lastIdleCheck = now;
+        }
+      } catch (IOException ie) {
+        if (datanode.shouldRun) {
+          LOG.warn(datanode.dnRegistration + ":DataXceiveServer: " 
+                                  + StringUtils.stringifyException(ie));
+        }
+      } catch (Throwable te) {
+        if (datanode.shouldRun) {     // not the selector closed by kill()
+          LOG.error(datanode.dnRegistration + 
+                    ":DataXceiveServer: Exiting due to:" 
+                    + StringUtils.stringifyException(te));
+          datanode.shouldRun = false;
+        }
+      }
+    }
+  }
+
+  private void doAccept(ServerSocketChannel channel) throws IOException {
+    SocketChannel sc;
+    while ((sc = channel.accept()) != null) {
+      Socket s = sc.socket();
+      try {
+        s.setTcpNoDelay(true);
+        sc.configureBlocking(false);
+        DataXceiver xceiver = new DataXceiver(s, datanode, this, true);
+        xceiver.lastActive = System.currentTimeMillis();
+        sc.register(selector, SelectionKey.OP_READ, xceiver);
+      } catch (IOException ie) {
+        IOUtils.closeSocket(s);
+        childSockets.remove(s);
+        throw ie;
+      }
+    }
+  }
+
+  /** The request of a parked connection is readable: stop watching the
+   * connection and hand it to a handler. */
+  private void doDispatch(SelectionKey key) {
+    key.cancel();
+    DataXceiver xceiver = (DataXceiver)key.attachment();
     try {
-      ss.close();
-    } catch (IOException ie) {
-      LOG.warn(datanode.dnRegistration + ":DataXceiveServer: " 
-                              + StringUtils.stringifyException(ie));
+      handlers.execute(xceiver);
+    } catch (RejectedExecutionException e) {  // shutting down
+      xceiver.close();
     }
   }
+
+  /**
+   * Park a connection again once its request has been served, to wait
+   * for the next request.  Called by the handlers; the selector thread
+   * does the registration.
+   */
+  void park(DataXceiver xceiver) {
+    xceiver.lastActive = System.currentTimeMillis();
+    synchronized (toPark) {
+      toPark.add(xceiver);
+    }
+    selector.wakeup();
+  }
+
+  /** Register the connections handed back by {@link #park(DataXceiver)}. */
+  private void registerParked() {
+    List<DataXceiver> parked;
+    synchronized (toPark) {
+      if (toPark.isEmpty()) {
+        return;
+      }
+      parked = new ArrayList<DataXceiver>(toPark);
+      toPark.clear();
+    }
+    for (DataXceiver xceiver : parked) {
+      try {
+        xceiver.s.getChannel().register(selector, SelectionKey.OP_READ,
+                                        xceiver);
+      } catch (IOException ie) {           // closed in the meantime
+        xceiver.close();
+      }
+    }
+  }
+
+  /** Close the parked connections that have been idle since before the
+   * given time. */
+  private void closeIdleConnections(long idleSince) {
+    for (SelectionKey key : selector.keys()) {
+      Object attachment = key.attachment();
+      if (key.isValid() && attachment instanceof DataXceiver &&
+          ((DataXceiver)attachment).lastActive < idleSince) {
+        key.cancel();
+        ((DataXceiver)attachment).close();
+      }
+    }
+  }
+
+  /** Number of parked connections, waiting for their request to arrive. */
+  synchronized int getParkedConnectionCount() {
+    return selector == null ? 0 : Math.max(0, selector.keys().size() - 1);
+  }
+
+  /** Number of handler threads that are alive but not serving a request. */
+  int getIdleHandlerCount() {
+    return Math.max(0, handlers.getPoolSize() - handlers.getActiveCount());
+  }
   
   void kill() {
     assert datanode.shouldRun == false :
@@ -159,6 +355,15 @@ class DataXceiverServer implements Runnable, FSConstants {
       LOG.warn(datanode.dnRegistration + ":DataXceiveServer.kill(): " 
                               + StringUtils.stringifyException(ie));
     }
+    handlers.shutdownNow();
+    synchronized (this) {
+      if (selector != null) {
+        try {
+          selector.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
 
     // close all the sockets that were accepted earlier
     synchronized (childSockets) {
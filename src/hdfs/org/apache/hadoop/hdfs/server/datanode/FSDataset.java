@@ -19,6 +19,9 @@ package org.apache.hadoop.hdfs.server.datanode;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
@@ -26,13 +29,15 @@ import javax.management.StandardMBean;
 
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.metrics.util.MBeanUtil;
 import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.DiskChecker;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
-import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
 import org.apache.hadoop.conf.*;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.InterDatanodeProtocol;
 
@@ -49,7 +54,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
    * hierarchy of blocks on the local disk.
    */
   class FSDir {
-    File dir;
+    final File dir;
     int numBlocks = 0;
     FSDir children[];
     int lastChildIdx = 0;
@@ -137,10 +142,12 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       }
             
       if (children == null || children.length == 0) {
-        children = new FSDir[maxBlocksPerDir];
+        // fill the array before publishing it to concurrent scans
+        FSDir[] newChildren = new FSDir[maxBlocksPerDir];
         for (int idx = 0; idx < maxBlocksPerDir; idx++) {
-          children[idx] = new FSDir(new File(dir, DataStorage.BLOCK_SUBDIR_PREFIX+idx));
+          newChildren[idx] = new FSDir(new File(dir, DataStorage.BLOCK_SUBDIR_PREFIX+idx));
         }
+        children = newChildren;
       }
             
       //now pick a child randomly for creating a new set of subdirs.
@@ -193,7 +200,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       }
     }
 
-    void getVolumeMap(HashMap<Block, DatanodeBlockInfo> volumeMap, FSVolume volume) {
+    void getVolumeMap(Map<Block, DatanodeBlockInfo> volumeMap, FSVolume volume) {
       if (children != null) {
         for (int i = 0; i < children.length; i++) {
           children[i].getVolumeMap(volumeMap, volume);
@@ -286,12 +293,23 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     }
   }
 
+  /**
+   * A volume is one data directory, usually a disk of its own.
+   * Changes to its directory tree are serialized by the volume's own
+   * monitor, so that slow disk operations on one volume do not hold up
+   * the others.
+   */
   class FSVolume {
     private FSDir dataDir;
+    /** number of blocks being written to this volume */
+    private final AtomicInteger activeWriters = new AtomicInteger();
+    /** bytes of blocks read and written by clients and other datanodes */
+    private final AtomicLong transferBytes = new AtomicLong();
+    private volatile DataNodeMetrics.VolumeMetrics metrics;
     private File tmpDir;
     private File detachDir; // copy on write for blocks in snapshot
     private DF usage;
-    private DU dfsUsage;
+    private VolumeUsage dfsUsage;
     private long reserved;
 
     
@@ -330,13 +348,63 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
         }
       }
       this.usage = new DF(parent, conf);
-      this.dfsUsage = new DU(parent, conf);
-      this.dfsUsage.start();
+      this.dfsUsage = new VolumeUsage(currentDir,
+          conf.getLong("dfs.datanode.usage.reconcile.interval", 3600000L));
+    }
+
+    /**
+     * Count the space used by the blocks of the volume and start keeping
+     * it.  Done for all the volumes in parallel by
+     * {@link FSVolumeSet#initDfsUsed()}.
+     */
+    void initDfsUsed() {
+      dfsUsage.init();
+      dfsUsage.start();
     }
 
     void decDfsUsed(long value) {
       dfsUsage.decDfsUsed(value);
     }
+
+    /** Get the number of blocks being written to this volume. */
+    int getActiveWriters() {
+      return activeWriters.get();
+    }
+
+    void writerStarted() {
+      int writers = activeWriters.incrementAndGet();
+      DataNodeMetrics.VolumeMetrics m = metrics;
+      if (m != null) {
+        m.activeWriters.set(writers);
+      }
+    }
+
+    void writerStopped() {
+      int writers = activeWriters.decrementAndGet();
+      DataNodeMetrics.VolumeMetrics m = metrics;
+      if (m != null) {
+        m.activeWriters.set(writers);
+      }
+    }
+
+    void incTransferBytes(long bytes) {
+      transferBytes.addAndGet(bytes);
+    }
+
+    long getTransferBytes() {
+      return transferBytes.get();
+    }
+
+    /** @return the metrics of the volume, or null if there are none */
+    DataNodeMetrics.VolumeMetrics getMetrics() {
+      return metrics;
+    }
+
+    void setMetrics(DataNodeMetrics.VolumeMetrics metrics) {
+      metrics.activeWriters.set(activeWriters.get());
+      this.metrics = metrics;
+      dfsUsage.setMetrics(metrics);
+    }
     
     long getDfsUsed() throws IOException {
       return dfsUsage.getUsed();
@@ -413,10 +481,15 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       return f;
     }
       
-    File addBlock(Block b, File f) throws IOException {
+    synchronized File addBlock(Block b, File f) throws IOException {
       File blockFile = dataDir.addBlock(b, f);
       File metaFile = getMetaFile( blockFile , b);
       dfsUsage.incDfsUsed(b.getNumBytes()+metaFile.length());
+      DataNodeMetrics.VolumeMetrics m = metrics;
+      if (m != null) {
+        m.blocksWritten.inc();
+        m.bytesWritten.inc(b.getNumBytes());
+      }
       return blockFile;
     }
       
@@ -429,11 +502,11 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       dataDir.getBlockInfo(blockSet);
     }
       
-    void getVolumeMap(HashMap<Block, DatanodeBlockInfo> volumeMap) {
+    void getVolumeMap(Map<Block, DatanodeBlockInfo> volumeMap) {
       dataDir.getVolumeMap(volumeMap, this);
     }
       
-    void clearPath(File f) {
+    synchronized void clearPath(File f) {
       dataDir.clearPath(f);
     }
       
@@ -479,25 +552,69 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   }
     
   static class FSVolumeSet {
-    FSVolume[] volumes = null;
-    int curVolume = 0;
+    final FSVolume[] volumes;
+    private final BlockVolumeChoosingPolicy blockChooser;
       
-    FSVolumeSet(FSVolume[] volumes) {
+    FSVolumeSet(FSVolume[] volumes, BlockVolumeChoosingPolicy blockChooser) {
       this.volumes = volumes;
+      this.blockChooser = blockChooser;
     }
-      
-    synchronized FSVolume getNextVolume(long blockSize) throws IOException {
-      int startVolume = curVolume;
-      while (true) {
-        FSVolume volume = volumes[curVolume];
-        curVolume = (curVolume + 1) % volumes.length;
-        if (volume.getAvailable() > blockSize) { return volume; }
-        if (curVolume == startVolume) {
-          throw new DiskOutOfSpaceException("Insufficient space for an additional block");
+
+    /** Work done on each volume by {@link FSVolumeSet#scanVolumes}. */
+    private static interface VolumeScan {
+      void scan(FSVolume volume, int idx);
+    }
+
+    /**
+     * Scan all the volumes in parallel, one thread per volume, and wait
+     * for the scans to finish.  The directory trees of the volumes are on
+     * different disks, so the scans do not compete for the same disk.
+     */
+    private void scanVolumes(String name, final VolumeScan scan) {
+      if (volumes.length == 1) {
+        scan.scan(volumes[0], 0);
+        return;
+      }
+      final RuntimeException[] errors = new RuntimeException[volumes.length];
+      Thread[] scanners = new Thread[volumes.length];
+      for (int i = 0; i < scanners.length; i++) {
+        final int idx = i;
+        scanners[i] = new Thread(new Runnable() {
+          public void run() {
+            try {
+              scan.scan(volumes[idx], idx);
+            } catch (RuntimeException e) {
+              errors[idx] = e;
+            }
+          }
+        }, name + "-" + volumes[i]);
+        scanners[i].start();
+      }
+      boolean interrupted = false;
+      for (Thread scanner : scanners) {
+        while (true) {
+          try {
+            scanner.join();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      for (RuntimeException e : errors) {
+        if (e != null) {
+          throw e;
         }
       }
     }
       
+    synchronized FSVolume getNextVolume(long blockSize) throws IOException {
+      return blockChooser.chooseVolume(volumes, blockSize);
+    }
+      
     long getDfsUsed() throws IOException {
       long dfsUsed = 0L;
       for (int idx = 0; idx < volumes.length; idx++) {
@@ -506,7 +623,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       return dfsUsed;
     }
 
-    synchronized long getCapacity() throws IOException {
+    long getCapacity() throws IOException {
       long capacity = 0L;
       for (int idx = 0; idx < volumes.length; idx++) {
         capacity += volumes[idx].getCapacity();
@@ -514,7 +631,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       return capacity;
     }
       
-    synchronized long getRemaining() throws IOException {
+    long getRemaining() throws IOException {
       long remaining = 0L;
       for (int idx = 0; idx < volumes.length; idx++) {
         remaining += volumes[idx].getAvailable();
@@ -522,19 +639,39 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       return remaining;
     }
       
-    synchronized void getBlockInfo(TreeSet<Block> blockSet) {
+    void getBlockInfo(TreeSet<Block> blockSet) {
+      final List<TreeSet<Block>> volumeBlocks = new ArrayList<TreeSet<Block>>();
       for (int idx = 0; idx < volumes.length; idx++) {
-        volumes[idx].getBlockInfo(blockSet);
+        volumeBlocks.add(new TreeSet<Block>());
+      }
+      scanVolumes("getBlockInfo", new VolumeScan() {
+        public void scan(FSVolume volume, int idx) {
+          volume.getBlockInfo(volumeBlocks.get(idx));
+        }
+      });
+      for (TreeSet<Block> blocks : volumeBlocks) {
+        blockSet.addAll(blocks);
       }
     }
       
-    synchronized void getVolumeMap(HashMap<Block, DatanodeBlockInfo> volumeMap) {
-      for (int idx = 0; idx < volumes.length; idx++) {
-        volumes[idx].getVolumeMap(volumeMap);
-      }
+    /** The map must allow concurrent updates. */
+    void getVolumeMap(final ConcurrentHashMap<Block, DatanodeBlockInfo> volumeMap) {
+      scanVolumes("getVolumeMap", new VolumeScan() {
+        public void scan(FSVolume volume, int idx) {
+          volume.getVolumeMap(volumeMap);
+        }
+      });
+    }
+      
+    void initDfsUsed() {
+      scanVolumes("initDfsUsed", new VolumeScan() {
+        public void scan(FSVolume volume, int idx) {
+          volume.initDfsUsed();
+        }
+      });
     }
       
-    synchronized void checkDirs() throws DiskErrorException {
+    void checkDirs() throws DiskErrorException {
       for (int idx = 0; idx < volumes.length; idx++) {
         volumes[idx].checkDirs();
       }
@@ -563,10 +700,14 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
 
   static class ActiveFile {
     final File file;
+    final FSVolume volume;
     final List<Thread> threads = new ArrayList<Thread>(2);
+    /** the files are being moved by finalizeBlock; guarded by FSDataset */
+    boolean finalizing = false;
 
-    ActiveFile(File f, List<Thread> list) {
+    ActiveFile(File f, FSVolume v, List<Thread> list) {
       file = f;
+      volume = v;
       if (list != null) {
         threads.addAll(list);
       }
@@ -575,7 +716,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     
     public String toString() {
       return getClass().getSimpleName() + "(file=" + file
-          + ", threads=" + threads + ")";
+          + ", volume=" + volume + ", threads=" + threads + ")";
     }
   } 
   
@@ -629,6 +770,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   /** Return the block file for the given ID */ 
   public File findBlockFile(long blockId) {
     final Block b = new Block(blockId);
+    waitForFinalize(b);
     File blockfile = null;
     ActiveFile activefile = ongoingCreates.get(b);
     if (activefile != null) {
@@ -674,9 +816,14 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   }
 
   FSVolumeSet volumes;
+  /** blocks being written; guarded by the FSDataset monitor */
   private HashMap<Block,ActiveFile> ongoingCreates = new HashMap<Block,ActiveFile>();
   private int maxBlocksPerDir = 0;
-  private HashMap<Block,DatanodeBlockInfo> volumeMap = null;
+  /**
+   * The volume and file of every block.  Lookups do not lock; updates
+   * that must be consistent with ongoingCreates hold the FSDataset monitor.
+   */
+  private ConcurrentHashMap<Block,DatanodeBlockInfo> volumeMap = null;
   static  Random random = new Random();
   
   /**
@@ -688,9 +835,14 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     for (int idx = 0; idx < storage.getNumStorageDirs(); idx++) {
       volArray[idx] = new FSVolume(storage.getStorageDir(idx).getCurrentDir(), conf);
     }
-    volumes = new FSVolumeSet(volArray);
-    volumeMap = new HashMap<Block, DatanodeBlockInfo>();
+    BlockVolumeChoosingPolicy blockChooser = ReflectionUtils.newInstance(
+        conf.getClass("dfs.datanode.block.volume.choice.policy",
+            RoundRobinVolumesPolicy.class, BlockVolumeChoosingPolicy.class),
+        conf);
+    volumes = new FSVolumeSet(volArray, blockChooser);
+    volumeMap = new ConcurrentHashMap<Block, DatanodeBlockInfo>();
     volumes.getVolumeMap(volumeMap);
+    volumes.initDfsUsed();
     registerMBean(storage.getStorageID());
   }
 
@@ -722,10 +874,19 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     return getBlockFile(b).length();
   }
 
+  /**
+   * @return the volume of the given block, or null if the block is not
+   *         in the dataset
+   */
+  FSVolume getVolume(Block b) {
+    DatanodeBlockInfo info = volumeMap.get(b);
+    return (info == null) ? null : info.getVolume();
+  }
+
   /**
    * Get File name for a given block.
    */
-  public synchronized File getBlockFile(Block b) throws IOException {
+  public File getBlockFile(Block b) throws IOException {
     File f = validateBlockFile(b);
     if(f == null) {
       if (InterDatanodeProtocol.LOG.isDebugEnabled()) {
@@ -736,11 +897,27 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     return f;
   }
   
-  public synchronized InputStream getBlockInputStream(Block b) throws IOException {
+  /** {@inheritDoc} */
+  public BlockLocalPathInfo getBlockLocalPathInfo(Block b)
+      throws IOException {
+    synchronized (this) {
+      if (ongoingCreates.containsKey(b)) {
+        throw new IOException("Block " + b + " is being written to.");
+      }
+    }
+    File blockFile = getBlockFile(b);
+    File metaFile = getMetaFile(blockFile, b);
+    Block stored = new Block(b.getBlockId(), blockFile.length(),
+                             b.getGenerationStamp());
+    return new BlockLocalPathInfo(stored, blockFile.getAbsolutePath(),
+                                  metaFile.getAbsolutePath());
+  }
+
+  public InputStream getBlockInputStream(Block b) throws IOException {
     return new FileInputStream(getBlockFile(b));
   }
 
-  public synchronized InputStream getBlockInputStream(Block b, long seekOffset) throws IOException {
+  public InputStream getBlockInputStream(Block b, long seekOffset) throws IOException {
 
     File blockFile = getBlockFile(b);
     RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
@@ -753,7 +930,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   /**
    * Returns handles to the block file and its metadata file
    */
-  public synchronized BlockInputStreams getTmpInputStreams(Block b, 
+  public BlockInputStreams getTmpInputStreams(Block b, 
                           long blkOffset, long ckoff) throws IOException {
 
     DatanodeBlockInfo info = volumeMap.get(b);
@@ -791,11 +968,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
    * @return - true if the specified block was detached
    */
   public boolean detachBlock(Block block, int numLinks) throws IOException {
-    DatanodeBlockInfo info = null;
-
-    synchronized (this) {
-      info = volumeMap.get(block);
-    }
+    DatanodeBlockInfo info = volumeMap.get(block);
     return info.detachBlock(block, numLinks);
   }
 
@@ -889,7 +1062,13 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
           + ") length from " + oldblock.getNumBytes() + " to " + newblock.getNumBytes());
     }
     if (newblock.getNumBytes() < oldblock.getNumBytes()) {
+      long oldLength = blockFile.length() + tmpMetaFile.length();
       truncateBlock(blockFile, tmpMetaFile, oldblock.getNumBytes(), newblock.getNumBytes());
+      if (activefile == null) {
+        // a finalized block is counted in the space used by its volume
+        volumeMap.get(oldblock).getVolume().decDfsUsed(
+            oldLength - blockFile.length() - tmpMetaFile.length());
+      }
     }
 
     //rename the tmp file to the new meta file (with new generation stamp)
@@ -1013,7 +1192,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
             thread.interrupt();
           }
         }
-        ongoingCreates.remove(b);
+        removeActiveFile(b);
       }
       FSVolume v = null;
       if (!isRecovery) {
@@ -1034,6 +1213,8 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
         File blkfile = getBlockFile(b);
         File oldmeta = getMetaFile(b);
         File newmeta = getMetaFile(f, b);
+        // the block is counted again when it is finalized
+        long oldLength = blkfile.length() + oldmeta.length();
 
         // rename meta file to tmp directory
         DataNode.LOG.debug("Renaming " + oldmeta + " to " + newmeta);
@@ -1056,6 +1237,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
                                   " to tmp dir " + f);
           }
         }
+        v.decDfsUsed(oldLength);
         volumeMap.put(b, new DatanodeBlockInfo(v));
       }
       if (f == null) {
@@ -1064,7 +1246,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
         throw new IOException("Block " + b + " reopen failed " +
                               " Unable to locate tmp file.");
       }
-      ongoingCreates.put(b, new ActiveFile(f, threads));
+      addActiveFile(b, new ActiveFile(f, v, threads));
     }
 
     try {
@@ -1105,11 +1287,8 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   public void setChannelPosition(Block b, BlockWriteStreams streams, 
                                  long dataOffset, long ckOffset) 
                                  throws IOException {
-    long size = 0;
-    synchronized (this) {
-      FSVolume vol = volumeMap.get(b).getVolume();
-      size = vol.getTmpFile(b).length();
-    }
+    FSVolume vol = volumeMap.get(b).getVolume();
+    long size = vol.getTmpFile(b).length();
     if (size < dataOffset) {
       String msg = "Trying to change block file offset of block " + b +
                      " to " + dataOffset +
@@ -1144,25 +1323,90 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   /**
    * Complete the block write!
    */
-  public synchronized void finalizeBlock(Block b) throws IOException {
-    ActiveFile activeFile = ongoingCreates.get(b);
-    if (activeFile == null) {
-      throw new IOException("Block " + b + " is already finalized.");
+  public void finalizeBlock(Block b) throws IOException {
+    ActiveFile activeFile;
+    File f;
+    FSVolume v;
+    synchronized (this) {
+      activeFile = ongoingCreates.get(b);
+      if (activeFile == null) {
+        throw new IOException("Block " + b + " is already finalized.");
+      }
+      f = activeFile.file;
+      v = volumeMap.get(b).getVolume();
+      // lookups of the block wait until its files are where the maps say
+      activeFile.finalizing = true;
     }
-    File f = activeFile.file;
-    if (f == null || !f.exists()) {
-      throw new IOException("No temporary file " + f + " for block " + b);
+
+    File dest = null;
+    try {
+      if (f == null || !f.exists()) {
+        throw new IOException("No temporary file " + f + " for block " + b);
+      }
+      if (v == null) {
+        throw new IOException("No volume for temporary file " + f + 
+                              " for block " + b);
+      }
+      // moving the files only locks the volume: the writer of the block
+      // is the only thread that finalizes it, and block recovery waits
+      // for it
+      dest = v.addBlock(b, f);
+    } finally {
+      synchronized (this) {
+        if (dest != null) {
+          volumeMap.put(b, new DatanodeBlockInfo(v, dest));
+          removeActiveFile(b);
+        }
+        activeFile.finalizing = false;
+        notifyAll();
+      }
     }
-    FSVolume v = volumeMap.get(b).getVolume();
-    if (v == null) {
-      throw new IOException("No volume for temporary file " + f + 
-                            " for block " + b);
+  }
+
+  /**
+   * Wait until the files of a block being finalized have been moved and
+   * the block maps updated.  Only lookups that find no finalized file
+   * need to wait, so the lock-free lookups stay lock-free.
+   */
+  private synchronized void waitForFinalize(Block b) {
+    boolean interrupted = false;
+    ActiveFile activeFile;
+    while ((activeFile = ongoingCreates.get(b)) != null &&
+           activeFile.finalizing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Start tracking a block being written. */
+  private synchronized void addActiveFile(Block b, ActiveFile activeFile) {
+    ongoingCreates.put(b, activeFile);
+    activeFile.volume.writerStarted();
+  }
+
+  /** Stop tracking a block being written. */
+  private synchronized ActiveFile removeActiveFile(Block b) {
+    ActiveFile activeFile = ongoingCreates.remove(b);
+    if (activeFile != null) {
+      activeFile.volume.writerStopped();
+    }
+    return activeFile;
+  }
+
+  /**
+   * Publish the active writers and the blocks and bytes written of
+   * each volume through the given metrics.
+   */
+  void registerVolumeMetrics(DataNodeMetrics metrics) {
+    for (FSVolume volume : volumes.volumes) {
+      volume.setMetrics(metrics.addVolume(volume.toString()));
     }
-        
-    File dest = null;
-    dest = v.addBlock(b, f);
-    volumeMap.put(b, new DatanodeBlockInfo(v, dest));
-    ongoingCreates.remove(b);
   }
 
   /**
@@ -1170,7 +1414,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
    */
   public synchronized void unfinalizeBlock(Block b) throws IOException {
     // remove the block from in-memory data structure
-    ActiveFile activefile = ongoingCreates.remove(b);
+    ActiveFile activefile = removeActiveFile(b);
     if (activefile == null) {
       return;
     }
@@ -1365,8 +1609,14 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   /**
    * Turn the block identifier into a filename.
    */
-  public synchronized File getFile(Block b) {
+  public File getFile(Block b) {
     DatanodeBlockInfo info = volumeMap.get(b);
+    if (info != null && info.getFile() == null) {
+      // the block may be between the move of its files and the update
+      // of the map by finalizeBlock
+      waitForFinalize(b);
+      info = volumeMap.get(b);
+    }
     if (info != null) {
       return info.getFile();
     }
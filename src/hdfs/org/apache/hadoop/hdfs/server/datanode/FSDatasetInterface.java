@@ -29,6 +29,7 @@ import java.io.OutputStream;
 
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 
@@ -117,6 +118,14 @@ public interface FSDatasetInterface extends FSDatasetMBean {
   public InputStream getBlockInputStream(Block b, long seekOffset)
             throws IOException;
 
+  /**
+   * Returns the local paths of the data and meta files of a finalized block
+   * @param b
+   * @return the block with its on-disk length, and its local paths
+   * @throws IOException if the block is not valid or is being written
+   */
+  public BlockLocalPathInfo getBlockLocalPathInfo(Block b) throws IOException;
+
   /**
    * Returns an input stream at specified offset of the specified block
    * The block is still in the tmp directory and is not finalized
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hdfs.server.datanode.FSDataset.FSVolume;
+import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
+
+/**
+ * Write each new block to the volume with the fewest blocks being
+ * written, among the volumes with room for the block.  This spreads
+ * the write load by the actual IO queue of each disk instead of by
+ * block count.  Ties are broken round-robin.
+ */
+public class LeastActiveWritersVolumeChoosingPolicy
+    implements BlockVolumeChoosingPolicy {
+  private int nextVolume = 0;
+
+  public FSVolume chooseVolume(FSVolume[] volumes, long blockSize)
+      throws IOException {
+    FSVolume best = null;
+    int bestWriters = Integer.MAX_VALUE;
+    for (int i = 0; i < volumes.length; i++) {
+      FSVolume volume = volumes[(nextVolume + i) % volumes.length];
+      int writers = volume.getActiveWriters();
+      if (writers < bestWriters && volume.getAvailable() > blockSize) {
+        best = volume;
+        bestWriters = writers;
+      }
+    }
+    if (best == null) {
+      throw new DiskOutOfSpaceException("Insufficient space for an additional block");
+    }
+    nextVolume = (nextVolume + 1) % volumes.length;
+    return best;
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+
+/**
+ * VolumeUsage keeps the space used by the block and meta files of a
+ * volume.  The count is updated in place when blocks are finalized and
+ * deleted, instead of by running <code>du</code> on the volume now and
+ * then.
+ * <p>
+ * A background thread walks the directory tree at a long interval and
+ * corrects the count, in case some change to the files was missed.  The
+ * difference it finds is published as the drift of the count.  Blocks
+ * finalized or deleted during the walk may or may not be seen by it, so
+ * only the part of the difference that these changes cannot explain is
+ * corrected.
+ */
+class VolumeUsage {
+  private final File dir;
+  private final long reconcileInterval;
+  private final AtomicLong used = new AtomicLong();
+  private volatile long lastDrift = 0;
+  private volatile DataNodeMetrics.VolumeMetrics metrics;
+  private volatile boolean shouldRun = true;
+  private Thread reconciler;
+
+  /**
+   * Keep the space used in the given directory.  The count starts at 0
+   * until {@link #init()} walks the directory.
+   * @param dir the directory of the finalized blocks of the volume
+   * @param reconcileInterval walk the directory at this interval, in
+   *        milliseconds; 0 means never
+   */
+  VolumeUsage(File dir, long reconcileInterval) {
+    this.dir = dir;
+    this.reconcileInterval = reconcileInterval;
+  }
+
+  /** Walk the directory to count the space used initially. */
+  void init() {
+    used.set(walk(dir));
+  }
+
+  void incDfsUsed(long value) {
+    used.addAndGet(value);
+  }
+
+  void decDfsUsed(long value) {
+    used.addAndGet(-value);
+  }
+
+  long getUsed() {
+    return used.get();
+  }
+
+  /** Get the drift found by the last walk of the directory. */
+  long getLastDrift() {
+    return lastDrift;
+  }
+
+  void setMetrics(DataNodeMetrics.VolumeMetrics metrics) {
+    this.metrics = metrics;
+    metrics.dfsUsedDrift.set(lastDrift);
+  }
+
+  /**
+   * Walk the directory and correct the count.
+   * @return the drift of the count: the space found by the walk less
+   *         the space counted
+   */
+  long reconcile() {
+    long counted = used.get();
+    return reconcile(counted, walk(dir));
+  }
+
+  /**
+   * Correct the count by the result of a walk.
+   * @param counted the count when the walk started
+   * @param walked the space found by the walk
+   * @return the drift of the count
+   */
+  long reconcile(long counted, long walked) {
+    // the walk may have seen any part of the changes counted during it,
+    // so the drift is only known to be in a range; correct the count by
+    // the value of the range closest to 0
+    long changes = used.get() - counted;
+    long low = walked - counted - Math.max(0, changes);
+    long high = walked - counted - Math.min(0, changes);
+    long drift = low > 0 ? low : (high < 0 ? high : 0);
+    used.addAndGet(drift);
+    lastDrift = drift;
+    DataNodeMetrics.VolumeMetrics m = metrics;
+    if (m != null) {
+      m.dfsUsedDrift.set(drift);
+    }
+    if (drift != 0) {
+      DataNode.LOG.info("Corrected the space used in " + dir + " by "
+                        + drift + " bytes");
+    }
+    return drift;
+  }
+
+  /** Add up the length of the block and meta files under a directory. */
+  static long walk(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    long size = 0;
+    for (File f : files) {
+      if (f.isDirectory()) {
+        size += walk(f);
+      } else if (f.getName().startsWith("blk_")) {
+        size += f.length();
+      }
+    }
+    return size;
+  }
+
+  /** Start the thread reconciling the count, if there is an interval. */
+  void start() {
+    if (reconcileInterval <= 0) {
+      return;
+    }
+    reconciler = new Thread(new Runnable() {
+      public void run() {
+        while (shouldRun) {
+          try {
+            Thread.sleep(reconcileInterval);
+            reconcile();
+          } catch (InterruptedException e) {
+            // shutdown() checks shouldRun
+          } catch (RuntimeException e) {
+            DataNode.LOG.warn("Could not walk " + dir, e);
+          }
+        }
+      }
+    }, "reconcileUsed-" + dir);
+    reconciler.setDaemon(true);
+    reconciler.start();
+  }
+
+  void shutdown() {
+    shouldRun = false;
+    if (reconciler != null) {
+      reconciler.interrupt();
+    }
+  }
+
+  public String toString() {
+    return used + "\t" + dir;
+  }
+}
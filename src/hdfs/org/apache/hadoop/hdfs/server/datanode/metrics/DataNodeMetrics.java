@@ -17,6 +17,9 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.metrics;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsRecord;
@@ -24,6 +27,8 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.jvm.JvmMetrics;
 import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsLongValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingInt;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
@@ -43,6 +48,8 @@ import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
  *
  */
 public class DataNodeMetrics implements Updater {
+  private final MetricsContext context;
+  private final String sessionId;
   private final MetricsRecord metricsRecord;
   private DataNodeActivityMBean datanodeActivityMBean;
   public MetricsRegistry registry = new MetricsRegistry();
@@ -69,6 +76,8 @@ public class DataNodeMetrics implements Updater {
                 new MetricsTimeVaryingInt("reads_from_local_client", registry);
   public MetricsTimeVaryingInt readsFromRemoteClient = 
                 new MetricsTimeVaryingInt("reads_from_remote_client", registry);
+  public MetricsTimeVaryingInt blocksGetLocalPathInfo = 
+            new MetricsTimeVaryingInt("blocks_get_local_pathinfo", registry);
   public MetricsTimeVaryingInt writesFromLocalClient = 
               new MetricsTimeVaryingInt("writes_from_local_client", registry);
   public MetricsTimeVaryingInt writesFromRemoteClient = 
@@ -90,10 +99,55 @@ public class DataNodeMetrics implements Updater {
                     new MetricsTimeVaryingRate("heartBeats", registry);
   public MetricsTimeVaryingRate blockReports = 
                     new MetricsTimeVaryingRate("blockReports", registry);
+  public MetricsTimeVaryingRate incrementalBlockReports = 
+                    new MetricsTimeVaryingRate("incrementalBlockReports", registry);
+
+  /**
+   * The metrics of one volume (data directory) of the DataNode, published
+   * in a "volume" record tagged with the directory.  The write
+   * throughput of the volume is bytes_written per update interval.
+   * dfs_used_drift is the correction made to the space used by the
+   * volume when its blocks were last walked.  scan_lag is how long, in
+   * milliseconds, the most overdue block of the volume is past its
+   * verification period.
+   */
+  public static class VolumeMetrics {
+    private final MetricsRecord metricsRecord;
+    public final MetricsRegistry registry = new MetricsRegistry();
+
+    public final MetricsIntValue activeWriters =
+                      new MetricsIntValue("active_writers", registry);
+    public final MetricsTimeVaryingInt blocksWritten =
+                      new MetricsTimeVaryingInt("blocks_written", registry);
+    public final MetricsTimeVaryingLong bytesWritten =
+                      new MetricsTimeVaryingLong("bytes_written", registry);
+    public final MetricsLongValue dfsUsedDrift =
+                      new MetricsLongValue("dfs_used_drift", registry);
+    public final MetricsTimeVaryingLong bytesVerified =
+                      new MetricsTimeVaryingLong("bytes_verified", registry);
+    public final MetricsLongValue scanLag =
+                      new MetricsLongValue("scan_lag", registry);
 
+    VolumeMetrics(MetricsRecord metricsRecord) {
+      this.metricsRecord = metricsRecord;
+    }
+
+    void doUpdates() {
+      synchronized (this) {
+        for (MetricsBase m : registry.getMetricsList()) {
+          m.pushMetric(metricsRecord);
+        }
+      }
+      metricsRecord.update();
+    }
+  }
+
+  private final List<VolumeMetrics> volumes =
+                      new CopyOnWriteArrayList<VolumeMetrics>();
+    
     
   public DataNodeMetrics(Configuration conf, String storageId) {
-    String sessionId = conf.get("session.id"); 
+    sessionId = conf.get("session.id"); 
     // Initiate reporting of Java VM metrics
     JvmMetrics.init("DataNode", sessionId);
     
@@ -102,12 +156,25 @@ public class DataNodeMetrics implements Updater {
     datanodeActivityMBean = new DataNodeActivityMBean(registry, storageId);
     
     // Create record for DataNode metrics
-    MetricsContext context = MetricsUtil.getContext("dfs");
+    context = MetricsUtil.getContext("dfs");
     metricsRecord = MetricsUtil.createRecord(context, "datanode");
     metricsRecord.setTag("sessionId", sessionId);
     context.registerUpdater(this);
   }
   
+  /**
+   * Create the metrics of a volume.
+   * @param volume the data directory of the volume
+   */
+  public VolumeMetrics addVolume(String volume) {
+    MetricsRecord record = MetricsUtil.createRecord(context, "volume");
+    record.setTag("sessionId", sessionId);
+    record.setTag("volume", volume);
+    VolumeMetrics metrics = new VolumeMetrics(record);
+    volumes.add(metrics);
+    return metrics;
+  }
+
   public void shutdown() {
     if (datanodeActivityMBean != null) 
       datanodeActivityMBean.shutdown();
@@ -124,6 +191,9 @@ public class DataNodeMetrics implements Updater {
       }
     }
     metricsRecord.update();
+    for (VolumeMetrics volume : volumes) {
+      volume.doUpdates();
+    }
   }
   public void resetAllMinMax() {
     readBlockOp.resetMinMax();
@@ -134,5 +204,6 @@ public class DataNodeMetrics implements Updater {
     replaceBlockOp.resetMinMax();
     heartbeats.resetMinMax();
     blockReports.resetMinMax();
+    incrementalBlockReports.resetMinMax();
   }
 }
@@ -88,10 +88,18 @@ public class DatanodeDescriptor extends DatanodeInfo {
 
   /** A queue of blocks to be replicated by this datanode */
   private BlockQueue replicateBlocks = new BlockQueue();
+  /** A queue of blocks with a single live replica to be replicated */
+  private BlockQueue urgentReplicateBlocks = new BlockQueue();
   /** A queue of blocks to be recovered by this datanode */
   private BlockQueue recoverBlocks = new BlockQueue();
   /** A set of blocks to be invalidated by this datanode */
   private Set<Block> invalidateBlocks = new TreeSet<Block>();
+  /**
+   * Replication transfers scheduled from this datanode, queued or in
+   * progress, whose targets have not reported the block yet.  Updated by
+   * PendingReplicationBlocks under its lock.
+   */
+  private volatile int pendingTransfers = 0;
 
   /* Variables for maintaning number of blocks scheduled to be written to
    * this datanode. This count is approximate and might be slightly higger
@@ -261,8 +269,22 @@ public class DatanodeDescriptor extends DatanodeInfo {
    * Store block replication work.
    */
   void addBlockToBeReplicated(Block block, DatanodeDescriptor[] targets) {
+    addBlockToBeReplicated(block, targets, false);
+  }
+
+  /**
+   * Store block replication work.
+   * @param urgent if the block has a single live replica left; urgent
+   *        work is handed out first, up to a limit of its own
+   */
+  void addBlockToBeReplicated(Block block, DatanodeDescriptor[] targets,
+                              boolean urgent) {
     assert(block != null && targets != null && targets.length > 0);
-    replicateBlocks.offer(block, targets);
+    if (urgent) {
+      urgentReplicateBlocks.offer(block, targets);
+    } else {
+      replicateBlocks.offer(block, targets);
+    }
   }
 
   /**
@@ -289,7 +311,23 @@ public class DatanodeDescriptor extends DatanodeInfo {
    * The number of work items that are pending to be replicated
    */
   int getNumberOfBlocksToBeReplicated() {
-    return replicateBlocks.size();
+    return urgentReplicateBlocks.size() + replicateBlocks.size();
+  }
+
+  /**
+   * The number of replication transfers from this datanode that are
+   * queued or in progress
+   */
+  int getPendingTransfers() {
+    return pendingTransfers;
+  }
+
+  void incPendingTransfers() {
+    pendingTransfers++;
+  }
+
+  void decPendingTransfers() {
+    pendingTransfers--;
   }
 
   /**
@@ -303,7 +341,26 @@ public class DatanodeDescriptor extends DatanodeInfo {
   }
   
   BlockCommand getReplicationCommand(int maxTransfers) {
-    List<BlockTargetPair> blocktargetlist = replicateBlocks.poll(maxTransfers);
+    return getReplicationCommand(maxTransfers, maxTransfers);
+  }
+
+  /**
+   * Hand out the urgent replication work first, up to maxUrgentTransfers,
+   * then the other work, up to maxTransfers transfers in all.
+   */
+  BlockCommand getReplicationCommand(int maxTransfers,
+                                     int maxUrgentTransfers) {
+    List<BlockTargetPair> blocktargetlist =
+      urgentReplicateBlocks.poll(maxUrgentTransfers);
+    int urgent = (blocktargetlist == null) ? 0 : blocktargetlist.size();
+    List<BlockTargetPair> others = replicateBlocks.poll(maxTransfers - urgent);
+    if (others != null) {
+      if (blocktargetlist == null) {
+        blocktargetlist = others;
+      } else {
+        blocktargetlist.addAll(others);
+      }
+    }
     return blocktargetlist == null? null:
         new BlockCommand(DatanodeProtocol.DNA_TRANSFER, blocktargetlist);
   }
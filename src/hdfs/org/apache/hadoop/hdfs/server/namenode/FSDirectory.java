@@ -19,6 +19,7 @@ package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -30,6 +31,7 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.hdfs.server.common.HdfsConstants.StartupOption;
 import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
@@ -51,6 +53,28 @@ class FSDirectory implements FSConstants, Closeable {
   private boolean ready = false;
   // Metrics record
   private MetricsRecord directoryMetrics = null;
+  // the most entries returned by one call of getListing
+  private int lsLimit;
+  // maintain the content summary of every directory?
+  private boolean cacheContentSummary;
+  // Guards the inode tree rooted at rootDir
+  private final ReentrantReadWriteLock dirLock = new ReentrantReadWriteLock();
+
+  void readLock() {
+    this.dirLock.readLock().lock();
+  }
+
+  void readUnlock() {
+    this.dirLock.readLock().unlock();
+  }
+
+  void writeLock() {
+    this.dirLock.writeLock().lock();
+  }
+
+  void writeUnlock() {
+    this.dirLock.writeLock().unlock();
+  }
 
   /** Access an existing dfs name directory. */
   FSDirectory(FSNamesystem ns, Configuration conf) {
@@ -72,6 +96,13 @@ class FSDirectory implements FSConstants, Closeable {
     MetricsContext metricsContext = MetricsUtil.getContext("dfs");
     directoryMetrics = MetricsUtil.createRecord(metricsContext, "FSDirectory");
     directoryMetrics.setTag("sessionId", conf.get("session.id"));
+    fsImage.getEditLog().setSyncParameters(
+        conf.getLong("dfs.namenode.edits.sync.batch.window", 0),
+        conf.getBoolean("dfs.namenode.edits.parallel.sync", true));
+    fsImage.setImageParameters(conf);
+    lsLimit = Math.max(1, conf.getInt("dfs.ls.limit", 1000));
+    cacheContentSummary = conf.getBoolean(
+        "dfs.namenode.content.summary.cached", false);
   }
 
   void loadFSImage(Collection<File> dataDirs,
@@ -96,6 +127,18 @@ class FSDirectory implements FSConstants, Closeable {
       fsImage.close();
       throw e;
     }
+    if (cacheContentSummary) {
+      // computed once for the loaded namespace, maintained from now on
+      writeLock();
+      try {
+        long start = FSNamesystem.now();
+        rootDir.initSummary();
+        NameNode.LOG.info("Content summaries of all directories computed in "
+                          + (FSNamesystem.now() - start) + " msecs");
+      } finally {
+        writeUnlock();
+      }
+    }
     synchronized (this) {
       this.ready = true;
       this.notifyAll();
@@ -154,8 +197,11 @@ class FSDirectory implements FSConstants, Closeable {
                                  permissions,replication,
                                  preferredBlockSize, modTime, clientName, 
                                  clientMachine, clientNode);
-    synchronized (rootDir) {
+    writeLock();
+    try {
       newNode = addNode(path, newNode, -1, false);
+    } finally {
+      writeUnlock();
     }
     if (newNode == null) {
       NameNode.stateChangeLog.info("DIR* FSDirectory.addFile: "
@@ -189,7 +235,8 @@ class FSDirectory implements FSConstants, Closeable {
                               modificationTime, atime, preferredBlockSize);
       diskspace = ((INodeFile)newNode).diskspaceConsumed(blocks);
     }
-    synchronized (rootDir) {
+    writeLock();
+    try {
       try {
         newNode = addNode(path, newNode, diskspace, false);
         if(newNode != null && blocks != null) {
@@ -204,6 +251,8 @@ class FSDirectory implements FSConstants, Closeable {
         return null;
       }
       return newNode;
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -219,20 +268,12 @@ class FSDirectory implements FSConstants, Closeable {
                               long preferredBlockSize) {
     // NOTE: This does not update space counts for parents
     // create new inode
-    INode newNode;
-    if (blocks == null) {
-      if (nsQuota >= 0 || dsQuota >= 0) {
-        newNode = new INodeDirectoryWithQuota(
-            permissions, modificationTime, nsQuota, dsQuota);
-      } else {
-        newNode = new INodeDirectory(permissions, modificationTime);
-      }
-    } else 
-      newNode = new INodeFile(permissions, blocks.length, replication,
-                              modificationTime, atime, preferredBlockSize);
+    INode newNode = newINodeForLoad(permissions, blocks, replication,
+        modificationTime, atime, nsQuota, dsQuota, preferredBlockSize);
     // add new node to the parent
     INodeDirectory newParent = null;
-    synchronized (rootDir) {
+    writeLock();
+    try {
       try {
         newParent = rootDir.addToParent(src, newNode, parentINode, false);
       } catch (FileNotFoundException e) {
@@ -240,25 +281,82 @@ class FSDirectory implements FSConstants, Closeable {
       }
       if(newParent == null)
         return null;
-      if(blocks != null) {
-        int nrBlocks = blocks.length;
-        // Add file->block mapping
-        INodeFile newF = (INodeFile)newNode;
-        for (int i = 0; i < nrBlocks; i++) {
-          newF.setBlock(i, namesystem.blocksMap.addINode(blocks[i], newF));
-        }
-      }
+      addBlocksForLoad(newNode, blocks);
+    } finally {
+      writeUnlock();
     }
     return newParent;
   }
 
+  /**
+   * Add a new inode with the given local name to the parent directory.
+   * Used by the image loader when the parent is already known.
+   * @return the new inode, or null if the parent already has a child
+   *         with that name
+   */
+  INode addToParent(byte[] localName,
+                    INodeDirectory parentINode,
+                    PermissionStatus permissions,
+                    Block[] blocks,
+                    short replication,
+                    long modificationTime,
+                    long atime,
+                    long nsQuota,
+                    long dsQuota,
+                    long preferredBlockSize) {
+    // NOTE: This does not update space counts for parents
+    INode newNode = newINodeForLoad(permissions, blocks, replication,
+        modificationTime, atime, nsQuota, dsQuota, preferredBlockSize);
+    newNode.setLocalName(localName);
+    writeLock();
+    try {
+      if (parentINode.addChild(newNode, false, false) == null)
+        return null;
+      addBlocksForLoad(newNode, blocks);
+    } finally {
+      writeUnlock();
+    }
+    return newNode;
+  }
+
+  private static INode newINodeForLoad(PermissionStatus permissions,
+                                       Block[] blocks,
+                                       short replication,
+                                       long modificationTime,
+                                       long atime,
+                                       long nsQuota,
+                                       long dsQuota,
+                                       long preferredBlockSize) {
+    if (blocks == null) {
+      if (nsQuota >= 0 || dsQuota >= 0) {
+        return new INodeDirectoryWithQuota(
+            permissions, modificationTime, nsQuota, dsQuota);
+      }
+      return new INodeDirectory(permissions, modificationTime);
+    }
+    return new INodeFile(permissions, blocks.length, replication,
+                         modificationTime, atime, preferredBlockSize);
+  }
+
+  /** Add file->block mapping for a newly loaded file. */
+  private void addBlocksForLoad(INode newNode, Block[] blocks) {
+    if(blocks != null) {
+      int nrBlocks = blocks.length;
+      INodeFile newF = (INodeFile)newNode;
+      for (int i = 0; i < nrBlocks; i++) {
+        newF.setBlock(i, namesystem.blocksMap.addINode(blocks[i], newF));
+      }
+    }
+  }
+
   /**
    * Add a block to the file. Returns a reference to the added block.
    */
   Block addBlock(String path, INode[] inodes, Block block) throws IOException {
     waitForReady();
 
-    synchronized (rootDir) {
+    writeLock();
+    try {
       INodeFile fileNode = (INodeFile) inodes[inodes.length-1];
 
       // check quota limits and updated space consumed
@@ -268,12 +366,16 @@ class FSDirectory implements FSConstants, Closeable {
       // associate the new list of blocks with this file
       namesystem.blocksMap.addINode(block, fileNode);
       BlockInfo blockInfo = namesystem.blocksMap.getStoredBlock(block);
+      long[] summary = fileNode.summaryBeforeChange();
       fileNode.addBlock(blockInfo);
+      fileNode.summaryAfterChange(summary);
 
       NameNode.stateChangeLog.debug("DIR* FSDirectory.addFile: "
                                     + path + " with " + block
                                     + " block is added to the in-memory "
                                     + "file system");
+    } finally {
+      writeUnlock();
     }
     return block;
   }
@@ -285,11 +387,14 @@ class FSDirectory implements FSConstants, Closeable {
                      throws IOException {
     waitForReady();
 
-    synchronized (rootDir) {
+    writeLock();
+    try {
       fsImage.getEditLog().logOpenFile(path, file);
       NameNode.stateChangeLog.debug("DIR* FSDirectory.persistBlocks: "
                                     +path+" with "+ file.getBlocks().length 
                                     +" blocks is persisted to the file system");
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -298,7 +403,8 @@ class FSDirectory implements FSConstants, Closeable {
    */
   void closeFile(String path, INodeFile file) throws IOException {
     waitForReady();
-    synchronized (rootDir) {
+    writeLock();
+    try {
       // file is closed
       fsImage.getEditLog().logCloseFile(path, file);
       if (NameNode.stateChangeLog.isDebugEnabled()) {
@@ -306,6 +412,8 @@ class FSDirectory implements FSConstants, Closeable {
                                     +path+" with "+ file.getBlocks().length 
                                     +" blocks is persisted to the file system");
       }
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -316,9 +424,12 @@ class FSDirectory implements FSConstants, Closeable {
                       Block block) throws IOException {
     waitForReady();
 
-    synchronized (rootDir) {
+    writeLock();
+    try {
       // modify file-> block and blocksMap
+      long[] summary = fileNode.summaryBeforeChange();
       fileNode.removeBlock(block);
+      fileNode.summaryAfterChange(summary);
       namesystem.blocksMap.removeINode(block);
       // If block is removed from blocksMap remove it from corruptReplicasMap
       namesystem.corruptReplicas.removeFromCorruptReplicasMap(block);
@@ -328,6 +439,8 @@ class FSDirectory implements FSConstants, Closeable {
       NameNode.stateChangeLog.debug("DIR* FSDirectory.addFile: "
                                     +path+" with "+block
                                     +" block is added to the file system");
+    } finally {
+      writeUnlock();
     }
     return true;
   }
@@ -357,7 +470,8 @@ class FSDirectory implements FSConstants, Closeable {
    */
   boolean unprotectedRenameTo(String src, String dst, long timestamp) 
   throws QuotaExceededException {
-    synchronized (rootDir) {
+    writeLock();
+    try {
       INode[] srcInodes = rootDir.getExistingPathINodes(src);
 
       // check the validation of the source
@@ -439,6 +553,8 @@ class FSDirectory implements FSConstants, Closeable {
           return false;
         }
       }
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -470,7 +586,8 @@ class FSDirectory implements FSConstants, Closeable {
       oldReplication = new int[1];
     oldReplication[0] = -1;
     Block[] fileBlocks = null;
-    synchronized(rootDir) {
+    writeLock();
+    try {
       INode[] inodes = rootDir.getExistingPathINodes(src);
       INode inode = inodes[inodes.length - 1];
       if (inode == null)
@@ -485,8 +602,12 @@ class FSDirectory implements FSConstants, Closeable {
            (fileNode.diskspaceConsumed()/oldReplication[0]);
       updateCount(inodes, inodes.length-1, 0, dsDelta);
 
+      long[] summary = fileNode.summaryBeforeChange();
       fileNode.setReplication(replication);
+      fileNode.summaryAfterChange(summary);
       fileBlocks = fileNode.getBlocks();
+    } finally {
+      writeUnlock();
     }
     return fileBlocks;
   }
@@ -498,7 +619,8 @@ class FSDirectory implements FSConstants, Closeable {
    * @throws IOException if it is a directory or does not exist.
    */
   long getPreferredBlockSize(String filename) throws IOException {
-    synchronized (rootDir) {
+    readLock();
+    try {
       INode fileNode = rootDir.getNode(filename);
       if (fileNode == null) {
         throw new IOException("Unknown file: " + filename);
@@ -508,17 +630,22 @@ class FSDirectory implements FSConstants, Closeable {
                               filename);
       }
       return ((INodeFile)fileNode).getPreferredBlockSize();
+    } finally {
+      readUnlock();
     }
   }
 
   boolean exists(String src) {
     src = normalizePath(src);
-    synchronized(rootDir) {
+    readLock();
+    try {
       INode inode = rootDir.getNode(src);
       if (inode == null) {
          return false;
       }
       return inode.isDirectory()? true: ((INodeFile)inode).getBlocks() != null;
+    } finally {
+      readUnlock();
     }
   }
 
@@ -529,11 +656,14 @@ class FSDirectory implements FSConstants, Closeable {
   }
 
   void unprotectedSetPermission(String src, FsPermission permissions) throws FileNotFoundException {
-    synchronized(rootDir) {
+    writeLock();
+    try {
         INode inode = rootDir.getNode(src);
         if(inode == null)
             throw new FileNotFoundException("File does not exist: " + src);
         inode.setPermission(permissions);
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -544,7 +674,8 @@ class FSDirectory implements FSConstants, Closeable {
   }
 
   void unprotectedSetOwner(String src, String username, String groupname) throws FileNotFoundException {
-    synchronized(rootDir) {
+    writeLock();
+    try {
       INode inode = rootDir.getNode(src);
       if(inode == null)
           throw new FileNotFoundException("File does not exist: " + src);
@@ -554,6 +685,8 @@ class FSDirectory implements FSConstants, Closeable {
       if (groupname != null) {
         inode.setGroup(groupname);
       }
+    } finally {
+      writeUnlock();
     }
   }
     
@@ -579,12 +712,15 @@ class FSDirectory implements FSConstants, Closeable {
     if (!isDir(src)) {
       return true;
     }
-    synchronized(rootDir) {
+    readLock();
+    try {
       INode targetNode = rootDir.getNode(src);
       assert targetNode != null : "should be taken care in isDir() above";
       if (((INodeDirectory)targetNode).getChildren().size() != 0) {
         dirNotEmpty = false;
       }
+    } finally {
+      readUnlock();
     }
     return dirNotEmpty;
   }
@@ -600,7 +736,8 @@ class FSDirectory implements FSConstants, Closeable {
   INode unprotectedDelete(String src, long modificationTime) {
     src = normalizePath(src);
 
-    synchronized (rootDir) {
+    writeLock();
+    try {
       INode[] inodes =  rootDir.getExistingPathINodes(src);
       INode targetNode = inodes[inodes.length-1];
 
@@ -635,6 +772,8 @@ class FSDirectory implements FSConstants, Closeable {
           return null;
         }
       }
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -651,7 +790,8 @@ class FSDirectory implements FSConstants, Closeable {
    */
   private void replaceNode(String path, INodeFile oldnode, INodeFile newnode,
                            boolean updateDiskspace) throws IOException {    
-    synchronized (rootDir) {
+    writeLock();
+    try {
       long dsOld = oldnode.diskspaceConsumed();
       
       //
@@ -688,6 +828,8 @@ class FSDirectory implements FSConstants, Closeable {
         newnode.setBlock(index, info); // inode refers to the block in BlocksMap
         index++;
       }
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -700,7 +842,8 @@ class FSDirectory implements FSConstants, Closeable {
   FileStatus[] getListing(String src) {
     String srcs = normalizePath(src);
 
-    synchronized (rootDir) {
+    readLock();
+    try {
       INode targetNode = rootDir.getNode(srcs);
       if (targetNode == null)
         return null;
@@ -717,6 +860,53 @@ class FSDirectory implements FSConstants, Closeable {
         i++;
       }
       return listing;
+    } finally {
+      readUnlock();
+    }
+  }
+
+  /**
+   * Get a part of the listing of directory 'src': the entries after the
+   * one named startAfter, at most limit of them and no more than
+   * dfs.ls.limit.  The directory lock is held only while they are built.
+   *
+   * @param startAfter the name of the last entry of the previous part,
+   *                   or the empty string for the first part
+   * @param limit the most entries to return; not positive for the default
+   * @return the part of the listing, or null if src does not exist
+   */
+  DirectoryListing getListing(String src, String startAfter, int limit) {
+    String srcs = normalizePath(src);
+    if (limit <= 0 || limit > lsLimit) {
+      limit = lsLimit;
+    }
+
+    readLock();
+    try {
+      INode targetNode = rootDir.getNode(srcs);
+      if (targetNode == null)
+        return null;
+      if (!targetNode.isDirectory()) {
+        FileStatus[] listing = startAfter.length() == 0 ?
+            new FileStatus[]{createFileStatus(srcs, targetNode)} :
+            new FileStatus[0];
+        return new DirectoryListing(listing, 0);
+      }
+      INodeDirectory dirInode = (INodeDirectory)targetNode;
+      List<INode> contents = dirInode.getChildren();
+      int startChild = dirInode.nextChild(INode.string2Bytes(startAfter));
+      int numOfListing = Math.min(limit, contents.size() - startChild);
+      FileStatus listing[] = new FileStatus[numOfListing];
+      if(! srcs.endsWith(Path.SEPARATOR))
+        srcs += Path.SEPARATOR;
+      for (int i = 0; i < numOfListing; i++) {
+        INode cur = contents.get(startChild + i);
+        listing[i] = createFileStatus(srcs+cur.getLocalName(), cur);
+      }
+      return new DirectoryListing(listing,
+          contents.size() - startChild - numOfListing);
+    } finally {
+      readUnlock();
     }
   }
 
@@ -727,7 +917,8 @@ class FSDirectory implements FSConstants, Closeable {
    */
   FileStatus getFileInfo(String src) {
     String srcs = normalizePath(src);
-    synchronized (rootDir) {
+    readLock();
+    try {
       INode targetNode = rootDir.getNode(srcs);
       if (targetNode == null) {
         return null;
@@ -735,6 +926,8 @@ class FSDirectory implements FSConstants, Closeable {
       else {
         return createFileStatus(srcs, targetNode);
       }
+    } finally {
+      readUnlock();
     }
   }
 
@@ -743,13 +936,16 @@ class FSDirectory implements FSConstants, Closeable {
    */
   Block[] getFileBlocks(String src) {
     waitForReady();
-    synchronized (rootDir) {
+    readLock();
+    try {
       INode targetNode = rootDir.getNode(src);
       if (targetNode == null)
         return null;
       if(targetNode.isDirectory())
         return null;
       return ((INodeFile)targetNode).getBlocks();
+    } finally {
+      readUnlock();
     }
   }
 
@@ -757,11 +953,14 @@ class FSDirectory implements FSConstants, Closeable {
    * Get {@link INode} associated with the file.
    */
   INodeFile getFileINode(String src) {
-    synchronized (rootDir) {
+    readLock();
+    try {
       INode inode = rootDir.getNode(src);
       if (inode == null || inode.isDirectory())
         return null;
       return (INodeFile)inode;
+    } finally {
+      readUnlock();
     }
   }
 
@@ -778,8 +977,11 @@ class FSDirectory implements FSConstants, Closeable {
    * @see INodeDirectory#getExistingPathINodes(byte[][], INode[])
    */
   INode[] getExistingPathINodes(String path) {
-    synchronized (rootDir){
+    readLock();
+    try {
       return rootDir.getExistingPathINodes(path);
+    } finally {
+      readUnlock();
     }
   }
   
@@ -788,7 +990,8 @@ class FSDirectory implements FSConstants, Closeable {
    */
   boolean isValidToCreate(String src) {
     String srcs = normalizePath(src);
-    synchronized (rootDir) {
+    readLock();
+    try {
       if (srcs.startsWith("/") && 
           !srcs.endsWith("/") && 
           rootDir.getNode(srcs) == null) {
@@ -796,6 +999,8 @@ class FSDirectory implements FSConstants, Closeable {
       } else {
         return false;
       }
+    } finally {
+      readUnlock();
     }
   }
 
@@ -803,9 +1008,12 @@ class FSDirectory implements FSConstants, Closeable {
    * Check whether the path specifies a directory
    */
   boolean isDir(String src) {
-    synchronized (rootDir) {
+    readLock();
+    try {
       INode node = rootDir.getNode(normalizePath(src));
       return node != null && node.isDirectory();
+    } finally {
+      readUnlock();
     }
   }
 
@@ -821,7 +1029,8 @@ class FSDirectory implements FSConstants, Closeable {
   void updateSpaceConsumed(String path, long nsDelta, long dsDelta)
                                          throws QuotaExceededException,
                                                 FileNotFoundException {
-    synchronized (rootDir) {
+    writeLock();
+    try {
       INode[] inodes = rootDir.getExistingPathINodes(path);
       int len = inodes.length;
       if (inodes[len - 1] == null) {
@@ -829,6 +1038,8 @@ class FSDirectory implements FSConstants, Closeable {
                                         " does not exist under rootDir.");
       }
       updateCount(inodes, len-1, nsDelta, dsDelta);
+    } finally {
+      writeUnlock();
     }
   }
   
@@ -907,7 +1118,8 @@ class FSDirectory implements FSConstants, Closeable {
     byte[][] components = INode.getPathComponents(names);
     INode[] inodes = new INode[components.length];
 
-    synchronized(rootDir) {
+    writeLock();
+    try {
       rootDir.getExistingPathINodes(components, inodes);
 
       // find the index of the first null in inodes[]
@@ -938,6 +1150,8 @@ class FSDirectory implements FSConstants, Closeable {
         NameNode.stateChangeLog.debug(
             "DIR* FSDirectory.mkdirs: created directory " + cur);
       }
+    } finally {
+      writeUnlock();
     }
     return true;
   }
@@ -948,11 +1162,14 @@ class FSDirectory implements FSConstants, Closeable {
                           long timestamp) throws QuotaExceededException {
     byte[][] components = INode.getPathComponents(src);
     INode[] inodes = new INode[components.length];
-    synchronized (rootDir) {
+    writeLock();
+    try {
       rootDir.getExistingPathINodes(components, inodes);
       unprotectedMkdir(inodes, inodes.length-1, components[inodes.length-1],
           permissions, false, timestamp);
       return inodes[inodes.length-1];
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -977,10 +1194,13 @@ class FSDirectory implements FSConstants, Closeable {
     byte[][] components = INode.getPathComponents(src);
     child.setLocalName(components[components.length-1]);
     INode[] inodes = new INode[components.length];
-    synchronized (rootDir) {
+    writeLock();
+    try {
       rootDir.getExistingPathINodes(components, inodes);
       return addChild(inodes, inodes.length-1, child, childDiskspace,
                       inheritPermission);
+    } finally {
+      writeUnlock();
     }
   }
   
@@ -1041,7 +1261,8 @@ class FSDirectory implements FSConstants, Closeable {
 
   ContentSummary getContentSummary(String src) throws IOException {
     String srcs = normalizePath(src);
-    synchronized (rootDir) {
+    readLock();
+    try {
       INode targetNode = rootDir.getNode(srcs);
       if (targetNode == null) {
         throw new FileNotFoundException("File does not exist: " + srcs);
@@ -1049,6 +1270,8 @@ class FSDirectory implements FSConstants, Closeable {
       else {
         return targetNode.computeContentSummary();
       }
+    } finally {
+      readUnlock();
     }
   }
 
@@ -1190,18 +1413,24 @@ class FSDirectory implements FSConstants, Closeable {
    */
   void setQuota(String src, long nsQuota, long dsQuota) 
                 throws FileNotFoundException, QuotaExceededException {
-    synchronized (rootDir) {    
+    writeLock();
+    try {
       INodeDirectory dir = unprotectedSetQuota(src, nsQuota, dsQuota);
       if (dir != null) {
         fsImage.getEditLog().logSetQuota(src, dir.getNsQuota(), 
                                          dir.getDsQuota());
       }
+    } finally {
+      writeUnlock();
     }
   }
   
   long totalInodes() {
-    synchronized (rootDir) {
+    readLock();
+    try {
       return rootDir.numItemsInTree();
+    } finally {
+      readUnlock();
     }
   }
 
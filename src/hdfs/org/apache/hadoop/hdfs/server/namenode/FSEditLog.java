@@ -29,6 +29,13 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.lang.Math;
 import java.nio.channels.FileChannel;
 import java.nio.ByteBuffer;
@@ -91,6 +98,14 @@ public class FSEditLog {
   private long totalTimeTransactions;  // total time for all transactions
   private NameNodeMetrics metrics;
 
+  // how long the syncing thread waits for more transactions to join the
+  // batch before flushing; 0 flushes immediately
+  private long syncBatchWindow = 0;
+
+  // flush the edit streams of different directories concurrently
+  private boolean parallelSync = false;
+  private ExecutorService syncExecutor = null;
+
   private static class TransactionId {
     public long txid;
 
@@ -287,6 +302,17 @@ public class FSEditLog {
     metrics = NameNode.getNameNodeMetrics();
     lastPrintTime = FSNamesystem.now();
   }
+
+  /**
+   * Set the group commit parameters.
+   * @param batchWindow milliseconds the syncing thread waits for more
+   *        transactions before flushing the batch
+   * @param parallel whether edit streams are flushed concurrently
+   */
+  synchronized void setSyncParameters(long batchWindow, boolean parallel) {
+    this.syncBatchWindow = Math.max(0, batchWindow);
+    this.parallelSync = parallel;
+  }
   
   private File getEditFile(StorageDirectory sd) {
     return fsimage.getEditFile(sd);
@@ -383,6 +409,10 @@ public class FSEditLog {
       }
     }
     editStreams.clear();
+    if (syncExecutor != null) {
+      syncExecutor.shutdown();
+      syncExecutor = null;
+    }
   }
 
   /**
@@ -869,14 +899,15 @@ public class FSEditLog {
   public void logSync() throws IOException {
     ArrayList<EditLogOutputStream> errorStreams = null;
     long syncStart = 0;
+    long prevSyncTxid = 0;
+    ExecutorService executor = null;
 
     // Fetch the transactionId of this thread. 
     long mytxid = myTransactionId.get().txid;
 
     final int numEditStreams;
     synchronized (this) {
-      numEditStreams = editStreams.size();
-      assert numEditStreams > 0 : "no editlog streams";
+      assert editStreams.size() > 0 : "no editlog streams";
       printStatistics(false);
 
       // if somebody is already syncing, then wait
@@ -898,31 +929,98 @@ public class FSEditLog {
       }
    
       // now, this thread will do the sync
+      isSyncRunning = true;
+
+      // give other handlers a chance to add their transactions to this
+      // batch; wait() releases the monitor so logEdit() can proceed
+      if (syncBatchWindow > 0) {
+        long deadline = FSNamesystem.now() + syncBatchWindow;
+        long remaining = syncBatchWindow;
+        while (remaining > 0) {
+          try {
+            wait(remaining);
+          } catch (InterruptedException ie) {
+            break;
+          }
+          remaining = deadline - FSNamesystem.now();
+        }
+      }
       syncStart = txid;
-      isSyncRunning = true;   
+      prevSyncTxid = synctxid;
+      numEditStreams = editStreams.size();
+      assert numEditStreams > 0 : "no editlog streams";
 
       // swap buffers
       for (int idx = 0; idx < numEditStreams; idx++) {
         editStreams.get(idx).setReadyToFlush();
       }
+      if (parallelSync && numEditStreams > 1) {
+        executor = getSyncExecutor();
+      }
     }
 
     // do the sync
     long start = FSNamesystem.now();
-    for (int idx = 0; idx < numEditStreams; idx++) {
-      EditLogOutputStream eStream = editStreams.get(idx);
+    if (executor == null) {
+      for (int idx = 0; idx < numEditStreams; idx++) {
+        EditLogOutputStream eStream = editStreams.get(idx);
+        try {
+          eStream.flush();
+        } catch (IOException ie) {
+          errorStreams = addErrorStream(errorStreams, eStream, ie);
+        }
+      }
+    } else {
+      // hand all but the first stream to the executor, flush the first
+      // one in this thread and then wait for the others
+      ArrayList<Future<?>> flushes = new ArrayList<Future<?>>(numEditStreams);
+      for (int idx = 1; idx < numEditStreams; idx++) {
+        final EditLogOutputStream eStream = editStreams.get(idx);
+        Future<?> f = null;
+        try {
+          f = executor.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+              eStream.flush();
+              return null;
+            }
+          });
+        } catch (RejectedExecutionException ree) {
+          // the executor was shut down under us; flush in this thread
+          try {
+            eStream.flush();
+          } catch (IOException ie) {
+            errorStreams = addErrorStream(errorStreams, eStream, ie);
+          }
+        }
+        flushes.add(f);
+      }
+      EditLogOutputStream first = editStreams.get(0);
       try {
-        eStream.flush();
+        first.flush();
       } catch (IOException ie) {
-        //
-        // remember the streams that encountered an error.
-        //
-        if (errorStreams == null) {
-          errorStreams = new ArrayList<EditLogOutputStream>(1);
+        errorStreams = addErrorStream(errorStreams, first, ie);
+      }
+      for (int idx = 1; idx < numEditStreams; idx++) {
+        Future<?> f = flushes.get(idx - 1);
+        if (f == null) {        // flushed inline
+          continue;
+        }
+        boolean interrupted = false;
+        while (true) {
+          try {
+            f.get();
+            break;
+          } catch (InterruptedException ie) {
+            interrupted = true;
+          } catch (ExecutionException ee) {
+            errorStreams = addErrorStream(errorStreams, editStreams.get(idx),
+                                          ee.getCause());
+            break;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
         }
-        errorStreams.add(eStream);
-        FSNamesystem.LOG.error("Unable to sync edit log. " +
-                               "Fatal Error.");
       }
     }
     long elapsed = FSNamesystem.now() - start;
@@ -935,7 +1033,39 @@ public class FSEditLog {
     }
 
     if (metrics != null) // Metrics is non-null only when used inside name node
-      metrics.syncs.inc(elapsed);
+      metrics.addSync(elapsed, (int)(syncStart - prevSyncTxid));
+  }
+
+  /**
+   * Remember a stream that failed to sync.
+   */
+  private static ArrayList<EditLogOutputStream> addErrorStream(
+      ArrayList<EditLogOutputStream> errorStreams,
+      EditLogOutputStream eStream, Throwable t) {
+    if (errorStreams == null) {
+      errorStreams = new ArrayList<EditLogOutputStream>(1);
+    }
+    errorStreams.add(eStream);
+    FSNamesystem.LOG.error("Unable to sync edit log " + eStream.getName() +
+                           ". Fatal Error.", t);
+    return errorStreams;
+  }
+
+  /**
+   * Executor used to flush edit streams concurrently.
+   * Created on first use.
+   */
+  private synchronized ExecutorService getSyncExecutor() {
+    if (syncExecutor == null) {
+      syncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "EditLogSync");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return syncExecutor;
   }
 
   //
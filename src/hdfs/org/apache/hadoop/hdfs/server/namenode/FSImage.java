@@ -19,6 +19,7 @@ package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
@@ -33,11 +34,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.lang.Math;
 import java.nio.ByteBuffer;
 
@@ -50,8 +58,13 @@ import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.server.common.HdfsConstants.NodeType;
 import org.apache.hadoop.hdfs.server.common.HdfsConstants.StartupOption;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.UTF8;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLog.EditLogFileInputStream;
@@ -132,9 +145,25 @@ public class FSImage extends Storage {
   /**
    * Used for saving the image to disk
    */
-  static private final FsPermission FILE_PERM = new FsPermission((short)0);
   static private final byte[] PATH_SEPARATOR = INode.string2Bytes(Path.SEPARATOR);
 
+  /**
+   * Image layout version that stores the namespace in sections of
+   * sibling inodes with local names, optionally compressed.
+   */
+  static final int SECTIONED_IMAGE_LAYOUT_VERSION = -19;
+
+  /** Maximal number of inodes in one image section. */
+  static final int MAX_INODES_PER_SECTION = 1024;
+
+  private Configuration conf = null;
+
+  /** Codec used for saving the image; null if it is not compressed. */
+  private CompressionCodec saveCodec = null;
+
+  /** Number of threads parsing image sections during load. */
+  private int loadThreads = 1;
+
   /**
    */
   FSImage() {
@@ -142,6 +171,22 @@ public class FSImage extends Storage {
     this.editLog = new FSEditLog(this);
   }
 
+  /**
+   * Set image compression and loading parameters.
+   */
+  void setImageParameters(Configuration conf) {
+    this.conf = conf;
+    if (conf.getBoolean("dfs.image.compress", false)) {
+      Class<? extends CompressionCodec> codecClass = conf.getClass(
+          "dfs.image.compression.codec", DefaultCodec.class,
+          CompressionCodec.class);
+      this.saveCodec = ReflectionUtils.newInstance(codecClass, conf);
+    } else {
+      this.saveCodec = null;
+    }
+    this.loadThreads = Math.max(1, conf.getInt("dfs.image.load.threads", 4));
+  }
+
   /**
    */
   FSImage(Collection<File> fsDirs, Collection<File> fsEditsDirs) 
@@ -865,93 +910,108 @@ public class FSImage extends Storage {
 
       needToSave = (imgVersion != FSConstants.LAYOUT_VERSION);
 
-      // read file info
-      short replication = FSNamesystem.getFSNamesystem().getDefaultReplication();
-
-      LOG.info("Number of files = " + numFiles);
-
-      String path;
-      String parentPath = "";
-      INodeDirectory parentINode = fsDir.rootDir;
-      for (long i = 0; i < numFiles; i++) {
-        long modificationTime = 0;
-        long atime = 0;
-        long blockSize = 0;
-        path = readString(in);
-        replication = in.readShort();
-        replication = FSEditLog.adjustReplication(replication);
-        modificationTime = in.readLong();
-        if (imgVersion <= -17) {
-          atime = in.readLong();
+      if (imgVersion <= SECTIONED_IMAGE_LAYOUT_VERSION) {
+        if (in.readBoolean()) {
+          CompressionCodec codec = getImageCodec(Text.readString(in));
+          LOG.info("Image is compressed with " + codec.getClass().getName());
+          in = new DataInputStream(new BufferedInputStream(
+                                       codec.createInputStream(in)));
         }
-        if (imgVersion <= -8) {
-          blockSize = in.readLong();
+        LOG.info("Number of files = " + numFiles);
+        long numLoaded = loadImageSections(in, fsNamesys, fsDir);
+        if (numLoaded != numFiles) {
+          throw new IOException("Image is corrupt: " + numLoaded +
+                                " inodes found instead of " + numFiles);
         }
-        int numBlocks = in.readInt();
-        Block blocks[] = null;
-
-        // for older versions, a blocklist of size 0
-        // indicates a directory.
-        if ((-9 <= imgVersion && numBlocks > 0) ||
-            (imgVersion < -9 && numBlocks >= 0)) {
-          blocks = new Block[numBlocks];
-          for (int j = 0; j < numBlocks; j++) {
-            blocks[j] = new Block();
-            if (-14 < imgVersion) {
-              blocks[j].set(in.readLong(), in.readLong(), 
-                            Block.GRANDFATHER_GENERATION_STAMP);
-            } else {
-              blocks[j].readFields(in);
+      } else {
+        // read file info
+        short replication = FSNamesystem.getFSNamesystem().getDefaultReplication();
+
+        LOG.info("Number of files = " + numFiles);
+
+        String path;
+        String parentPath = "";
+        INodeDirectory parentINode = fsDir.rootDir;
+        for (long i = 0; i < numFiles; i++) {
+          long modificationTime = 0;
+          long atime = 0;
+          long blockSize = 0;
+          path = readString(in);
+          replication = in.readShort();
+          replication = FSEditLog.adjustReplication(replication);
+          modificationTime = in.readLong();
+          if (imgVersion <= -17) {
+            atime = in.readLong();
+          }
+          if (imgVersion <= -8) {
+            blockSize = in.readLong();
+          }
+          int numBlocks = in.readInt();
+          Block blocks[] = null;
+
+          // for older versions, a blocklist of size 0
+          // indicates a directory.
+          if ((-9 <= imgVersion && numBlocks > 0) ||
+              (imgVersion < -9 && numBlocks >= 0)) {
+            blocks = new Block[numBlocks];
+            for (int j = 0; j < numBlocks; j++) {
+              blocks[j] = new Block();
+              if (-14 < imgVersion) {
+                blocks[j].set(in.readLong(), in.readLong(), 
+                              Block.GRANDFATHER_GENERATION_STAMP);
+              } else {
+                blocks[j].readFields(in);
+              }
             }
           }
-        }
-        // Older versions of HDFS does not store the block size in inode.
-        // If the file has more than one block, use the size of the 
-        // first block as the blocksize. Otherwise use the default block size.
-        //
-        if (-8 <= imgVersion && blockSize == 0) {
-          if (numBlocks > 1) {
-            blockSize = blocks[0].getNumBytes();
-          } else {
-            long first = ((numBlocks == 1) ? blocks[0].getNumBytes(): 0);
-            blockSize = Math.max(fsNamesys.getDefaultBlockSize(), first);
+          // Older versions of HDFS does not store the block size in inode.
+          // If the file has more than one block, use the size of the 
+          // first block as the blocksize. Otherwise use the default block size.
+          //
+          if (-8 <= imgVersion && blockSize == 0) {
+            if (numBlocks > 1) {
+              blockSize = blocks[0].getNumBytes();
+            } else {
+              long first = ((numBlocks == 1) ? blocks[0].getNumBytes(): 0);
+              blockSize = Math.max(fsNamesys.getDefaultBlockSize(), first);
+            }
           }
-        }
         
-        // get quota only when the node is a directory
-        long nsQuota = -1L;
-        if (imgVersion <= -16 && blocks == null) {
-          nsQuota = in.readLong();
-        }
-        long dsQuota = -1L;
-        if (imgVersion <= -18 && blocks == null) {
-          dsQuota = in.readLong();
-        }
+          // get quota only when the node is a directory
+          long nsQuota = -1L;
+          if (imgVersion <= -16 && blocks == null) {
+            nsQuota = in.readLong();
+          }
+          long dsQuota = -1L;
+          if (imgVersion <= -18 && blocks == null) {
+            dsQuota = in.readLong();
+          }
         
-        PermissionStatus permissions = fsNamesys.getUpgradePermission();
-        if (imgVersion <= -11) {
-          permissions = PermissionStatus.read(in);
-        }
-        if (path.length() == 0) { // it is the root
-          // update the root's attributes
-          if (nsQuota != -1 || dsQuota != -1) {
-            fsDir.rootDir.setQuota(nsQuota, dsQuota);
+          PermissionStatus permissions = fsNamesys.getUpgradePermission();
+          if (imgVersion <= -11) {
+            permissions = PermissionStatus.read(in);
           }
-          fsDir.rootDir.setModificationTime(modificationTime);
-          fsDir.rootDir.setPermissionStatus(permissions);
-          continue;
-        }
-        // check if the new inode belongs to the same parent
-        if(!isParent(path, parentPath)) {
-          parentINode = null;
-          parentPath = getParent(path);
+          if (path.length() == 0) { // it is the root
+            // update the root's attributes
+            if (nsQuota != -1 || dsQuota != -1) {
+              fsDir.rootDir.setQuota(nsQuota, dsQuota);
+            }
+            fsDir.rootDir.setModificationTime(modificationTime);
+            fsDir.rootDir.setPermissionStatus(permissions);
+            continue;
+          }
+          // check if the new inode belongs to the same parent
+          if(!isParent(path, parentPath)) {
+            parentINode = null;
+            parentPath = getParent(path);
+          }
+          // add new inode
+          parentINode = fsDir.addToParent(path, parentINode, permissions,
+                                          blocks, replication, modificationTime, 
+                                          atime, nsQuota, dsQuota, blockSize);
         }
-        // add new inode
-        parentINode = fsDir.addToParent(path, parentINode, permissions,
-                                        blocks, replication, modificationTime, 
-                                        atime, nsQuota, dsQuota, blockSize);
       }
-      
+
       // load datanode info
       this.loadDatanodes(imgVersion, in);
 
@@ -978,6 +1038,208 @@ public class FSImage extends Storage {
           && path.lastIndexOf(Path.SEPARATOR) == parent.length();
   }
 
+  /**
+   * Instantiate the codec an image was compressed with.
+   */
+  private CompressionCodec getImageCodec(String codecClassName
+                                         ) throws IOException {
+    Configuration codecConf = (conf != null) ? conf : new Configuration();
+    try {
+      Class<?> codecClass = codecConf.getClassByName(codecClassName);
+      return (CompressionCodec)ReflectionUtils.newInstance(codecClass,
+                                                           codecConf);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Image compression codec " + codecClassName
+                            + " not found.");
+    }
+  }
+
+  /**
+   * An inode read from a sectioned image, not yet added to the namespace.
+   */
+  private static class ImageINode {
+    byte[] localName;
+    short replication;
+    long modificationTime;
+    long atime;
+    long blockSize;
+    Block[] blocks;       // null for a directory
+    long nsQuota = -1L;
+    long dsQuota = -1L;
+    PermissionStatus permissions;
+  }
+
+  /**
+   * A section of a sectioned image: children of one directory.
+   * Large directories are split over several sections.
+   */
+  private static class ImageSection {
+    String parentPath;
+    ImageINode[] inodes;
+  }
+
+  /**
+   * Read one inode in the format written by
+   * {@link #saveINode2Image(byte[], int, INode, DataOutputStream, FsPermission)}.
+   */
+  private static ImageINode readImageINode(DataInputStream in
+                                           ) throws IOException {
+    ImageINode inode = new ImageINode();
+    inode.localName = readBytes(in);
+    inode.replication = FSEditLog.adjustReplication(in.readShort());
+    inode.modificationTime = in.readLong();
+    inode.atime = in.readLong();
+    inode.blockSize = in.readLong();
+    int numBlocks = in.readInt();
+    if (numBlocks >= 0) {
+      inode.blocks = new Block[numBlocks];
+      for (int j = 0; j < numBlocks; j++) {
+        inode.blocks[j] = new Block();
+        inode.blocks[j].readFields(in);
+      }
+    } else {
+      inode.nsQuota = in.readLong();
+      inode.dsQuota = in.readLong();
+    }
+    inode.permissions = PermissionStatus.read(in);
+    return inode;
+  }
+
+  /** Decode a section read from the image. */
+  private static ImageSection parseImageSection(byte[] data
+                                                ) throws IOException {
+    DataInputStream in = new DataInputStream(
+                             new ByteArrayInputStream(data));
+    ImageSection section = new ImageSection();
+    section.parentPath = readString(in);
+    section.inodes = new ImageINode[in.readInt()];
+    for (int i = 0; i < section.inodes.length; i++) {
+      section.inodes[i] = readImageINode(in);
+    }
+    return section;
+  }
+
+  /**
+   * Load the namespace of a sectioned image.
+   * The sections are read from the stream in order and parsed by
+   * {@link #loadThreads} threads; the parsed inodes are added to the
+   * namespace by this thread in the order they were saved, so a
+   * directory always exists before its children are added.
+   */
+  /**
+   * Load the root and the sections of a sectioned image.
+   * @return the number of inodes loaded, the root included
+   */
+  private long loadImageSections(DataInputStream in, FSNamesystem fsNamesys,
+                                 FSDirectory fsDir) throws IOException {
+    // the root comes first, outside of any section
+    ImageINode root = readImageINode(in);
+    if (root.nsQuota != -1 || root.dsQuota != -1) {
+      fsDir.rootDir.setQuota(root.nsQuota, root.dsQuota);
+    }
+    fsDir.rootDir.setModificationTime(root.modificationTime);
+    fsDir.rootDir.setPermissionStatus(root.permissions);
+
+    ExecutorService parsers = null;
+    if (loadThreads > 1) {
+      parsers = Executors.newFixedThreadPool(loadThreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "FSImageSectionParser");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    LinkedList<Future<ImageSection>> pending =
+      new LinkedList<Future<ImageSection>>();
+    String parentPath = null;
+    INodeDirectory parentINode = null;
+    long numLoaded = 1;         // the root
+    boolean moreSections = true;
+    try {
+      while (true) {
+        ImageSection section;
+        // keep reading ahead while there is room in the parse window
+        if (moreSections &&
+            (parsers == null || pending.size() < 2 * loadThreads)) {
+          int length = in.readInt();
+          if (length < 0) {     // end of the sections
+            moreSections = false;
+            continue;
+          }
+          final byte[] data = new byte[length];
+          in.readFully(data);
+          if (parsers != null) {
+            pending.add(parsers.submit(new Callable<ImageSection>() {
+              public ImageSection call() throws IOException {
+                return parseImageSection(data);
+              }
+            }));
+            continue;
+          }
+          section = parseImageSection(data);
+        } else if (!pending.isEmpty()) {
+          section = getParsedSection(pending.removeFirst());
+        } else {
+          break;
+        }
+        parentINode = addImageSection(fsDir, section, parentPath, parentINode);
+        parentPath = section.parentPath;
+        numLoaded += section.inodes.length;
+      }
+    } finally {
+      if (parsers != null) {
+        parsers.shutdownNow();
+      }
+    }
+    return numLoaded;
+  }
+
+  /**
+   * Add the inodes of a parsed section to the namespace.
+   * @return the parent directory of the section
+   */
+  private static INodeDirectory addImageSection(FSDirectory fsDir,
+                                                ImageSection section,
+                                                String lastParentPath,
+                                                INodeDirectory lastParent
+                                                ) throws IOException {
+    INodeDirectory parentINode = lastParent;
+    if (!section.parentPath.equals(lastParentPath)) {
+      INode parent = section.parentPath.length() == 0 ?
+          fsDir.rootDir : fsDir.rootDir.getNode(section.parentPath);
+      if (parent == null || !parent.isDirectory()) {
+        throw new IOException("Image is corrupt: parent directory "
+                              + section.parentPath + " does not exist.");
+      }
+      parentINode = (INodeDirectory)parent;
+    }
+    for (ImageINode inode : section.inodes) {
+      fsDir.addToParent(inode.localName, parentINode, inode.permissions,
+                        inode.blocks, inode.replication,
+                        inode.modificationTime, inode.atime,
+                        inode.nsQuota, inode.dsQuota, inode.blockSize);
+    }
+    return parentINode;
+  }
+
+  private static ImageSection getParsedSection(Future<ImageSection> f
+                                               ) throws IOException {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      throw (IOException)new IOException(
+          "Interrupted while loading the image").initCause(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      throw (IOException)new IOException(
+          "Failed to parse an image section").initCause(cause);
+    }
+  }
+
   /**
    * Load and merge edits from two edits files
    * 
@@ -1012,20 +1274,30 @@ public class FSImage extends Storage {
     //
     // Write out data
     //
-    DataOutputStream out = new DataOutputStream(
-                                                new BufferedOutputStream(
-                                                                         new FileOutputStream(newFile)));
+    FileOutputStream fout = new FileOutputStream(newFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
     try {
       out.writeInt(FSConstants.LAYOUT_VERSION);
       out.writeInt(namespaceID);
       out.writeLong(fsDir.rootDir.numItemsInTree());
       out.writeLong(fsNamesys.getGenerationStamp());
+      out.writeBoolean(saveCodec != null);
+      if (saveCodec != null) {
+        // the rest of the image is compressed
+        Text.writeString(out, saveCodec.getClass().getName());
+        out.flush();
+        out = new DataOutputStream(new BufferedOutputStream(
+                                       saveCodec.createOutputStream(fout)));
+      }
       byte[] byteStore = new byte[4*FSConstants.MAX_PATH_LENGTH];
       ByteBuffer strbuf = ByteBuffer.wrap(byteStore);
+      FsPermission filePerm = new FsPermission((short)0);
       // save the root
-      saveINode2Image(strbuf, fsDir.rootDir, out);
+      saveINode2Image(byteStore, 0, fsDir.rootDir, out, filePerm);
       // save the rest of the nodes
-      saveImage(strbuf, 0, fsDir.rootDir, out);
+      saveImage(strbuf, 0, fsDir.rootDir, out, new DataOutputBuffer(),
+                filePerm);
+      out.writeInt(-1);     // end of the sections
       fsNamesys.saveFilesUnderConstruction(out);
       strbuf = null;
     } finally {
@@ -1042,12 +1314,16 @@ public class FSImage extends Storage {
    */
   public void saveFSImage() throws IOException {
     editLog.createNewIfMissing();
+    List<File> imageFiles = new ArrayList<File>();
+    for (Iterator<StorageDirectory> it = 
+                           dirIterator(NameNodeDirType.IMAGE); it.hasNext();) {
+      imageFiles.add(getImageFile(it.next(), NameNodeFile.IMAGE_NEW));
+    }
+    saveFSImages(imageFiles);
     for (Iterator<StorageDirectory> it = 
                            dirIterator(); it.hasNext();) {
       StorageDirectory sd = it.next();
       NameNodeDirType dirType = (NameNodeDirType)sd.getStorageDirType();
-      if (dirType.isOfType(NameNodeDirType.IMAGE))
-        saveFSImage(getImageFile(sd, NameNodeFile.IMAGE_NEW));
       if (dirType.isOfType(NameNodeDirType.EDITS)) {    
         editLog.createEditLogFile(getImageFile(sd, NameNodeFile.EDITS));
         File editsNew = getImageFile(sd, NameNodeFile.EDITS_NEW);
@@ -1059,6 +1335,46 @@ public class FSImage extends Storage {
     rollFSImage();
   }
 
+  /**
+   * Save the image to all the given files, one thread per file.
+   */
+  private void saveFSImages(List<File> imageFiles) throws IOException {
+    if (imageFiles.size() == 1) {
+      saveFSImage(imageFiles.get(0));
+      return;
+    }
+    final IOException[] errors = new IOException[imageFiles.size()];
+    Thread[] savers = new Thread[imageFiles.size()];
+    for (int i = 0; i < savers.length; i++) {
+      final int idx = i;
+      final File imageFile = imageFiles.get(i);
+      savers[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            saveFSImage(imageFile);
+          } catch (IOException e) {
+            errors[idx] = e;
+          }
+        }
+      }, "FSImageSaver-" + imageFile);
+      savers[i].start();
+    }
+    for (Thread saver : savers) {
+      try {
+        saver.join();
+      } catch (InterruptedException e) {
+        throw (IOException)new IOException(
+            "Interrupted while saving the image").initCause(e);
+      }
+    }
+    for (int i = 0; i < errors.length; i++) {
+      if (errors[i] != null) {
+        LOG.error("Unable to save image to " + imageFiles.get(i), errors[i]);
+        throw errors[i];
+      }
+    }
+  }
+
   /**
    * Generate new namespaceID.
    * 
@@ -1114,12 +1430,14 @@ public class FSImage extends Storage {
   /*
    * Save one inode's attributes to the image.
    */
-  private static void saveINode2Image(ByteBuffer name,
+  private static void saveINode2Image(byte[] name,
+                                      int nameLen,
                                       INode node,
-                                      DataOutputStream out) throws IOException {
-    int nameLen = name.position();
+                                      DataOutputStream out,
+                                      FsPermission filePerm
+                                      ) throws IOException {
     out.writeShort(nameLen);
-    out.write(name.array(), name.arrayOffset(), nameLen);
+    out.write(name, 0, nameLen);
     if (!node.isDirectory()) {  // write file inode
       INodeFile fileINode = (INodeFile)node;
       out.writeShort(fileINode.getReplication());
@@ -1130,10 +1448,10 @@ public class FSImage extends Storage {
       out.writeInt(blocks.length);
       for (Block blk : blocks)
         blk.write(out);
-      FILE_PERM.fromShort(fileINode.getFsPermissionShort());
+      filePerm.fromShort(fileINode.getFsPermissionShort());
       PermissionStatus.write(out, fileINode.getUserName(),
                              fileINode.getGroupName(),
-                             FILE_PERM);
+                             filePerm);
     } else {   // write directory inode
       out.writeShort(0);  // replication
       out.writeLong(node.getModificationTime());
@@ -1142,37 +1460,54 @@ public class FSImage extends Storage {
       out.writeInt(-1);    // # of blocks
       out.writeLong(node.getNsQuota());
       out.writeLong(node.getDsQuota());
-      FILE_PERM.fromShort(node.getFsPermissionShort());
+      filePerm.fromShort(node.getFsPermissionShort());
       PermissionStatus.write(out, node.getUserName(),
                              node.getGroupName(),
-                             FILE_PERM);
+                             filePerm);
     }
   }
   /**
    * Save file tree image starting from the given root.
    * This is a recursive procedure, which first saves all children of
    * a current directory and then moves inside the sub-directories.
+   * The children are written in sections of at most
+   * {@link #MAX_INODES_PER_SECTION} inodes. A section is prefixed with
+   * its length and holds the parent path followed by the children
+   * with their local names, so that sections can be parsed independently.
    */
   private static void saveImage(ByteBuffer parentPrefix,
                                 int prefixLength,
                                 INodeDirectory current,
-                                DataOutputStream out) throws IOException {
+                                DataOutputStream out,
+                                DataOutputBuffer section,
+                                FsPermission filePerm) throws IOException {
     int newPrefixLength = prefixLength;
-    if (current.getChildrenRaw() == null)
+    List<INode> children = current.getChildrenRaw();
+    if (children == null)
       return;
-    for(INode child : current.getChildren()) {
-      // print all children first
-      parentPrefix.position(prefixLength);
-      parentPrefix.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
-      saveINode2Image(parentPrefix, child, out);
+    int numChildren = children.size();
+    for (int start = 0; start < numChildren; start += MAX_INODES_PER_SECTION) {
+      int end = Math.min(numChildren, start + MAX_INODES_PER_SECTION);
+      section.reset();
+      section.writeShort(prefixLength);
+      section.write(parentPrefix.array(), 0, prefixLength);
+      section.writeInt(end - start);
+      for (int i = start; i < end; i++) {
+        INode child = children.get(i);
+        byte[] localName = child.getLocalNameBytes();
+        saveINode2Image(localName, localName.length, child, section, filePerm);
+      }
+      out.writeInt(section.getLength());
+      out.write(section.getData(), 0, section.getLength());
     }
-    for(INode child : current.getChildren()) {
+    for(INode child : children) {
       if(!child.isDirectory())
         continue;
       parentPrefix.position(prefixLength);
       parentPrefix.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
       newPrefixLength = parentPrefix.position();
-      saveImage(parentPrefix, newPrefixLength, (INodeDirectory)child, out);
+      saveImage(parentPrefix, newPrefixLength, (INodeDirectory)child, out,
+                section, filePerm);
     }
     parentPrefix.position(prefixLength);
   }
@@ -1573,10 +1908,16 @@ public class FSImage extends Storage {
  return dirs;    
   }
 
-  static private final UTF8 U_STR = new UTF8();
+  // per thread, since images may be saved and parsed concurrently
+  static private final ThreadLocal<UTF8> U_STR = new ThreadLocal<UTF8>() {
+    protected UTF8 initialValue() {
+      return new UTF8();
+    }
+  };
   static String readString(DataInputStream in) throws IOException {
-    U_STR.readFields(in);
-    return U_STR.toString();
+    UTF8 ustr = U_STR.get();
+    ustr.readFields(in);
+    return ustr.toString();
   }
 
   static String readString_EmptyAsNull(DataInputStream in) throws IOException {
@@ -1585,15 +1926,17 @@ public class FSImage extends Storage {
   }
 
   static byte[] readBytes(DataInputStream in) throws IOException {
-    U_STR.readFields(in);
-    int len = U_STR.getLength();
+    UTF8 ustr = U_STR.get();
+    ustr.readFields(in);
+    int len = ustr.getLength();
     byte[] bytes = new byte[len];
-    System.arraycopy(U_STR.getBytes(), 0, bytes, 0, len);
+    System.arraycopy(ustr.getBytes(), 0, bytes, 0, len);
     return bytes;
   }
 
   static void writeString(String str, DataOutputStream out) throws IOException {
-    U_STR.set(str);
-    U_STR.write(out);
+    UTF8 ustr = U_STR.get();
+    ustr.set(str);
+    ustr.write(out);
   }
 }
@@ -28,6 +28,7 @@ import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.UpgradeStatusReport;
 import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
 import org.apache.hadoop.hdfs.server.namenode.metrics.FSNamesystemMBean;
+import org.apache.hadoop.hdfs.util.LightWeightGSet;
 import org.apache.hadoop.hdfs.server.namenode.metrics.FSNamesystemMetrics;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.PermissionChecker;
@@ -66,6 +67,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
@@ -119,6 +121,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
       FSNamesystem.class.getName() + ".audit");
 
   private boolean isPermissionEnabled;
+  // whether a content summary needs access to the whole subtree
+  private boolean checkContentSummarySubtree;
   private UserGroupInformation fsOwner;
   private String supergroup;
   private PermissionStatus defaultPermission;
@@ -138,7 +142,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   // Mapping: Block -> { INode, datanodes, self ref } 
   // Updated only in response to client-sent information.
   //
-  BlocksMap blocksMap = new BlocksMap();
+  BlocksMap blocksMap;
 
   //
   // Store blocks-->datanodedescriptor(s) map of corrupt replicas
@@ -224,6 +228,12 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   private int maxReplication;
   //  How many outgoing replication streams a given node should have at one time
   private int maxReplicationStreams;
+  //  How many outgoing replication streams a given node may have at one time
+  //  for blocks with a single live replica left
+  private int replicationStreamsHardLimit;
+  //  The number of blocks scheduled per live datanode in one iteration
+  //  of the replication monitor
+  private float replicationWorkMultiplier;
   // MIN_REPLICATION is how many copies we need in place or else we disallow the write
   private int minReplication;
   // Default replication
@@ -276,6 +286,15 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   // precision of access times.
   private long accessTimePrecision = 0;
 
+  /**
+   * Namespace lock. Read-only operations (getBlockLocations, getFileInfo,
+   * getListing, getContentSummary, reports) hold the read lock and may run
+   * concurrently; every operation that modifies the namespace or the
+   * block/datanode maps holds the write lock.
+   * A thread holding the read lock must never try to acquire the write lock.
+   */
+  private final ReentrantReadWriteLock fsLock = new ReentrantReadWriteLock();
+
   /**
    * FSNamesystem constructor.
    */
@@ -388,6 +407,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     this.isPermissionEnabled = conf.getBoolean("dfs.permissions", true);
     LOG.info("supergroup=" + supergroup);
     LOG.info("isPermissionEnabled=" + isPermissionEnabled);
+    this.checkContentSummarySubtree = conf.getBoolean(
+        "dfs.namenode.content.summary.permission.subtree", true);
     short filePermission = (short)conf.getInt("dfs.upgrade.permission", 0777);
     this.defaultPermission = PermissionStatus.createImmutable(
         fsOwner.getUserName(), supergroup, new FsPermission(filePermission));
@@ -416,6 +437,11 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                             + " must be less than dfs.replication.max = " 
                             + maxReplication);
     this.maxReplicationStreams = conf.getInt("dfs.max-repl-streams", 2);
+    this.replicationStreamsHardLimit =
+      conf.getInt("dfs.max-repl-streams.hard-limit", 4);
+    this.replicationWorkMultiplier =
+      conf.getFloat("dfs.replication.work.multiplier.per.iteration",
+          ReplicationMonitor.REPLICATION_WORK_MULTIPLIER_PER_ITERATION);
     long heartbeatInterval = conf.getLong("dfs.heartbeat.interval", 3) * 1000;
     this.heartbeatRecheckInterval = conf.getInt(
         "heartbeat.recheck.interval", 5 * 60 * 1000); // 5 minutes
@@ -429,6 +455,9 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                                          20*(int)(heartbeatInterval/1000));
     this.accessTimePrecision = conf.getLong("dfs.access.time.precision", 0);
     this.supportAppends = conf.getBoolean("dfs.support.append", false);
+    this.blocksMap = new BlocksMap(LightWeightGSet.computeCapacity(
+        conf.getFloat("dfs.namenode.blocksmap.heap.percent", 2.0f),
+        "BlocksMap"));
   }
 
   /**
@@ -488,65 +517,100 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     return fsRunning;
   }
 
+  /** Acquire the namespace read lock. */
+  void readLock() {
+    this.fsLock.readLock().lock();
+  }
+
+  /** Release the namespace read lock. */
+  void readUnlock() {
+    this.fsLock.readLock().unlock();
+  }
+
+  /** Acquire the namespace write lock. */
+  void writeLock() {
+    this.fsLock.writeLock().lock();
+  }
+
+  /** Release the namespace write lock. */
+  void writeUnlock() {
+    this.fsLock.writeLock().unlock();
+  }
+
+  /** Does the current thread hold the namespace write lock? */
+  boolean hasWriteLock() {
+    return this.fsLock.isWriteLockedByCurrentThread();
+  }
+
+  /** Does the current thread hold the namespace read lock? */
+  boolean hasReadLock() {
+    return this.fsLock.getReadHoldCount() > 0;
+  }
+
   /**
    * Dump all metadata into specified file
    */
-  synchronized void metaSave(String filename) throws IOException {
-    checkSuperuserPrivilege();
-    File file = new File(System.getProperty("hadoop.log.dir"), 
-                         filename);
-    PrintWriter out = new PrintWriter(new BufferedWriter(
-                                                         new FileWriter(file, true)));
+  void metaSave(String filename) throws IOException {
+    readLock();
+    try {
+      checkSuperuserPrivilege();
+      File file = new File(System.getProperty("hadoop.log.dir"), 
+                           filename);
+      PrintWriter out = new PrintWriter(new BufferedWriter(
+                                                           new FileWriter(file, true)));
  
 
-    //
-    // Dump contents of neededReplication
-    //
-    synchronized (neededReplications) {
-      out.println("Metasave: Blocks waiting for replication: " + 
-                  neededReplications.size());
-      for (Block block : neededReplications) {
-        List<DatanodeDescriptor> containingNodes =
-                                          new ArrayList<DatanodeDescriptor>();
-        NumberReplicas numReplicas = new NumberReplicas();
-        // source node returned is not used
-        chooseSourceDatanode(block, containingNodes, numReplicas);
-        int usableReplicas = numReplicas.liveReplicas() + 
-                             numReplicas.decommissionedReplicas(); 
-        // l: == live:, d: == decommissioned c: == corrupt e: == excess
-        out.print(block + " (replicas:" +
-                  " l: " + numReplicas.liveReplicas() + 
-                  " d: " + numReplicas.decommissionedReplicas() + 
-                  " c: " + numReplicas.corruptReplicas() + 
-                  " e: " + numReplicas.excessReplicas() + 
-                  ((usableReplicas > 0)? "" : " MISSING") + ")"); 
-
-        for (Iterator<DatanodeDescriptor> jt = blocksMap.nodeIterator(block);
-             jt.hasNext();) {
-          DatanodeDescriptor node = jt.next();
-          out.print(" " + node + " : ");
+      //
+      // Dump contents of neededReplication
+      //
+      synchronized (neededReplications) {
+        out.println("Metasave: Blocks waiting for replication: " + 
+                    neededReplications.size());
+        for (Block block : neededReplications) {
+          List<DatanodeDescriptor> containingNodes =
+                                            new ArrayList<DatanodeDescriptor>();
+          NumberReplicas numReplicas = new NumberReplicas();
+          // source node returned is not used
+          chooseSourceDatanode(block, containingNodes, numReplicas);
+          int usableReplicas = numReplicas.liveReplicas() + 
+                               numReplicas.decommissionedReplicas(); 
+          // l: == live:, d: == decommissioned c: == corrupt e: == excess
+          out.print(block + " (replicas:" +
+                    " l: " + numReplicas.liveReplicas() + 
+                    " d: " + numReplicas.decommissionedReplicas() + 
+                    " c: " + numReplicas.corruptReplicas() + 
+                    " e: " + numReplicas.excessReplicas() + 
+                    ((usableReplicas > 0)? "" : " MISSING") + ")"); 
+
+          for (Iterator<DatanodeDescriptor> jt = blocksMap.nodeIterator(block);
+               jt.hasNext();) {
+            DatanodeDescriptor node = jt.next();
+            out.print(" " + node + " : ");
+          }
+          out.println("");
         }
-        out.println("");
       }
-    }
 
-    //
-    // Dump blocks from pendingReplication
-    //
-    pendingReplications.metaSave(out);
+      //
+      // Dump blocks from pendingReplication
+      //
+      pendingReplications.metaSave(out);
 
-    //
-    // Dump blocks that are waiting to be deleted
-    //
-    dumpRecentInvalidateSets(out);
+      //
+      // Dump blocks that are waiting to be deleted
+      //
+      dumpRecentInvalidateSets(out);
 
-    //
-    // Dump all datanodes
-    //
-    datanodeDump(out);
+      //
+      // Dump all datanodes
+      //
+      datanodeDump(out);
 
-    out.flush();
-    out.close();
+      out.flush();
+      out.close();
+    } finally {
+      readUnlock();
+    }
   }
 
   long getDefaultBlockSize() {
@@ -572,15 +636,20 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   }
 
   /* updates a block in under replication queue */
-  synchronized void updateNeededReplications(Block block,
+  void updateNeededReplications(Block block,
                         int curReplicasDelta, int expectedReplicasDelta) {
-    NumberReplicas repl = countNodes(block);
-    int curExpectedReplicas = getReplication(block);
-    neededReplications.update(block, 
-                              repl.liveReplicas(), 
-                              repl.decommissionedReplicas(),
-                              curExpectedReplicas,
-                              curReplicasDelta, expectedReplicasDelta);
+    writeLock();
+    try {
+      NumberReplicas repl = countNodes(block);
+      int curExpectedReplicas = getReplication(block);
+      neededReplications.update(block, 
+                                repl.liveReplicas(), 
+                                repl.decommissionedReplicas(),
+                                curExpectedReplicas,
+                                curReplicasDelta, expectedReplicasDelta);
+    } finally {
+      writeUnlock();
+    }
   }
 
   /////////////////////////////////////////////////////////
@@ -595,43 +664,48 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * @param datanode on which blocks are located
    * @param size total size of blocks
    */
-  synchronized BlocksWithLocations getBlocks(DatanodeID datanode, long size)
+  BlocksWithLocations getBlocks(DatanodeID datanode, long size)
       throws IOException {
-    checkSuperuserPrivilege();
+    readLock();
+    try {
+      checkSuperuserPrivilege();
+
+      DatanodeDescriptor node = getDatanode(datanode);
+      if (node == null) {
+        NameNode.stateChangeLog.warn("BLOCK* NameSystem.getBlocks: "
+            + "Asking for blocks from an unrecorded node " + datanode.getName());
+        throw new IllegalArgumentException(
+            "Unexpected exception.  Got getBlocks message for datanode " + 
+            datanode.getName() + ", but there is no info for it");
+      }
 
-    DatanodeDescriptor node = getDatanode(datanode);
-    if (node == null) {
-      NameNode.stateChangeLog.warn("BLOCK* NameSystem.getBlocks: "
-          + "Asking for blocks from an unrecorded node " + datanode.getName());
-      throw new IllegalArgumentException(
-          "Unexpected exception.  Got getBlocks message for datanode " + 
-          datanode.getName() + ", but there is no info for it");
-    }
-
-    int numBlocks = node.numBlocks();
-    if(numBlocks == 0) {
-      return new BlocksWithLocations(new BlockWithLocations[0]);
-    }
-    Iterator<Block> iter = node.getBlockIterator();
-    int startBlock = r.nextInt(numBlocks); // starting from a random block
-    // skip blocks
-    for(int i=0; i<startBlock; i++) {
-      iter.next();
-    }
-    List<BlockWithLocations> results = new ArrayList<BlockWithLocations>();
-    long totalSize = 0;
-    while(totalSize<size && iter.hasNext()) {
-      totalSize += addBlock(iter.next(), results);
-    }
-    if(totalSize<size) {
-      iter = node.getBlockIterator(); // start from the beginning
-      for(int i=0; i<startBlock&&totalSize<size; i++) {
+      int numBlocks = node.numBlocks();
+      if(numBlocks == 0) {
+        return new BlocksWithLocations(new BlockWithLocations[0]);
+      }
+      Iterator<Block> iter = node.getBlockIterator();
+      int startBlock = r.nextInt(numBlocks); // starting from a random block
+      // skip blocks
+      for(int i=0; i<startBlock; i++) {
+        iter.next();
+      }
+      List<BlockWithLocations> results = new ArrayList<BlockWithLocations>();
+      long totalSize = 0;
+      while(totalSize<size && iter.hasNext()) {
         totalSize += addBlock(iter.next(), results);
       }
-    }
+      if(totalSize<size) {
+        iter = node.getBlockIterator(); // start from the beginning
+        for(int i=0; i<startBlock&&totalSize<size; i++) {
+          totalSize += addBlock(iter.next(), results);
+        }
+      }
     
-    return new BlocksWithLocations(
-        results.toArray(new BlockWithLocations[results.size()]));
+      return new BlocksWithLocations(
+          results.toArray(new BlockWithLocations[results.size()]));
+    } finally {
+      readUnlock();
+    }
   }
   
   /**
@@ -668,13 +742,21 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * Set permissions for an existing file.
    * @throws IOException
    */
-  public synchronized void setPermission(String src, FsPermission permission
+  public void setPermission(String src, FsPermission permission
       ) throws IOException {
-    checkOwner(src);
-    dir.setPermission(src, permission);
+    FileStatus stat = null;
+    writeLock();
+    try {
+      checkOwner(src);
+      dir.setPermission(src, permission);
+      if (auditLog.isInfoEnabled()) {
+        stat = dir.getFileInfo(src);
+      }
+    } finally {
+      writeUnlock();
+    }
     getEditLog().logSync();
     if (auditLog.isInfoEnabled()) {
-      final FileStatus stat = dir.getFileInfo(src);
       logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
                     "setPermission", src, null, stat);
@@ -685,22 +767,30 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * Set owner for an existing file.
    * @throws IOException
    */
-  public synchronized void setOwner(String src, String username, String group
+  public void setOwner(String src, String username, String group
       ) throws IOException {
-    FSPermissionChecker pc = checkOwner(src);
-    if (!pc.isSuper) {
-      if (username != null && !pc.user.equals(username)) {
-        throw new AccessControlException("Non-super user cannot change owner.");
+    FileStatus stat = null;
+    writeLock();
+    try {
+      FSPermissionChecker pc = checkOwner(src);
+      if (!pc.isSuper) {
+        if (username != null && !pc.user.equals(username)) {
+          throw new AccessControlException("Non-super user cannot change owner.");
+        }
+        if (group != null && !pc.containsGroup(group)) {
+          throw new AccessControlException("User does not belong to " + group
+              + " .");
+        }
       }
-      if (group != null && !pc.containsGroup(group)) {
-        throw new AccessControlException("User does not belong to " + group
-            + " .");
+      dir.setOwner(src, username, group);
+      if (auditLog.isInfoEnabled()) {
+        stat = dir.getFileInfo(src);
       }
+    } finally {
+      writeUnlock();
     }
-    dir.setOwner(src, username, group);
     getEditLog().logSync();
     if (auditLog.isInfoEnabled()) {
-      final FileStatus stat = dir.getFileInfo(src);
       logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
                     "setOwner", src, null, stat);
@@ -751,8 +841,37 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     if (length < 0) {
       throw new IOException("Negative length is not supported. File: " + src );
     }
-    final LocatedBlocks ret = getBlockLocationsInternal(src, dir.getFileINode(src),
-        offset, length, Integer.MAX_VALUE, doAccessTime);  
+    boolean updateAccessTime = doAccessTime && isAccessTimeSupported();
+    if (updateAccessTime) {
+      // Most opens fall within the access time precision window and leave
+      // the namespace unchanged; take the write lock only if they do not.
+      readLock();
+      try {
+        INodeFile inode = dir.getFileINode(src);
+        if (inode == null || 
+            now() <= inode.getAccessTime() + accessTimePrecision) {
+          updateAccessTime = false;
+        }
+      } finally {
+        readUnlock();
+      }
+    }
+    final LocatedBlocks ret;
+    if (updateAccessTime) {
+      writeLock();
+    } else {
+      readLock();
+    }
+    try {
+      ret = getBlockLocationsInternal(src, dir.getFileINode(src),
+          offset, length, Integer.MAX_VALUE, updateAccessTime);
+    } finally {
+      if (updateAccessTime) {
+        writeUnlock();
+      } else {
+        readUnlock();
+      }
+    }
     if (auditLog.isInfoEnabled()) {
       logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
@@ -761,7 +880,11 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     return ret;
   }
 
-  private synchronized LocatedBlocks getBlockLocationsInternal(String src,
+  /**
+   * The caller must hold the read lock, or the write lock if
+   * <code>doAccessTime</code> is set.
+   */
+  private LocatedBlocks getBlockLocationsInternal(String src,
                                                        INodeFile inode,
                                                        long offset, 
                                                        long length,
@@ -772,6 +895,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
       return null;
     }
     if (doAccessTime && isAccessTimeSupported()) {
+      assert hasWriteLock() : "access time update requires the write lock";
       dir.setTimes(src, inode, -1, now(), false);
     }
     Block[] blocks = inode.getBlocks();
@@ -841,27 +965,32 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * The access time is precise upto an hour. The transaction, if needed, is
    * written to the edits log but is not flushed.
    */
-  public synchronized void setTimes(String src, long mtime, long atime) throws IOException {
-    if (!isAccessTimeSupported() && atime != -1) {
-      throw new IOException("Access time for hdfs is not configured. " +
-                            " Please set dfs.support.accessTime configuration parameter.");
-    }
-    //
-    // The caller needs to have write access to set access & modification times.
-    if (isPermissionEnabled) {
-      checkPathAccess(src, FsAction.WRITE);
-    }
-    INodeFile inode = dir.getFileINode(src);
-    if (inode != null) {
-      dir.setTimes(src, inode, mtime, atime, true);
-      if (auditLog.isInfoEnabled()) {
-        final FileStatus stat = dir.getFileInfo(src);
-        logAuditEvent(UserGroupInformation.getCurrentUGI(),
-                      Server.getRemoteIp(),
-                      "setTimes", src, null, stat);
+  public void setTimes(String src, long mtime, long atime) throws IOException {
+    writeLock();
+    try {
+      if (!isAccessTimeSupported() && atime != -1) {
+        throw new IOException("Access time for hdfs is not configured. " +
+                              " Please set dfs.support.accessTime configuration parameter.");
       }
-    } else {
-      throw new FileNotFoundException("File " + src + " does not exist.");
+      //
+      // The caller needs to have write access to set access & modification times.
+      if (isPermissionEnabled) {
+        checkPathAccess(src, FsAction.WRITE);
+      }
+      INodeFile inode = dir.getFileINode(src);
+      if (inode != null) {
+        dir.setTimes(src, inode, mtime, atime, true);
+        if (auditLog.isInfoEnabled()) {
+          final FileStatus stat = dir.getFileInfo(src);
+          logAuditEvent(UserGroupInformation.getCurrentUGI(),
+                        Server.getRemoteIp(),
+                        "setTimes", src, null, stat);
+        }
+      } else {
+        throw new FileNotFoundException("File " + src + " does not exist.");
+      }
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -890,47 +1019,57 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     return status;
   }
 
-  private synchronized boolean setReplicationInternal(String src, 
+  private boolean setReplicationInternal(String src, 
                                              short replication
                                              ) throws IOException {
-    if (isInSafeMode())
-      throw new SafeModeException("Cannot set replication for " + src, safeMode);
-    verifyReplication(src, replication, null);
-    if (isPermissionEnabled) {
-      checkPathAccess(src, FsAction.WRITE);
-    }
+    writeLock();
+    try {
+      if (isInSafeMode())
+        throw new SafeModeException("Cannot set replication for " + src, safeMode);
+      verifyReplication(src, replication, null);
+      if (isPermissionEnabled) {
+        checkPathAccess(src, FsAction.WRITE);
+      }
 
-    int[] oldReplication = new int[1];
-    Block[] fileBlocks;
-    fileBlocks = dir.setReplication(src, replication, oldReplication);
-    if (fileBlocks == null)  // file not found or is a directory
-      return false;
-    int oldRepl = oldReplication[0];
-    if (oldRepl == replication) // the same replication
-      return true;
+      int[] oldReplication = new int[1];
+      Block[] fileBlocks;
+      fileBlocks = dir.setReplication(src, replication, oldReplication);
+      if (fileBlocks == null)  // file not found or is a directory
+        return false;
+      int oldRepl = oldReplication[0];
+      if (oldRepl == replication) // the same replication
+        return true;
 
-    // update needReplication priority queues
-    for(int idx = 0; idx < fileBlocks.length; idx++)
-      updateNeededReplications(fileBlocks[idx], 0, replication-oldRepl);
-      
-    if (oldRepl > replication) {  
-      // old replication > the new one; need to remove copies
-      LOG.info("Reducing replication for file " + src 
-               + ". New replication is " + replication);
+      // update needReplication priority queues
       for(int idx = 0; idx < fileBlocks.length; idx++)
-        processOverReplicatedBlock(fileBlocks[idx], replication, null, null);
-    } else { // replication factor is increased
-      LOG.info("Increasing replication for file " + src 
-          + ". New replication is " + replication);
+        updateNeededReplications(fileBlocks[idx], 0, replication-oldRepl);
+      
+      if (oldRepl > replication) {  
+        // old replication > the new one; need to remove copies
+        LOG.info("Reducing replication for file " + src 
+                 + ". New replication is " + replication);
+        for(int idx = 0; idx < fileBlocks.length; idx++)
+          processOverReplicatedBlock(fileBlocks[idx], replication, null, null);
+      } else { // replication factor is increased
+        LOG.info("Increasing replication for file " + src 
+            + ". New replication is " + replication);
+      }
+      return true;
+    } finally {
+      writeUnlock();
     }
-    return true;
   }
     
   long getPreferredBlockSize(String filename) throws IOException {
-    if (isPermissionEnabled) {
-      checkTraverse(filename);
+    readLock();
+    try {
+      if (isPermissionEnabled) {
+        checkTraverse(filename);
+      }
+      return dir.getPreferredBlockSize(filename);
+    } finally {
+      readUnlock();
     }
-    return dir.getPreferredBlockSize(filename);
   }
     
   /**
@@ -977,7 +1116,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     }
   }
 
-  private synchronized void startFileInternal(String src,
+  private void startFileInternal(String src,
                                               PermissionStatus permissions,
                                               String holder, 
                                               String clientMachine, 
@@ -986,149 +1125,154 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                                               short replication,
                                               long blockSize
                                               ) throws IOException {
-    if (NameNode.stateChangeLog.isDebugEnabled()) {
-      NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: src=" + src
-          + ", holder=" + holder
-          + ", clientMachine=" + clientMachine
-          + ", replication=" + replication
-          + ", overwrite=" + overwrite
-          + ", append=" + append);
-    }
-
-    if (isInSafeMode())
-      throw new SafeModeException("Cannot create file" + src, safeMode);
-    if (!DFSUtil.isValidName(src)) {
-      throw new IOException("Invalid file name: " + src);
-    }
-
-    // Verify that the destination does not exist as a directory already.
-    boolean pathExists = dir.exists(src);
-    if (pathExists && dir.isDir(src)) {
-      throw new IOException("Cannot create file "+ src + "; already exists as a directory.");
-    }
+    writeLock();
+    try {
+      if (NameNode.stateChangeLog.isDebugEnabled()) {
+        NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: src=" + src
+            + ", holder=" + holder
+            + ", clientMachine=" + clientMachine
+            + ", replication=" + replication
+            + ", overwrite=" + overwrite
+            + ", append=" + append);
+      }
 
-    if (isPermissionEnabled) {
-      if (append || (overwrite && pathExists)) {
-        checkPathAccess(src, FsAction.WRITE);
+      if (isInSafeMode())
+        throw new SafeModeException("Cannot create file" + src, safeMode);
+      if (!DFSUtil.isValidName(src)) {
+        throw new IOException("Invalid file name: " + src);
       }
-      else {
-        checkAncestorAccess(src, FsAction.WRITE);
+
+      // Verify that the destination does not exist as a directory already.
+      boolean pathExists = dir.exists(src);
+      if (pathExists && dir.isDir(src)) {
+        throw new IOException("Cannot create file "+ src + "; already exists as a directory.");
       }
-    }
 
-    try {
-      INode myFile = dir.getFileINode(src);
-      if (myFile != null && myFile.isUnderConstruction()) {
-        INodeFileUnderConstruction pendingFile = (INodeFileUnderConstruction) myFile;
-        //
-        // If the file is under construction , then it must be in our
-        // leases. Find the appropriate lease record.
-        //
-        Lease lease = leaseManager.getLease(holder);
-        //
-        // We found the lease for this file. And surprisingly the original
-        // holder is trying to recreate this file. This should never occur.
-        //
-        if (lease != null) {
-          throw new AlreadyBeingCreatedException(
-                                                 "failed to create file " + src + " for " + holder +
-                                                 " on client " + clientMachine + 
-                                                 " because current leaseholder is trying to recreate file.");
-        }
-        //
-        // Find the original holder.
-        //
-        lease = leaseManager.getLease(pendingFile.clientName);
-        if (lease == null) {
-          throw new AlreadyBeingCreatedException(
-                                                 "failed to create file " + src + " for " + holder +
-                                                 " on client " + clientMachine + 
-                                                 " because pendingCreates is non-null but no leases found.");
+      if (isPermissionEnabled) {
+        if (append || (overwrite && pathExists)) {
+          checkPathAccess(src, FsAction.WRITE);
         }
-        //
-        // If the original holder has not renewed in the last SOFTLIMIT 
-        // period, then start lease recovery.
-        //
-        if (lease.expiredSoftLimit()) {
-          LOG.info("startFile: recover lease " + lease + ", src=" + src);
-          internalReleaseLease(lease, src);
+        else {
+          checkAncestorAccess(src, FsAction.WRITE);
         }
-        throw new AlreadyBeingCreatedException("failed to create file " + src + " for " + holder +
-                                               " on client " + clientMachine + 
-                                               ", because this file is already being created by " +
-                                               pendingFile.getClientName() + 
-                                               " on " + pendingFile.getClientMachine());
       }
 
       try {
-        verifyReplication(src, replication, clientMachine);
-      } catch(IOException e) {
-        throw new IOException("failed to create "+e.getMessage());
-      }
-      if (append) {
-        if (myFile == null) {
-          throw new FileNotFoundException("failed to append to non-existent file "
-              + src + " on client " + clientMachine);
-        } else if (myFile.isDirectory()) {
-          throw new IOException("failed to append to directory " + src 
-                                +" on client " + clientMachine);
+        INode myFile = dir.getFileINode(src);
+        if (myFile != null && myFile.isUnderConstruction()) {
+          INodeFileUnderConstruction pendingFile = (INodeFileUnderConstruction) myFile;
+          //
+          // If the file is under construction , then it must be in our
+          // leases. Find the appropriate lease record.
+          //
+          Lease lease = leaseManager.getLease(holder);
+          //
+          // We found the lease for this file. And surprisingly the original
+          // holder is trying to recreate this file. This should never occur.
+          //
+          if (lease != null) {
+            throw new AlreadyBeingCreatedException(
+                                                   "failed to create file " + src + " for " + holder +
+                                                   " on client " + clientMachine + 
+                                                   " because current leaseholder is trying to recreate file.");
+          }
+          //
+          // Find the original holder.
+          //
+          lease = leaseManager.getLease(pendingFile.clientName);
+          if (lease == null) {
+            throw new AlreadyBeingCreatedException(
+                                                   "failed to create file " + src + " for " + holder +
+                                                   " on client " + clientMachine + 
+                                                   " because pendingCreates is non-null but no leases found.");
+          }
+          //
+          // If the original holder has not renewed in the last SOFTLIMIT 
+          // period, then start lease recovery.
+          //
+          if (lease.expiredSoftLimit()) {
+            LOG.info("startFile: recover lease " + lease + ", src=" + src);
+            internalReleaseLease(lease, src);
+          }
+          throw new AlreadyBeingCreatedException("failed to create file " + src + " for " + holder +
+                                                 " on client " + clientMachine + 
+                                                 ", because this file is already being created by " +
+                                                 pendingFile.getClientName() + 
+                                                 " on " + pendingFile.getClientMachine());
         }
-      } else if (!dir.isValidToCreate(src)) {
-        if (overwrite) {
-          delete(src, true);
-        } else {
-          throw new IOException("failed to create file " + src 
-                                +" on client " + clientMachine
-                                +" either because the filename is invalid or the file exists");
+
+        try {
+          verifyReplication(src, replication, clientMachine);
+        } catch(IOException e) {
+          throw new IOException("failed to create "+e.getMessage());
+        }
+        if (append) {
+          if (myFile == null) {
+            throw new FileNotFoundException("failed to append to non-existent file "
+                + src + " on client " + clientMachine);
+          } else if (myFile.isDirectory()) {
+            throw new IOException("failed to append to directory " + src 
+                                  +" on client " + clientMachine);
+          }
+        } else if (!dir.isValidToCreate(src)) {
+          if (overwrite) {
+            delete(src, true);
+          } else {
+            throw new IOException("failed to create file " + src 
+                                  +" on client " + clientMachine
+                                  +" either because the filename is invalid or the file exists");
+          }
         }
-      }
 
-      DatanodeDescriptor clientNode = 
-        host2DataNodeMap.getDatanodeByHost(clientMachine);
+        DatanodeDescriptor clientNode = 
+          host2DataNodeMap.getDatanodeByHost(clientMachine);
 
-      if (append) {
-        //
-        // Replace current node with a INodeUnderConstruction.
-        // Recreate in-memory lease record.
-        //
-        INodeFile node = (INodeFile) myFile;
-        INodeFileUnderConstruction cons = new INodeFileUnderConstruction(
-                                        node.getLocalNameBytes(),
-                                        node.getReplication(),
-                                        node.getModificationTime(),
-                                        node.getPreferredBlockSize(),
-                                        node.getBlocks(),
-                                        node.getPermissionStatus(),
-                                        holder,
-                                        clientMachine,
-                                        clientNode);
-        dir.replaceNode(src, node, cons);
-        leaseManager.addLease(cons.clientName, src);
+        if (append) {
+          //
+          // Replace current node with a INodeUnderConstruction.
+          // Recreate in-memory lease record.
+          //
+          INodeFile node = (INodeFile) myFile;
+          INodeFileUnderConstruction cons = new INodeFileUnderConstruction(
+                                          node.getLocalNameBytes(),
+                                          node.getReplication(),
+                                          node.getModificationTime(),
+                                          node.getPreferredBlockSize(),
+                                          node.getBlocks(),
+                                          node.getPermissionStatus(),
+                                          holder,
+                                          clientMachine,
+                                          clientNode);
+          dir.replaceNode(src, node, cons);
+          leaseManager.addLease(cons.clientName, src);
 
-      } else {
-       // Now we can add the name to the filesystem. This file has no
-       // blocks associated with it.
-       //
-       checkFsObjectLimit();
-
-        // increment global generation stamp
-        long genstamp = nextGenerationStamp();
-        INodeFileUnderConstruction newNode = dir.addFile(src, permissions,
-            replication, blockSize, holder, clientMachine, clientNode, genstamp);
-        if (newNode == null) {
-          throw new IOException("DIR* NameSystem.startFile: " +
-                                "Unable to add file to namespace.");
-        }
-        leaseManager.addLease(newNode.clientName, src);
-        if (NameNode.stateChangeLog.isDebugEnabled()) {
-          NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: "
-                                     +"add "+src+" to namespace for "+holder);
+        } else {
+         // Now we can add the name to the filesystem. This file has no
+         // blocks associated with it.
+         //
+         checkFsObjectLimit();
+
+          // increment global generation stamp
+          long genstamp = nextGenerationStamp();
+          INodeFileUnderConstruction newNode = dir.addFile(src, permissions,
+              replication, blockSize, holder, clientMachine, clientNode, genstamp);
+          if (newNode == null) {
+            throw new IOException("DIR* NameSystem.startFile: " +
+                                  "Unable to add file to namespace.");
+          }
+          leaseManager.addLease(newNode.clientName, src);
+          if (NameNode.stateChangeLog.isDebugEnabled()) {
+            NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: "
+                                       +"add "+src+" to namespace for "+holder);
+          }
         }
+      } catch (IOException ie) {
+        NameNode.stateChangeLog.warn("DIR* NameSystem.startFile: "
+                                     +ie.getMessage());
+        throw ie;
       }
-    } catch (IOException ie) {
-      NameNode.stateChangeLog.warn("DIR* NameSystem.startFile: "
-                                   +ie.getMessage());
-      throw ie;
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -1151,7 +1295,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     // have a partial block at the end.
     //
     LocatedBlock lb = null;
-    synchronized (this) {
+    writeLock();
+    try {
       INodeFileUnderConstruction file = (INodeFileUnderConstruction)dir.getFileINode(src);
 
       Block[] blocks = file.getBlocks();
@@ -1186,6 +1331,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
           }
         }
       }
+    } finally {
+      writeUnlock();
     }
     if (lb != null) {
       if (NameNode.stateChangeLog.isDebugEnabled()) {
@@ -1226,7 +1373,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     NameNode.stateChangeLog.debug("BLOCK* NameSystem.getAdditionalBlock: file "
                                   +src+" for "+clientName);
 
-    synchronized (this) {
+    readLock();
+    try {
       if (isInSafeMode()) {
         throw new SafeModeException("Cannot add block to " + src, safeMode);
       }
@@ -1246,6 +1394,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
       blockSize = pendingFile.getPreferredBlockSize();
       clientNode = pendingFile.getClientNode();
       replication = (int)pendingFile.getReplication();
+    } finally {
+      readUnlock();
     }
 
     // choose targets for the new block tobe allocated.
@@ -1260,7 +1410,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     }
 
     // Allocate a new block and record it in the INode. 
-    synchronized (this) {
+    writeLock();
+    try {
       INode[] pathINodes = dir.getExistingPathINodes(src);
       int inodesLen = pathINodes.length;
       checkLease(src, clientName, pathINodes[inodesLen-1]);
@@ -1278,6 +1429,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
       for (DatanodeDescriptor dn : targets) {
         dn.incBlocksScheduled();
       }      
+    } finally {
+      writeUnlock();
     }
         
     // Create next block
@@ -1287,19 +1440,24 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   /**
    * The client would like to let go of the given block
    */
-  public synchronized boolean abandonBlock(Block b, String src, String holder
+  public boolean abandonBlock(Block b, String src, String holder
       ) throws IOException {
-    //
-    // Remove the block from the pending creates list
-    //
-    NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: "
-                                  +b+"of file "+src);
-    INodeFileUnderConstruction file = checkLease(src, holder);
-    dir.removeBlock(src, file, b);
-    NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: "
-                                    + b
-                                    + " is removed from pendingCreates");
-    return true;
+    writeLock();
+    try {
+      //
+      // Remove the block from the pending creates list
+      //
+      NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: "
+                                    +b+"of file "+src);
+      INodeFileUnderConstruction file = checkLease(src, holder);
+      dir.removeBlock(src, file, b);
+      NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: "
+                                      + b
+                                      + " is removed from pendingCreates");
+      return true;
+    } finally {
+      writeUnlock();
+    }
   }
   
   // make sure that we still have the lease on this file.
@@ -1355,37 +1513,42 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   }
 
 
-  private synchronized CompleteFileStatus completeFileInternal(String src, 
+  private CompleteFileStatus completeFileInternal(String src, 
                                                 String holder) throws IOException {
-    NameNode.stateChangeLog.debug("DIR* NameSystem.completeFile: " + src + " for " + holder);
-    if (isInSafeMode())
-      throw new SafeModeException("Cannot complete file " + src, safeMode);
-    INode iFile = dir.getFileINode(src);
-    INodeFileUnderConstruction pendingFile = null;
-    Block[] fileBlocks = null;
-
-    if (iFile != null && iFile.isUnderConstruction()) {
-      pendingFile = (INodeFileUnderConstruction) iFile;
-      fileBlocks =  dir.getFileBlocks(src);
-    }
-    if (fileBlocks == null ) {    
-      NameNode.stateChangeLog.warn("DIR* NameSystem.completeFile: "
-                                   + "failed to complete " + src
-                                   + " because dir.getFileBlocks() is null " + 
-                                   " and pendingFile is " + 
-                                   ((pendingFile == null) ? "null" : 
-                                     ("from " + pendingFile.getClientMachine()))
-                                  );                      
-      return CompleteFileStatus.OPERATION_FAILED;
-    } else if (!checkFileProgress(pendingFile, true)) {
-      return CompleteFileStatus.STILL_WAITING;
-    }
+    writeLock();
+    try {
+      NameNode.stateChangeLog.debug("DIR* NameSystem.completeFile: " + src + " for " + holder);
+      if (isInSafeMode())
+        throw new SafeModeException("Cannot complete file " + src, safeMode);
+      INode iFile = dir.getFileINode(src);
+      INodeFileUnderConstruction pendingFile = null;
+      Block[] fileBlocks = null;
+
+      if (iFile != null && iFile.isUnderConstruction()) {
+        pendingFile = (INodeFileUnderConstruction) iFile;
+        fileBlocks =  dir.getFileBlocks(src);
+      }
+      if (fileBlocks == null ) {    
+        NameNode.stateChangeLog.warn("DIR* NameSystem.completeFile: "
+                                     + "failed to complete " + src
+                                     + " because dir.getFileBlocks() is null " + 
+                                     " and pendingFile is " + 
+                                     ((pendingFile == null) ? "null" : 
+                                       ("from " + pendingFile.getClientMachine()))
+                                    );                      
+        return CompleteFileStatus.OPERATION_FAILED;
+      } else if (!checkFileProgress(pendingFile, true)) {
+        return CompleteFileStatus.STILL_WAITING;
+      }
 
-    finalizeINodeFileUnderConstruction(src, pendingFile);
+      finalizeINodeFileUnderConstruction(src, pendingFile);
 
-    NameNode.stateChangeLog.info("DIR* NameSystem.completeFile: file " + src
-                                  + " is closed by " + holder);
-    return CompleteFileStatus.COMPLETE_SUCCESS;
+      NameNode.stateChangeLog.info("DIR* NameSystem.completeFile: file " + src
+                                    + " is closed by " + holder);
+      return CompleteFileStatus.COMPLETE_SUCCESS;
+    } finally {
+      writeUnlock();
+    }
   }
 
   /** 
@@ -1434,28 +1597,33 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * replicated.  If not, return false. If checkall is true, then check
    * all blocks, otherwise check only penultimate block.
    */
-  synchronized boolean checkFileProgress(INodeFile v, boolean checkall) {
-    if (checkall) {
-      //
-      // check all blocks of the file.
-      //
-      for (Block block: v.getBlocks()) {
-        if (blocksMap.numNodes(block) < this.minReplication) {
-          return false;
+  boolean checkFileProgress(INodeFile v, boolean checkall) {
+    readLock();
+    try {
+      if (checkall) {
+        //
+        // check all blocks of the file.
+        //
+        for (Block block: v.getBlocks()) {
+          if (blocksMap.numNodes(block) < this.minReplication) {
+            return false;
+          }
         }
-      }
-    } else {
-      //
-      // check the penultimate block of this file
-      //
-      Block b = v.getPenultimateBlock();
-      if (b != null) {
-        if (blocksMap.numNodes(b) < this.minReplication) {
-          return false;
+      } else {
+        //
+        // check the penultimate block of this file
+        //
+        Block b = v.getPenultimateBlock();
+        if (b != null) {
+          if (blocksMap.numNodes(b) < this.minReplication) {
+            return false;
+          }
         }
       }
+      return true;
+    } finally {
+      readUnlock();
     }
-    return true;
   }
 
   /**
@@ -1508,17 +1676,22 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   /**
    * dumps the contents of recentInvalidateSets
    */
-  private synchronized void dumpRecentInvalidateSets(PrintWriter out) {
-    int size = recentInvalidateSets.values().size();
-    out.println("Metasave: Blocks waiting deletion from "+size+" datanodes.");
-    if (size == 0) {
-      return;
-    }
-    for(Map.Entry<String,Collection<Block>> entry : recentInvalidateSets.entrySet()) {
-      Collection<Block> blocks = entry.getValue();
-      if (blocks.size() > 0) {
-        out.println(datanodeMap.get(entry.getKey()).getName() + blocks);
+  private void dumpRecentInvalidateSets(PrintWriter out) {
+    readLock();
+    try {
+      int size = recentInvalidateSets.values().size();
+      out.println("Metasave: Blocks waiting deletion from "+size+" datanodes.");
+      if (size == 0) {
+        return;
       }
+      for(Map.Entry<String,Collection<Block>> entry : recentInvalidateSets.entrySet()) {
+        Collection<Block> blocks = entry.getValue();
+        if (blocks.size() > 0) {
+          out.println(datanodeMap.get(entry.getKey()).getName() + blocks);
+        }
+      }
+    } finally {
+      readUnlock();
     }
   }
 
@@ -1527,75 +1700,85 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * @param blk Block to be marked as corrupt
    * @param dn Datanode which holds the corrupt replica
    */
-  public synchronized void markBlockAsCorrupt(Block blk, DatanodeInfo dn)
+  public void markBlockAsCorrupt(Block blk, DatanodeInfo dn)
     throws IOException {
-    DatanodeDescriptor node = getDatanode(dn);
-    if (node == null) {
-      throw new IOException("Cannot mark block" + blk.getBlockName() +
-                            " as corrupt because datanode " + dn.getName() +
-                            " does not exist. ");
-    }
+    writeLock();
+    try {
+      DatanodeDescriptor node = getDatanode(dn);
+      if (node == null) {
+        throw new IOException("Cannot mark block" + blk.getBlockName() +
+                              " as corrupt because datanode " + dn.getName() +
+                              " does not exist. ");
+      }
     
-    final BlockInfo storedBlockInfo = blocksMap.getStoredBlock(blk);
-    if (storedBlockInfo == null) {
-      // Check if the replica is in the blockMap, if not 
-      // ignore the request for now. This could happen when BlockScanner
-      // thread of Datanode reports bad block before Block reports are sent
-      // by the Datanode on startup
-      NameNode.stateChangeLog.info("BLOCK NameSystem.markBlockAsCorrupt: " +
-                                   "block " + blk + " could not be marked " +
-                                   "as corrupt as it does not exists in " +
-                                   "blocksMap");
-    } else {
-      INodeFile inode = storedBlockInfo.getINode();
-      if (inode == null) {
+      final BlockInfo storedBlockInfo = blocksMap.getStoredBlock(blk);
+      if (storedBlockInfo == null) {
+        // Check if the replica is in the blockMap, if not 
+        // ignore the request for now. This could happen when BlockScanner
+        // thread of Datanode reports bad block before Block reports are sent
+        // by the Datanode on startup
         NameNode.stateChangeLog.info("BLOCK NameSystem.markBlockAsCorrupt: " +
                                      "block " + blk + " could not be marked " +
-                                     "as corrupt as it does not belong to " +
-                                     "any file");
-        addToInvalidates(storedBlockInfo, node);
-        return;
-      } 
-      // Add this replica to corruptReplicas Map 
-      corruptReplicas.addToCorruptReplicasMap(storedBlockInfo, node);
-      if (countNodes(storedBlockInfo).liveReplicas()>inode.getReplication()) {
-        // the block is over-replicated so invalidate the replicas immediately
-        invalidateBlock(storedBlockInfo, node);
+                                     "as corrupt as it does not exists in " +
+                                     "blocksMap");
       } else {
-        // add the block to neededReplication 
-        updateNeededReplications(storedBlockInfo, -1, 0);
+        INodeFile inode = storedBlockInfo.getINode();
+        if (inode == null) {
+          NameNode.stateChangeLog.info("BLOCK NameSystem.markBlockAsCorrupt: " +
+                                       "block " + blk + " could not be marked " +
+                                       "as corrupt as it does not belong to " +
+                                       "any file");
+          addToInvalidates(storedBlockInfo, node);
+          return;
+        } 
+        // Add this replica to corruptReplicas Map 
+        corruptReplicas.addToCorruptReplicasMap(storedBlockInfo, node);
+        if (countNodes(storedBlockInfo).liveReplicas()>inode.getReplication()) {
+          // the block is over-replicated so invalidate the replicas immediately
+          invalidateBlock(storedBlockInfo, node);
+        } else {
+          // add the block to neededReplication 
+          updateNeededReplications(storedBlockInfo, -1, 0);
+        }
       }
+    } finally {
+      writeUnlock();
     }
   }
 
   /**
    * Invalidates the given block on the given datanode.
    */
-  public synchronized void invalidateBlock(Block blk, DatanodeInfo dn)
+  public void invalidateBlock(Block blk, DatanodeInfo dn)
     throws IOException {
-    NameNode.stateChangeLog.info("DIR* NameSystem.invalidateBlock: " 
-                                 + blk + " on " 
-                                 + dn.getName());
-    DatanodeDescriptor node = getDatanode(dn);
-    if (node == null) {
-      throw new IOException("Cannot invalidate block " + blk +
-                            " because datanode " + dn.getName() +
-                            " does not exist.");
-    }
-
-    // Check how many copies we have of the block.  If we have at least one
-    // copy on a live node, then we can delete it. 
-    int count = countNodes(blk).liveReplicas();
-    if (count > 1) {
-      addToInvalidates(blk, dn);
-      removeStoredBlock(blk, node);
-      NameNode.stateChangeLog.debug("BLOCK* NameSystem.invalidateBlocks: "
-                                   + blk + " on " 
-                                   + dn.getName() + " listed for deletion.");
-    } else {
-      NameNode.stateChangeLog.info("BLOCK* NameSystem.invalidateBlocks: "
+    writeLock();
+    try {
+      NameNode.stateChangeLog.info("DIR* NameSystem.invalidateBlock: " 
                                    + blk + " on " 
-                                   + dn.getName() + " is the only copy and was not deleted.");
+                                   + dn.getName());
+      DatanodeDescriptor node = getDatanode(dn);
+      if (node == null) {
+        throw new IOException("Cannot invalidate block " + blk +
+                              " because datanode " + dn.getName() +
+                              " does not exist.");
+      }
+
+      // Check how many copies we have of the block.  If we have at least one
+      // copy on a live node, then we can delete it. 
+      int count = countNodes(blk).liveReplicas();
+      if (count > 1) {
+        addToInvalidates(blk, dn);
+        removeStoredBlock(blk, node);
+        NameNode.stateChangeLog.debug("BLOCK* NameSystem.invalidateBlocks: "
+                                     + blk + " on " 
+                                     + dn.getName() + " listed for deletion.");
+      } else {
+        NameNode.stateChangeLog.info("BLOCK* NameSystem.invalidateBlocks: "
+                                     + blk + " on " 
+                                     + dn.getName() + " is the only copy and was not deleted.");
+      }
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -1623,30 +1806,35 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     return status;
   }
 
-  private synchronized boolean renameToInternal(String src, String dst
+  private boolean renameToInternal(String src, String dst
       ) throws IOException {
-    NameNode.stateChangeLog.debug("DIR* NameSystem.renameTo: " + src + " to " + dst);
-    if (isInSafeMode())
-      throw new SafeModeException("Cannot rename " + src, safeMode);
-    if (!DFSUtil.isValidName(dst)) {
-      throw new IOException("Invalid name: " + dst);
-    }
+    writeLock();
+    try {
+      NameNode.stateChangeLog.debug("DIR* NameSystem.renameTo: " + src + " to " + dst);
+      if (isInSafeMode())
+        throw new SafeModeException("Cannot rename " + src, safeMode);
+      if (!DFSUtil.isValidName(dst)) {
+        throw new IOException("Invalid name: " + dst);
+      }
 
-    if (isPermissionEnabled) {
-      //We should not be doing this.  This is move() not renameTo().
-      //but for now,
-      String actualdst = dir.isDir(dst)?
-          dst + Path.SEPARATOR + new Path(src).getName(): dst;
-      checkParentAccess(src, FsAction.WRITE);
-      checkAncestorAccess(actualdst, FsAction.WRITE);
-    }
+      if (isPermissionEnabled) {
+        //We should not be doing this.  This is move() not renameTo().
+        //but for now,
+        String actualdst = dir.isDir(dst)?
+            dst + Path.SEPARATOR + new Path(src).getName(): dst;
+        checkParentAccess(src, FsAction.WRITE);
+        checkAncestorAccess(actualdst, FsAction.WRITE);
+      }
 
-    FileStatus dinfo = dir.getFileInfo(dst);
-    if (dir.renameTo(src, dst)) {
-      changeLease(src, dst, dinfo);     // update lease with new filename
-      return true;
+      FileStatus dinfo = dir.getFileInfo(dst);
+      if (dir.renameTo(src, dst)) {
+        changeLease(src, dst, dinfo);     // update lease with new filename
+        return true;
+      }
+      return false;
+    } finally {
+      writeUnlock();
     }
-    return false;
   }
 
   /**
@@ -1671,18 +1859,23 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * Remove the indicated filename from the namespace.  This may
    * invalidate some blocks that make up the file.
    */
-  synchronized boolean deleteInternal(String src, 
+  boolean deleteInternal(String src, 
       boolean enforcePermission) throws IOException {
-    if (NameNode.stateChangeLog.isDebugEnabled()) {
-      NameNode.stateChangeLog.debug("DIR* NameSystem.delete: " + src);
-    }
-    if (isInSafeMode())
-      throw new SafeModeException("Cannot delete " + src, safeMode);
-    if (enforcePermission && isPermissionEnabled) {
-      checkPermission(src, false, null, FsAction.WRITE, null, FsAction.ALL);
-    }
+    writeLock();
+    try {
+      if (NameNode.stateChangeLog.isDebugEnabled()) {
+        NameNode.stateChangeLog.debug("DIR* NameSystem.delete: " + src);
+      }
+      if (isInSafeMode())
+        throw new SafeModeException("Cannot delete " + src, safeMode);
+      if (enforcePermission && isPermissionEnabled) {
+        checkPermission(src, false, null, FsAction.WRITE, null, FsAction.ALL);
+      }
 
-    return dir.delete(src) != null;
+      return dir.delete(src) != null;
+    } finally {
+      writeUnlock();
+    }
   }
 
   void removePathAndBlocks(String src, List<Block> blocks) throws IOException {
@@ -1701,10 +1894,15 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    *         or null if file not found
    */
   FileStatus getFileInfo(String src) throws IOException {
-    if (isPermissionEnabled) {
-      checkTraverse(src);
+    readLock();
+    try {
+      if (isPermissionEnabled) {
+        checkTraverse(src);
+      }
+      return dir.getFileInfo(src);
+    } finally {
+      readUnlock();
     }
-    return dir.getFileInfo(src);
   }
 
   /**
@@ -1726,42 +1924,58 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   /**
    * Create all the necessary directories
    */
-  private synchronized boolean mkdirsInternal(String src,
+  private boolean mkdirsInternal(String src,
       PermissionStatus permissions) throws IOException {
-    NameNode.stateChangeLog.debug("DIR* NameSystem.mkdirs: " + src);
-    if (isPermissionEnabled) {
-      checkTraverse(src);
-    }
-    if (dir.isDir(src)) {
-      // all the users of mkdirs() are used to expect 'true' even if
-      // a new directory is not created.
-      return true;
-    }
-    if (isInSafeMode())
-      throw new SafeModeException("Cannot create directory " + src, safeMode);
-    if (!DFSUtil.isValidName(src)) {
-      throw new IOException("Invalid directory name: " + src);
-    }
-    if (isPermissionEnabled) {
-      checkAncestorAccess(src, FsAction.WRITE);
-    }
+    writeLock();
+    try {
+      NameNode.stateChangeLog.debug("DIR* NameSystem.mkdirs: " + src);
+      if (isPermissionEnabled) {
+        checkTraverse(src);
+      }
+      if (dir.isDir(src)) {
+        // all the users of mkdirs() are used to expect 'true' even if
+        // a new directory is not created.
+        return true;
+      }
+      if (isInSafeMode())
+        throw new SafeModeException("Cannot create directory " + src, safeMode);
+      if (!DFSUtil.isValidName(src)) {
+        throw new IOException("Invalid directory name: " + src);
+      }
+      if (isPermissionEnabled) {
+        checkAncestorAccess(src, FsAction.WRITE);
+      }
 
-    // validate that we have enough inodes. This is, at best, a 
-    // heuristic because the mkdirs() operation migth need to 
-    // create multiple inodes.
-    checkFsObjectLimit();
+      // validate that we have enough inodes. This is, at best, a 
+      // heuristic because the mkdirs() operation migth need to 
+      // create multiple inodes.
+      checkFsObjectLimit();
 
-    if (!dir.mkdirs(src, permissions, false, now())) {
-      throw new IOException("Invalid directory name: " + src);
+      if (!dir.mkdirs(src, permissions, false, now())) {
+        throw new IOException("Invalid directory name: " + src);
+      }
+      return true;
+    } finally {
+      writeUnlock();
     }
-    return true;
   }
 
   ContentSummary getContentSummary(String src) throws IOException {
-    if (isPermissionEnabled) {
-      checkPermission(src, false, null, null, null, FsAction.READ_EXECUTE);
+    readLock();
+    try {
+      if (isPermissionEnabled) {
+        if (checkContentSummarySubtree) {
+          checkPermission(src, false, null, null, null, FsAction.READ_EXECUTE);
+        } else {
+          // do not walk the subtree, which may be all the work left when
+          // the summaries are cached
+          checkPermission(src, false, null, null, FsAction.READ_EXECUTE, null);
+        }
+      }
+      return dir.getContentSummary(src);
+    } finally {
+      readUnlock();
     }
-    return dir.getContentSummary(src);
   }
 
   /**
@@ -1774,7 +1988,12 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
       checkSuperuserPrivilege();
     }
     
-    dir.setQuota(path, nsQuota, dsQuota);
+    writeLock();
+    try {
+      dir.setQuota(path, nsQuota, dsQuota);
+    } finally {
+      writeUnlock();
+    }
     getEditLog().logSync();
   }
   
@@ -1787,12 +2006,15 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
 
     NameNode.stateChangeLog.info("BLOCK* NameSystem.fsync: file "
                                   + src + " for " + clientName);
-    synchronized (this) {
+    writeLock();
+    try {
       if (isInSafeMode()) {
         throw new SafeModeException("Cannot fsync file " + src, safeMode);
       }
       INodeFileUnderConstruction pendingFile  = checkLease(src, clientName);
       dir.persistBlocks(src, pendingFile);
+    } finally {
+      writeUnlock();
     }
   }
 
@@ -1865,81 +2087,90 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     checkReplicationFactor(newFile);
   }
 
-  synchronized void commitBlockSynchronization(Block lastblock,
+  void commitBlockSynchronization(Block lastblock,
       long newgenerationstamp, long newlength,
       boolean closeFile, boolean deleteblock, DatanodeID[] newtargets
       ) throws IOException {
-    LOG.info("commitBlockSynchronization(lastblock=" + lastblock
-          + ", newgenerationstamp=" + newgenerationstamp
-          + ", newlength=" + newlength
-          + ", newtargets=" + Arrays.asList(newtargets)
-          + ", closeFile=" + closeFile
-          + ", deleteBlock=" + deleteblock
-          + ")");
-    final BlockInfo oldblockinfo = blocksMap.getStoredBlock(lastblock);
-    if (oldblockinfo == null) {
-      throw new IOException("Block (=" + lastblock + ") not found");
-    }
-    INodeFile iFile = oldblockinfo.getINode();
-    if (!iFile.isUnderConstruction()) {
-      throw new IOException("Unexpected block (=" + lastblock
-          + ") since the file (=" + iFile.getLocalName()
-          + ") is not under construction");
-    }
-    INodeFileUnderConstruction pendingFile = (INodeFileUnderConstruction)iFile;
+    String src;
+    writeLock();
+    try {
+      LOG.info("commitBlockSynchronization(lastblock=" + lastblock
+            + ", newgenerationstamp=" + newgenerationstamp
+            + ", newlength=" + newlength
+            + ", newtargets=" + Arrays.asList(newtargets)
+            + ", closeFile=" + closeFile
+            + ", deleteBlock=" + deleteblock
+            + ")");
+      final BlockInfo oldblockinfo = blocksMap.getStoredBlock(lastblock);
+      if (oldblockinfo == null) {
+        throw new IOException("Block (=" + lastblock + ") not found");
+      }
+      INodeFile iFile = oldblockinfo.getINode();
+      if (!iFile.isUnderConstruction()) {
+        throw new IOException("Unexpected block (=" + lastblock
+            + ") since the file (=" + iFile.getLocalName()
+            + ") is not under construction");
+      }
+      INodeFileUnderConstruction pendingFile = (INodeFileUnderConstruction)iFile;
+      long[] summary = pendingFile.summaryBeforeChange();
 
 
-    // Remove old block from blocks map. This always have to be done
-    // because the generation stamp of this block is changing.
-    blocksMap.removeBlock(oldblockinfo);
+      // Remove old block from blocks map. This always have to be done
+      // because the generation stamp of this block is changing.
+      blocksMap.removeBlock(oldblockinfo);
 
-    if (deleteblock) {
-      pendingFile.removeBlock(lastblock);
-    }
-    else {
-      // update last block, construct newblockinfo and add it to the blocks map
-      lastblock.set(lastblock.getBlockId(), newlength, newgenerationstamp);
-      final BlockInfo newblockinfo = blocksMap.addINode(lastblock, pendingFile);
-
-      // find the DatanodeDescriptor objects
-      // There should be no locations in the blocksMap till now because the
-      // file is underConstruction
-      DatanodeDescriptor[] descriptors = null;
-      if (newtargets.length > 0) {
-        descriptors = new DatanodeDescriptor[newtargets.length];
-        for(int i = 0; i < newtargets.length; i++) {
-          descriptors[i] = getDatanode(newtargets[i]);
+      if (deleteblock) {
+        pendingFile.removeBlock(lastblock);
+      }
+      else {
+        // update last block, construct newblockinfo and add it to the blocks map
+        lastblock.set(lastblock.getBlockId(), newlength, newgenerationstamp);
+        final BlockInfo newblockinfo = blocksMap.addINode(lastblock, pendingFile);
+
+        // find the DatanodeDescriptor objects
+        // There should be no locations in the blocksMap till now because the
+        // file is underConstruction
+        DatanodeDescriptor[] descriptors = null;
+        if (newtargets.length > 0) {
+          descriptors = new DatanodeDescriptor[newtargets.length];
+          for(int i = 0; i < newtargets.length; i++) {
+            descriptors[i] = getDatanode(newtargets[i]);
+          }
+        }
+        if (closeFile) {
+          // the file is getting closed. Insert block locations into blocksMap.
+          // Otherwise fsck will report these blocks as MISSING, especially if the
+          // blocksReceived from Datanodes take a long time to arrive.
+          for (int i = 0; i < descriptors.length; i++) {
+            descriptors[i].addBlock(newblockinfo);
+          }
+          pendingFile.setLastBlock(newblockinfo, null);
+        } else {
+          // add locations into the INodeUnderConstruction
+          pendingFile.setLastBlock(newblockinfo, descriptors);
         }
       }
-      if (closeFile) {
-        // the file is getting closed. Insert block locations into blocksMap.
-        // Otherwise fsck will report these blocks as MISSING, especially if the
-        // blocksReceived from Datanodes take a long time to arrive.
-        for (int i = 0; i < descriptors.length; i++) {
-          descriptors[i].addBlock(newblockinfo);
+      pendingFile.summaryAfterChange(summary);
+
+      // If this commit does not want to close the file, persist
+      // blocks only if append is supported and return
+      src = leaseManager.findPath(pendingFile);
+      if (!closeFile) {
+        if (supportAppends) {
+          dir.persistBlocks(src, pendingFile);
         }
-        pendingFile.setLastBlock(newblockinfo, null);
       } else {
-        // add locations into the INodeUnderConstruction
-        pendingFile.setLastBlock(newblockinfo, descriptors);
+        //remove lease, close file
+        finalizeINodeFileUnderConstruction(src, pendingFile);
       }
+    } finally {
+      writeUnlock();
     }
-
-    // If this commit does not want to close the file, persist
-    // blocks only if append is supported and return
-    String src = leaseManager.findPath(pendingFile);
+    getEditLog().logSync();
     if (!closeFile) {
-      if (supportAppends) {
-        dir.persistBlocks(src, pendingFile);
-        getEditLog().logSync();
-      }
       LOG.info("commitBlockSynchronization(" + lastblock + ") successful");
       return;
     }
-    
-    //remove lease, close file
-    finalizeINodeFileUnderConstruction(src, pendingFile);
-    getEditLog().logSync();
     LOG.info("commitBlockSynchronization(newblock=" + lastblock
           + ", file=" + src
           + ", newgenerationstamp=" + newgenerationstamp
@@ -1962,20 +2193,182 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * exists so we can return file attributes (soon to be implemented)
    */
   public FileStatus[] getListing(String src) throws IOException {
-    if (isPermissionEnabled) {
-      if (dir.isDir(src)) {
-        checkPathAccess(src, FsAction.READ_EXECUTE);
-      }
-      else {
-        checkTraverse(src);
+    FileStatus[] listing;
+    readLock();
+    try {
+      if (isPermissionEnabled) {
+        if (dir.isDir(src)) {
+          checkPathAccess(src, FsAction.READ_EXECUTE);
+        }
+        else {
+          checkTraverse(src);
+        }
       }
+      listing = dir.getListing(src);
+    } finally {
+      readUnlock();
     }
     if (auditLog.isInfoEnabled()) {
       logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
                     "listStatus", src, null, null);
     }
-    return dir.getListing(src);
+    return listing;
+  }
+
+  /**
+   * Get a part of the listing of the files at 'src', after the entry
+   * named startAfter.  Only the first part is audit logged.
+   */
+  public DirectoryListing getListing(String src, String startAfter, int limit)
+                                     throws IOException {
+    DirectoryListing listing;
+    readLock();
+    try {
+      if (isPermissionEnabled) {
+        if (dir.isDir(src)) {
+          checkPathAccess(src, FsAction.READ_EXECUTE);
+        }
+        else {
+          checkTraverse(src);
+        }
+      }
+      listing = dir.getListing(src, startAfter, limit);
+    } finally {
+      readUnlock();
+    }
+    if (auditLog.isInfoEnabled() && startAfter.length() == 0) {
+      logAuditEvent(UserGroupInformation.getCurrentUGI(),
+                    Server.getRemoteIp(),
+                    "listStatus", src, null, null);
+    }
+    return listing;
+  }
+
+  /**
+   * Get a part of the listing of the files at 'src', like
+   * {@link #getListing(String, String, int)}, with the locations of all
+   * the blocks of the files sorted by their distance to clientMachine.
+   * The locations of a file the caller may not read are left out, as
+   * {@link #getBlockLocations(String, long, long)} would refuse them.
+   */
+  DirectoryListing getLocatedListing(String clientMachine, String src,
+      String startAfter, int limit) throws IOException {
+    DirectoryListing listing;
+    List<String> opened = new ArrayList<String>();
+    readLock();
+    try {
+      if (isPermissionEnabled) {
+        if (dir.isDir(src)) {
+          checkPathAccess(src, FsAction.READ_EXECUTE);
+        }
+        else {
+          checkPathAccess(src, FsAction.READ);
+        }
+      }
+      listing = dir.getListing(src, startAfter, limit);
+      if (listing == null) {
+        return null;
+      }
+      DatanodeDescriptor client = host2DataNodeMap.getDatanodeByHost(
+          clientMachine);
+      FileStatus[] entries = listing.getPartialListing();
+      HdfsLocatedFileStatus[] located =
+        new HdfsLocatedFileStatus[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+        if (entries[i].isDir()) {
+          located[i] = locateFile(entries[i], client);
+          continue;
+        }
+        String path = entries[i].getPath().toString();
+        if (isPermissionEnabled) {
+          try {
+            checkPathAccess(path, FsAction.READ);
+          } catch (AccessControlException e) {
+            located[i] = new HdfsLocatedFileStatus(entries[i], null);
+            continue;
+          }
+        }
+        located[i] = locateFile(entries[i], client);
+        opened.add(path);
+      }
+      listing = new DirectoryListing(located, listing.getRemainingEntries());
+    } finally {
+      readUnlock();
+    }
+    if (auditLog.isInfoEnabled()) {
+      UserGroupInformation ugi = UserGroupInformation.getCurrentUGI();
+      if (startAfter.length() == 0) {
+        logAuditEvent(ugi, Server.getRemoteIp(), "listStatus", src, null, null);
+      }
+      for (String path : opened) {
+        logAuditEvent(ugi, Server.getRemoteIp(), "open", path, null, null);
+      }
+    }
+    return listing;
+  }
+
+  /**
+   * Get the file info of many paths, with the locations of all the blocks
+   * of the files sorted by their distance to clientMachine.  The namespace
+   * is read under one hold of the read lock.
+   *
+   * @return the file info in the order of srcs, null for a path that is
+   *         not found
+   */
+  HdfsLocatedFileStatus[] getLocatedFileInfo(String clientMachine,
+      String[] srcs) throws IOException {
+    HdfsLocatedFileStatus[] results = new HdfsLocatedFileStatus[srcs.length];
+    readLock();
+    try {
+      DatanodeDescriptor client = host2DataNodeMap.getDatanodeByHost(
+          clientMachine);
+      for (int i = 0; i < srcs.length; i++) {
+        if (isPermissionEnabled) {
+          checkTraverse(srcs[i]);
+        }
+        FileStatus stat = dir.getFileInfo(srcs[i]);
+        if (stat == null) {
+          continue;
+        }
+        if (isPermissionEnabled && !stat.isDir()) {
+          checkPathAccess(srcs[i], FsAction.READ);
+        }
+        results[i] = locateFile(stat, client);
+      }
+    } finally {
+      readUnlock();
+    }
+    if (auditLog.isInfoEnabled()) {
+      UserGroupInformation ugi = UserGroupInformation.getCurrentUGI();
+      for (int i = 0; i < srcs.length; i++) {
+        if (results[i] != null && !results[i].isDir()) {
+          logAuditEvent(ugi, Server.getRemoteIp(), "open", srcs[i], null, null);
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Attach the locations of all the blocks of a file to its status, sorted
+   * by their distance to client.  Access times are not changed.  The
+   * caller must hold the read lock.
+   */
+  private HdfsLocatedFileStatus locateFile(FileStatus stat,
+      DatanodeDescriptor client) throws IOException {
+    if (stat.isDir()) {
+      return new HdfsLocatedFileStatus(stat, null);
+    }
+    String src = stat.getPath().toString();
+    LocatedBlocks blocks = getBlockLocationsInternal(src,
+        dir.getFileINode(src), 0, Long.MAX_VALUE, Integer.MAX_VALUE, false);
+    if (blocks != null) {
+      for (LocatedBlock b : blocks.getLocatedBlocks()) {
+        clusterMap.pseudoSortByDistance(client, b.getLocations());
+      }
+    }
+    return new HdfsLocatedFileStatus(stat, blocks);
   }
 
   /////////////////////////////////////////////////////////
@@ -2006,116 +2399,121 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * 
    * @see org.apache.hadoop.hdfs.server.datanode.DataNode#register()
    */
-  public synchronized void registerDatanode(DatanodeRegistration nodeReg
+  public void registerDatanode(DatanodeRegistration nodeReg
                                             ) throws IOException {
-    String dnAddress = Server.getRemoteAddress();
-    if (dnAddress == null) {
-      // Mostly called inside an RPC.
-      // But if not, use address passed by the data-node.
-      dnAddress = nodeReg.getHost();
-    }      
+    writeLock();
+    try {
+      String dnAddress = Server.getRemoteAddress();
+      if (dnAddress == null) {
+        // Mostly called inside an RPC.
+        // But if not, use address passed by the data-node.
+        dnAddress = nodeReg.getHost();
+      }      
 
-    // check if the datanode is allowed to be connect to the namenode
-    if (!verifyNodeRegistration(nodeReg, dnAddress)) {
-      throw new DisallowedDatanodeException(nodeReg);
-    }
+      // check if the datanode is allowed to be connect to the namenode
+      if (!verifyNodeRegistration(nodeReg, dnAddress)) {
+        throw new DisallowedDatanodeException(nodeReg);
+      }
 
-    String hostName = nodeReg.getHost();
+      String hostName = nodeReg.getHost();
       
-    // update the datanode's name with ip:port
-    DatanodeID dnReg = new DatanodeID(dnAddress + ":" + nodeReg.getPort(),
-                                      nodeReg.getStorageID(),
-                                      nodeReg.getInfoPort(),
-                                      nodeReg.getIpcPort());
-    nodeReg.updateRegInfo(dnReg);
+      // update the datanode's name with ip:port
+      DatanodeID dnReg = new DatanodeID(dnAddress + ":" + nodeReg.getPort(),
+                                        nodeReg.getStorageID(),
+                                        nodeReg.getInfoPort(),
+                                        nodeReg.getIpcPort());
+      nodeReg.updateRegInfo(dnReg);
       
-    NameNode.stateChangeLog.info(
-                                 "BLOCK* NameSystem.registerDatanode: "
-                                 + "node registration from " + nodeReg.getName()
-                                 + " storage " + nodeReg.getStorageID());
+      NameNode.stateChangeLog.info(
+                                   "BLOCK* NameSystem.registerDatanode: "
+                                   + "node registration from " + nodeReg.getName()
+                                   + " storage " + nodeReg.getStorageID());
 
-    DatanodeDescriptor nodeS = datanodeMap.get(nodeReg.getStorageID());
-    DatanodeDescriptor nodeN = host2DataNodeMap.getDatanodeByName(nodeReg.getName());
+      DatanodeDescriptor nodeS = datanodeMap.get(nodeReg.getStorageID());
+      DatanodeDescriptor nodeN = host2DataNodeMap.getDatanodeByName(nodeReg.getName());
       
-    if (nodeN != null && nodeN != nodeS) {
-      NameNode.LOG.info("BLOCK* NameSystem.registerDatanode: "
-                        + "node from name: " + nodeN.getName());
-      // nodeN previously served a different data storage, 
-      // which is not served by anybody anymore.
-      removeDatanode(nodeN);
-      // physically remove node from datanodeMap
-      wipeDatanode(nodeN);
-      nodeN = null;
-    }
-
-    if (nodeS != null) {
-      if (nodeN == nodeS) {
-        // The same datanode has been just restarted to serve the same data 
-        // storage. We do not need to remove old data blocks, the delta will
-        // be calculated on the next block report from the datanode
-        NameNode.stateChangeLog.debug("BLOCK* NameSystem.registerDatanode: "
-                                      + "node restarted.");
-      } else {
-        // nodeS is found
-        /* The registering datanode is a replacement node for the existing 
-          data storage, which from now on will be served by a new node.
-          If this message repeats, both nodes might have same storageID 
-          by (insanely rare) random chance. User needs to restart one of the
-          nodes with its data cleared (or user can just remove the StorageID
-          value in "VERSION" file under the data directory of the datanode,
-          but this is might not work if VERSION file format has changed 
-       */        
-        NameNode.stateChangeLog.info( "BLOCK* NameSystem.registerDatanode: "
-                                      + "node " + nodeS.getName()
-                                      + " is replaced by " + nodeReg.getName() + 
-                                      " with the same storageID " +
-                                      nodeReg.getStorageID());
-      }
-      // update cluster map
-      clusterMap.remove(nodeS);
-      nodeS.updateRegInfo(nodeReg);
-      nodeS.setHostName(hostName);
+      if (nodeN != null && nodeN != nodeS) {
+        NameNode.LOG.info("BLOCK* NameSystem.registerDatanode: "
+                          + "node from name: " + nodeN.getName());
+        // nodeN previously served a different data storage, 
+        // which is not served by anybody anymore.
+        removeDatanode(nodeN);
+        // physically remove node from datanodeMap
+        wipeDatanode(nodeN);
+        nodeN = null;
+      }
+
+      if (nodeS != null) {
+        if (nodeN == nodeS) {
+          // The same datanode has been just restarted to serve the same data 
+          // storage. We do not need to remove old data blocks, the delta will
+          // be calculated on the next block report from the datanode
+          NameNode.stateChangeLog.debug("BLOCK* NameSystem.registerDatanode: "
+                                        + "node restarted.");
+        } else {
+          // nodeS is found
+          /* The registering datanode is a replacement node for the existing 
+            data storage, which from now on will be served by a new node.
+            If this message repeats, both nodes might have same storageID 
+            by (insanely rare) random chance. User needs to restart one of the
+            nodes with its data cleared (or user can just remove the StorageID
+            value in "VERSION" file under the data directory of the datanode,
+            but this is might not work if VERSION file format has changed 
+         */        
+          NameNode.stateChangeLog.info( "BLOCK* NameSystem.registerDatanode: "
+                                        + "node " + nodeS.getName()
+                                        + " is replaced by " + nodeReg.getName() + 
+                                        " with the same storageID " +
+                                        nodeReg.getStorageID());
+        }
+        // update cluster map
+        clusterMap.remove(nodeS);
+        nodeS.updateRegInfo(nodeReg);
+        nodeS.setHostName(hostName);
       
-      // resolve network location
-      resolveNetworkLocation(nodeS);
-      clusterMap.add(nodeS);
+        // resolve network location
+        resolveNetworkLocation(nodeS);
+        clusterMap.add(nodeS);
         
+        // also treat the registration message as a heartbeat
+        synchronized(heartbeats) {
+          if( !heartbeats.contains(nodeS)) {
+            heartbeats.add(nodeS);
+            //update its timestamp
+            nodeS.updateHeartbeat(0L, 0L, 0L, 0);
+            nodeS.isAlive = true;
+          }
+        }
+        return;
+      } 
+
+      // this is a new datanode serving a new data storage
+      if (nodeReg.getStorageID().equals("")) {
+        // this data storage has never been registered
+        // it is either empty or was created by pre-storageID version of DFS
+        nodeReg.storageID = newStorageID();
+        NameNode.stateChangeLog.debug(
+                                      "BLOCK* NameSystem.registerDatanode: "
+                                      + "new storageID " + nodeReg.getStorageID() + " assigned.");
+      }
+      // register new datanode
+      DatanodeDescriptor nodeDescr 
+        = new DatanodeDescriptor(nodeReg, NetworkTopology.DEFAULT_RACK, hostName);
+      resolveNetworkLocation(nodeDescr);
+      unprotectedAddDatanode(nodeDescr);
+      clusterMap.add(nodeDescr);
+      
       // also treat the registration message as a heartbeat
       synchronized(heartbeats) {
-        if( !heartbeats.contains(nodeS)) {
-          heartbeats.add(nodeS);
-          //update its timestamp
-          nodeS.updateHeartbeat(0L, 0L, 0L, 0);
-          nodeS.isAlive = true;
-        }
+        heartbeats.add(nodeDescr);
+        nodeDescr.isAlive = true;
+        // no need to update its timestamp
+        // because its is done when the descriptor is created
       }
       return;
-    } 
-
-    // this is a new datanode serving a new data storage
-    if (nodeReg.getStorageID().equals("")) {
-      // this data storage has never been registered
-      // it is either empty or was created by pre-storageID version of DFS
-      nodeReg.storageID = newStorageID();
-      NameNode.stateChangeLog.debug(
-                                    "BLOCK* NameSystem.registerDatanode: "
-                                    + "new storageID " + nodeReg.getStorageID() + " assigned.");
-    }
-    // register new datanode
-    DatanodeDescriptor nodeDescr 
-      = new DatanodeDescriptor(nodeReg, NetworkTopology.DEFAULT_RACK, hostName);
-    resolveNetworkLocation(nodeDescr);
-    unprotectedAddDatanode(nodeDescr);
-    clusterMap.add(nodeDescr);
-      
-    // also treat the registration message as a heartbeat
-    synchronized(heartbeats) {
-      heartbeats.add(nodeDescr);
-      nodeDescr.isAlive = true;
-      // no need to update its timestamp
-      // because its is done when the descriptor is created
+    } finally {
+      writeUnlock();
     }
-    return;
   }
     
   /* Resolve a node's network location */
@@ -2230,7 +2628,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         ArrayList<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>(2);
         //check pending replication
         cmd = nodeinfo.getReplicationCommand(
-              maxReplicationStreams - xmitsInProgress);
+              maxReplicationStreams - xmitsInProgress,
+              getReplicationStreamsLimit(0) - xmitsInProgress);
         if (cmd != null) {
           cmds.add(cmd);
         }
@@ -2337,8 +2736,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     if (isInSafeMode())
       return workFound;
     synchronized(heartbeats) {
-      blocksToProcess = (int)(heartbeats.size() 
-          * ReplicationMonitor.REPLICATION_WORK_MULTIPLIER_PER_ITERATION);
+      blocksToProcess = (int)(heartbeats.size() * replicationWorkMultiplier);
       nodesToProcess = (int)Math.ceil((double)heartbeats.size() 
           * ReplicationMonitor.INVALIDATE_WORK_PCT_PER_ITERATION / 100);
     }
@@ -2346,11 +2744,14 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     workFound = computeReplicationWork(blocksToProcess); 
     
     // Update FSNamesystemMetrics counters
-    synchronized (this) {
+    writeLock();
+    try {
       pendingReplicationBlocksCount = pendingReplications.size();
       underReplicatedBlocksCount = neededReplications.size();
       scheduledReplicationBlocksCount = workFound;
       corruptReplicaBlocksCount = corruptReplicas.size();
+    } finally {
+      writeUnlock();
     }
     
     workFound += computeInvalidateWork(nodesToProcess);
@@ -2372,8 +2773,14 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * Scan blocks in {@link #neededReplications} and assign replication
    * work to data-nodes they belong to. 
    * 
-   * The number of process blocks equals either twice the number of live 
-   * data-nodes or the number of under-replicated blocks whichever is less.
+   * The number of process blocks equals either the number of live 
+   * data-nodes times dfs.replication.work.multiplier.per.iteration or 
+   * the number of under-replicated blocks whichever is less.
+   * 
+   * The blocks are handled as one batch, highest priority first: the
+   * sources of all of them are chosen under a single hold of the global
+   * lock, the targets with the lock released, and the transfers are
+   * scheduled under a second hold of the lock.
    * 
    * @return number of blocks scheduled for replication during this iteration.
    */
@@ -2383,17 +2790,76 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     List<List<Block>> blocksToReplicate = 
       chooseUnderReplicatedBlocks(blocksToProcess);
 
+    // choose the sources
+    List<ReplicationWork> work = new ArrayList<ReplicationWork>();
+    writeLock();
+    try {
+      synchronized (neededReplications) {
+        // the streams given to each source in this batch so far
+        Map<DatanodeDescriptor, Integer> batchStreams =
+          new HashMap<DatanodeDescriptor, Integer>();
+        for (int i=0; i<blocksToReplicate.size(); i++) {
+          for(Block block : blocksToReplicate.get(i)) {
+            ReplicationWork rw = chooseReplicationSource(block, i, batchStreams);
+            if (rw != null) {
+              work.add(rw);
+            }
+          }
+        }
+      }
+    } finally {
+      writeUnlock();
+    }
+
+    // choose replication targets: NOT HODING THE GLOBAL LOCK
+    for (ReplicationWork rw : work) {
+      rw.targets = replicator.chooseTarget(rw.additionalReplRequired,
+          rw.srcNode, rw.containingNodes, null, rw.block.getNumBytes());
+    }
+
     // replicate blocks
     int scheduledReplicationCount = 0;
-    for (int i=0; i<blocksToReplicate.size(); i++) {
-      for(Block block : blocksToReplicate.get(i)) {
-        if (computeReplicationWorkForBlock(block, i)) {
-          scheduledReplicationCount++;
+    writeLock();
+    try {
+      synchronized (neededReplications) {
+        for (ReplicationWork rw : work) {
+          if (rw.targets.length > 0 && scheduleReplication(rw)) {
+            scheduledReplicationCount++;
+          }
         }
       }
+    } finally {
+      writeUnlock();
+    }
+    if (NameNode.stateChangeLog.isDebugEnabled()) {
+      NameNode.stateChangeLog.debug(
+          "BLOCK* neededReplications = " + neededReplications.size()
+          + " pendingReplications = " + pendingReplications.size());
     }
     return scheduledReplicationCount;
   }
+
+  /**
+   * A block chosen for replication, with the source and the targets
+   * of its transfer.
+   */
+  private static class ReplicationWork {
+    final Block block;
+    final int priority;
+    final DatanodeDescriptor srcNode;
+    final List<DatanodeDescriptor> containingNodes;
+    final int additionalReplRequired;
+    DatanodeDescriptor[] targets;
+
+    ReplicationWork(Block block, int priority, DatanodeDescriptor srcNode,
+        List<DatanodeDescriptor> containingNodes, int additionalReplRequired) {
+      this.block = block;
+      this.priority = priority;
+      this.srcNode = srcNode;
+      this.containingNodes = containingNodes;
+      this.additionalReplRequired = additionalReplRequired;
+    }
+  }
   
   /** Get a list of block lists to be replicated
    * The index of block lists represents the 
@@ -2402,175 +2868,197 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * @return Return a list of block lists to be replicated. 
    *         The block list index represents its replication priority.
    */
-  synchronized List<List<Block>> chooseUnderReplicatedBlocks(int blocksToProcess) {
-    // initialize data structure for the return value
-    List<List<Block>> blocksToReplicate = 
-      new ArrayList<List<Block>>(UnderReplicatedBlocks.LEVEL);
-    for (int i=0; i<UnderReplicatedBlocks.LEVEL; i++) {
-      blocksToReplicate.add(new ArrayList<Block>());
-    }
-    
-    synchronized(neededReplications) {
-      if (neededReplications.size() == 0) {
-        missingBlocksInCurIter = 0;
-        missingBlocksInPrevIter = 0;
-        return blocksToReplicate;
+  List<List<Block>> chooseUnderReplicatedBlocks(int blocksToProcess) {
+    writeLock();
+    try {
+      // initialize data structure for the return value
+      List<List<Block>> blocksToReplicate = 
+        new ArrayList<List<Block>>(UnderReplicatedBlocks.LEVEL);
+      for (int i=0; i<UnderReplicatedBlocks.LEVEL; i++) {
+        blocksToReplicate.add(new ArrayList<Block>());
       }
-      
-      // Go through all blocks that need replications.
-      BlockIterator neededReplicationsIterator = neededReplications.iterator();
-      // skip to the first unprocessed block, which is at replIndex 
-      for(int i=0; i < replIndex && neededReplicationsIterator.hasNext(); i++) {
-        neededReplicationsIterator.next();
-      }
-      // # of blocks to process equals either twice the number of live 
-      // data-nodes or the number of under-replicated blocks whichever is less
-      blocksToProcess = Math.min(blocksToProcess, neededReplications.size());
-
-      for (int blkCnt = 0; blkCnt < blocksToProcess; blkCnt++, replIndex++) {
-        if( ! neededReplicationsIterator.hasNext()) {
-          // start from the beginning
-          replIndex = 0;
-          missingBlocksInPrevIter = missingBlocksInCurIter;
+    
+      synchronized(neededReplications) {
+        if (neededReplications.size() == 0) {
           missingBlocksInCurIter = 0;
-          blocksToProcess = Math.min(blocksToProcess, neededReplications.size());
-          if(blkCnt >= blocksToProcess)
-            break;
-          neededReplicationsIterator = neededReplications.iterator();
-          assert neededReplicationsIterator.hasNext() : 
-                                  "neededReplications should not be empty.";
+          missingBlocksInPrevIter = 0;
+          return blocksToReplicate;
         }
-
-        Block block = neededReplicationsIterator.next();
-        int priority = neededReplicationsIterator.getPriority();
-        if (priority < 0 || priority >= blocksToReplicate.size()) {
-          LOG.warn("Unexpected replication priority: " + priority + " " + block);
-        } else {
-          blocksToReplicate.get(priority).add(block);
+      
+        // Go through all blocks that need replications.
+        BlockIterator neededReplicationsIterator = neededReplications.iterator();
+        // skip to the first unprocessed block, which is at replIndex 
+        for(int i=0; i < replIndex && neededReplicationsIterator.hasNext(); i++) {
+          neededReplicationsIterator.next();
         }
-      } // end for
-    } // end synchronized
-    return blocksToReplicate;
+        // # of blocks to process equals either twice the number of live 
+        // data-nodes or the number of under-replicated blocks whichever is less
+        blocksToProcess = Math.min(blocksToProcess, neededReplications.size());
+
+        for (int blkCnt = 0; blkCnt < blocksToProcess; blkCnt++, replIndex++) {
+          if( ! neededReplicationsIterator.hasNext()) {
+            // start from the beginning
+            replIndex = 0;
+            missingBlocksInPrevIter = missingBlocksInCurIter;
+            missingBlocksInCurIter = 0;
+            blocksToProcess = Math.min(blocksToProcess, neededReplications.size());
+            if(blkCnt >= blocksToProcess)
+              break;
+            neededReplicationsIterator = neededReplications.iterator();
+            assert neededReplicationsIterator.hasNext() : 
+                                    "neededReplications should not be empty.";
+          }
+
+          Block block = neededReplicationsIterator.next();
+          int priority = neededReplicationsIterator.getPriority();
+          if (priority < 0 || priority >= blocksToReplicate.size()) {
+            LOG.warn("Unexpected replication priority: " + priority + " " + block);
+          } else {
+            blocksToReplicate.get(priority).add(block);
+          }
+        } // end for
+      } // end synchronized
+      return blocksToReplicate;
+    } finally {
+      writeUnlock();
+    }
  }
   
-  /** Replicate a block
+  /**
+   * The number of outgoing replication streams a node may have for blocks
+   * of the given priority, and the number of blocks of that priority that
+   * may be queued for it.  Blocks with a single live replica left may
+   * exceed dfs.max-repl-streams up to dfs.max-repl-streams.hard-limit.
+   */
+  private int getReplicationStreamsLimit(int priority) {
+    return priority == 0 ?
+        Math.max(maxReplicationStreams, replicationStreamsHardLimit) :
+        maxReplicationStreams;
+  }
+
+  /**
+   * Choose the source of the replication of a block.
+   * Should be called with the global lock and the lock of 
+   * {@link #neededReplications} held.
    * 
    * @param block block to be replicated
    * @param priority a hint of its priority in the neededReplication queue
-   * @return if the block gets replicated or not
+   * @param batchStreams the streams given to the sources in this batch,
+   *        updated with the chosen source
+   * @return the replication work of the block or null if it does not 
+   *         need or cannot get any
    */
-  boolean computeReplicationWorkForBlock(Block block, int priority) {
-    int requiredReplication, numEffectiveReplicas; 
-    List<DatanodeDescriptor> containingNodes;
-    DatanodeDescriptor srcNode;
-    
-    synchronized (this) {
-      synchronized (neededReplications) {
-        // block should belong to a file
-        INodeFile fileINode = blocksMap.getINode(block);
-        // abandoned block or block reopened for append
-        if(fileINode == null || fileINode.isUnderConstruction()) { 
-          neededReplications.remove(block, priority); // remove from neededReplications
-          replIndex--;
-          return false;
-        }
-        requiredReplication = fileINode.getReplication(); 
-
-        // get a source data-node
-        containingNodes = new ArrayList<DatanodeDescriptor>();
-        NumberReplicas numReplicas = new NumberReplicas();
-        srcNode = chooseSourceDatanode(block, containingNodes, numReplicas);
-        if ((numReplicas.liveReplicas() + numReplicas.decommissionedReplicas())
-            <= 0) {          
-          missingBlocksInCurIter++;
-        }
-        if(srcNode == null) // block can not be replicated from any node
-          return false;
-
-        // do not schedule more if enough replicas is already pending
-        numEffectiveReplicas = numReplicas.liveReplicas() +
-                                pendingReplications.getNumReplicas(block);
-        if(numEffectiveReplicas >= requiredReplication) {
-          neededReplications.remove(block, priority); // remove from neededReplications
-          replIndex--;
-          NameNode.stateChangeLog.info("BLOCK* "
-              + "Removing block " + block
-              + " from neededReplications as it has enough replicas.");
-          return false;
-        }
-      }
+  private ReplicationWork chooseReplicationSource(Block block, int priority,
+      Map<DatanodeDescriptor, Integer> batchStreams) {
+    // block should belong to a file
+    INodeFile fileINode = blocksMap.getINode(block);
+    // abandoned block or block reopened for append
+    if(fileINode == null || fileINode.isUnderConstruction()) { 
+      neededReplications.remove(block, priority); // remove from neededReplications
+      replIndex--;
+      return null;
     }
+    int requiredReplication = fileINode.getReplication(); 
 
-    // choose replication targets: NOT HODING THE GLOBAL LOCK
-    DatanodeDescriptor targets[] = replicator.chooseTarget(
-        requiredReplication - numEffectiveReplicas,
-        srcNode, containingNodes, null, block.getNumBytes());
-    if(targets.length == 0)
-      return false;
+    // get a source data-node
+    List<DatanodeDescriptor> containingNodes =
+      new ArrayList<DatanodeDescriptor>();
+    NumberReplicas numReplicas = new NumberReplicas();
+    DatanodeDescriptor srcNode = chooseSourceDatanode(block, containingNodes,
+        numReplicas, getReplicationStreamsLimit(priority), batchStreams);
+    if ((numReplicas.liveReplicas() + numReplicas.decommissionedReplicas())
+        <= 0) {          
+      missingBlocksInCurIter++;
+    }
+    if(srcNode == null) // block can not be replicated from any node
+      return null;
 
-    synchronized (this) {
-      synchronized (neededReplications) {
-        // Recheck since global lock was released
-        // block should belong to a file
-        INodeFile fileINode = blocksMap.getINode(block);
-        // abandoned block or block reopened for append
-        if(fileINode == null || fileINode.isUnderConstruction()) { 
-          neededReplications.remove(block, priority); // remove from neededReplications
-          replIndex--;
-          return false;
-        }
-        requiredReplication = fileINode.getReplication(); 
-
-        // do not schedule more if enough replicas is already pending
-        NumberReplicas numReplicas = countNodes(block);
-        numEffectiveReplicas = numReplicas.liveReplicas() +
-        pendingReplications.getNumReplicas(block);
-        if(numEffectiveReplicas >= requiredReplication) {
-          neededReplications.remove(block, priority); // remove from neededReplications
-          replIndex--;
-          NameNode.stateChangeLog.info("BLOCK* "
-              + "Removing block " + block
-              + " from neededReplications as it has enough replicas.");
-          return false;
-        }
+    // do not schedule more if enough replicas is already pending
+    int numEffectiveReplicas = numReplicas.liveReplicas() +
+                            pendingReplications.getNumReplicas(block);
+    if(numEffectiveReplicas >= requiredReplication) {
+      neededReplications.remove(block, priority); // remove from neededReplications
+      replIndex--;
+      NameNode.stateChangeLog.info("BLOCK* "
+          + "Removing block " + block
+          + " from neededReplications as it has enough replicas.");
+      return null;
+    }
 
-        // Add block to the to be replicated list
-        srcNode.addBlockToBeReplicated(block, targets);
+    Integer streams = batchStreams.get(srcNode);
+    batchStreams.put(srcNode, streams == null ? 1 : streams + 1);
+    return new ReplicationWork(block, priority, srcNode, containingNodes,
+        requiredReplication - numEffectiveReplicas);
+  }
+
+  /**
+   * Schedule the transfer of a block to the targets chosen for it.
+   * Should be called with the global lock and the lock of 
+   * {@link #neededReplications} held.
+   * 
+   * @return if the block gets replicated or not
+   */
+  private boolean scheduleReplication(ReplicationWork rw) {
+    Block block = rw.block;
+    int priority = rw.priority;
+    DatanodeDescriptor srcNode = rw.srcNode;
+    DatanodeDescriptor[] targets = rw.targets;
+
+    // Recheck since global lock was released
+    // block should belong to a file
+    INodeFile fileINode = blocksMap.getINode(block);
+    // abandoned block or block reopened for append
+    if(fileINode == null || fileINode.isUnderConstruction()) { 
+      neededReplications.remove(block, priority); // remove from neededReplications
+      replIndex--;
+      return false;
+    }
+    int requiredReplication = fileINode.getReplication(); 
+
+    // do not schedule more if enough replicas is already pending
+    NumberReplicas numReplicas = countNodes(block);
+    int numEffectiveReplicas = numReplicas.liveReplicas() +
+    pendingReplications.getNumReplicas(block);
+    if(numEffectiveReplicas >= requiredReplication) {
+      neededReplications.remove(block, priority); // remove from neededReplications
+      replIndex--;
+      NameNode.stateChangeLog.info("BLOCK* "
+          + "Removing block " + block
+          + " from neededReplications as it has enough replicas.");
+      return false;
+    }
 
-        for (DatanodeDescriptor dn : targets) {
-          dn.incBlocksScheduled();
-        }
-        
-        // Move the block-replication into a "pending" state.
-        // The reason we use 'pending' is so we can retry
-        // replications that fail after an appropriate amount of time.
-        pendingReplications.add(block, targets.length);
-        NameNode.stateChangeLog.debug(
-            "BLOCK* block " + block
-            + " is moved from neededReplications to pendingReplications");
+    // Add block to the to be replicated list
+    srcNode.addBlockToBeReplicated(block, targets, priority == 0);
 
-        // remove from neededReplications
-        if(numEffectiveReplicas + targets.length >= requiredReplication) {
-          neededReplications.remove(block, priority); // remove from neededReplications
-          replIndex--;
-        }
-        if (NameNode.stateChangeLog.isInfoEnabled()) {
-          StringBuffer targetList = new StringBuffer("datanode(s)");
-          for (int k = 0; k < targets.length; k++) {
-            targetList.append(' ');
-            targetList.append(targets[k].getName());
-          }
-          NameNode.stateChangeLog.info(
-                    "BLOCK* ask "
-                    + srcNode.getName() + " to replicate "
-                    + block + " to " + targetList);
-          NameNode.stateChangeLog.debug(
-                    "BLOCK* neededReplications = " + neededReplications.size()
-                    + " pendingReplications = " + pendingReplications.size());
-        }
-      }
+    for (DatanodeDescriptor dn : targets) {
+      dn.incBlocksScheduled();
     }
     
+    // Move the block-replication into a "pending" state.
+    // The reason we use 'pending' is so we can retry
+    // replications that fail after an appropriate amount of time.
+    pendingReplications.add(block, srcNode, targets.length);
+    NameNode.stateChangeLog.debug(
+        "BLOCK* block " + block
+        + " is moved from neededReplications to pendingReplications");
+
+    // remove from neededReplications
+    if(numEffectiveReplicas + targets.length >= requiredReplication) {
+      neededReplications.remove(block, priority); // remove from neededReplications
+      replIndex--;
+    }
+    if (NameNode.stateChangeLog.isInfoEnabled()) {
+      StringBuffer targetList = new StringBuffer("datanode(s)");
+      for (int k = 0; k < targets.length; k++) {
+        targetList.append(' ');
+        targetList.append(targets[k].getName());
+      }
+      NameNode.stateChangeLog.info(
+                "BLOCK* ask "
+                + srcNode.getName() + " to replicate "
+                + block + " to " + targetList);
+    }
     return true;
   }
 
@@ -2591,6 +3079,26 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                                     Block block,
                                     List<DatanodeDescriptor> containingNodes,
                                     NumberReplicas numReplicas) {
+    return chooseSourceDatanode(block, containingNodes, numReplicas,
+                                maxReplicationStreams, null);
+  }
+
+  /**
+   * Choose the replication source of a block among the nodes whose
+   * pending transfers, queued or in progress, and counting the work
+   * given to them in the current batch, are below streamLimit.  A
+   * transfer is pending until its targets report the block or it times
+   * out.
+   * 
+   * @param batchStreams the streams given to each node in the current
+   *        batch of replication work, or null
+   */
+  private DatanodeDescriptor chooseSourceDatanode(
+                                    Block block,
+                                    List<DatanodeDescriptor> containingNodes,
+                                    NumberReplicas numReplicas,
+                                    int streamLimit,
+                                    Map<DatanodeDescriptor, Integer> batchStreams) {
     containingNodes.clear();
     DatanodeDescriptor srcNode = null;
     int live = 0;
@@ -2617,7 +3125,14 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
       // If so, do not select the node as src node
       if ((nodesCorrupt != null) && nodesCorrupt.contains(node))
         continue;
-      if(node.getNumberOfBlocksToBeReplicated() >= maxReplicationStreams)
+      int streams = node.getPendingTransfers();
+      if (batchStreams != null) {
+        Integer batched = batchStreams.get(node);
+        if (batched != null) {
+          streams += batched;
+        }
+      }
+      if(streams >= streamLimit)
         continue; // already reached replication limit
       // the block must not be scheduled for removal on srcNode
       if(excessBlocks != null && excessBlocks.contains(block))
@@ -2649,49 +3164,54 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * 
    * @return number of blocks scheduled for removal during this iteration.
    */
-  private synchronized int invalidateWorkForOneNode() {
-    // blocks should not be replicated or removed if safe mode is on
-    if (isInSafeMode())
-      return 0;
-    if(recentInvalidateSets.isEmpty())
-      return 0;
-    // get blocks to invalidate for the first node
-    String firstNodeId = recentInvalidateSets.keySet().iterator().next();
-    assert firstNodeId != null;
-    DatanodeDescriptor dn = datanodeMap.get(firstNodeId);
-    Collection<Block> invalidateSet = recentInvalidateSets.remove(firstNodeId);
+  private int invalidateWorkForOneNode() {
+    writeLock();
+    try {
+      // blocks should not be replicated or removed if safe mode is on
+      if (isInSafeMode())
+        return 0;
+      if(recentInvalidateSets.isEmpty())
+        return 0;
+      // get blocks to invalidate for the first node
+      String firstNodeId = recentInvalidateSets.keySet().iterator().next();
+      assert firstNodeId != null;
+      DatanodeDescriptor dn = datanodeMap.get(firstNodeId);
+      Collection<Block> invalidateSet = recentInvalidateSets.remove(firstNodeId);
  
-    if(invalidateSet == null || dn == null)
-      return 0;
+      if(invalidateSet == null || dn == null)
+        return 0;
 
-    ArrayList<Block> blocksToInvalidate = 
-      new ArrayList<Block>(blockInvalidateLimit);
+      ArrayList<Block> blocksToInvalidate = 
+        new ArrayList<Block>(blockInvalidateLimit);
 
-    // # blocks that can be sent in one message is limited
-    Iterator<Block> it = invalidateSet.iterator();
-    for(int blkCount = 0; blkCount < blockInvalidateLimit && it.hasNext();
-                                                                blkCount++) {
-      blocksToInvalidate.add(it.next());
-      it.remove();
-    }
+      // # blocks that can be sent in one message is limited
+      Iterator<Block> it = invalidateSet.iterator();
+      for(int blkCount = 0; blkCount < blockInvalidateLimit && it.hasNext();
+                                                                  blkCount++) {
+        blocksToInvalidate.add(it.next());
+        it.remove();
+      }
 
-    // If we could not send everything in this message, reinsert this item
-    // into the collection.
-    if(it.hasNext())
-      recentInvalidateSets.put(firstNodeId, invalidateSet);
+      // If we could not send everything in this message, reinsert this item
+      // into the collection.
+      if(it.hasNext())
+        recentInvalidateSets.put(firstNodeId, invalidateSet);
 
-    dn.addBlocksToBeInvalidated(blocksToInvalidate);
+      dn.addBlocksToBeInvalidated(blocksToInvalidate);
 
-    if(NameNode.stateChangeLog.isInfoEnabled()) {
-      StringBuffer blockList = new StringBuffer();
-      for(Block blk : blocksToInvalidate) {
-        blockList.append(' ');
-        blockList.append(blk);
+      if(NameNode.stateChangeLog.isInfoEnabled()) {
+        StringBuffer blockList = new StringBuffer();
+        for(Block blk : blocksToInvalidate) {
+          blockList.append(' ');
+          blockList.append(blk);
+        }
+        NameNode.stateChangeLog.info("BLOCK* ask "
+            + dn.getName() + " to delete " + blockList);
       }
-      NameNode.stateChangeLog.info("BLOCK* ask "
-          + dn.getName() + " to delete " + blockList);
+      return blocksToInvalidate.size();
+    } finally {
+      writeUnlock();
     }
-    return blocksToInvalidate.size();
   }
 
   public void setNodeReplicationLimit(int limit) {
@@ -2705,7 +3225,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
   void processPendingReplications() {
     Block[] timedOutItems = pendingReplications.getTimedOutBlocks();
     if (timedOutItems != null) {
-      synchronized (this) {
+      writeLock();
+      try {
         for (int i = 0; i < timedOutItems.length; i++) {
           NumberReplicas num = countNodes(timedOutItems[i]);
           neededReplications.add(timedOutItems[i], 
@@ -2713,6 +3234,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                                  num.decommissionedReplicas(),
                                  getReplication(timedOutItems[i]));
         }
+      } finally {
+        writeUnlock();
       }
       /* If we know the target datanodes where the replication timedout,
        * we could invoke decBlocksScheduled() on it. Its ok for now.
@@ -2724,14 +3247,19 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * remove a datanode descriptor
    * @param nodeID datanode ID
    */
-  synchronized public void removeDatanode(DatanodeID nodeID) 
+  public void removeDatanode(DatanodeID nodeID) 
     throws IOException {
-    DatanodeDescriptor nodeInfo = getDatanode(nodeID);
-    if (nodeInfo != null) {
-      removeDatanode(nodeInfo);
-    } else {
-      NameNode.stateChangeLog.warn("BLOCK* NameSystem.removeDatanode: "
-                                   + nodeID.getName() + " does not exist");
+    writeLock();
+    try {
+      DatanodeDescriptor nodeInfo = getDatanode(nodeID);
+      if (nodeInfo != null) {
+        removeDatanode(nodeInfo);
+      } else {
+        NameNode.stateChangeLog.warn("BLOCK* NameSystem.removeDatanode: "
+                                     + nodeID.getName() + " does not exist");
+      }
+    } finally {
+      writeUnlock();
     }
   }
   
@@ -2827,7 +3355,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
 
       // acquire the fsnamesystem lock, and then remove the dead node.
       if (foundDead) {
-        synchronized (this) {
+        writeLock();
+        try {
           synchronized(heartbeats) {
             synchronized (datanodeMap) {
               DatanodeDescriptor nodeInfo = null;
@@ -2843,6 +3372,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
               }
             }
           }
+        } finally {
+          writeUnlock();
         }
       }
       allAlive = !foundDead;
@@ -2853,49 +3384,54 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * The given node is reporting all its blocks.  Use this info to 
    * update the (machine-->blocklist) and (block-->machinelist) tables.
    */
-  public synchronized void processReport(DatanodeID nodeID, 
+  public void processReport(DatanodeID nodeID, 
                                          BlockListAsLongs newReport
                                         ) throws IOException {
-    long startTime = now();
-    if (NameNode.stateChangeLog.isDebugEnabled()) {
-      NameNode.stateChangeLog.debug("BLOCK* NameSystem.processReport: "
-                             + "from " + nodeID.getName()+" " + 
-                             newReport.getNumberOfBlocks()+" blocks");
-    }
-    DatanodeDescriptor node = getDatanode(nodeID);
-    if (node == null) {
-      throw new IOException("ProcessReport from unregisterted node: "
-                            + nodeID.getName());
-    }
+    writeLock();
+    try {
+      long startTime = now();
+      if (NameNode.stateChangeLog.isDebugEnabled()) {
+        NameNode.stateChangeLog.debug("BLOCK* NameSystem.processReport: "
+                               + "from " + nodeID.getName()+" " + 
+                               newReport.getNumberOfBlocks()+" blocks");
+      }
+      DatanodeDescriptor node = getDatanode(nodeID);
+      if (node == null) {
+        throw new IOException("ProcessReport from unregisterted node: "
+                              + nodeID.getName());
+      }
 
-    // Check if this datanode should actually be shutdown instead.
-    if (shouldNodeShutdown(node)) {
-      setDatanodeDead(node);
-      throw new DisallowedDatanodeException(node);
-    }
+      // Check if this datanode should actually be shutdown instead.
+      if (shouldNodeShutdown(node)) {
+        setDatanodeDead(node);
+        throw new DisallowedDatanodeException(node);
+      }
     
-    //
-    // Modify the (block-->datanode) map, according to the difference
-    // between the old and new block report.
-    //
-    Collection<Block> toAdd = new LinkedList<Block>();
-    Collection<Block> toRemove = new LinkedList<Block>();
-    Collection<Block> toInvalidate = new LinkedList<Block>();
-    node.reportDiff(blocksMap, newReport, toAdd, toRemove, toInvalidate);
+      //
+      // Modify the (block-->datanode) map, according to the difference
+      // between the old and new block report.
+      //
+      Collection<Block> toAdd = new LinkedList<Block>();
+      Collection<Block> toRemove = new LinkedList<Block>();
+      Collection<Block> toInvalidate = new LinkedList<Block>();
+      node.reportDiff(blocksMap, newReport, toAdd, toRemove, toInvalidate);
         
-    for (Block b : toRemove) {
-      removeStoredBlock(b, node);
-    }
-    for (Block b : toAdd) {
-      addStoredBlock(b, node, null);
-    }
-    for (Block b : toInvalidate) {
-      NameNode.stateChangeLog.info("BLOCK* NameSystem.processReport: block " 
-          + b + " on " + node.getName() + " size " + b.getNumBytes()
-          + " does not belong to any file.");
-      addToInvalidates(b, node);
+      for (Block b : toRemove) {
+        removeStoredBlock(b, node);
+      }
+      for (Block b : toAdd) {
+        addStoredBlock(b, node, null);
+      }
+      for (Block b : toInvalidate) {
+        NameNode.stateChangeLog.info("BLOCK* NameSystem.processReport: block " 
+            + b + " on " + node.getName() + " size " + b.getNumBytes()
+            + " does not belong to any file.");
+        addToInvalidates(b, node);
+      }
+      NameNode.getNameNodeMetrics().blockReport.inc((int) (now() - startTime));
+    } finally {
+      writeUnlock();
     }
-    NameNode.getNameNodeMetrics().blockReport.inc((int) (now() - startTime));
   }
 
   /**
@@ -2903,166 +3439,179 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * needed replications if this takes care of the problem.
    * @return the block that is stored in blockMap.
    */
-  synchronized Block addStoredBlock(Block block, 
+  Block addStoredBlock(Block block, 
                                     DatanodeDescriptor node,
                                     DatanodeDescriptor delNodeHint) {
-    BlockInfo storedBlock = blocksMap.getStoredBlock(block);
-    if(storedBlock == null || storedBlock.getINode() == null) {
-      // If this block does not belong to anyfile, then we are done.
-      NameNode.stateChangeLog.info("BLOCK* NameSystem.addStoredBlock: "
-                                   + "addStoredBlock request received for " 
-                                   + block + " on " + node.getName()
-                                   + " size " + block.getNumBytes()
-                                   + " But it does not belong to any file.");
-      // we could add this block to invalidate set of this datanode. 
-      // it will happen in next block report otherwise.
-      return block;      
-    }
+    writeLock();
+    try {
+      BlockInfo storedBlock = blocksMap.getStoredBlock(block);
+      if(storedBlock == null || storedBlock.getINode() == null) {
+        // If this block does not belong to anyfile, then we are done.
+        NameNode.stateChangeLog.info("BLOCK* NameSystem.addStoredBlock: "
+                                     + "addStoredBlock request received for " 
+                                     + block + " on " + node.getName()
+                                     + " size " + block.getNumBytes()
+                                     + " But it does not belong to any file.");
+        // we could add this block to invalidate set of this datanode. 
+        // it will happen in next block report otherwise.
+        return block;      
+      }
      
-    // add block to the data-node
-    boolean added = node.addBlock(storedBlock);
+      // add block to the data-node
+      boolean added = node.addBlock(storedBlock);
     
-    assert storedBlock != null : "Block must be stored by now";
-
-    if (block != storedBlock) {
-      if (block.getNumBytes() >= 0) {
-        long cursize = storedBlock.getNumBytes();
-        if (cursize == 0) {
-          storedBlock.setNumBytes(block.getNumBytes());
-        } else if (cursize != block.getNumBytes()) {
-          LOG.warn("Inconsistent size for block " + block + 
-                   " reported from " + node.getName() + 
-                   " current size is " + cursize +
-                   " reported size is " + block.getNumBytes());
-          try {
-            if (cursize > block.getNumBytes()) {
-              // new replica is smaller in size than existing block.
-              // Mark the new replica as corrupt.
-              LOG.warn("Mark new replica " + block + " from " + node.getName() + 
-                  "as corrupt because its length is shorter than existing ones");
-              markBlockAsCorrupt(block, node);
-            } else {
-              // new replica is larger in size than existing block.
-              // Mark pre-existing replicas as corrupt.
-              int numNodes = blocksMap.numNodes(block);
-              int count = 0;
-              DatanodeDescriptor nodes[] = new DatanodeDescriptor[numNodes];
-              Iterator<DatanodeDescriptor> it = blocksMap.nodeIterator(block);
-              for (; it != null && it.hasNext(); ) {
-                DatanodeDescriptor dd = it.next();
-                if (!dd.equals(node)) {
-                  nodes[count++] = dd;
-                }
-              }
-              for (int j = 0; j < count; j++) {
-                LOG.warn("Mark existing replica " + block + " from " + node.getName() + 
-                " as corrupt because its length is shorter than the new one");
-                markBlockAsCorrupt(block, nodes[j]);
-              }
-              //
-              // change the size of block in blocksMap
-              //
-              storedBlock = blocksMap.getStoredBlock(block); //extra look up!
-              if (storedBlock == null) {
-                LOG.warn("Block " + block + 
-                   " reported from " + node.getName() + 
-                   " does not exist in blockMap. Surprise! Surprise!");
+      assert storedBlock != null : "Block must be stored by now";
+
+      if (block != storedBlock) {
+        if (block.getNumBytes() >= 0) {
+          long cursize = storedBlock.getNumBytes();
+          if (cursize == 0) {
+            INodeFile file = storedBlock.getINode();
+            long[] summary = file.summaryBeforeChange();
+            storedBlock.setNumBytes(block.getNumBytes());
+            file.summaryAfterChange(summary);
+          } else if (cursize != block.getNumBytes()) {
+            LOG.warn("Inconsistent size for block " + block + 
+                     " reported from " + node.getName() + 
+                     " current size is " + cursize +
+                     " reported size is " + block.getNumBytes());
+            try {
+              if (cursize > block.getNumBytes()) {
+                // new replica is smaller in size than existing block.
+                // Mark the new replica as corrupt.
+                LOG.warn("Mark new replica " + block + " from " + node.getName() + 
+                    "as corrupt because its length is shorter than existing ones");
+                markBlockAsCorrupt(block, node);
               } else {
-                storedBlock.setNumBytes(block.getNumBytes());
+                // new replica is larger in size than existing block.
+                // Mark pre-existing replicas as corrupt.
+                int numNodes = blocksMap.numNodes(block);
+                int count = 0;
+                DatanodeDescriptor nodes[] = new DatanodeDescriptor[numNodes];
+                Iterator<DatanodeDescriptor> it = blocksMap.nodeIterator(block);
+                for (; it != null && it.hasNext(); ) {
+                  DatanodeDescriptor dd = it.next();
+                  if (!dd.equals(node)) {
+                    nodes[count++] = dd;
+                  }
+                }
+                for (int j = 0; j < count; j++) {
+                  LOG.warn("Mark existing replica " + block + " from " + node.getName() + 
+                  " as corrupt because its length is shorter than the new one");
+                  markBlockAsCorrupt(block, nodes[j]);
+                }
+                //
+                // change the size of block in blocksMap
+                //
+                storedBlock = blocksMap.getStoredBlock(block); //extra look up!
+                if (storedBlock == null) {
+                  LOG.warn("Block " + block + 
+                     " reported from " + node.getName() + 
+                     " does not exist in blockMap. Surprise! Surprise!");
+                } else if (storedBlock.getINode() != null) {
+                  INodeFile file = storedBlock.getINode();
+                  long[] summary = file.summaryBeforeChange();
+                  storedBlock.setNumBytes(block.getNumBytes());
+                  file.summaryAfterChange(summary);
+                } else {
+                  storedBlock.setNumBytes(block.getNumBytes());
+                }
               }
+            } catch (IOException e) {
+              LOG.warn("Error in deleting bad block " + block + e);
             }
-          } catch (IOException e) {
-            LOG.warn("Error in deleting bad block " + block + e);
           }
-        }
         
-        //Updated space consumed if required.
-        INodeFile file = (storedBlock != null) ? storedBlock.getINode() : null;
-        long diff = (file == null) ? 0 :
-                    (file.getPreferredBlockSize() - storedBlock.getNumBytes());
+          //Updated space consumed if required.
+          INodeFile file = (storedBlock != null) ? storedBlock.getINode() : null;
+          long diff = (file == null) ? 0 :
+                      (file.getPreferredBlockSize() - storedBlock.getNumBytes());
         
-        if (diff > 0 && file.isUnderConstruction() &&
-            cursize < storedBlock.getNumBytes()) {
-          try {
-            String path = /* For finding parents */ 
-              leaseManager.findPath((INodeFileUnderConstruction)file);
-            dir.updateSpaceConsumed(path, 0, -diff*file.getReplication());
-          } catch (IOException e) {
-            LOG.warn("Unexpected exception while updating disk space : " +
-                     e.getMessage());
+          if (diff > 0 && file.isUnderConstruction() &&
+              cursize < storedBlock.getNumBytes()) {
+            try {
+              String path = /* For finding parents */ 
+                leaseManager.findPath((INodeFileUnderConstruction)file);
+              dir.updateSpaceConsumed(path, 0, -diff*file.getReplication());
+            } catch (IOException e) {
+              LOG.warn("Unexpected exception while updating disk space : " +
+                       e.getMessage());
+            }
           }
         }
+        block = storedBlock;
       }
-      block = storedBlock;
-    }
-    assert storedBlock == block : "Block must be stored by now";
+      assert storedBlock == block : "Block must be stored by now";
         
-    int curReplicaDelta = 0;
+      int curReplicaDelta = 0;
         
-    if (added) {
-      curReplicaDelta = 1;
-      // 
-      // At startup time, because too many new blocks come in
-      // they take up lots of space in the log file. 
-      // So, we log only when namenode is out of safemode.
-      //
-      if (!isInSafeMode()) {
-        NameNode.stateChangeLog.info("BLOCK* NameSystem.addStoredBlock: "
-                                      +"blockMap updated: "+node.getName()+" is added to "+block+" size "+block.getNumBytes());
+      if (added) {
+        curReplicaDelta = 1;
+        // 
+        // At startup time, because too many new blocks come in
+        // they take up lots of space in the log file. 
+        // So, we log only when namenode is out of safemode.
+        //
+        if (!isInSafeMode()) {
+          NameNode.stateChangeLog.info("BLOCK* NameSystem.addStoredBlock: "
+                                        +"blockMap updated: "+node.getName()+" is added to "+block+" size "+block.getNumBytes());
+        }
+      } else {
+        NameNode.stateChangeLog.warn("BLOCK* NameSystem.addStoredBlock: "
+                                     + "Redundant addStoredBlock request received for " 
+                                     + block + " on " + node.getName()
+                                     + " size " + block.getNumBytes());
       }
-    } else {
-      NameNode.stateChangeLog.warn("BLOCK* NameSystem.addStoredBlock: "
-                                   + "Redundant addStoredBlock request received for " 
-                                   + block + " on " + node.getName()
-                                   + " size " + block.getNumBytes());
-    }
 
-    // filter out containingNodes that are marked for decommission.
-    NumberReplicas num = countNodes(storedBlock);
-    int numLiveReplicas = num.liveReplicas();
-    int numCurrentReplica = numLiveReplicas
-      + pendingReplications.getNumReplicas(block);
+      // filter out containingNodes that are marked for decommission.
+      NumberReplicas num = countNodes(storedBlock);
+      int numLiveReplicas = num.liveReplicas();
+      int numCurrentReplica = numLiveReplicas
+        + pendingReplications.getNumReplicas(block);
 
-    // check whether safe replication is reached for the block
-    incrementSafeBlockCount(numCurrentReplica);
+      // check whether safe replication is reached for the block
+      incrementSafeBlockCount(numCurrentReplica);
  
-    //
-    // if file is being actively written to, then do not check 
-    // replication-factor here. It will be checked when the file is closed.
-    //
-    INodeFile fileINode = null;
-    fileINode = storedBlock.getINode();
-    if (fileINode.isUnderConstruction()) {
-      return block;
-    }
+      //
+      // if file is being actively written to, then do not check 
+      // replication-factor here. It will be checked when the file is closed.
+      //
+      INodeFile fileINode = null;
+      fileINode = storedBlock.getINode();
+      if (fileINode.isUnderConstruction()) {
+        return block;
+      }
 
-    // do not handle mis-replicated blocks during startup
-    if(isInSafeMode())
-      return block;
+      // do not handle mis-replicated blocks during startup
+      if(isInSafeMode())
+        return block;
 
-    // handle underReplication/overReplication
-    short fileReplication = fileINode.getReplication();
-    if (numCurrentReplica >= fileReplication) {
-      neededReplications.remove(block, numCurrentReplica, 
-                                num.decommissionedReplicas, fileReplication);
-    } else {
-      updateNeededReplications(block, curReplicaDelta, 0);
-    }
-    if (numCurrentReplica > fileReplication) {
-      processOverReplicatedBlock(block, fileReplication, node, delNodeHint);
-    }
-    // If the file replication has reached desired value
-    // we can remove any corrupt replicas the block may have
-    int corruptReplicasCount = corruptReplicas.numCorruptReplicas(block); 
-    int numCorruptNodes = num.corruptReplicas();
-    if ( numCorruptNodes != corruptReplicasCount) {
-      LOG.warn("Inconsistent number of corrupt replicas for " + 
-          block + "blockMap has " + numCorruptNodes + 
-          " but corrupt replicas map has " + corruptReplicasCount);
+      // handle underReplication/overReplication
+      short fileReplication = fileINode.getReplication();
+      if (numCurrentReplica >= fileReplication) {
+        neededReplications.remove(block, numCurrentReplica, 
+                                  num.decommissionedReplicas, fileReplication);
+      } else {
+        updateNeededReplications(block, curReplicaDelta, 0);
+      }
+      if (numCurrentReplica > fileReplication) {
+        processOverReplicatedBlock(block, fileReplication, node, delNodeHint);
+      }
+      // If the file replication has reached desired value
+      // we can remove any corrupt replicas the block may have
+      int corruptReplicasCount = corruptReplicas.numCorruptReplicas(block); 
+      int numCorruptNodes = num.corruptReplicas();
+      if ( numCorruptNodes != corruptReplicasCount) {
+        LOG.warn("Inconsistent number of corrupt replicas for " + 
+            block + "blockMap has " + numCorruptNodes + 
+            " but corrupt replicas map has " + corruptReplicasCount);
+      }
+      if ((corruptReplicasCount > 0) && (numLiveReplicas >= fileReplication)) 
+        invalidateCorruptReplicas(block);
+      return block;
+    } finally {
+      writeUnlock();
     }
-    if ((corruptReplicasCount > 0) && (numLiveReplicas >= fileReplication)) 
-      invalidateCorruptReplicas(block);
-    return block;
   }
 
   /**
@@ -3103,39 +3652,44 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * For each block in the name-node verify whether it belongs to any file,
    * over or under replicated. Place it into the respective queue.
    */
-  private synchronized void processMisReplicatedBlocks() {
-    long nrInvalid = 0, nrOverReplicated = 0, nrUnderReplicated = 0;
-    neededReplications.clear();
-    for(BlocksMap.BlockInfo block : blocksMap.getBlocks()) {
-      INodeFile fileINode = block.getINode();
-      if(fileINode == null) {
-        // block does not belong to any file
-        nrInvalid++;
-        addToInvalidates(block);
-        continue;
-      }
-      // calculate current replication
-      short expectedReplication = fileINode.getReplication();
-      NumberReplicas num = countNodes(block);
-      int numCurrentReplica = num.liveReplicas();
-      // add to under-replicated queue if need to be
-      if (neededReplications.add(block, 
-                                 numCurrentReplica,
-                                 num.decommissionedReplicas(),
-                                 expectedReplication)) {
-        nrUnderReplicated++;
-      }
+  private void processMisReplicatedBlocks() {
+    writeLock();
+    try {
+      long nrInvalid = 0, nrOverReplicated = 0, nrUnderReplicated = 0;
+      neededReplications.clear();
+      for(BlocksMap.BlockInfo block : blocksMap.getBlocks()) {
+        INodeFile fileINode = block.getINode();
+        if(fileINode == null) {
+          // block does not belong to any file
+          nrInvalid++;
+          addToInvalidates(block);
+          continue;
+        }
+        // calculate current replication
+        short expectedReplication = fileINode.getReplication();
+        NumberReplicas num = countNodes(block);
+        int numCurrentReplica = num.liveReplicas();
+        // add to under-replicated queue if need to be
+        if (neededReplications.add(block, 
+                                   numCurrentReplica,
+                                   num.decommissionedReplicas(),
+                                   expectedReplication)) {
+          nrUnderReplicated++;
+        }
 
-      if (numCurrentReplica > expectedReplication) {
-        // over-replicated block
-        nrOverReplicated++;
-        processOverReplicatedBlock(block, expectedReplication, null, null);
+        if (numCurrentReplica > expectedReplication) {
+          // over-replicated block
+          nrOverReplicated++;
+          processOverReplicatedBlock(block, expectedReplication, null, null);
+        }
       }
+      LOG.info("Total number of blocks = " + blocksMap.size());
+      LOG.info("Number of invalid blocks = " + nrInvalid);
+      LOG.info("Number of under-replicated blocks = " + nrUnderReplicated);
+      LOG.info("Number of  over-replicated blocks = " + nrOverReplicated);
+    } finally {
+      writeUnlock();
     }
-    LOG.info("Total number of blocks = " + blocksMap.size());
-    LOG.info("Number of invalid blocks = " + nrInvalid);
-    LOG.info("Number of under-replicated blocks = " + nrUnderReplicated);
-    LOG.info("Number of  over-replicated blocks = " + nrOverReplicated);
   }
 
   /**
@@ -3289,73 +3843,92 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * Modify (block-->datanode) map.  Possibly generate 
    * replication tasks, if the removed block is still valid.
    */
-  synchronized void removeStoredBlock(Block block, DatanodeDescriptor node) {
-    NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
-                                  +block + " from "+node.getName());
-    if (!blocksMap.removeNode(block, node)) {
+  void removeStoredBlock(Block block, DatanodeDescriptor node) {
+    writeLock();
+    try {
       NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
-                                    +block+" has already been removed from node "+node);
-      return;
-    }
+                                    +block + " from "+node.getName());
+      if (!blocksMap.removeNode(block, node)) {
+        NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
+                                      +block+" has already been removed from node "+node);
+        return;
+      }
         
-    //
-    // It's possible that the block was removed because of a datanode
-    // failure.  If the block is still valid, check if replication is
-    // necessary.  In that case, put block on a possibly-will-
-    // be-replicated list.
-    //
-    INode fileINode = blocksMap.getINode(block);
-    if (fileINode != null) {
-      decrementSafeBlockCount(block);
-      updateNeededReplications(block, -1, 0);
-    }
+      //
+      // It's possible that the block was removed because of a datanode
+      // failure.  If the block is still valid, check if replication is
+      // necessary.  In that case, put block on a possibly-will-
+      // be-replicated list.
+      //
+      INode fileINode = blocksMap.getINode(block);
+      if (fileINode != null) {
+        decrementSafeBlockCount(block);
+        updateNeededReplications(block, -1, 0);
+      }
 
-    //
-    // We've removed a block from a node, so it's definitely no longer
-    // in "excess" there.
-    //
-    Collection<Block> excessBlocks = excessReplicateMap.get(node.getStorageID());
-    if (excessBlocks != null) {
-      excessBlocks.remove(block);
-      NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
-                                    +block+" is removed from excessBlocks");
-      if (excessBlocks.size() == 0) {
-        excessReplicateMap.remove(node.getStorageID());
+      //
+      // We've removed a block from a node, so it's definitely no longer
+      // in "excess" there.
+      //
+      Collection<Block> excessBlocks = excessReplicateMap.get(node.getStorageID());
+      if (excessBlocks != null) {
+        excessBlocks.remove(block);
+        NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
+                                      +block+" is removed from excessBlocks");
+        if (excessBlocks.size() == 0) {
+          excessReplicateMap.remove(node.getStorageID());
+        }
       }
-    }
     
-    // Remove the replica from corruptReplicas
-    corruptReplicas.removeFromCorruptReplicasMap(block, node);
+      // Remove the replica from corruptReplicas
+      corruptReplicas.removeFromCorruptReplicasMap(block, node);
+    } finally {
+      writeUnlock();
+    }
   }
 
   /**
    * The given node is reporting that it received a certain block.
    */
-  public synchronized void blockReceived(DatanodeID nodeID,  
+  public void blockReceived(DatanodeID nodeID,  
                                          Block block,
                                          String delHint
                                          ) throws IOException {
-    DatanodeDescriptor node = getDatanode(nodeID);
-    if (node == null) {
-      NameNode.stateChangeLog.warn("BLOCK* NameSystem.blockReceived: "
-                                   + block + " is received from an unrecorded node " 
-                                   + nodeID.getName());
-      throw new IllegalArgumentException(
-                                         "Unexpected exception.  Got blockReceived message from node " 
-                                         + block + ", but there is no info for it");
-    }
+    writeLock();
+    try {
+      DatanodeDescriptor node = getDatanode(nodeID);
+      if (node == null) {
+        NameNode.stateChangeLog.warn("BLOCK* NameSystem.blockReceived: "
+                                     + block + " is received from an unrecorded node " 
+                                     + nodeID.getName());
+        throw new IllegalArgumentException(
+                                           "Unexpected exception.  Got blockReceived message from node " 
+                                           + block + ", but there is no info for it");
+      }
         
-    if (NameNode.stateChangeLog.isDebugEnabled()) {
-      NameNode.stateChangeLog.debug("BLOCK* NameSystem.blockReceived: "
-                                    +block+" is received from " + nodeID.getName());
-    }
+      if (NameNode.stateChangeLog.isDebugEnabled()) {
+        NameNode.stateChangeLog.debug("BLOCK* NameSystem.blockReceived: "
+                                      +block+" is received from " + nodeID.getName());
+      }
+
+      // Check if this datanode should actually be shutdown instead.
+      if (shouldNodeShutdown(node)) {
+        setDatanodeDead(node);
+        throw new DisallowedDatanodeException(node);
+      }
 
-    // Check if this datanode should actually be shutdown instead.
-    if (shouldNodeShutdown(node)) {
-      setDatanodeDead(node);
-      throw new DisallowedDatanodeException(node);
+      addReceivedBlock(node, block, delHint);
+    } finally {
+      writeUnlock();
     }
+  }
 
+  /**
+   * Record a block received by the given node.
+   */
+  private void addReceivedBlock(DatanodeDescriptor node,
+                                Block block,
+                                String delHint) {
     // decrement number of blocks scheduled to this datanode.
     node.decBlocksScheduled();
     
@@ -3378,6 +3951,56 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     addStoredBlock(block, node, delHintNode );
   }
 
+  /**
+   * The given node is reporting the blocks it received and deleted
+   * since its previous report. The whole report is processed under
+   * one acquisition of the namespace lock.
+   */
+  public void processIncrementalBlockReport(DatanodeID nodeID,
+                                            Block receivedBlocks[],
+                                            String delHints[],
+                                            Block deletedBlocks[]
+                                            ) throws IOException {
+    writeLock();
+    try {
+      long startTime = now();
+      DatanodeDescriptor node = getDatanode(nodeID);
+      if (node == null) {
+        throw new IOException("Incremental block report from unregistered "
+                              + "node: " + nodeID.getName());
+      }
+
+      // Check if this datanode should actually be shutdown instead.
+      if (shouldNodeShutdown(node)) {
+        setDatanodeDead(node);
+        throw new DisallowedDatanodeException(node);
+      }
+
+      for (Block b : deletedBlocks) {
+        if (NameNode.stateChangeLog.isDebugEnabled()) {
+          NameNode.stateChangeLog.debug("BLOCK* NameSystem."
+              + "processIncrementalBlockReport: " + b + " is deleted from "
+              + nodeID.getName());
+        }
+        if (blocksMap.contains(b, node)) {
+          removeStoredBlock(b, node);
+        }
+      }
+      for (int i = 0; i < receivedBlocks.length; i++) {
+        if (NameNode.stateChangeLog.isDebugEnabled()) {
+          NameNode.stateChangeLog.debug("BLOCK* NameSystem."
+              + "processIncrementalBlockReport: " + receivedBlocks[i]
+              + " is received by " + nodeID.getName());
+        }
+        addReceivedBlock(node, receivedBlocks[i], delHints[i]);
+      }
+      NameNode.getNameNodeMetrics().incrementalBlockReport.inc(
+          (int) (now() - startTime));
+    } finally {
+      writeUnlock();
+    }
+  }
+
   public long getMissingBlocksCount() {
     // not locking
     return Math.max(missingBlocksInPrevIter, missingBlocksInCurIter); 
@@ -3468,70 +4091,80 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     return getDatanodeListForReport(type).size(); 
   }
 
-  private synchronized ArrayList<DatanodeDescriptor> getDatanodeListForReport(
+  private ArrayList<DatanodeDescriptor> getDatanodeListForReport(
                                                       DatanodeReportType type) {                  
+    readLock();
+    try {
     
-    boolean listLiveNodes = type == DatanodeReportType.ALL ||
-                            type == DatanodeReportType.LIVE;
-    boolean listDeadNodes = type == DatanodeReportType.ALL ||
-                            type == DatanodeReportType.DEAD;
+      boolean listLiveNodes = type == DatanodeReportType.ALL ||
+                              type == DatanodeReportType.LIVE;
+      boolean listDeadNodes = type == DatanodeReportType.ALL ||
+                              type == DatanodeReportType.DEAD;
 
-    HashMap<String, String> mustList = new HashMap<String, String>();
+      HashMap<String, String> mustList = new HashMap<String, String>();
     
-    if (listDeadNodes) {
-      //first load all the nodes listed in include and exclude files.
-      for (Iterator<String> it = hostsReader.getHosts().iterator(); 
-           it.hasNext();) {
-        mustList.put(it.next(), "");
-      }
-      for (Iterator<String> it = hostsReader.getExcludedHosts().iterator(); 
-           it.hasNext();) {
-        mustList.put(it.next(), "");
+      if (listDeadNodes) {
+        //first load all the nodes listed in include and exclude files.
+        for (Iterator<String> it = hostsReader.getHosts().iterator(); 
+             it.hasNext();) {
+          mustList.put(it.next(), "");
+        }
+        for (Iterator<String> it = hostsReader.getExcludedHosts().iterator(); 
+             it.hasNext();) {
+          mustList.put(it.next(), "");
+        }
       }
-    }
    
-    ArrayList<DatanodeDescriptor> nodes = null;
+      ArrayList<DatanodeDescriptor> nodes = null;
     
-    synchronized (datanodeMap) {
-      nodes = new ArrayList<DatanodeDescriptor>(datanodeMap.size() + 
-                                                mustList.size());
+      synchronized (datanodeMap) {
+        nodes = new ArrayList<DatanodeDescriptor>(datanodeMap.size() + 
+                                                  mustList.size());
       
-      for(Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator(); 
-                                                               it.hasNext();) {
-        DatanodeDescriptor dn = it.next();
-        boolean isDead = isDatanodeDead(dn);
-        if ( (isDead && listDeadNodes) || (!isDead && listLiveNodes) ) {
-          nodes.add(dn);
+        for(Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator(); 
+                                                                 it.hasNext();) {
+          DatanodeDescriptor dn = it.next();
+          boolean isDead = isDatanodeDead(dn);
+          if ( (isDead && listDeadNodes) || (!isDead && listLiveNodes) ) {
+            nodes.add(dn);
+          }
+          //Remove any form of the this datanode in include/exclude lists.
+          mustList.remove(dn.getName());
+          mustList.remove(dn.getHost());
+          mustList.remove(dn.getHostName());
         }
-        //Remove any form of the this datanode in include/exclude lists.
-        mustList.remove(dn.getName());
-        mustList.remove(dn.getHost());
-        mustList.remove(dn.getHostName());
       }
-    }
     
-    if (listDeadNodes) {
-      for (Iterator<String> it = mustList.keySet().iterator(); it.hasNext();) {
-        DatanodeDescriptor dn = 
-            new DatanodeDescriptor(new DatanodeID(it.next()));
-        dn.setLastUpdate(0);
-        nodes.add(dn);
+      if (listDeadNodes) {
+        for (Iterator<String> it = mustList.keySet().iterator(); it.hasNext();) {
+          DatanodeDescriptor dn = 
+              new DatanodeDescriptor(new DatanodeID(it.next()));
+          dn.setLastUpdate(0);
+          nodes.add(dn);
+        }
       }
-    }
     
-    return nodes;
+      return nodes;
+    } finally {
+      readUnlock();
+    }
   }
 
-  public synchronized DatanodeInfo[] datanodeReport( DatanodeReportType type
+  public DatanodeInfo[] datanodeReport( DatanodeReportType type
       ) throws AccessControlException {
-    checkSuperuserPrivilege();
+    readLock();
+    try {
+      checkSuperuserPrivilege();
 
-    ArrayList<DatanodeDescriptor> results = getDatanodeListForReport(type);
-    DatanodeInfo[] arr = new DatanodeInfo[results.size()];
-    for (int i=0; i<arr.length; i++) {
-      arr[i] = new DatanodeInfo(results.get(i));
+      ArrayList<DatanodeDescriptor> results = getDatanodeListForReport(type);
+      DatanodeInfo[] arr = new DatanodeInfo[results.size()];
+      for (int i=0; i<arr.length; i++) {
+        arr[i] = new DatanodeInfo(results.get(i));
+      }
+      return arr;
+    } finally {
+      readUnlock();
     }
-    return arr;
   }
 
   /**
@@ -3542,42 +4175,57 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * @throws AccessControlException if superuser privilege is violated.
    * @throws IOException if 
    */
-  synchronized void saveNamespace() throws AccessControlException, IOException {
-    checkSuperuserPrivilege();
-    if(!isInSafeMode()) {
-      throw new IOException("Safe mode should be turned ON " +
-                            "in order to create namespace image.");
+  void saveNamespace() throws AccessControlException, IOException {
+    writeLock();
+    try {
+      checkSuperuserPrivilege();
+      if(!isInSafeMode()) {
+        throw new IOException("Safe mode should be turned ON " +
+                              "in order to create namespace image.");
+      }
+      getFSImage().saveFSImage();
+      LOG.info("New namespace image has been created.");
+    } finally {
+      writeUnlock();
     }
-    getFSImage().saveFSImage();
-    LOG.info("New namespace image has been created.");
   }
 
   /**
    */
-  public synchronized void DFSNodesStatus(ArrayList<DatanodeDescriptor> live, 
+  public void DFSNodesStatus(ArrayList<DatanodeDescriptor> live, 
                                           ArrayList<DatanodeDescriptor> dead) {
+    readLock();
+    try {
 
-    ArrayList<DatanodeDescriptor> results = 
-                            getDatanodeListForReport(DatanodeReportType.ALL);    
-    for(Iterator<DatanodeDescriptor> it = results.iterator(); it.hasNext();) {
-      DatanodeDescriptor node = it.next();
-      if (isDatanodeDead(node))
-        dead.add(node);
-      else
-        live.add(node);
+      ArrayList<DatanodeDescriptor> results = 
+                              getDatanodeListForReport(DatanodeReportType.ALL);    
+      for(Iterator<DatanodeDescriptor> it = results.iterator(); it.hasNext();) {
+        DatanodeDescriptor node = it.next();
+        if (isDatanodeDead(node))
+          dead.add(node);
+        else
+          live.add(node);
+      }
+    } finally {
+      readUnlock();
     }
   }
 
   /**
    * Prints information about all datanodes.
    */
-  private synchronized void datanodeDump(PrintWriter out) {
-    synchronized (datanodeMap) {
-      out.println("Metasave: Number of datanodes: " + datanodeMap.size());
-      for(Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator(); it.hasNext();) {
-        DatanodeDescriptor node = it.next();
-        out.println(node.dumpDatanode());
+  private void datanodeDump(PrintWriter out) {
+    readLock();
+    try {
+      synchronized (datanodeMap) {
+        out.println("Metasave: Number of datanodes: " + datanodeMap.size());
+        for(Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator(); it.hasNext();) {
+          DatanodeDescriptor node = it.next();
+          out.println(node.dumpDatanode());
+        }
       }
+    } finally {
+      readUnlock();
     }
   }
 
@@ -3807,7 +4455,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     hostsReader.updateFileNames(conf.get("dfs.hosts",""), 
                                 conf.get("dfs.hosts.exclude", ""));
     hostsReader.refresh();
-    synchronized (this) {
+    writeLock();
+    try {
       for (Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator();
            it.hasNext();) {
         DatanodeDescriptor node = it.next();
@@ -3828,7 +4477,9 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
           }
         }
       }
-    } 
+    } finally {
+      writeUnlock();
+    }
       
   }
     
@@ -3845,22 +4496,27 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * Returns TRUE if node is registered (including when it is on the 
    * exclude list and is being decommissioned). 
    */
-  private synchronized boolean verifyNodeRegistration(DatanodeRegistration nodeReg, String ipAddr) 
+  private boolean verifyNodeRegistration(DatanodeRegistration nodeReg, String ipAddr) 
     throws IOException {
-    if (!inHostsList(nodeReg, ipAddr)) {
-      return false;    
-    }
-    if (inExcludedHostsList(nodeReg, ipAddr)) {
-      DatanodeDescriptor node = getDatanode(nodeReg);
-      if (node == null) {
-        throw new IOException("verifyNodeRegistration: unknown datanode " +
-                              nodeReg.getName());
-      }
-      if (!checkDecommissionStateInternal(node)) {
-        startDecommission(node);
+    writeLock();
+    try {
+      if (!inHostsList(nodeReg, ipAddr)) {
+        return false;    
       }
-    } 
-    return true;
+      if (inExcludedHostsList(nodeReg, ipAddr)) {
+        DatanodeDescriptor node = getDatanode(nodeReg);
+        if (node == null) {
+          throw new IOException("verifyNodeRegistration: unknown datanode " +
+                                nodeReg.getName());
+        }
+        if (!checkDecommissionStateInternal(node)) {
+          startDecommission(node);
+        }
+      } 
+      return true;
+    } finally {
+      writeUnlock();
+    }
   }
     
   /**
@@ -4342,29 +4998,39 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * Enter safe mode manually.
    * @throws IOException
    */
-  synchronized void enterSafeMode() throws IOException {
-    if (!isInSafeMode()) {
-      safeMode = new SafeModeInfo();
-      return;
+  void enterSafeMode() throws IOException {
+    writeLock();
+    try {
+      if (!isInSafeMode()) {
+        safeMode = new SafeModeInfo();
+        return;
+      }
+      safeMode.setManual();
+      NameNode.stateChangeLog.info("STATE* Safe mode is ON. " 
+                                  + safeMode.getTurnOffTip());
+    } finally {
+      writeUnlock();
     }
-    safeMode.setManual();
-    NameNode.stateChangeLog.info("STATE* Safe mode is ON. " 
-                                + safeMode.getTurnOffTip());
   }
 
   /**
    * Leave safe mode.
    * @throws IOException
    */
-  synchronized void leaveSafeMode(boolean checkForUpgrades) throws SafeModeException {
-    if (!isInSafeMode()) {
-      NameNode.stateChangeLog.info("STATE* Safe mode is already OFF."); 
-      return;
+  void leaveSafeMode(boolean checkForUpgrades) throws SafeModeException {
+    writeLock();
+    try {
+      if (!isInSafeMode()) {
+        NameNode.stateChangeLog.info("STATE* Safe mode is already OFF."); 
+        return;
+      }
+      if(getDistributedUpgradeState())
+        throw new SafeModeException("Distributed upgrade is in progress",
+                                    safeMode);
+      safeMode.leave(checkForUpgrades);
+    } finally {
+      writeUnlock();
     }
-    if(getDistributedUpgradeState())
-      throw new SafeModeException("Distributed upgrade is in progress",
-                                  safeMode);
-    safeMode.leave(checkForUpgrades);
   }
     
   String getSafeModeTip() {
@@ -4377,22 +5043,32 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     return getEditLog().getEditLogSize();
   }
 
-  synchronized CheckpointSignature rollEditLog() throws IOException {
-    if (isInSafeMode()) {
-      throw new SafeModeException("Checkpoint not created",
-                                  safeMode);
+  CheckpointSignature rollEditLog() throws IOException {
+    writeLock();
+    try {
+      if (isInSafeMode()) {
+        throw new SafeModeException("Checkpoint not created",
+                                    safeMode);
+      }
+      LOG.info("Roll Edit Log from " + Server.getRemoteAddress());
+      return getFSImage().rollEditLog();
+    } finally {
+      writeUnlock();
     }
-    LOG.info("Roll Edit Log from " + Server.getRemoteAddress());
-    return getFSImage().rollEditLog();
   }
 
-  synchronized void rollFSImage() throws IOException {
-    if (isInSafeMode()) {
-      throw new SafeModeException("Checkpoint not created",
-                                  safeMode);
+  void rollFSImage() throws IOException {
+    writeLock();
+    try {
+      if (isInSafeMode()) {
+        throw new SafeModeException("Checkpoint not created",
+                                    safeMode);
+      }
+      LOG.info("Roll FSImage from " + Server.getRemoteAddress());
+      getFSImage().rollFSImage();
+    } finally {
+      writeUnlock();
     }
-    LOG.info("Roll FSImage from " + Server.getRemoteAddress());
-    getFSImage().rollFSImage();
   }
 
   /**
@@ -4480,8 +5156,13 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         fsOwner.getUserName(), supergroup);
     if (!pc.isSuper) {
       dir.waitForReady();
-      pc.checkPermission(path, dir.rootDir, doCheckOwner,
-          ancestorAccess, parentAccess, access, subAccess);
+      dir.readLock();
+      try {
+        pc.checkPermission(path, dir.rootDir, doCheckOwner,
+            ancestorAccess, parentAccess, access, subAccess);
+      } finally {
+        dir.readUnlock();
+      }
     }
     return pc;
   }
@@ -4631,25 +5312,30 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
    * Verifies that the block is associated with a file that has a lease.
    * Increments, logs and then returns the stamp
    */
-  synchronized long nextGenerationStampForBlock(Block block) throws IOException {
-    BlockInfo storedBlock = blocksMap.getStoredBlock(block);
-    if (storedBlock == null) {
-      String msg = block + " is already commited, storedBlock == null.";
-      LOG.info(msg);
-      throw new IOException(msg);
-    }
-    INodeFile fileINode = storedBlock.getINode();
-    if (!fileINode.isUnderConstruction()) {
-      String msg = block + " is already commited, !fileINode.isUnderConstruction().";
-      LOG.info(msg);
-      throw new IOException(msg);
-    }
-    if (!((INodeFileUnderConstruction)fileINode).setLastRecoveryTime(now())) {
-      String msg = block + " is beening recovered, ignoring this request.";
-      LOG.info(msg);
-      throw new IOException(msg);
-    }
-    return nextGenerationStamp();
+  long nextGenerationStampForBlock(Block block) throws IOException {
+    writeLock();
+    try {
+      BlockInfo storedBlock = blocksMap.getStoredBlock(block);
+      if (storedBlock == null) {
+        String msg = block + " is already commited, storedBlock == null.";
+        LOG.info(msg);
+        throw new IOException(msg);
+      }
+      INodeFile fileINode = storedBlock.getINode();
+      if (!fileINode.isUnderConstruction()) {
+        String msg = block + " is already commited, !fileINode.isUnderConstruction().";
+        LOG.info(msg);
+        throw new IOException(msg);
+      }
+      if (!((INodeFileUnderConstruction)fileINode).setLastRecoveryTime(now())) {
+        String msg = block + " is beening recovered, ignoring this request.";
+        LOG.info(msg);
+        throw new IOException(msg);
+      }
+      return nextGenerationStamp();
+    } finally {
+      writeUnlock();
+    }
   }
 
   // rename was successful. If any part of the renamed subtree had
@@ -18,8 +18,8 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.FileNotFoundException;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.apache.hadoop.fs.permission.FsAction;
@@ -34,7 +34,19 @@ class INodeDirectory extends INode {
   protected static final int DEFAULT_FILES_PER_DIRECTORY = 5;
   final static String ROOT_NAME = "";
 
-  private List<INode> children;
+  /**
+   * Children sorted by name. Only the first {@link #numChildren} slots
+   * are used; a plain array avoids the per-directory list object.
+   */
+  private INode[] children;
+  private int numChildren;
+  /**
+   * The content summary of the subtree rooted at this directory, laid out
+   * like {@link #computeContentSummary(long[])}, if it is maintained;
+   * null otherwise.  It is maintained either for every directory or for
+   * none: see {@link #initSummary()}.
+   */
+  private long[] summary;
 
   INodeDirectory(String name, PermissionStatus permissions) {
     super(name, permissions);
@@ -58,7 +70,13 @@ class INodeDirectory extends INode {
    */
   INodeDirectory(INodeDirectory other) {
     super(other);
-    this.children = other.getChildren();
+    this.children = other.children;
+    this.numChildren = other.numChildren;
+    this.summary = other.summary;
+    // this node replaces other in the tree, so the children are adopted
+    for (int i = 0; i < numChildren; i++) {
+      children[i].parent = this;
+    }
   }
   
   /**
@@ -70,9 +88,16 @@ class INodeDirectory extends INode {
 
   INode removeChild(INode node) {
     assert children != null;
-    int low = Collections.binarySearch(children, node.name);
+    int low = searchChildren(node.name);
     if (low >= 0) {
-      return children.remove(low);
+      INode removed = children[low];
+      numChildren--;
+      System.arraycopy(children, low + 1, children, low, numChildren - low);
+      children[numChildren] = null;
+      if (summary != null) {
+        updateSummaryInTree(removed.computeContentSummary(new long[4]), -1);
+      }
+      return removed;
     } else {
       return null;
     }
@@ -86,9 +111,9 @@ class INodeDirectory extends INode {
     if ( children == null ) {
       throw new IllegalArgumentException("The directory is empty");
     }
-    int low = Collections.binarySearch(children, newChild.name);
+    int low = searchChildren(newChild.name);
     if (low>=0) { // an old child exists so replace by the newChild
-      children.set(low, newChild);
+      children[low] = newChild;
     } else {
       throw new IllegalArgumentException("No child exists to be replaced");
     }
@@ -102,13 +127,47 @@ class INodeDirectory extends INode {
     if (children == null) {
       return null;
     }
-    int low = Collections.binarySearch(children, name);
+    int low = searchChildren(name);
     if (low >= 0) {
-      return children.get(low);
+      return children[low];
     }
     return null;
   }
 
+  /**
+   * @return the index of the first child whose name is after the given
+   *         name; 0 for the empty name
+   */
+  int nextChild(byte[] name) {
+    if (name.length == 0) {
+      return 0;
+    }
+    int index = searchChildren(name);
+    return index >= 0 ? index + 1 : -(index + 1);
+  }
+
+  /**
+   * Binary search for a child by name.
+   * @return the index of the child if it exists;
+   *         otherwise (-(insertion point) - 1)
+   */
+  private int searchChildren(byte[] name) {
+    int low = 0;
+    int high = numChildren - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = children[mid].compareTo(name);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
   /**
    */
   private INode getNode(byte[][] components) {
@@ -211,6 +270,22 @@ class INodeDirectory extends INode {
    *          node, otherwise
    */
   <T extends INode> T addChild(final T node, boolean inheritPermission) {
+    return addChild(node, inheritPermission, true);
+  }
+
+  /**
+   * Add a child inode to the directory.
+   * 
+   * @param node INode to insert
+   * @param inheritPermission inherit permission from parent?
+   * @param setModTime set modification time of the directory to that of
+   *          the child? The image loader passes false so that directories
+   *          keep the times recorded in the image.
+   * @return  null if the child with this name already exists; 
+   *          node, otherwise
+   */
+  <T extends INode> T addChild(final T node, boolean inheritPermission,
+                               boolean setModTime) {
     if (inheritPermission) {
       FsPermission p = getFsPermission();
       //make sure the  permission has wx for the user
@@ -222,15 +297,22 @@ class INodeDirectory extends INode {
     }
 
     if (children == null) {
-      children = new ArrayList<INode>(DEFAULT_FILES_PER_DIRECTORY);
+      children = new INode[DEFAULT_FILES_PER_DIRECTORY];
     }
-    int low = Collections.binarySearch(children, node.name);
+    int low = searchChildren(node.name);
     if(low >= 0)
       return null;
     node.parent = this;
-    children.add(-low - 1, node);
+    insertChild(-low - 1, node);
+    if (summary != null) {
+      if (node.isDirectory() && ((INodeDirectory)node).summary == null) {
+        ((INodeDirectory)node).initSummary();
+      }
+      updateSummaryInTree(node.computeContentSummary(new long[4]), 1);
+    }
     // update modification time of the parent directory
-    setModificationTime(node.getModificationTime());
+    if (setModTime)
+      setModificationTime(node.getModificationTime());
     if (node.getGroupName() == null) {
       node.setGroup(getGroupName());
     }
@@ -302,35 +384,115 @@ class INodeDirectory extends INode {
     return parent;
   }
 
+  /** Insert node at index, growing the children array if it is full. */
+  private void insertChild(int index, INode node) {
+    if (numChildren == children.length) {
+      INode[] newChildren = new INode[numChildren + (numChildren >> 1) + 1];
+      System.arraycopy(children, 0, newChildren, 0, index);
+      System.arraycopy(children, index, newChildren, index + 1,
+                       numChildren - index);
+      children = newChildren;
+    } else {
+      System.arraycopy(children, index, children, index + 1,
+                       numChildren - index);
+    }
+    children[index] = node;
+    numChildren++;
+  }
+
   /** {@inheritDoc} */
   DirCounts spaceConsumedInTree(DirCounts counts) {
+    if (summary != null) {
+      counts.nsCount += summary[1] + summary[2];
+      counts.dsCount += summary[3];
+      return counts;
+    }
     counts.nsCount += 1;
-    if (children != null) {
-      for (INode child : children) {
-        child.spaceConsumedInTree(counts);
-      }
+    for (int i = 0; i < numChildren; i++) {
+      children[i].spaceConsumedInTree(counts);
     }
     return counts;    
   }
 
   /** {@inheritDoc} */
   long[] computeContentSummary(long[] summary) {
-    if (children != null) {
-      for (INode child : children) {
-        child.computeContentSummary(summary);
+    if (this.summary != null) {
+      for (int i = 0; i < summary.length; i++) {
+        summary[i] += this.summary[i];
       }
+      return summary;
+    }
+    for (int i = 0; i < numChildren; i++) {
+      children[i].computeContentSummary(summary);
     }
     summary[2]++;
     return summary;
   }
 
+  /**
+   * Compute the content summaries of this directory and of all the
+   * directories under it, and maintain them from now on.  Directories
+   * added under this one start maintaining theirs too.
+   * @return the summary of this directory
+   */
+  long[] initSummary() {
+    long[] s = new long[] {0, 0, 1, 0};
+    for (int i = 0; i < numChildren; i++) {
+      if (children[i].isDirectory()) {
+        long[] childSummary = ((INodeDirectory)children[i]).initSummary();
+        for (int j = 0; j < s.length; j++) {
+          s[j] += childSummary[j];
+        }
+      } else {
+        children[i].computeContentSummary(s);
+      }
+    }
+    summary = s;
+    return s;
+  }
+
+  /** @return true if the content summary of this directory is maintained */
+  boolean isSummaryMaintained() {
+    return summary != null;
+  }
+
+  /**
+   * Add sign * delta to the content summaries of this directory and of
+   * all the directories above it.
+   */
+  void updateSummaryInTree(long[] delta, int sign) {
+    for (INodeDirectory dir = this; dir != null; dir = dir.parent) {
+      if (dir.summary == null) {
+        break;
+      }
+      for (int i = 0; i < delta.length; i++) {
+        dir.summary[i] += sign * delta[i];
+      }
+    }
+  }
+
   /**
    */
   List<INode> getChildren() {
-    return children==null ? new ArrayList<INode>() : children;
+    return children==null ? new ArrayList<INode>() : new ChildrenList();
   }
   List<INode> getChildrenRaw() {
-    return children;
+    return children==null ? null : new ChildrenList();
+  }
+
+  /** A read-only list view of the children array. */
+  private class ChildrenList extends AbstractList<INode> {
+    public INode get(int index) {
+      if (index >= numChildren) {
+        throw new IndexOutOfBoundsException("Index: " + index
+                                            + ", Size: " + numChildren);
+      }
+      return children[index];
+    }
+
+    public int size() {
+      return numChildren;
+    }
   }
 
   int collectSubtreeBlocksAndClear(List<Block> v) {
@@ -338,11 +500,12 @@ class INodeDirectory extends INode {
     if (children == null) {
       return total;
     }
-    for (INode child : children) {
-      total += child.collectSubtreeBlocksAndClear(v);
+    for (int i = 0; i < numChildren; i++) {
+      total += children[i].collectSubtreeBlocksAndClear(v);
     }
     parent = null;
     children = null;
+    numChildren = 0;
     return total;
   }
 }
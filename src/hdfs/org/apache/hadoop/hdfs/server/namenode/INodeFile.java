@@ -29,9 +29,16 @@ import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
 class INodeFile extends INode {
   static final FsPermission UMASK = FsPermission.createImmutable((short)0111);
 
+  //Number of bits for Block size
+  static final short BLOCKBITS = 48;
+
+  //Header mask 64-bit representation
+  //Format: [16 bits for replication][48 bits for PreferredBlockSize]
+  static final long HEADERMASK = 0xffffL << BLOCKBITS;
+
+  protected long header;
+
   protected BlockInfo blocks[] = null;
-  protected short blockReplication;
-  protected long preferredBlockSize;
 
   INodeFile(PermissionStatus permissions,
             int nrBlocks, short replication, long modificationTime,
@@ -42,16 +49,15 @@ class INodeFile extends INode {
 
   protected INodeFile() {
     blocks = null;
-    blockReplication = 0;
-    preferredBlockSize = 0;
+    header = 0;
   }
 
   protected INodeFile(PermissionStatus permissions, BlockInfo[] blklist,
                       short replication, long modificationTime,
                       long atime, long preferredBlockSize) {
     super(permissions, modificationTime, atime);
-    this.blockReplication = replication;
-    this.preferredBlockSize = preferredBlockSize;
+    this.setReplication(replication);
+    this.setPreferredBlockSize(preferredBlockSize);
     blocks = blklist;
   }
 
@@ -73,11 +79,13 @@ class INodeFile extends INode {
    * @return block replication
    */
   public short getReplication() {
-    return this.blockReplication;
+    return (short) ((header & HEADERMASK) >> BLOCKBITS);
   }
 
   void setReplication(short replication) {
-    this.blockReplication = replication;
+    if(replication <= 0)
+       throw new IllegalArgumentException("Unexpected value for the replication");
+    header = ((long)replication << BLOCKBITS) | (header & ~HEADERMASK);
   }
 
   /**
@@ -123,8 +131,12 @@ class INodeFile extends INode {
   /** {@inheritDoc} */
   long[] computeContentSummary(long[] summary) {
     long bytes = 0;
-    for(Block blk : blocks) {
-      bytes += blk.getNumBytes();
+    if (blocks != null) {
+      for(Block blk : blocks) {
+        if (blk != null) {
+          bytes += blk.getNumBytes();
+        }
+      }
     }
     summary[0] += bytes;
     summary[1]++;
@@ -134,6 +146,34 @@ class INodeFile extends INode {
 
   
 
+  /**
+   * Get the content summary of this file before a change to its blocks or
+   * replication, to pass to {@link #summaryAfterChange(long[])} after it.
+   * @return the summary, or null if the directories do not maintain one
+   */
+  long[] summaryBeforeChange() {
+    if (parent == null || !parent.isSummaryMaintained()) {
+      return null;
+    }
+    return computeContentSummary(new long[4]);
+  }
+
+  /**
+   * Add the change of the length and the disk space of this file since
+   * {@link #summaryBeforeChange()} to the content summaries of the
+   * directories above it.
+   */
+  void summaryAfterChange(long[] before) {
+    if (before == null || parent == null) {
+      return;
+    }
+    long[] delta = computeContentSummary(new long[4]);
+    for (int i = 0; i < delta.length; i++) {
+      delta[i] -= before[i];
+    }
+    parent.updateSummaryInTree(delta, 1);
+  }
+
   @Override
   DirCounts spaceConsumedInTree(DirCounts counts) {
     counts.nsCount += 1;
@@ -157,9 +197,9 @@ class INodeFile extends INode {
      */
     if (blkArr.length > 0 && blkArr[blkArr.length-1] != null && 
         isUnderConstruction()) {
-      size += preferredBlockSize - blocks[blocks.length-1].getNumBytes();
+      size += getPreferredBlockSize() - blocks[blocks.length-1].getNumBytes();
     }
-    return size * blockReplication;
+    return size * getReplication();
   }
   
   /**
@@ -167,7 +207,13 @@ class INodeFile extends INode {
    * @return the number of bytes
    */
   public long getPreferredBlockSize() {
-    return preferredBlockSize;
+    return header & ~HEADERMASK;
+  }
+
+  void setPreferredBlockSize(long preferredBlkSize) {
+    if((preferredBlkSize < 0) || (preferredBlkSize > ~HEADERMASK ))
+       throw new IllegalArgumentException("Unexpected value for the block size");
+    header = (header & HEADERMASK) | (preferredBlkSize & ~HEADERMASK);
   }
 
   /**
@@ -187,7 +233,7 @@ class INodeFile extends INode {
       return (INodeFileUnderConstruction)this;
     }
     return new INodeFileUnderConstruction(name,
-        blockReplication, modificationTime, preferredBlockSize,
+        getReplication(), modificationTime, getPreferredBlockSize(),
         blocks, getPermissionStatus(),
         clientName, clientMachine, clientNode);
   }
@@ -341,8 +341,11 @@ public class LeaseManager {
     /** Check leases periodically. */
     public void run() {
       for(; fsnamesystem.isRunning(); ) {
-        synchronized(fsnamesystem) {
+        fsnamesystem.writeLock();
+        try {
           checkLeases();
+        } finally {
+          fsnamesystem.writeUnlock();
         }
 
         try {
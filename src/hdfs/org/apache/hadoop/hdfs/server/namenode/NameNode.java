@@ -560,6 +560,28 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
     return files;
   }
 
+  /**
+   */
+  public DirectoryListing getListing(String src, String startAfter, int limit)
+                                     throws IOException {
+    DirectoryListing files = namesystem.getListing(src, startAfter, limit);
+    if (files != null) {
+      myMetrics.numGetListingOps.inc();
+    }
+    return files;
+  }
+
+  /** {@inheritDoc} */
+  public DirectoryListing getLocatedListing(String src, String startAfter,
+                                            int limit) throws IOException {
+    DirectoryListing files = namesystem.getLocatedListing(getClientMachine(),
+                                                          src, startAfter, limit);
+    if (files != null) {
+      myMetrics.numGetListingOps.inc();
+    }
+    return files;
+  }
+
   /**
    * Get the file info for a specific file.
    * @param src The string representation of the path to the file
@@ -572,6 +594,13 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
     return namesystem.getFileInfo(src);
   }
 
+  /** {@inheritDoc} */
+  public HdfsLocatedFileStatus[] getLocatedFileInfo(String[] srcs)
+                                                    throws IOException {
+    myMetrics.numFileInfoOps.inc(srcs.length);
+    return namesystem.getLocatedFileInfo(getClientMachine(), srcs);
+  }
+
   /** @inheritDoc */
   public long[] getStats() throws IOException {
     return namesystem.getStats();
@@ -729,6 +758,20 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
     }
   }
 
+  public void blockReceivedAndDeleted(DatanodeRegistration nodeReg,
+                                      Block receivedBlocks[],
+                                      String delHints[],
+                                      Block deletedBlocks[]
+                                      ) throws IOException {
+    verifyRequest(nodeReg);
+    stateChangeLog.debug("*BLOCK* NameNode.blockReceivedAndDeleted: "
+                         +"from "+nodeReg.getName()+" "
+                         +receivedBlocks.length+" received blocks, "
+                         +deletedBlocks.length+" deleted blocks.");
+    namesystem.processIncrementalBlockReport(nodeReg, receivedBlocks,
+                                             delHints, deletedBlocks);
+  }
+
   /**
    */
   public void errorReport(DatanodeRegistration nodeReg,
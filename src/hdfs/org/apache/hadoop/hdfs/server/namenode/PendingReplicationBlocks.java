@@ -69,14 +69,28 @@ class PendingReplicationBlocks {
    * Add a block to the list of pending Replications
    */
   void add(Block block, int numReplicas) {
+    add(block, null, numReplicas);
+  }
+
+  /**
+   * Add a block to the list of pending Replications, copied by the
+   * given source.  The transfer counts against the pending transfers of
+   * the source until its targets have received the block, or it times
+   * out.
+   */
+  void add(Block block, DatanodeDescriptor source, int numReplicas) {
     synchronized (pendingReplications) {
       PendingBlockInfo found = pendingReplications.get(block);
       if (found == null) {
-        pendingReplications.put(block, new PendingBlockInfo(numReplicas));
+        found = new PendingBlockInfo(numReplicas);
+        pendingReplications.put(block, found);
       } else {
         found.incrementReplicas(numReplicas);
         found.setTimeStamp();
       }
+      if (source != null) {
+        found.addTransfer(source, numReplicas);
+      }
     }
   }
 
@@ -92,6 +106,7 @@ class PendingReplicationBlocks {
       	FSNamesystem.LOG.debug("Removing pending replication for block" + block);
         found.decrementReplicas();
         if (found.getNumReplicas() <= 0) {
+          found.releaseTransfers();
           pendingReplications.remove(block);
         }
       }
@@ -145,6 +160,10 @@ class PendingReplicationBlocks {
   static class PendingBlockInfo {
     private long timeStamp;
     private int numReplicasInProgress;
+    // the sources of the transfers in progress, one per transfer, with
+    // the number of targets each one has yet to reach
+    private LinkedList<DatanodeDescriptor> sources = null;
+    private LinkedList<Integer> sourceReplicas = null;
 
     PendingBlockInfo(int numReplicas) {
       this.timeStamp = FSNamesystem.now();
@@ -166,6 +185,37 @@ class PendingReplicationBlocks {
     void decrementReplicas() {
       numReplicasInProgress--;
       assert(numReplicasInProgress >= 0);
+      // the targets do not tell which transfer they came from; the oldest
+      // transfer is the most likely to be done
+      if (sources != null && !sources.isEmpty()) {
+        int left = sourceReplicas.removeFirst() - 1;
+        if (left > 0) {
+          sourceReplicas.addFirst(left);
+        } else {
+          sources.removeFirst().decPendingTransfers();
+        }
+      }
+    }
+
+    void addTransfer(DatanodeDescriptor source, int numReplicas) {
+      if (sources == null) {
+        sources = new LinkedList<DatanodeDescriptor>();
+        sourceReplicas = new LinkedList<Integer>();
+      }
+      sources.add(source);
+      sourceReplicas.add(numReplicas);
+      source.incPendingTransfers();
+    }
+
+    /** The transfers are done or given up. */
+    void releaseTransfers() {
+      if (sources != null) {
+        for (DatanodeDescriptor source : sources) {
+          source.decPendingTransfers();
+        }
+        sources = null;
+        sourceReplicas = null;
+      }
     }
 
     int getNumReplicas() {
@@ -207,6 +257,7 @@ class PendingReplicationBlocks {
             synchronized (timedOutItems) {
               timedOutItems.add(block);
             }
+            pendingBlock.releaseTransfers();
             FSNamesystem.LOG.warn(
                 "PendingReplicationMonitor timed out block " + block);
             iter.remove();
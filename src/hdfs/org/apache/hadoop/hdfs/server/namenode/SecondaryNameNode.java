@@ -142,6 +142,8 @@ public class SecondaryNameNode implements Runnable {
     checkpointEditsDirs = FSImage.getCheckpointEditsDirs(conf, 
                                   "/tmp/hadoop/dfs/namesecondary");    
     checkpointImage = new CheckpointStorage();
+    // compress and load the checkpoint images as the namenode does
+    checkpointImage.setImageParameters(conf);
     checkpointImage.recoverCreate(checkpointDirs, checkpointEditsDirs);
 
     // Initialize other scheduling parameters from the configuration
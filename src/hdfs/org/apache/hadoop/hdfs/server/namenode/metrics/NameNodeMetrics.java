@@ -73,8 +73,25 @@ public class NameNodeMetrics implements Updater {
                     new MetricsTimeVaryingRate("Syncs", registry, "Journal Sync");
     public MetricsTimeVaryingInt transactionsBatchedInSync = 
                     new MetricsTimeVaryingInt("JournalTransactionsBatchedInSync", registry, "Journal Transactions Batched In Sync");
+    public MetricsTimeVaryingRate syncBatchSize =
+                    new MetricsTimeVaryingRate("JournalSyncBatchSize", registry, "Journal Transactions Per Sync");
+    public MetricsIntValue transactionsPerSec =
+                    new MetricsIntValue("JournalTransactionsPerSec", registry, "Journal Transactions Per Second");
+    // Journal sync latency histogram
+    public MetricsTimeVaryingInt syncsUnder1ms =
+                    new MetricsTimeVaryingInt("SyncsUnder1ms", registry, "Journal Syncs Under 1ms");
+    public MetricsTimeVaryingInt syncs1To10ms =
+                    new MetricsTimeVaryingInt("Syncs1To10ms", registry, "Journal Syncs 1ms To 10ms");
+    public MetricsTimeVaryingInt syncs10To100ms =
+                    new MetricsTimeVaryingInt("Syncs10To100ms", registry, "Journal Syncs 10ms To 100ms");
+    public MetricsTimeVaryingInt syncs100To1000ms =
+                    new MetricsTimeVaryingInt("Syncs100To1000ms", registry, "Journal Syncs 100ms To 1s");
+    public MetricsTimeVaryingInt syncsOver1000ms =
+                    new MetricsTimeVaryingInt("SyncsOver1000ms", registry, "Journal Syncs Over 1s");
     public MetricsTimeVaryingRate blockReport =
                     new MetricsTimeVaryingRate("blockReport", registry, "Block Report");
+    public MetricsTimeVaryingRate incrementalBlockReport =
+                    new MetricsTimeVaryingRate("incrementalBlockReport", registry, "Incremental Block Report");
     public MetricsIntValue safeModeTime =
                     new MetricsIntValue("SafemodeTime", registry, "Duration in SafeMode at Startup");
     public MetricsIntValue fsImageLoadTime = 
@@ -82,6 +99,8 @@ public class NameNodeMetrics implements Updater {
     public MetricsIntValue numBlocksCorrupted =
                     new MetricsIntValue("BlocksCorrupted", registry);
 
+    private long lastUpdateTime;
+
       
     public NameNodeMetrics(Configuration conf, NameNode nameNode) {
       String sessionId = conf.get("session.id");
@@ -99,6 +118,27 @@ public class NameNodeMetrics implements Updater {
       metricsContext.registerUpdater(this);
       log.info("Initializing NameNodeMeterics using context object:" +
                 metricsContext.getClass().getName());
+      lastUpdateTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Record a journal sync of <code>batchSize</code> transactions that
+     * took <code>latency</code> milliseconds.
+     */
+    public void addSync(long latency, int batchSize) {
+      syncs.inc(latency);
+      syncBatchSize.inc(batchSize);
+      if (latency < 1) {
+        syncsUnder1ms.inc();
+      } else if (latency < 10) {
+        syncs1To10ms.inc();
+      } else if (latency < 100) {
+        syncs10To100ms.inc();
+      } else if (latency < 1000) {
+        syncs100To1000ms.inc();
+      } else {
+        syncsOver1000ms.inc();
+      }
     }
     
 
@@ -117,6 +157,15 @@ public class NameNodeMetrics implements Updater {
         for (MetricsBase m : registry.getMetricsList()) {
           m.pushMetric(metricsRecord);
         }
+        // transactions now holds the counts of the interval just finished
+        long now = System.currentTimeMillis();
+        long interval = now - lastUpdateTime;
+        lastUpdateTime = now;
+        if (interval > 0) {
+          transactionsPerSec.set((int)(
+              transactions.getPreviousIntervalNumOps() * 1000L / interval));
+          transactionsPerSec.pushMetric(metricsRecord);
+        }
       }
       metricsRecord.update();
     }
@@ -124,6 +173,8 @@ public class NameNodeMetrics implements Updater {
     public void resetAllMinMax() {
       transactions.resetMinMax();
       syncs.resetMinMax();
+      syncBatchSize.resetMinMax();
       blockReport.resetMinMax();
+      incrementalBlockReport.resetMinMax();
     }
 }
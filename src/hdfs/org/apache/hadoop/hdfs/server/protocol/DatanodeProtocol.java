@@ -35,10 +35,9 @@ import org.apache.hadoop.ipc.VersionedProtocol;
  **********************************************************************/
 public interface DatanodeProtocol extends VersionedProtocol {
   /**
-   * 19: SendHeartbeat returns an array of DatanodeCommand objects
-   *     in stead of a DatanodeCommand object.
+   * 20: Added blockReceivedAndDeleted() for incremental block reports.
    */
-  public static final long versionID = 19L;
+  public static final long versionID = 20L;
   
   // error code
   final static int NOTIFY = 0;
@@ -112,6 +111,26 @@ public interface DatanodeProtocol extends VersionedProtocol {
                             Block blocks[],
                             String[] delHints) throws IOException;
 
+  /**
+   * blockReceivedAndDeleted() is the incremental block report.
+   * It tells the NameNode about the blocks received and the blocks
+   * deleted by the DataNode since its previous report, so that the
+   * NameNode does not need to wait for the next full
+   * {@link #blockReport(DatanodeRegistration, long[])} to learn about
+   * deleted replicas.
+   * A block never appears in both lists.
+   * @param registration
+   * @param receivedBlocks blocks received since the last report
+   * @param delHints hints for the replica to be deleted when there are
+   *     excess replicas of the corresponding received block
+   * @param deletedBlocks blocks deleted since the last report
+   */
+  public void blockReceivedAndDeleted(DatanodeRegistration registration,
+                                      Block receivedBlocks[],
+                                      String[] delHints,
+                                      Block deletedBlocks[]
+                                      ) throws IOException;
+
   /**
    * errorReport() tells the NameNode about something that has gone
    * awry.  Useful for debugging.
@@ -19,6 +19,7 @@
 package org.apache.hadoop.mapred;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -28,14 +29,23 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.net.NetworkTopology;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.net.NodeBase;
@@ -62,6 +72,16 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
 
   private static final double SPLIT_SLOP = 1.1;   // 10% slop
 
+  /**
+   * The number of threads that glob, list and locate the input paths;
+   * 1 to do it on the calling thread.
+   */
+  public static final String LIST_STATUS_NUM_THREADS =
+    "mapred.input.list.status.num.threads";
+
+  /** the most files located by one task of the listing threads */
+  private static final int LOCATE_BATCH_SIZE = 1000;
+
   private long minSplitSize = 1;
   private static final PathFilter hiddenFileFilter = new PathFilter(){
       public boolean accept(Path p){
@@ -152,9 +172,6 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
       throw new IOException("No input paths specified in job");
     }
 
-    List<FileStatus> result = new ArrayList<FileStatus>();
-    List<IOException> errors = new ArrayList<IOException>();
-    
     // creates a MultiPathFilter with the hiddenFileFilter and the
     // user provided one (if any).
     List<PathFilter> filters = new ArrayList<PathFilter>();
@@ -165,6 +182,24 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
     }
     PathFilter inputFilter = new MultiPathFilter(filters);
 
+    int numThreads = job.getInt(LIST_STATUS_NUM_THREADS, 1);
+    List<FileStatus> result = numThreads > 1 ?
+      listStatus(job, dirs, inputFilter, numThreads) :
+      listStatus(job, dirs, inputFilter);
+    LOG.info("Total input paths to process : " + result.size()); 
+    return result.toArray(new FileStatus[result.size()]);
+  }
+
+  /** List the input paths one after another on the calling thread. */
+  private List<FileStatus> listStatus(JobConf job, Path[] dirs,
+      PathFilter inputFilter) throws IOException {
+    List<FileStatus> result = new ArrayList<FileStatus>();
+    List<IOException> errors = new ArrayList<IOException>();
+    // the indices in result of the files matched by the patterns themselves,
+    // whose block locations are fetched together below
+    Map<FileSystem, List<Integer>> unlocated =
+      new IdentityHashMap<FileSystem, List<Integer>>();
+
     for (Path p: dirs) {
       FileSystem fs = p.getFileSystem(job); 
       FileStatus[] matches = fs.globStatus(p, inputFilter);
@@ -175,11 +210,10 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
       } else {
         for (FileStatus globStat: matches) {
           if (globStat.isDir()) {
-            for(FileStatus stat: fs.listStatus(globStat.getPath(),
-                inputFilter)) {
-              result.add(stat);
-            }          
+            result.addAll(listLocatedStatus(fs, globStat.getPath(),
+                                            inputFilter));
           } else {
+            addUnlocated(unlocated, fs, result.size());
             result.add(globStat);
           }
         }
@@ -189,8 +223,185 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
     if (!errors.isEmpty()) {
       throw new InvalidInputException(errors);
     }
-    LOG.info("Total input paths to process : " + result.size()); 
-    return result.toArray(new FileStatus[result.size()]);
+    for (Map.Entry<FileSystem, List<Integer>> e : unlocated.entrySet()) {
+      List<Integer> indices = e.getValue();
+      setLocated(result, indices, locateFiles(e.getKey(), indices, result));
+    }
+    return result;
+  }
+
+  /**
+   * List the input paths on a pool of numThreads threads: first all the
+   * patterns are globbed, then all the matched directories are listed,
+   * then the block locations of the matched files are fetched.  The
+   * result is in the same order as if the paths were listed one after
+   * another, so the splits do not depend on the number of threads.
+   */
+  private List<FileStatus> listStatus(final JobConf job, Path[] dirs,
+      final PathFilter inputFilter, int numThreads) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "listStatus-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    try {
+      List<Future<FileStatus[]>> globs = new ArrayList<Future<FileStatus[]>>();
+      for (final Path p : dirs) {
+        globs.add(pool.submit(new Callable<FileStatus[]>() {
+          public FileStatus[] call() throws IOException {
+            return p.getFileSystem(job).globStatus(p, inputFilter);
+          }
+        }));
+      }
+
+      // the matches in order, with the listings of the directories among them
+      List<FileStatus> matched = new ArrayList<FileStatus>();
+      List<Future<List<LocatedFileStatus>>> listings =
+        new ArrayList<Future<List<LocatedFileStatus>>>();
+      List<IOException> errors = new ArrayList<IOException>();
+      for (int i = 0; i < dirs.length; i++) {
+        Path p = dirs[i];
+        FileStatus[] matches = getResult(globs.get(i));
+        if (matches == null) {
+          errors.add(new IOException("Input path does not exist: " + p));
+        } else if (matches.length == 0) {
+          errors.add(new IOException("Input Pattern " + p + " matches 0 files"));
+        } else {
+          final FileSystem fs = p.getFileSystem(job);
+          for (final FileStatus globStat : matches) {
+            matched.add(globStat);
+            listings.add(!globStat.isDir() ? null : pool.submit(
+                new Callable<List<LocatedFileStatus>>() {
+                  public List<LocatedFileStatus> call() throws IOException {
+                    return listLocatedStatus(fs, globStat.getPath(),
+                                             inputFilter);
+                  }
+                }));
+          }
+        }
+      }
+      if (!errors.isEmpty()) {
+        throw new InvalidInputException(errors);
+      }
+
+      List<FileStatus> result = new ArrayList<FileStatus>();
+      Map<FileSystem, List<Integer>> unlocated =
+        new IdentityHashMap<FileSystem, List<Integer>>();
+      for (int i = 0; i < matched.size(); i++) {
+        FileStatus globStat = matched.get(i);
+        if (globStat.isDir()) {
+          result.addAll(getResult(listings.get(i)));
+        } else {
+          addUnlocated(unlocated, globStat.getPath().getFileSystem(job),
+                       result.size());
+          result.add(globStat);
+        }
+      }
+
+      // locate the files in parts of LOCATE_BATCH_SIZE
+      List<List<Integer>> batches = new ArrayList<List<Integer>>();
+      List<Future<LocatedFileStatus[]>> located =
+        new ArrayList<Future<LocatedFileStatus[]>>();
+      final List<FileStatus> files = result;
+      for (Map.Entry<FileSystem, List<Integer>> e : unlocated.entrySet()) {
+        final FileSystem fs = e.getKey();
+        List<Integer> indices = e.getValue();
+        for (int from = 0; from < indices.size(); from += LOCATE_BATCH_SIZE) {
+          final List<Integer> batch = indices.subList(from,
+              Math.min(from + LOCATE_BATCH_SIZE, indices.size()));
+          batches.add(batch);
+          located.add(pool.submit(new Callable<LocatedFileStatus[]>() {
+            public LocatedFileStatus[] call() throws IOException {
+              return locateFiles(fs, batch, files);
+            }
+          }));
+        }
+      }
+      for (int i = 0; i < batches.size(); i++) {
+        setLocated(result, batches.get(i), getResult(located.get(i)));
+      }
+      return result;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * List a directory with the block locations of its files.
+   * @return the entries accepted by inputFilter, in the order listed
+   */
+  private static List<LocatedFileStatus> listLocatedStatus(FileSystem fs,
+      Path dir, PathFilter inputFilter) throws IOException {
+    List<LocatedFileStatus> result = new ArrayList<LocatedFileStatus>();
+    RemoteIterator<LocatedFileStatus> stats = fs.listLocatedStatus(dir);
+    while (stats.hasNext()) {
+      LocatedFileStatus stat = stats.next();
+      if (inputFilter.accept(stat.getPath())) {
+        result.add(stat);
+      }
+    }
+    return result;
+  }
+
+  private static void addUnlocated(Map<FileSystem, List<Integer>> unlocated,
+                                   FileSystem fs, int index) {
+    List<Integer> indices = unlocated.get(fs);
+    if (indices == null) {
+      indices = new ArrayList<Integer>();
+      unlocated.put(fs, indices);
+    }
+    indices.add(index);
+  }
+
+  /**
+   * Get the statuses and block locations of the files at the given indices
+   * of result, all on fs, with one call for all of them.
+   */
+  private static LocatedFileStatus[] locateFiles(FileSystem fs,
+      List<Integer> indices, List<FileStatus> result) throws IOException {
+    Path[] paths = new Path[indices.size()];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = result.get(indices.get(i)).getPath();
+    }
+    return fs.getLocatedFileStatus(paths);
+  }
+
+  /** Replace the statuses at the given indices with the located ones. */
+  private static void setLocated(List<FileStatus> result,
+      List<Integer> indices, LocatedFileStatus[] located) {
+    for (int i = 0; i < located.length; i++) {
+      if (located[i] != null) {
+        result.set(indices.get(i), located[i]);
+      }
+    }
+  }
+
+  /**
+   * Wait for the result of a task of the listing pool, and rethrow what it
+   * failed with.
+   */
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw (IOException)new InterruptedIOException(
+          "Interrupted while listing the input paths").initCause(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw (IOException)new IOException(
+          "Failed to list the input paths").initCause(cause);
+    }
   }
 
   /** Splits files returned by {@link #listStatus(JobConf)} when
@@ -219,7 +430,11 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
       Path path = file.getPath();
       FileSystem fs = path.getFileSystem(job);
       long length = file.getLen();
-      BlockLocation[] blkLocations = fs.getFileBlockLocations(file, 0, length);
+      BlockLocation[] blkLocations = file instanceof LocatedFileStatus ?
+        ((LocatedFileStatus)file).getBlockLocations() : null;
+      if (blkLocations == null) {
+        blkLocations = fs.getFileBlockLocations(file, 0, length);
+      }
       if ((length != 0) && isSplitable(fs, path)) { 
         long blockSize = file.getBlockSize();
         long splitSize = computeSplitSize(goalSize, minSize, blockSize);
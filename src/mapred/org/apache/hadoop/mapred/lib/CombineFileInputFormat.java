@@ -28,7 +28,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
@@ -171,10 +171,11 @@ public abstract class CombineFileInputFormat<K, V>
                             minSizeRack);
     }
 
-    // all the files in input set
-    Path[] paths = FileUtil.stat2Paths(listStatus(job));
+    // all the files in input set, with their block locations if the file
+    // system listed them together
+    FileStatus[] stats = listStatus(job);
     List<CombineFileSplit> splits = new ArrayList<CombineFileSplit>();
-    if (paths.length == 0) {
+    if (stats.length == 0) {
       return splits.toArray(new CombineFileSplit[splits.size()]);    
     }
 
@@ -182,36 +183,35 @@ public abstract class CombineFileInputFormat<K, V>
     // Processing one pool at a time ensures that a split contans paths
     // from a single pool only.
     for (MultiPathFilter onepool : pools) {
-      ArrayList<Path> myPaths = new ArrayList<Path>();
+      ArrayList<FileStatus> myStats = new ArrayList<FileStatus>();
       
       // pick one input path. If it matches all the filters in a pool,
       // add it to the output set
-      for (int i = 0; i < paths.length; i++) {
-        if (paths[i] == null) {  // already processed
+      for (int i = 0; i < stats.length; i++) {
+        if (stats[i] == null) {  // already processed
           continue;
         }
-        FileSystem fs = paths[i].getFileSystem(job);
-        Path p = new Path(paths[i].toUri().getPath());
+        Path p = new Path(stats[i].getPath().toUri().getPath());
         if (onepool.accept(p)) {
-          myPaths.add(paths[i]); // add it to my output set
-          paths[i] = null;       // already processed
+          myStats.add(stats[i]); // add it to my output set
+          stats[i] = null;       // already processed
         }
       }
       // create splits for all files in this pool.
-      getMoreSplits(job, myPaths.toArray(new Path[myPaths.size()]), 
+      getMoreSplits(job, myStats.toArray(new FileStatus[myStats.size()]), 
                     maxSize, minSizeNode, minSizeRack, splits);
     }
 
     // Finally, process all paths that do not belong to any pool.
-    ArrayList<Path> myPaths = new ArrayList<Path>();
-    for (int i = 0; i < paths.length; i++) {
-      if (paths[i] == null) {  // already processed
+    ArrayList<FileStatus> myStats = new ArrayList<FileStatus>();
+    for (int i = 0; i < stats.length; i++) {
+      if (stats[i] == null) {  // already processed
         continue;
       }
-      myPaths.add(paths[i]);
+      myStats.add(stats[i]);
     }
     // create splits for all files that are not in any pool.
-    getMoreSplits(job, myPaths.toArray(new Path[myPaths.size()]), 
+    getMoreSplits(job, myStats.toArray(new FileStatus[myStats.size()]), 
                   maxSize, minSizeNode, minSizeRack, splits);
 
     return splits.toArray(new CombineFileSplit[splits.size()]);    
@@ -220,7 +220,7 @@ public abstract class CombineFileInputFormat<K, V>
   /**
    * Return all the splits in the specified set of paths
    */
-  private void getMoreSplits(JobConf job, Path[] paths, 
+  private void getMoreSplits(JobConf job, FileStatus[] stats, 
                              long maxSize, long minSizeNode, long minSizeRack,
                              List<CombineFileSplit> splits)
     throws IOException {
@@ -240,15 +240,15 @@ public abstract class CombineFileInputFormat<K, V>
     HashMap<String, List<OneBlockInfo>> nodeToBlocks = 
                               new HashMap<String, List<OneBlockInfo>>();
     
-    files = new OneFileInfo[paths.length];
-    if (paths.length == 0) {
+    files = new OneFileInfo[stats.length];
+    if (stats.length == 0) {
       return; 
     }
 
     // populate all the blocks for all files
     long totLength = 0;
-    for (int i = 0; i < paths.length; i++) {
-      files[i] = new OneFileInfo(paths[i], job, 
+    for (int i = 0; i < stats.length; i++) {
+      files[i] = new OneFileInfo(stats[i], job, 
                                  rackToBlocks, blockToNodes, nodeToBlocks);
       totLength += files[i].getLength();
     }
@@ -445,18 +445,21 @@ public abstract class CombineFileInputFormat<K, V>
     private long fileSize;               // size of the file
     private OneBlockInfo[] blocks;       // all blocks in this file
 
-    OneFileInfo(Path path, JobConf job,
+    OneFileInfo(FileStatus stat, JobConf job,
                 HashMap<String, List<OneBlockInfo>> rackToBlocks,
                 HashMap<OneBlockInfo, String[]> blockToNodes,
                 HashMap<String, List<OneBlockInfo>> nodeToBlocks)
                 throws IOException {
       this.fileSize = 0;
 
-      // get block locations from file system
-      FileSystem fs = path.getFileSystem(job);
-      FileStatus stat = fs.getFileStatus(path);
-      BlockLocation[] locations = fs.getFileBlockLocations(stat, 0, 
-                                                           stat.getLen());
+      // get block locations from file system, unless listed with the file
+      Path path = stat.getPath();
+      BlockLocation[] locations = stat instanceof LocatedFileStatus ?
+        ((LocatedFileStatus)stat).getBlockLocations() : null;
+      if (locations == null) {
+        FileSystem fs = path.getFileSystem(job);
+        locations = fs.getFileBlockLocations(stat, 0, stat.getLen());
+      }
       // create a list of all block and their locations
       if (locations == null) {
         blocks = new OneBlockInfo[0];
@@ -20,15 +20,19 @@ package org.apache.hadoop.mapreduce.lib.input;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -187,6 +191,10 @@ public abstract class FileInputFormat<K, V> extends InputFormat<K, V> {
     }
 
     List<IOException> errors = new ArrayList<IOException>();
+    // the indices in result of the files matched by the patterns themselves,
+    // whose block locations are fetched together below
+    Map<FileSystem, List<Integer>> unlocated =
+      new IdentityHashMap<FileSystem, List<Integer>>();
     
     // creates a MultiPathFilter with the hiddenFileFilter and the
     // user provided one (if any).
@@ -209,11 +217,21 @@ public abstract class FileInputFormat<K, V> extends InputFormat<K, V> {
       } else {
         for (FileStatus globStat: matches) {
           if (globStat.isDir()) {
-            for(FileStatus stat: fs.listStatus(globStat.getPath(),
-                inputFilter)) {
-              result.add(stat);
-            }          
+            RemoteIterator<LocatedFileStatus> stats =
+              fs.listLocatedStatus(globStat.getPath());
+            while (stats.hasNext()) {
+              LocatedFileStatus stat = stats.next();
+              if (inputFilter.accept(stat.getPath())) {
+                result.add(stat);
+              }
+            }
           } else {
+            List<Integer> indices = unlocated.get(fs);
+            if (indices == null) {
+              indices = new ArrayList<Integer>();
+              unlocated.put(fs, indices);
+            }
+            indices.add(result.size());
             result.add(globStat);
           }
         }
@@ -223,9 +241,30 @@ public abstract class FileInputFormat<K, V> extends InputFormat<K, V> {
     if (!errors.isEmpty()) {
       throw new InvalidInputException(errors);
     }
+    for (Map.Entry<FileSystem, List<Integer>> e : unlocated.entrySet()) {
+      locateFiles(e.getKey(), e.getValue(), result);
+    }
     LOG.info("Total input paths to process : " + result.size()); 
     return result;
   }
+
+  /**
+   * Replace the statuses at the given indices, of files on fs, with their
+   * statuses and block locations, fetched with one call for all of them.
+   */
+  private static void locateFiles(FileSystem fs, List<Integer> indices,
+      List<FileStatus> result) throws IOException {
+    Path[] paths = new Path[indices.size()];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = result.get(indices.get(i)).getPath();
+    }
+    LocatedFileStatus[] located = fs.getLocatedFileStatus(paths);
+    for (int i = 0; i < located.length; i++) {
+      if (located[i] != null) {
+        result.set(indices.get(i), located[i]);
+      }
+    }
+  }
   
 
   /** 
@@ -242,7 +281,11 @@ public abstract class FileInputFormat<K, V> extends InputFormat<K, V> {
       Path path = file.getPath();
       FileSystem fs = path.getFileSystem(job.getConfiguration());
       long length = file.getLen();
-      BlockLocation[] blkLocations = fs.getFileBlockLocations(file, 0, length);
+      BlockLocation[] blkLocations = file instanceof LocatedFileStatus ?
+        ((LocatedFileStatus)file).getBlockLocations() : null;
+      if (blkLocations == null) {
+        blkLocations = fs.getFileBlockLocations(file, 0, length);
+      }
       if ((length != 0) && isSplitable(job, path)) { 
         long blockSize = file.getBlockSize();
         long splitSize = computeSplitSize(blockSize, minSize, maxSize);
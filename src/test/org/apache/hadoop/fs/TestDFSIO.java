@@ -301,7 +301,7 @@ public class TestDFSIO extends TestCase {
     boolean isSequential = false;
 
     String version="TestFDSIO.0.0.4";
-    String usage = "Usage: TestFDSIO -read | -write | -clean [-nrFiles N] [-fileSize MB] [-resFile resultFileName] [-bufferSize Bytes] ";
+    String usage = "Usage: TestFDSIO -read | -write | -clean [-nrFiles N] [-fileSize MB] [-resFile resultFileName] [-bufferSize Bytes] [-shortcircuit]";
     
     System.out.println(version);
     if (args.length == 0) {
@@ -325,12 +325,18 @@ public class TestDFSIO extends TestCase {
         bufferSize = Integer.parseInt(args[++i]);
       } else if (args[i].equals("-resFile")) {
         resFileName = args[++i];
+      } else if (args[i].equals("-shortcircuit")) {
+        // read local blocks directly; the datanodes must allow the user
+        // in dfs.block.local-path-access.user
+        fsConfig.setBoolean("dfs.client.read.shortcircuit", true);
       }
     }
 
     LOG.info("nrFiles = " + nrFiles);
     LOG.info("fileSize (MB) = " + fileSize);
     LOG.info("bufferSize = " + bufferSize);
+    LOG.info("shortcircuit = " + 
+             fsConfig.getBoolean("dfs.client.read.shortcircuit", false));
   
     try {
       fsConfig.setInt("test.io.file.buffer.size", bufferSize);
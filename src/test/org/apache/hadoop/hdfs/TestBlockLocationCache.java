@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Test the block location cache of DFSClient.
+ */
+public class TestBlockLocationCache extends TestCase {
+  static final long seed = 0xDEADBEEFL;
+  static final int blockSize = 4096;
+
+  /** Check a file written by DFSTestUtil.createFile. */
+  private void checkFile(FileSystem fs, Path file, int len, long seed)
+                         throws IOException {
+    byte[] expected = new byte[len];
+    new Random(seed).nextBytes(expected);
+    FSDataInputStream in = fs.open(file);
+    byte[] actual = new byte[len];
+    in.readFully(actual);
+    assertEquals(-1, in.read());
+    in.close();
+    for (int i = 0; i < len; i++) {
+      assertEquals("byte " + i + " differs", expected[i], actual[i]);
+    }
+  }
+
+  public void testCache() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong("dfs.block.size", blockSize);
+    conf.setLong("dfs.read.prefetch.size", 2 * blockSize);
+    conf.setInt("dfs.client.block.location.cache.size", 10);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    try {
+      cluster.waitActive();
+      DistributedFileSystem fs = (DistributedFileSystem)cluster.getFileSystem();
+      BlockLocationCache cache = fs.getClient().getBlockLocationCache();
+      Path file = new Path("/test/cached.dat");
+      DFSTestUtil.createFile(fs, file, 5 * blockSize, (short)1, seed);
+
+      checkFile(fs, file, 5 * blockSize, seed);
+      assertEquals(0, cache.getHits());
+      assertEquals(1, cache.getMisses());
+
+      // the second open finds the blocks the first one located
+      checkFile(fs, file, 5 * blockSize, seed);
+      assertEquals(1, cache.getHits());
+      assertEquals(1, cache.getMisses());
+
+      // replacing the file drops its locations
+      fs.delete(file, false);
+      DFSTestUtil.createFile(fs, file, 3 * blockSize, (short)1, seed + 1);
+      checkFile(fs, file, 3 * blockSize, seed + 1);
+      assertEquals(1, cache.getHits());
+      assertEquals(2, cache.getMisses());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  public void testExpiry() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("dfs.client.block.location.cache.size", 10);
+    conf.setLong("dfs.client.block.location.cache.ttl.millis", 1);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    try {
+      cluster.waitActive();
+      DistributedFileSystem fs = (DistributedFileSystem)cluster.getFileSystem();
+      BlockLocationCache cache = fs.getClient().getBlockLocationCache();
+      Path file = new Path("/test/expired.dat");
+      DFSTestUtil.createFile(fs, file, 1000, (short)1, seed);
+
+      checkFile(fs, file, 1000, seed);
+      Thread.sleep(10);
+      checkFile(fs, file, 1000, seed);
+      assertEquals(0, cache.getHits());
+      assertEquals(2, cache.getMisses());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+
+/**
+ * Test listing directories in parts.
+ */
+public class TestDirectoryListing extends TestCase {
+  static final int LS_LIMIT = 3;
+  static final int NUM_FILES = 10;
+
+  private static String fileName(int i) {
+    return "file" + (char)('a' + i);
+  }
+
+  public void testListingInParts() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt("dfs.ls.limit", LS_LIMIT);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    try {
+      cluster.waitActive();
+      DistributedFileSystem fs = (DistributedFileSystem)cluster.getFileSystem();
+      DFSClient client = fs.getClient();
+      Path dir = new Path("/test/listing");
+      // create the files out of order
+      for (int i = NUM_FILES - 1; i >= 0; i--) {
+        DFSTestUtil.createFile(fs, new Path(dir, fileName(i)), 10, (short)1, i);
+      }
+
+      // the first part, and the next ones
+      DirectoryListing part = client.listPaths(dir.toString(), "");
+      assertEquals(LS_LIMIT, part.getPartialListing().length);
+      assertEquals(NUM_FILES - LS_LIMIT, part.getRemainingEntries());
+      assertEquals(fileName(LS_LIMIT - 1), part.getLastName());
+      part = client.listPaths(dir.toString(), part.getLastName());
+      assertEquals(fileName(LS_LIMIT), part.getPartialListing()[0].getPath().getName());
+
+      // continue after an entry that has been deleted meanwhile
+      fs.delete(new Path(dir, fileName(4)), false);
+      part = client.listPaths(dir.toString(), fileName(4));
+      assertEquals(fileName(5), part.getPartialListing()[0].getPath().getName());
+      assertEquals(NUM_FILES - 5 - LS_LIMIT, part.getRemainingEntries());
+
+      // the whole listing, in order
+      FileStatus[] all = fs.listStatus(dir);
+      assertEquals(NUM_FILES - 1, all.length);
+      RemoteIterator<FileStatus> iter = fs.listStatusIterator(dir);
+      for (FileStatus stat : all) {
+        assertTrue(iter.hasNext());
+        FileStatus next = iter.next();
+        assertEquals(stat.getPath(), next.getPath());
+        assertEquals(fs.makeQualified(next.getPath()), next.getPath());
+      }
+      assertFalse(iter.hasNext());
+      for (int i = 1; i < all.length; i++) {
+        assertTrue(all[i - 1].getPath().getName().compareTo(
+                   all[i].getPath().getName()) < 0);
+      }
+
+      // a file lists itself
+      Path file = new Path(dir, fileName(0));
+      iter = fs.listStatusIterator(file);
+      assertEquals(file.getName(), iter.next().getPath().getName());
+      assertFalse(iter.hasNext());
+
+      // a directory that does not exist
+      assertNull(client.listPaths("/test/nonexistent", ""));
+      try {
+        fs.listStatusIterator(new Path("/test/nonexistent"));
+        fail("Listed a directory that does not exist");
+      } catch (FileNotFoundException e) {
+      }
+
+      // an empty directory
+      Path empty = new Path("/test/empty");
+      fs.mkdirs(empty);
+      assertFalse(fs.listStatusIterator(empty).hasNext());
+      assertEquals(0, fs.listStatus(empty).length);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  public void testLocalFileSystem() throws IOException {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path dir = new Path(System.getProperty("test.build.data", "/tmp"),
+                        "TestDirectoryListing");
+    fs.delete(dir, true);
+    try {
+      for (int i = 0; i < NUM_FILES; i++) {
+        fs.create(new Path(dir, fileName(i))).close();
+      }
+      // the checksum files are not listed
+      int count = 0;
+      for (RemoteIterator<FileStatus> iter = fs.listStatusIterator(dir);
+           iter.hasNext(); iter.next()) {
+        count++;
+      }
+      assertEquals(NUM_FILES, count);
+    } finally {
+      fs.delete(dir, true);
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UnixUserGroupInformation;
+
+/**
+ * Test getting the statuses and block locations of many files together.
+ */
+public class TestLocatedFileInfo extends TestCase {
+  static final int LS_LIMIT = 3;
+  static final int NUM_FILES = 7;
+  static final int BLOCK_SIZE = 1024;
+
+  private static long fileLength(int i) {
+    return (i + 1) * BLOCK_SIZE / 2;
+  }
+
+  /** Check a located status against the separate calls it replaces. */
+  private static void checkLocated(FileSystem fs, LocatedFileStatus located)
+      throws IOException {
+    FileStatus stat = fs.getFileStatus(located.getPath());
+    assertEquals(stat.getPath(), located.getPath());
+    assertEquals(stat.getLen(), located.getLen());
+    assertEquals(stat.isDir(), located.isDir());
+    if (stat.isDir()) {
+      assertNull(located.getBlockLocations());
+      return;
+    }
+    BlockLocation[] expected = fs.getFileBlockLocations(stat, 0, stat.getLen());
+    BlockLocation[] actual = located.getBlockLocations();
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].getOffset(), actual[i].getOffset());
+      assertEquals(expected[i].getLength(), actual[i].getLength());
+      assertTrue(Arrays.equals(expected[i].getHosts(), actual[i].getHosts()));
+    }
+  }
+
+  public void testLocatedFileInfo() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt("dfs.ls.limit", LS_LIMIT);
+    conf.setLong("dfs.block.size", BLOCK_SIZE);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 2, true, null);
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      Path dir = new Path("/test/located");
+      Path[] paths = new Path[NUM_FILES + 2];
+      for (int i = 0; i < NUM_FILES; i++) {
+        paths[i] = new Path(dir, "file" + i);
+        DFSTestUtil.createFile(fs, paths[i], fileLength(i), (short)2, i);
+      }
+      Path subdir = new Path(dir, "subdir");
+      fs.mkdirs(subdir);
+      paths[NUM_FILES] = subdir;
+      paths[NUM_FILES + 1] = new Path(dir, "nonexistent");
+
+      // more paths than are asked for in one call
+      LocatedFileStatus[] located = fs.getLocatedFileStatus(paths);
+      assertEquals(paths.length, located.length);
+      for (int i = 0; i < NUM_FILES + 1; i++) {
+        assertEquals(fs.makeQualified(paths[i]), located[i].getPath());
+        checkLocated(fs, located[i]);
+      }
+      assertNull(located[NUM_FILES + 1]);
+
+      // a directory listed in parts with the locations
+      int count = 0;
+      for (RemoteIterator<LocatedFileStatus> iter = fs.listLocatedStatus(dir);
+           iter.hasNext(); count++) {
+        checkLocated(fs, iter.next());
+      }
+      assertEquals(NUM_FILES + 1, count);
+
+      // the splits are computed from the listed locations
+      JobConf job = new JobConf(conf);
+      FileInputFormat.setInputPaths(job, new Path(dir, "file*"));
+      TextInputFormat format = new TextInputFormat();
+      format.configure(job);
+      InputSplit[] splits = format.getSplits(job, 1);
+      long total = 0;
+      for (InputSplit split : splits) {
+        total += split.getLength();
+        assertTrue(((FileSplit)split).getLocations().length > 0);
+      }
+      long expected = 0;
+      for (int i = 0; i < NUM_FILES; i++) {
+        expected += fileLength(i);
+      }
+      assertEquals(expected, total);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * A located listing leaves out the locations of the files the caller
+   * may not read, and the splits of such a file cannot be computed.
+   */
+  public void testLocatedListingPermissions() throws IOException {
+    Configuration conf = new Configuration();
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    FileSystem otherFs = null;
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      Path dir = new Path("/test/permissions");
+      Path publicFile = new Path(dir, "public");
+      Path privateFile = new Path(dir, "private");
+      DFSTestUtil.createFile(fs, publicFile, BLOCK_SIZE, (short)1, 0);
+      DFSTestUtil.createFile(fs, privateFile, BLOCK_SIZE, (short)1, 1);
+      fs.setPermission(dir, new FsPermission((short)0755));
+      fs.setPermission(publicFile, new FsPermission((short)0644));
+      fs.setPermission(privateFile, new FsPermission((short)0700));
+
+      Configuration otherConf = new Configuration(conf);
+      UnixUserGroupInformation.saveToConf(otherConf,
+          UnixUserGroupInformation.UGI_PROPERTY_NAME,
+          new UnixUserGroupInformation("alien", new String[] {"alien"}));
+      otherFs = FileSystem.get(fs.getUri(), otherConf);
+
+      int count = 0;
+      for (RemoteIterator<LocatedFileStatus> iter =
+             otherFs.listLocatedStatus(dir); iter.hasNext(); count++) {
+        LocatedFileStatus stat = iter.next();
+        if (stat.getPath().getName().equals(privateFile.getName())) {
+          assertNull(stat.getBlockLocations());
+        } else {
+          assertEquals(1, stat.getBlockLocations().length);
+        }
+      }
+      assertEquals(2, count);
+
+      LocatedFileStatus[] located = otherFs.getLocatedFileStatus(
+          new Path[] {publicFile});
+      assertEquals(1, located[0].getBlockLocations().length);
+      try {
+        otherFs.getLocatedFileStatus(new Path[] {privateFile});
+        fail("Located a file that may not be read");
+      } catch (AccessControlException e) {
+      }
+
+      JobConf job = new JobConf(otherConf);
+      FileInputFormat.setInputPaths(job, dir);
+      TextInputFormat format = new TextInputFormat();
+      format.configure(job);
+      try {
+        format.getSplits(job, 1);
+        fail("Got the splits of a file that may not be read");
+      } catch (AccessControlException e) {
+      }
+    } finally {
+      if (otherFs != null) {
+        otherFs.close();
+      }
+      cluster.shutdown();
+    }
+  }
+
+  public void testLocalFileSystem() throws IOException {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path dir = new Path(System.getProperty("test.build.data", "/tmp"),
+                        "TestLocatedFileInfo");
+    fs.delete(dir, true);
+    try {
+      Path file = new Path(dir, "file");
+      fs.create(file).close();
+      LocatedFileStatus[] located = fs.getLocatedFileStatus(
+          new Path[] {file, new Path(dir, "nonexistent")});
+      assertNotNull(located[0].getBlockLocations());
+      assertNull(located[1]);
+      RemoteIterator<LocatedFileStatus> iter = fs.listLocatedStatus(dir);
+      assertEquals(file.getName(), iter.next().getPath().getName());
+      assertFalse(iter.hasNext());
+    } finally {
+      fs.delete(dir, true);
+    }
+  }
+}
@@ -34,10 +34,11 @@ public class TestPread extends TestCase {
   static final long seed = 0xDEADBEEFL;
   static final int blockSize = 4096;
   boolean simulatedStorage = false;
+  short replication = 1;
 
   private void writeFile(FileSystem fileSys, Path name) throws IOException {
     // create and write a file that contains three blocks of data
-    DataOutputStream stm = fileSys.create(name, true, 4096, (short)1,
+    DataOutputStream stm = fileSys.create(name, true, 4096, replication,
                                           (long)blockSize);
     // test empty file open and read
     stm.close();
@@ -57,7 +58,7 @@ public class TestPread extends TestCase {
       assertTrue("Cannot delete file", false);
     
     // now create the real file
-    stm = fileSys.create(name, true, 4096, (short)1, (long)blockSize);
+    stm = fileSys.create(name, true, 4096, replication, (long)blockSize);
     Random rand = new Random(seed);
     rand.nextBytes(buffer);
     stm.write(buffer);
@@ -189,6 +190,45 @@ public class TestPread extends TestCase {
     }
   }
   
+  /**
+   * Tests hedged positional reads.  With a threshold of 0 every read is
+   * hedged right away.
+   */
+  public void testHedgedPreadDFS() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setLong("dfs.block.size", 4096);
+    conf.setLong("dfs.read.prefetch.size", 4096);
+    conf.setInt("dfs.client.hedged.read.threadpool.size", 5);
+    conf.setLong("dfs.client.hedged.read.threshold.millis", 0);
+    replication = 3;
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 3, true, null);
+    FileSystem fileSys = cluster.getFileSystem();
+    try {
+      Path file1 = new Path("hedgedpreadtest.dat");
+      writeFile(fileSys, file1);
+      pReadFile(fileSys, file1);
+      cleanupFile(fileSys, file1);
+      DFSClient.HedgedReadMetrics metrics =
+        ((DistributedFileSystem)fileSys).getClient().getHedgedReadMetrics();
+      assertTrue(metrics.getHedgedReadOps() > 0);
+      assertTrue(metrics.getHedgedReadOpsWin() <= metrics.getHedgedReadOps());
+
+      // a block with a single replica has nothing to hedge with, the
+      // reads wait for the one datanode
+      long hedgedOps = metrics.getHedgedReadOps();
+      replication = 1;
+      Path file2 = new Path("hedgedpreadtest2.dat");
+      writeFile(fileSys, file2);
+      pReadFile(fileSys, file2);
+      cleanupFile(fileSys, file2);
+      assertEquals(hedgedOps, metrics.getHedgedReadOps());
+    } finally {
+      replication = 1;
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
   public void testPreadDFSSimulated() throws IOException {
     simulatedStorage = true;
     testPreadDFS();
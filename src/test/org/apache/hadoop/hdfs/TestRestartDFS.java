@@ -32,6 +32,21 @@ public class TestRestartDFS extends TestCase {
   /** check if DFS remains in proper condition after a restart */
   public void testRestartDFS() throws Exception {
     final Configuration conf = new Configuration();
+    runTests(conf);
+  }
+
+  /**
+   * check if DFS remains in proper condition after a restart
+   * when the image is compressed and loaded by several threads
+   */
+  public void testRestartDFSWithCompressedImage() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.setBoolean("dfs.image.compress", true);
+    conf.setInt("dfs.image.load.threads", 3);
+    runTests(conf);
+  }
+
+  private void runTests(Configuration conf) throws Exception {
     MiniDFSCluster cluster = null;
     DFSTestUtil files = new DFSTestUtil("TestRestartDFS", 20, 3, 8*1024);
 
@@ -72,6 +87,20 @@ public class TestRestartDFS extends TestCase {
       final FileStatus newdirstatus = fs.getFileStatus(dirpath);
       assertEquals(dirstatus.getOwner(), newdirstatus.getOwner());
       assertEquals(dirstatus.getGroup() + "_XXX", newdirstatus.getGroup());
+    } finally {
+      if (cluster != null) { cluster.shutdown(); }
+    }
+    try {
+      // Restart again: this time the namespace comes from the image
+      // saved during the previous startup rather than from the edits
+      cluster = new MiniDFSCluster(conf, 4, false, null);
+      FileSystem fs = cluster.getFileSystem();
+      assertTrue("Filesystem corrupted after second restart.",
+                 files.checkFiles(fs, dir));
+      assertEquals(rootmtime,
+                   fs.getFileStatus(rootpath).getModificationTime());
+      assertEquals(dirstatus.getGroup() + "_XXX",
+                   fs.getFileStatus(dirpath).getGroup());
 
       files.cleanup(fs, dir);
     } finally {
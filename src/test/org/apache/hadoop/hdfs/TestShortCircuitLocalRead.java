@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
+import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UnixUserGroupInformation;
+
+/**
+ * Test reading blocks directly from the local file system of the datanode.
+ */
+public class TestShortCircuitLocalRead extends TestCase {
+  static final long seed = 0xDEADBEEFL;
+  static final int blockSize = 4096;
+  static final int fileSize = 3 * blockSize + 100;
+
+  private MiniDFSCluster cluster;
+  private Configuration conf;
+  private byte[] fileData;
+
+  protected void setUp() throws Exception {
+    conf = new Configuration();
+    conf.setBoolean("dfs.client.read.shortcircuit", true);
+    conf.set("dfs.block.local-path-access.user",
+             UnixUserGroupInformation.login(conf).getUserName());
+    cluster = new MiniDFSCluster(conf, 1, true, null);
+    cluster.waitActive();
+    fileData = new byte[fileSize];
+    new Random(seed).nextBytes(fileData);
+  }
+
+  protected void tearDown() throws Exception {
+    cluster.shutdown();
+  }
+
+  private void writeFile(FileSystem fs, Path name) throws IOException {
+    FSDataOutputStream out = fs.create(name, true, 4096, (short)1,
+                                       (long)blockSize);
+    out.write(fileData);
+    out.close();
+  }
+
+  private void checkData(byte[] actual, int from, String message) {
+    for (int idx = 0; idx < actual.length; idx++) {
+      assertEquals(message + " byte " + (from + idx) + " differs",
+                   fileData[from + idx], actual[idx]);
+    }
+  }
+
+  /** Read the file sequentially, after seeks and with preads. */
+  private void checkFileContent(FileSystem fs, Path name) throws IOException {
+    FSDataInputStream in = fs.open(name);
+    byte[] actual = new byte[fileSize];
+    in.readFully(actual);
+    checkData(actual, 0, "Sequential read");
+
+    int[] offsets = {0, 1, 511, 512, blockSize - 1, blockSize + 700,
+                     fileSize - 100};
+    for (int offset : offsets) {
+      byte[] part = new byte[Math.min(1000, fileSize - offset)];
+      in.seek(offset);
+      in.readFully(part);
+      checkData(part, offset, "Read after seek");
+      in.readFully(offset, part);
+      checkData(part, offset, "Pread");
+    }
+    in.close();
+  }
+
+  public void testLocalRead() throws IOException {
+    FileSystem fs = cluster.getFileSystem();
+    Path file = new Path("/test/localRead.dat");
+    writeFile(fs, file);
+    checkFileContent(fs, file);
+  }
+
+  public void testLocalReadWithoutChecksum() throws IOException {
+    FileSystem fs = cluster.getFileSystem();
+    Path file = new Path("/test/localReadNoChecksum.dat");
+    writeFile(fs, file);
+    fs.setVerifyChecksum(false);
+    checkFileContent(fs, file);
+  }
+
+  public void testGetBlockLocalPathInfo() throws Exception {
+    FileSystem fs = cluster.getFileSystem();
+    Path file = new Path("/test/pathInfo.dat");
+    writeFile(fs, file);
+    LocatedBlock lb = new DFSClient(conf).namenode.getBlockLocations(
+        file.toString(), 0, blockSize).get(0);
+
+    ClientDatanodeProtocol proxy = DFSClient.createClientDatanodeProtocolProxy(
+        lb.getLocations()[0], conf);
+    try {
+      BlockLocalPathInfo info = proxy.getBlockLocalPathInfo(lb.getBlock());
+      assertEquals(lb.getBlock().getBlockId(), info.getBlock().getBlockId());
+      assertEquals(blockSize, new File(info.getBlockPath()).length());
+      assertTrue(new File(info.getMetaPath()).exists());
+    } finally {
+      RPC.stopProxy(proxy);
+    }
+
+    // another user is not allowed to get the local paths...
+    Configuration otherConf = new Configuration(conf);
+    UnixUserGroupInformation.saveToConf(otherConf,
+        UnixUserGroupInformation.UGI_PROPERTY_NAME,
+        new UnixUserGroupInformation("alien", new String[] {"alien"}));
+    proxy = DFSClient.createClientDatanodeProtocolProxy(
+        lb.getLocations()[0], otherConf);
+    try {
+      proxy.getBlockLocalPathInfo(lb.getBlock());
+      fail("Another user got the local path of " + lb.getBlock());
+    } catch (RemoteException re) {
+      assertTrue(re.unwrapRemoteException(AccessControlException.class)
+                 instanceof AccessControlException);
+    } finally {
+      RPC.stopProxy(proxy);
+    }
+
+    // ...but still reads the file through the datanode
+    FileSystem otherFs = FileSystem.get(fs.getUri(), otherConf);
+    try {
+      checkFileContent(otherFs, file);
+    } finally {
+      otherFs.close();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * DataXceiverLoadBenchmark
+ *   Synopsis: DataXceiverLoadBenchmark [-connections idleConnections]
+ *        [-readers numReaders] [-size fileBytes] [-time seconds]
+ *
+ *   Opens the given number of connections to the data transfer port
+ *   of a single data node and keeps them idle, the way clients that
+ *   cache connections to many data nodes do, while the readers keep
+ *   reading random 4KB ranges of a file.  Reports the random reads
+ *   per second and the number of threads in the process.
+ *
+ *   Client and data node run in the same process, so every connection
+ *   takes two file descriptors: raise the limit (ulimit -n) accordingly.
+ */
+public class DataXceiverLoadBenchmark {
+  static final String USAGE = "Usage: DataXceiverLoadBenchmark"
+    + " [-connections idleConnections] [-readers numReaders]"
+    + " [-size fileBytes] [-time seconds]";
+
+  private static class Reader extends Thread {
+    private final FSDataInputStream in;
+    private final long size;
+    private final AtomicLong reads;
+    private volatile boolean done = false;
+    private IOException error = null;
+
+    Reader(FSDataInputStream in, long size, AtomicLong reads) {
+      this.in = in;
+      this.size = size;
+      this.reads = reads;
+    }
+
+    public void run() {
+      Random random = new Random();
+      byte[] buffer = new byte[4096];
+      try {
+        while (!done) {
+          long position = (long)(random.nextDouble() * (size - buffer.length));
+          in.readFully(position, buffer);
+          reads.incrementAndGet();
+        }
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int connections = 20000;
+    int readers = 20;
+    long size = 16L << 20;
+    int seconds = 10;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-connections") && i + 1 < args.length) {
+        connections = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-readers") && i + 1 < args.length) {
+        readers = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-size") && i + 1 < args.length) {
+        size = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-time") && i + 1 < args.length) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+
+    Configuration conf = new Configuration();
+    // idle connections must outlive the benchmark
+    conf.setInt("dfs.socket.timeout", (seconds + 60) * 1000);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    Socket[] idle = new Socket[connections];
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      Path file = new Path("/bench/file");
+      DFSTestUtil.createFile(fs, file, size, (short)1, 0L);
+
+      DataNode datanode = cluster.getDataNodes().get(0);
+      InetSocketAddress addr = datanode.getSelfAddr();
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < connections; i++) {
+        idle[i] = new Socket(addr.getAddress(), addr.getPort());
+      }
+      System.out.println("Opened " + connections + " idle connections in "
+                         + (System.currentTimeMillis() - start) + " ms");
+
+      AtomicLong reads = new AtomicLong();
+      Reader[] readerList = new Reader[readers];
+      for (int i = 0; i < readers; i++) {
+        readerList[i] = new Reader(fs.open(file), size, reads);
+        readerList[i].start();
+      }
+      double rate;
+      int threads;
+      try {
+        // warm up, then measure
+        Thread.sleep(Math.min(2000, seconds * 1000L));
+        long startReads = reads.get();
+        start = System.currentTimeMillis();
+        Thread.sleep(seconds * 1000L);
+        long elapsed = System.currentTimeMillis() - start;
+        rate = (reads.get() - startReads) * 1000.0 / elapsed;
+        threads = Thread.activeCount();
+      } finally {
+        for (Reader reader : readerList) {
+          reader.done = true;
+        }
+        for (Reader reader : readerList) {
+          reader.join();
+          reader.in.close();
+          if (reader.error != null) {
+            throw reader.error;
+          }
+        }
+      }
+
+      System.out.println("--- Random reads with idle connections ---");
+      System.out.println("# idle connections: " + connections);
+      System.out.println("# readers:          " + readers);
+      System.out.println("reads/sec:          " + (long)rate);
+      System.out.println("threads:            " + threads);
+    } finally {
+      for (Socket s : idle) {
+        IOUtils.closeSocket(s);
+      }
+      cluster.shutdown();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+/**
+ * PipelineBenchmark
+ *   Synopsis: PipelineBenchmark [-files n] [-size fileBytes]
+ *        [-packets asyncPackets]
+ *
+ *   Writes the given number of files with replication 3 to a cluster of
+ *   three data nodes, and reports the write throughput in MB/s: once with
+ *   each packet written to disk before the next one is received, and
+ *   once with the disk writes done by a thread of their own that may
+ *   fall the given number of packets behind
+ *   (dfs.datanode.write.async.packets).  The first file of each round
+ *   warms up and is not counted.
+ */
+public class PipelineBenchmark {
+  static final String USAGE = "Usage: PipelineBenchmark"
+    + " [-files n] [-size fileBytes] [-packets asyncPackets]";
+
+  public static void main(String[] args) throws Exception {
+    int files = 5;
+    long size = 256L << 20;
+    int packets = 16;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-files") && i + 1 < args.length) {
+        files = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-size") && i + 1 < args.length) {
+        size = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-packets") && i + 1 < args.length) {
+        packets = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+
+    System.out.println("--- Pipeline writes, " + files + " files of "
+                       + size + " bytes, replication 3 ---");
+    for (int asyncPackets : new int[] {0, packets}) {
+      double mbPerSec = run(files, size, asyncPackets);
+      System.out.println(String.format("%-22s %8.1f MB/s",
+          asyncPackets == 0 ? "synchronous" :
+                              "async, " + asyncPackets + " packets",
+          mbPerSec));
+    }
+  }
+
+  private static double run(int files, long size, int asyncPackets)
+                            throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt("dfs.datanode.write.async.packets", asyncPackets);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 3, true, null);
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      byte[] buffer = new byte[64 * 1024];
+      writeFile(fs, new Path("/bench/warmup"), size, buffer);
+
+      long start = System.nanoTime();
+      for (int i = 0; i < files; i++) {
+        writeFile(fs, new Path("/bench/file" + i), size, buffer);
+      }
+      long elapsed = System.nanoTime() - start;
+      return (double)size * files * 1000.0 / elapsed;
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static void writeFile(FileSystem fs, Path file, long size,
+                                byte[] buffer) throws IOException {
+    FSDataOutputStream out = fs.create(file, (short)3);
+    try {
+      for (long written = 0; written < size; written += buffer.length) {
+        out.write(buffer, 0, (int)Math.min(buffer.length, size - written));
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
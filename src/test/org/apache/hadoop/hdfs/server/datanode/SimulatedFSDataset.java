@@ -31,6 +31,7 @@ import javax.management.StandardMBean;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.metrics.util.MBeanUtil;
@@ -464,6 +465,12 @@ public class SimulatedFSDataset  implements FSConstants, FSDatasetInterface, Con
                                                 getMetaDataLength(b));
   }
 
+  /** Simulated blocks have no local files. */
+  public BlockLocalPathInfo getBlockLocalPathInfo(Block b) throws IOException {
+    throw new IOException("getBlockLocalPathInfo is not supported by"
+                          + " SimulatedFSDataset");
+  }
+
   public synchronized boolean metaFileExists(Block b) throws IOException {
     if (!isValidBlock(b)) {
           throw new IOException("Block " + b +
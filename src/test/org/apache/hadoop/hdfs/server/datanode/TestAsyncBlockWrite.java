@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+/**
+ * Test writing blocks through a pipeline whose datanodes write the
+ * packets to disk in a separate thread.
+ */
+public class TestAsyncBlockWrite extends TestCase {
+  static final int blockSize = 64 * 1024;
+
+  public void testAsyncWrite() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt("dfs.datanode.write.async.packets", 2);
+    conf.setLong("dfs.block.size", blockSize);
+    conf.setInt("io.bytes.per.checksum", 512);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 3, true, null);
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+
+      // small writes and syncs make many small packets
+      byte[] data = new byte[5 * blockSize + 1234];
+      new Random(0).nextBytes(data);
+      Path file = new Path("/test/async.dat");
+      FSDataOutputStream out = fs.create(file, (short)3);
+      for (int off = 0; off < data.length; off += 777) {
+        out.write(data, off, Math.min(777, data.length - off));
+        if (off % (7 * 777) == 0) {
+          out.sync();
+        }
+      }
+      out.close();
+      DFSTestUtil.waitReplication(fs, file, (short)3);
+
+      byte[] actual = new byte[data.length];
+      FSDataInputStream in = fs.open(file);
+      in.readFully(actual);
+      in.close();
+      for (int i = 0; i < data.length; i++) {
+        assertEquals("byte " + i + " differs", data[i], actual[i]);
+      }
+      assertEquals(data.length, fs.getFileStatus(file).getLen());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
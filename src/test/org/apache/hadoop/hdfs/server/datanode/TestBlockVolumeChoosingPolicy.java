@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.FSDataset.FSVolume;
+import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
+
+/**
+ * Test the policies choosing the volume of a new block, on the volumes
+ * of a real datanode.
+ */
+public class TestBlockVolumeChoosingPolicy extends TestCase {
+  private MiniDFSCluster cluster;
+  private FSDataset dataset;
+  private FSVolume[] volumes;
+
+  protected void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setClass("dfs.datanode.block.volume.choice.policy",
+                  LeastActiveWritersVolumeChoosingPolicy.class,
+                  BlockVolumeChoosingPolicy.class);
+    cluster = new MiniDFSCluster(conf, 1, true, null);
+    cluster.waitActive();
+    dataset = (FSDataset)cluster.getDataNodes().get(0).getFSDataset();
+    volumes = dataset.volumes.volumes;
+    assertEquals(2, volumes.length);
+  }
+
+  protected void tearDown() throws Exception {
+    cluster.shutdown();
+  }
+
+  private void checkOutOfSpace(BlockVolumeChoosingPolicy policy)
+      throws Exception {
+    try {
+      policy.chooseVolume(volumes, Long.MAX_VALUE);
+      fail("Chose a volume for a block larger than any disk");
+    } catch (DiskOutOfSpaceException e) {
+      // expected
+    }
+  }
+
+  public void testRoundRobin() throws Exception {
+    BlockVolumeChoosingPolicy policy = new RoundRobinVolumesPolicy();
+    assertSame(volumes[0], policy.chooseVolume(volumes, 0));
+    assertSame(volumes[1], policy.chooseVolume(volumes, 0));
+    assertSame(volumes[0], policy.chooseVolume(volumes, 0));
+    checkOutOfSpace(policy);
+  }
+
+  public void testAvailableSpace() throws Exception {
+    BlockVolumeChoosingPolicy policy = new AvailableSpaceVolumeChoosingPolicy();
+    Set<FSVolume> chosen = new HashSet<FSVolume>();
+    for (int i = 0; i < 100; i++) {
+      chosen.add(policy.chooseVolume(volumes, 0));
+    }
+    // both volumes are on the same disk, so they are equally likely
+    assertEquals(2, chosen.size());
+    checkOutOfSpace(policy);
+  }
+
+  public void testLeastActiveWriters() throws Exception {
+    BlockVolumeChoosingPolicy policy =
+      new LeastActiveWritersVolumeChoosingPolicy();
+    // ties are broken round-robin
+    assertSame(volumes[0], policy.chooseVolume(volumes, 0));
+    assertSame(volumes[1], policy.chooseVolume(volumes, 0));
+
+    volumes[0].writerStarted();
+    try {
+      for (int i = 0; i < 4; i++) {
+        assertSame(volumes[1], policy.chooseVolume(volumes, 0));
+      }
+    } finally {
+      volumes[0].writerStopped();
+    }
+    checkOutOfSpace(policy);
+  }
+
+  private int getActiveWriters() {
+    int writers = 0;
+    for (FSVolume volume : volumes) {
+      writers += volume.getActiveWriters();
+    }
+    return writers;
+  }
+
+  /** The active writers of the volumes follow the blocks being written. */
+  public void testActiveWriters() throws Exception {
+    FileSystem fs = cluster.getFileSystem();
+    FSDataOutputStream[] out = new FSDataOutputStream[2];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = fs.create(new Path("/test/file" + i), (short)1);
+      out[i].write(new byte[1000]);
+      out[i].sync();
+    }
+    assertEquals(out.length, getActiveWriters());
+    // the least active writers policy put the blocks on different volumes
+    assertEquals(1, volumes[0].getActiveWriters());
+    assertEquals(1, volumes[1].getActiveWriters());
+
+    for (int i = 0; i < out.length; i++) {
+      out[i].close();
+    }
+    assertEquals(0, getActiveWriters());
+  }
+}
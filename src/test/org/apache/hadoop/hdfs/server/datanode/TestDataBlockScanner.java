@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSCluster.DataNodeProperties;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+
+/**
+ * Test the scanners of the volumes of a datanode and their verification
+ * logs.  The datanodes of MiniDFSCluster have two volumes.
+ */
+public class TestDataBlockScanner extends TestCase {
+  static final String LOG_CURR =
+    DataBlockScanner.verificationLogFile + ".curr";
+  static final String LOG_PREV =
+    DataBlockScanner.verificationLogFile + ".prev";
+  static final int BLOCK_SIZE = 1024;
+  static final long TIMEOUT = 60 * 1000L;
+
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+
+  protected void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong("dfs.block.size", BLOCK_SIZE);
+    cluster = new MiniDFSCluster(conf, 1, true, null);
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    // one block on each volume
+    for (int i = 0; i < 2; i++) {
+      DFSTestUtil.createFile(fs, new Path("/test/file" + i), BLOCK_SIZE,
+                             (short)1, i);
+    }
+  }
+
+  protected void tearDown() throws Exception {
+    cluster.shutdown();
+  }
+
+  private static void waitFor(String what, long deadline)
+      throws InterruptedException {
+    assertTrue("Timed out waiting for " + what,
+               System.currentTimeMillis() < deadline);
+    Thread.sleep(100);
+  }
+
+  /** Wait for the scanners of the volumes of the datanode to start. */
+  private static DataNode waitForScanners(MiniDFSCluster cluster)
+      throws InterruptedException {
+    DataNode dn = cluster.getDataNodes().get(0);
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (dn.blockScanner == null || !dn.blockScanner.isInitiliazed()) {
+      waitFor("the block scanners", deadline);
+    }
+    return dn;
+  }
+
+  private static FSDataset.FSVolume[] getVolumes(DataNode dn) {
+    return ((FSDataset)dn.data).volumes.volumes;
+  }
+
+  /** @return the block on a volume which holds one block */
+  private static Block getOnlyBlock(FSDataset.FSVolume volume) {
+    TreeSet<Block> blocks = new TreeSet<Block>();
+    volume.getBlockInfo(blocks);
+    assertEquals(1, blocks.size());
+    return blocks.first();
+  }
+
+  private static void deleteLogs(File dir) {
+    new File(dir, LOG_CURR).delete();
+    new File(dir, LOG_PREV).delete();
+    assertFalse(new File(dir, LOG_CURR).exists());
+  }
+
+  public void testVolumeLogs() throws Exception {
+    DataNode dn = waitForScanners(cluster);
+    FSDataset.FSVolume[] volumes = getVolumes(dn);
+    assertEquals(2, volumes.length);
+    for (FSDataset.FSVolume volume : volumes) {
+      assertTrue(new File(volume.getDir(), LOG_CURR).exists());
+    }
+  }
+
+  /**
+   * A volume without a log of its own, as after an upgrade from the
+   * single log of all the volumes, reads the verification times of its
+   * blocks from the logs of the other volumes.
+   */
+  public void testOldLogOfOtherVolume() throws Exception {
+    DataNode dn = waitForScanners(cluster);
+    FSDataset.FSVolume[] volumes = getVolumes(dn);
+    File firstDir = volumes[0].getDir();
+    File secondDir = volumes[1].getDir();
+    Block block = getOnlyBlock(volumes[1]);
+
+    DataNodeProperties dnProps = cluster.stopDataNode(0);
+    deleteLogs(secondDir);
+    long verificationTime = System.currentTimeMillis() - 3600 * 1000L;
+    FileWriter out = new FileWriter(new File(firstDir, LOG_CURR), true);
+    try {
+      out.write("\ntime=\"" + verificationTime + "\"\t " +
+                "genstamp=\"" + block.getGenerationStamp() + "\"\t " +
+                "id=\"" + block.getBlockId() + "\"");
+    } finally {
+      out.close();
+    }
+
+    assertTrue(cluster.restartDataNode(dnProps));
+    cluster.waitActive();
+    dn = waitForScanners(cluster);
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (dn.blockScanner.getLastScanTime(block) != verificationTime) {
+      waitFor("the verification time of " + block, deadline);
+    }
+    assertTrue(new File(secondDir, LOG_CURR).exists());
+  }
+
+  /** A corrupt replica on the second volume is detected by its scanner. */
+  public void testCorruptReplicaOnSecondVolume() throws Exception {
+    DataNode dn = waitForScanners(cluster);
+    FSDataset.FSVolume[] volumes = getVolumes(dn);
+    File secondDir = volumes[1].getDir();
+    Block block = getOnlyBlock(volumes[1]);
+    File blockFile = ((FSDataset)dn.data).getFile(block);
+
+    DataNodeProperties dnProps = cluster.stopDataNode(0);
+    RandomAccessFile raf = new RandomAccessFile(blockFile, "rw");
+    try {
+      raf.seek(BLOCK_SIZE / 2);
+      raf.write("BADBAD".getBytes());
+    } finally {
+      raf.close();
+    }
+    // forget the verification times, so that the block is due right away
+    deleteLogs(secondDir);
+
+    assertTrue(cluster.restartDataNode(dnProps));
+    cluster.waitActive();
+    FSNamesystem namesystem = cluster.getNameNode().getNamesystem();
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (namesystem.getCorruptReplicaBlocksCount() < 1) {
+      waitFor("the corrupt replica of " + block + " to be reported", deadline);
+    }
+  }
+}
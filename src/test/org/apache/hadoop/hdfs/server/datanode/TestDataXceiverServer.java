@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.DataTransferProtocol;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+
+/**
+ * Test that idle connections to the data transfer port are parked
+ * without using up xceivers, that they are parked again after a read,
+ * and closed when they time out.
+ */
+public class TestDataXceiverServer extends TestCase {
+  private static final int MAX_XCEIVERS = 4;
+  private static final int IDLE_CONNECTIONS = 50;
+  private static final int SOCKET_TIMEOUT = 5000;
+
+  public void testIdleConnections() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("dfs.datanode.max.xcievers", MAX_XCEIVERS);
+    conf.setInt("dfs.socket.timeout", SOCKET_TIMEOUT);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    Socket[] idle = new Socket[IDLE_CONNECTIONS];
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      Path file = new Path("/test/idle");
+      DFSTestUtil.createFile(fs, file, 10000L, (short)1, 0L);
+
+      DataNode datanode = cluster.getDataNodes().get(0);
+      DataXceiverServer server =
+        (DataXceiverServer)datanode.dataXceiverServer.getRunnable();
+      InetSocketAddress addr = datanode.getSelfAddr();
+      for (int i = 0; i < IDLE_CONNECTIONS; i++) {
+        idle[i] = new Socket(addr.getAddress(), addr.getPort());
+      }
+      while (server.getParkedConnectionCount() < IDLE_CONNECTIONS) {
+        Thread.sleep(100);
+      }
+      assertTrue(datanode.getXceiverCount() <= MAX_XCEIVERS);
+
+      // the idle connections do not keep us from reading
+      byte[] buffer = new byte[10000];
+      FSDataInputStream in = fs.open(file);
+      in.readFully(0, buffer);
+      in.close();
+
+      // the idle connections are closed after the socket timeout
+      long start = System.currentTimeMillis();
+      for (Socket s : idle) {
+        s.setSoTimeout(4 * SOCKET_TIMEOUT);
+        InputStream sin = s.getInputStream();
+        assertEquals(-1, sin.read());
+      }
+      assertTrue(System.currentTimeMillis() - start < 3 * SOCKET_TIMEOUT);
+      while (server.getParkedConnectionCount() > 0) {
+        Thread.sleep(100);
+      }
+    } finally {
+      for (Socket s : idle) {
+        IOUtils.closeSocket(s);
+      }
+      cluster.shutdown();
+    }
+  }
+
+  public void testConnectionReuse() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("dfs.socket.timeout", SOCKET_TIMEOUT);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    Socket s = null;
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      Path file = new Path("/test/reuse");
+      DFSTestUtil.createFile(fs, file, 10000L, (short)1, 0L);
+      Block block = DFSTestUtil.getFirstBlock(fs, file);
+
+      DataNode datanode = cluster.getDataNodes().get(0);
+      DataXceiverServer server =
+        (DataXceiverServer)datanode.dataXceiverServer.getRunnable();
+      InetSocketAddress addr = datanode.getSelfAddr();
+      s = new Socket(addr.getAddress(), addr.getPort());
+      s.setSoTimeout(4 * SOCKET_TIMEOUT);
+      DataOutputStream out = new DataOutputStream(s.getOutputStream());
+      DataInputStream in = new DataInputStream(s.getInputStream());
+
+      // the requests together take longer than the socket timeout, but
+      // the connection is only idle between two of them
+      MD5Hash first = null;
+      for (int i = 0; i < 3; i++) {
+        if (i > 0) {
+          Thread.sleep(SOCKET_TIMEOUT * 3 / 5);
+        }
+        out.writeShort(DataTransferProtocol.DATA_TRANSFER_VERSION);
+        out.writeByte(DataTransferProtocol.OP_BLOCK_CHECKSUM);
+        out.writeLong(block.getBlockId());
+        out.writeLong(block.getGenerationStamp());
+        out.flush();
+        assertEquals(DataTransferProtocol.OP_STATUS_SUCCESS, in.readShort());
+        in.readInt();                    // bytes per checksum
+        in.readLong();                   // checksums per block
+        MD5Hash md5 = MD5Hash.read(in);
+        if (first == null) {
+          first = md5;
+        } else {
+          assertEquals(first, md5);
+        }
+        while (server.getParkedConnectionCount() < 1) {
+          Thread.sleep(100);
+        }
+      }
+
+      // the connection is closed once it stays idle
+      long start = System.currentTimeMillis();
+      assertEquals(-1, in.read());
+      assertTrue(System.currentTimeMillis() - start < 3 * SOCKET_TIMEOUT);
+    } finally {
+      IOUtils.closeSocket(s);
+      cluster.shutdown();
+    }
+  }
+}
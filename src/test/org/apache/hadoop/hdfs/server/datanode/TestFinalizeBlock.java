@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.datanode.FSDatasetInterface.BlockWriteStreams;
+import org.apache.hadoop.util.DataChecksum;
+
+/**
+ * Test that a block being finalized is seen consistently by the lookups
+ * that do not lock the dataset.
+ */
+public class TestFinalizeBlock extends TestCase {
+  static final int NUM_BLOCKS = 200;
+  static final int NUM_READERS = 4;
+  static final int BLOCK_LENGTH = 4096;
+  static final long BLOCK_ID_BASE = 1L << 40;
+  static final long GENERATION_STAMP = 1001;
+
+  private static void writeBlock(FSDataset data, Block b) throws IOException {
+    BlockWriteStreams streams = data.writeToBlock(b, false);
+    try {
+      streams.dataOut.write(new byte[BLOCK_LENGTH]);
+      BlockMetadataHeader.writeHeader(
+          new DataOutputStream(streams.checksumOut),
+          DataChecksum.newDataChecksum(DataChecksum.CHECKSUM_CRC32, 512));
+    } finally {
+      streams.dataOut.close();
+      streams.checksumOut.close();
+    }
+    b.setNumBytes(BLOCK_LENGTH);
+  }
+
+  /**
+   * Readers look up each block while it is finalized.  Once a lookup
+   * finds the block, it must find all of it.
+   */
+  public void testConcurrentFinalize() throws Exception {
+    MiniDFSCluster cluster = new MiniDFSCluster(new Configuration(), 1,
+                                                true, null);
+    try {
+      cluster.waitActive();
+      final FSDataset data =
+        (FSDataset)cluster.getDataNodes().get(0).getFSDataset();
+      final Throwable[] errors = new Throwable[NUM_READERS];
+      for (int i = 0; i < NUM_BLOCKS; i++) {
+        final Block b = new Block(BLOCK_ID_BASE + i, 0, GENERATION_STAMP);
+        writeBlock(data, b);
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread[] readers = new Thread[NUM_READERS];
+        for (int j = 0; j < readers.length; j++) {
+          final int idx = j;
+          readers[j] = new Thread() {
+            public void run() {
+              try {
+                while (!done.get()) {
+                  // the stored block is the temporary or the final file
+                  Block stored = data.getStoredBlock(b.getBlockId());
+                  assertNotNull(stored);
+                  assertEquals(BLOCK_LENGTH, stored.getNumBytes());
+                  File f = data.getFile(b);
+                  if (f != null) {
+                    // found finalized: it is readable from now on
+                    InputStream in = data.getBlockInputStream(b);
+                    in.close();
+                  }
+                }
+              } catch (Throwable t) {
+                errors[idx] = t;
+              }
+            }
+          };
+          readers[j].start();
+        }
+
+        data.finalizeBlock(b);
+        done.set(true);
+        for (Thread reader : readers) {
+          reader.join();
+        }
+        for (Throwable t : errors) {
+          if (t != null) {
+            throw new Exception("Lookup of " + b + " failed", t);
+          }
+        }
+        assertTrue(data.isValidBlock(b));
+        assertEquals(BLOCK_LENGTH, data.getLength(b));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
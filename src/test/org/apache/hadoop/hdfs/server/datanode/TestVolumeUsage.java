@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileUtil;
+
+/**
+ * Test the in-process accounting of the space used by a volume.
+ */
+public class TestVolumeUsage extends TestCase {
+  private static final File TEST_DIR = new File(
+      System.getProperty("test.build.data", "/tmp"), "TestVolumeUsage");
+
+  protected void setUp() throws Exception {
+    FileUtil.fullyDelete(TEST_DIR);
+    assertTrue(TEST_DIR.mkdirs());
+  }
+
+  protected void tearDown() throws Exception {
+    FileUtil.fullyDelete(TEST_DIR);
+  }
+
+  private static void createFile(File f, int length) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(new byte[length]);
+    } finally {
+      out.close();
+    }
+  }
+
+  public void testUsage() throws Exception {
+    File subdir = new File(TEST_DIR, "subdir0");
+    assertTrue(subdir.mkdirs());
+    createFile(new File(TEST_DIR, "blk_1"), 1000);
+    createFile(new File(TEST_DIR, "blk_1_1001.meta"), 15);
+    createFile(new File(subdir, "blk_2"), 2000);
+    createFile(new File(subdir, "blk_2_1001.meta"), 23);
+    // only block and meta files are counted
+    createFile(new File(TEST_DIR, "VERSION"), 100);
+
+    VolumeUsage usage = new VolumeUsage(TEST_DIR, 0);
+    assertEquals(0, usage.getUsed());
+    usage.init();
+    assertEquals(3038, usage.getUsed());
+
+    // changes are counted in place
+    createFile(new File(subdir, "blk_3"), 500);
+    createFile(new File(subdir, "blk_3_1001.meta"), 11);
+    usage.incDfsUsed(511);
+    assertEquals(3549, usage.getUsed());
+    assertTrue(new File(TEST_DIR, "blk_1").delete());
+    usage.decDfsUsed(1000);
+    assertEquals(2549, usage.getUsed());
+    assertEquals(0, usage.reconcile());
+
+    // a missed change is corrected by the walk and shows as drift
+    assertTrue(new File(TEST_DIR, "blk_1_1001.meta").delete());
+    assertEquals(-15, usage.reconcile());
+    assertEquals(-15, usage.getLastDrift());
+    assertEquals(2534, usage.getUsed());
+    assertEquals(0, usage.reconcile());
+  }
+
+  /** Changes counted during a walk are not counted twice. */
+  public void testChangesDuringWalk() throws Exception {
+    VolumeUsage usage = new VolumeUsage(TEST_DIR, 0);
+    usage.incDfsUsed(1000);
+
+    // a block of 500 bytes is finalized during the walk; the walk may
+    // or may not see it
+    usage.incDfsUsed(500);
+    assertEquals(0, usage.reconcile(1000, 1500));
+    assertEquals(1500, usage.getUsed());
+    usage.incDfsUsed(500);
+    assertEquals(0, usage.reconcile(1500, 1500));
+    assertEquals(2000, usage.getUsed());
+
+    // a block is deleted during the walk, and 100 bytes were missed
+    usage.decDfsUsed(500);
+    assertEquals(-100, usage.reconcile(2000, 1400));
+    assertEquals(1400, usage.getUsed());
+    usage.decDfsUsed(400);
+    assertEquals(-100, usage.reconcile(1400, 900));
+    assertEquals(900, usage.getUsed());
+
+    // a missed change larger than the concurrent ones is corrected
+    usage.incDfsUsed(100);
+    assertEquals(300, usage.reconcile(900, 1300));
+    assertEquals(1300, usage.getUsed());
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.common.GenerationStamp;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+import org.apache.hadoop.hdfs.util.LightWeightGSet;
+
+/**
+ * BlocksMapMemoryBenchmark
+ *   Synopsis: BlocksMapMemoryBenchmark [-blocks numBlocks]
+ *        [-replication replication] [-heapPercent percent]
+ *
+ *   Measures the heap used per block by the name node's blocks map.
+ *   The blocks are first stored in a {@link HashMap} keyed by
+ *   block, the way the blocks map used to keep them, and then in
+ *   a {@link BlocksMap}, which is backed by a {@link LightWeightGSet}.
+ *   Both numbers include the {@link BlockInfo} objects themselves.
+ *
+ *   Run it with a heap large enough to hold the blocks twice, e.g.
+ *   <code>java -Xmx2g ... BlocksMapMemoryBenchmark -blocks 5000000</code>
+ */
+public class BlocksMapMemoryBenchmark {
+  static final String USAGE = "Usage: BlocksMapMemoryBenchmark"
+    + " [-blocks numBlocks] [-replication replication]"
+    + " [-heapPercent percent]";
+
+  /** Bytes per block used by the old HashMap based map. */
+  static double hashMapBytesPerBlock(int numBlocks, short replication) {
+    long before = usedMemory();
+    Map<Block, BlockInfo> map = new HashMap<Block, BlockInfo>();
+    for (int i = 0; i < numBlocks; i++) {
+      BlockInfo info = new BlockInfo(newBlock(i), replication);
+      map.put(info, info);
+    }
+    long after = usedMemory();
+    if (map.size() != numBlocks) {
+      throw new IllegalStateException("map.size() = " + map.size());
+    }
+    return (double)(after - before) / numBlocks;
+  }
+
+  /** Bytes per block used by {@link BlocksMap}. */
+  static double blocksMapBytesPerBlock(int numBlocks, short replication,
+                                       float heapPercent) {
+    INodeFile file = new INodeFile(new PermissionStatus("user", "group",
+        new FsPermission((short)0644)), 0, replication, 0L, 0L, 64L);
+    long before = usedMemory();
+    BlocksMap map = new BlocksMap(
+        LightWeightGSet.computeCapacity(heapPercent, "BlocksMap"));
+    for (int i = 0; i < numBlocks; i++) {
+      map.addINode(newBlock(i), file);
+    }
+    long after = usedMemory();
+    if (map.size() != numBlocks) {
+      throw new IllegalStateException("map.size() = " + map.size());
+    }
+    return (double)(after - before) / numBlocks;
+  }
+
+  private static Block newBlock(long id) {
+    // spread the ids the way random block ids would be
+    return new Block(id * 0x9E3779B97F4A7C15L, 0,
+                     GenerationStamp.FIRST_VALID_STAMP);
+  }
+
+  static long usedMemory() {
+    Runtime rt = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // the first gc calls may leave floating garbage behind
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException ignored) {
+      }
+      used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+    }
+    return used;
+  }
+
+  public static void main(String[] args) {
+    int numBlocks = 1000000;
+    short replication = 3;
+    float heapPercent = 2.0f;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-blocks") && i + 1 < args.length) {
+        numBlocks = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-replication") && i + 1 < args.length) {
+        replication = Short.parseShort(args[++i]);
+      } else if (args[i].equals("-heapPercent") && i + 1 < args.length) {
+        heapPercent = Float.parseFloat(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+
+    int capacity = LightWeightGSet.computeCapacity(heapPercent, "BlocksMap");
+    double before = hashMapBytesPerBlock(numBlocks, replication);
+    double after = blocksMapBytesPerBlock(numBlocks, replication, heapPercent);
+    System.out.println("--- BlocksMap memory ---");
+    System.out.println("# blocks:               " + numBlocks);
+    System.out.println("Replication:            " + replication);
+    System.out.println("BlocksMap capacity:     " + capacity);
+    System.out.println("HashMap bytes/block:    " + String.format("%.1f", before));
+    System.out.println("BlocksMap bytes/block:  " + String.format("%.1f", after));
+  }
+}
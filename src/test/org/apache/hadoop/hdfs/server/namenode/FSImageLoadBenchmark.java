@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
+import org.apache.hadoop.hdfs.server.common.GenerationStamp;
+
+/**
+ * FSImageLoadBenchmark
+ *   Synopsis: FSImageLoadBenchmark [-files numFiles]
+ *        [-filesPerDir filesPerDir] [-blocksPerFile blocksPerFile]
+ *        [-threads loadThreads] [-compress] [-image imageFile]
+ *
+ *   Generates a synthetic namespace, saves it as an image and then
+ *   loads the image with one thread and with the given number of
+ *   loading threads, reporting the time taken by each step.
+ *   This is the part of the name node startup that depends on the
+ *   size of the namespace.
+ *
+ *   Run it with a heap large enough for the namespace, e.g.
+ *   <code>java -Xmx8g ... FSImageLoadBenchmark -files 10000000 -compress</code>
+ */
+public class FSImageLoadBenchmark {
+  static final String USAGE = "Usage: FSImageLoadBenchmark"
+    + " [-files numFiles] [-filesPerDir filesPerDir]"
+    + " [-blocksPerFile blocksPerFile] [-threads loadThreads]"
+    + " [-compress] [-image imageFile]";
+
+  private final Configuration conf;
+  private final int numFiles;
+  private final int filesPerDir;
+  private final int blocksPerFile;
+
+  FSImageLoadBenchmark(Configuration conf, int numFiles, int filesPerDir,
+                       int blocksPerFile) {
+    this.conf = conf;
+    this.numFiles = numFiles;
+    this.filesPerDir = filesPerDir;
+    this.blocksPerFile = blocksPerFile;
+  }
+
+  private static FSImage newImage() {
+    FSImage image = new FSImage();
+    image.layoutVersion = FSConstants.LAYOUT_VERSION;
+    return image;
+  }
+
+  /**
+   * Generate the namespace: a root with one directory per
+   * filesPerDir files, spread over 100 top level directories.
+   * @return the generated name system
+   */
+  FSNamesystem generate() throws IOException {
+    FSNamesystem namesystem = new FSNamesystem(newImage(), conf);
+    FSDirectory fsDir = namesystem.dir;
+    PermissionStatus perm = new PermissionStatus("user", "group",
+        new FsPermission((short)0755));
+    INodeDirectory[] top = new INodeDirectory[100];
+    for (int i = 0; i < top.length; i++) {
+      top[i] = (INodeDirectory)fsDir.addToParent(
+          INode.string2Bytes("top" + i), fsDir.rootDir, perm, null,
+          (short)0, 0L, 0L, -1L, -1L, 0L);
+    }
+    long blockId = 1;
+    INodeDirectory dir = null;
+    for (int i = 0; i < numFiles; i++) {
+      if (i % filesPerDir == 0) {
+        int d = i / filesPerDir;
+        dir = (INodeDirectory)fsDir.addToParent(
+            INode.string2Bytes("dir" + d), top[d % top.length], perm, null,
+            (short)0, 0L, 0L, -1L, -1L, 0L);
+      }
+      Block[] blocks = new Block[blocksPerFile];
+      for (int j = 0; j < blocksPerFile; j++) {
+        blocks[j] = new Block(blockId++, 1024,
+                              GenerationStamp.FIRST_VALID_STAMP);
+      }
+      fsDir.addToParent(INode.string2Bytes("file" + i), dir, perm, blocks,
+                        (short)3, 0L, 0L, -1L, -1L, 64L * 1024 * 1024);
+    }
+    fsDir.updateCountForINodeWithQuota();
+    return namesystem;
+  }
+
+  /** Save the image of the name system. @return time in milliseconds */
+  static long save(FSNamesystem namesystem, File imageFile)
+      throws IOException {
+    long start = FSNamesystem.now();
+    namesystem.dir.fsImage.saveFSImage(imageFile);
+    return FSNamesystem.now() - start;
+  }
+
+  /**
+   * Load the image into a new name system.
+   * @return time in milliseconds
+   */
+  long load(File imageFile, int loadThreads, long expectedItems)
+      throws IOException {
+    Configuration loadConf = new Configuration(conf);
+    loadConf.setInt("dfs.image.load.threads", loadThreads);
+    FSNamesystem namesystem = new FSNamesystem(newImage(), loadConf);
+    long start = FSNamesystem.now();
+    namesystem.dir.fsImage.loadFSImage(imageFile);
+    long elapsed = FSNamesystem.now() - start;
+    namesystem.dir.updateCountForINodeWithQuota();
+    long items = namesystem.dir.rootDir.numItemsInTree();
+    if (items != expectedItems) {
+      throw new IOException("Loaded " + items + " inodes, expected "
+                            + expectedItems);
+    }
+    return elapsed;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int numFiles = 1000000;
+    int filesPerDir = 100;
+    int blocksPerFile = 1;
+    int threads = 4;
+    boolean compress = false;
+    File imageFile = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-files") && i + 1 < args.length) {
+        numFiles = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-filesPerDir") && i + 1 < args.length) {
+        filesPerDir = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-blocksPerFile") && i + 1 < args.length) {
+        blocksPerFile = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-compress")) {
+        compress = true;
+      } else if (args[i].equals("-image") && i + 1 < args.length) {
+        imageFile = new File(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+    if (imageFile == null) {
+      imageFile = File.createTempFile("fsimage", null);
+      imageFile.deleteOnExit();
+    }
+
+    Configuration conf = new Configuration();
+    conf.setBoolean("dfs.image.compress", compress);
+    FSImageLoadBenchmark bench = new FSImageLoadBenchmark(conf, numFiles,
+        filesPerDir, blocksPerFile);
+    FSNamesystem namesystem = bench.generate();
+    long numItems = namesystem.dir.rootDir.numItemsInTree();
+    long saveTime = save(namesystem, imageFile);
+    namesystem = null;
+    long loadTime1 = bench.load(imageFile, 1, numItems);
+    long loadTimeN = bench.load(imageFile, threads, numItems);
+
+    System.out.println("--- FSImage load ---");
+    System.out.println("# inodes:                  " + numItems);
+    System.out.println("Compressed:                " + compress);
+    System.out.println("Image size:                " + imageFile.length());
+    System.out.println("Save time (ms):            " + saveTime);
+    System.out.println("Load time, 1 thread (ms):  " + loadTime1);
+    System.out.println("Load time, " + threads + " threads (ms): " + loadTimeN);
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+
+/**
+ * GetFileInfoBenchmark
+ *   Synopsis: GetFileInfoBenchmark [-threads numCallers]
+ *        [-files numFiles] [-time seconds]
+ *
+ *   Measures the round trips per second of
+ *   {@link ClientProtocol#getFileInfo(String)} against a name node
+ *   running in the same process.  The name space is tiny, so the
+ *   cost is dominated by the RPC layer: encoding the call, dispatching
+ *   it to the name node and encoding the reply.
+ */
+public class GetFileInfoBenchmark {
+  static final String USAGE = "Usage: GetFileInfoBenchmark"
+    + " [-threads numCallers] [-files numFiles] [-time seconds]";
+
+  private static class Caller extends Thread {
+    private final ClientProtocol namenode;
+    private final int files;
+    private final AtomicLong calls;
+    private volatile boolean done = false;
+    private IOException error = null;
+
+    Caller(ClientProtocol namenode, int files, AtomicLong calls) {
+      this.namenode = namenode;
+      this.files = files;
+      this.calls = calls;
+    }
+
+    public void run() {
+      try {
+        for (int i = 0; !done; i++) {
+          if (namenode.getFileInfo("/bench/dir" + (i % files)) == null) {
+            throw new IOException("/bench/dir" + (i % files) + " not found");
+          }
+          calls.incrementAndGet();
+        }
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int threads = 10;
+    int files = 100;
+    int seconds = 10;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-files") && i + 1 < args.length) {
+        files = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-time") && i + 1 < args.length) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+
+    Configuration conf = new Configuration();
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 0, true, null);
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < files; i++) {
+        fs.mkdirs(new Path("/bench/dir" + i));
+      }
+      InetSocketAddress addr =
+        new InetSocketAddress("localhost", cluster.getNameNodePort());
+      ClientProtocol namenode = DFSClient.createNamenode(addr, conf);
+
+      AtomicLong calls = new AtomicLong();
+      Caller[] callers = new Caller[threads];
+      for (int i = 0; i < threads; i++) {
+        callers[i] = new Caller(namenode, files, calls);
+        callers[i].start();
+      }
+      double rate;
+      try {
+        // warm up, then measure
+        Thread.sleep(Math.min(2000, seconds * 1000L));
+        long startCalls = calls.get();
+        long start = System.currentTimeMillis();
+        Thread.sleep(seconds * 1000L);
+        long elapsed = System.currentTimeMillis() - start;
+        rate = (calls.get() - startCalls) * 1000.0 / elapsed;
+      } finally {
+        for (Caller caller : callers) {
+          caller.done = true;
+        }
+        for (Caller caller : callers) {
+          caller.join();
+          if (caller.error != null) {
+            throw caller.error;
+          }
+        }
+      }
+
+      System.out.println("--- getFileInfo round trips ---");
+      System.out.println("# callers: " + threads);
+      System.out.println("# files:   " + files);
+      System.out.println("calls/sec: " + (long)rate);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+
+/**
+ * INodeMemoryBenchmark
+ *   Synopsis: INodeMemoryBenchmark [-files numFiles]
+ *        [-filesPerDir filesPerDir] [-users numUsers]
+ *
+ *   Builds a synthetic namespace the way the image loader does,
+ *   adding each inode to its parent directory, and reports the heap
+ *   used per inode. Blocks are not included.
+ *
+ *   Run it with a heap large enough for the namespace, e.g.
+ *   <code>java -Xmx20g ... INodeMemoryBenchmark -files 50000000</code>
+ */
+public class INodeMemoryBenchmark {
+  static final String USAGE = "Usage: INodeMemoryBenchmark"
+    + " [-files numFiles] [-filesPerDir filesPerDir] [-users numUsers]";
+
+  /**
+   * Build a two level namespace with numFiles files.
+   * @return the heap used per inode, in bytes
+   */
+  static double bytesPerINode(int numFiles, int filesPerDir, int numUsers) {
+    PermissionStatus[] perms = new PermissionStatus[numUsers];
+    for (int i = 0; i < numUsers; i++) {
+      perms[i] = new PermissionStatus("user" + i, "group" + (i % 10),
+                                      new FsPermission((short)0644));
+    }
+    long before = BlocksMapMemoryBenchmark.usedMemory();
+    INodeDirectory root = new INodeDirectory(INodeDirectory.ROOT_NAME,
+                                             perms[0]);
+    int numINodes = 1;
+    INodeDirectory dir = null;
+    for (int i = 0; i < numFiles; i++) {
+      PermissionStatus p = perms[i % numUsers];
+      if (i % filesPerDir == 0) {
+        dir = new INodeDirectory(p, 0L);
+        dir.setLocalName("dir" + (i / filesPerDir));
+        root.addChild(dir, false);
+        numINodes++;
+      }
+      INodeFile file = new INodeFile(p, 0, (short)3, 0L, 0L, 64L<<20);
+      file.setLocalName("file" + i);
+      dir.addChild(file, false);
+      numINodes++;
+    }
+    long after = BlocksMapMemoryBenchmark.usedMemory();
+    long counted = root.spaceConsumedInTree(new INode.DirCounts()).getNsCount();
+    if (counted != numINodes) {
+      throw new IllegalStateException("nsCount = " + counted);
+    }
+    return (double)(after - before) / numINodes;
+  }
+
+  public static void main(String[] args) {
+    int numFiles = 1000000;
+    int filesPerDir = 100;
+    int numUsers = 100;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-files") && i + 1 < args.length) {
+        numFiles = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-filesPerDir") && i + 1 < args.length) {
+        filesPerDir = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-users") && i + 1 < args.length) {
+        numUsers = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+
+    double bytes = bytesPerINode(numFiles, filesPerDir, numUsers);
+    System.out.println("--- INode memory ---");
+    System.out.println("# files:          " + numFiles);
+    System.out.println("Files per dir:    " + filesPerDir);
+    System.out.println("Bytes per inode:  " + String.format("%.1f", bytes));
+  }
+}
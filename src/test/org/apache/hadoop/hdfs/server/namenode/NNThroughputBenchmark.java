@@ -602,6 +602,36 @@ public class NNThroughputBenchmark {
     }
   }
 
+  /**
+   * File status statistics.
+   * 
+   * Measure how many get-file-status calls the name-node can handle per second.
+   * Read-only operations share the namespace read lock, so running this
+   * with increasing -threads shows how reads scale with the handler count.
+   */
+  class FileStatusStats extends OpenFileStats {
+    // Operation types
+    static final String OP_FILE_STATUS_NAME = "fileStatus";
+    static final String OP_FILE_STATUS_USAGE = 
+      "-op " + OP_FILE_STATUS_NAME + OP_USAGE_ARGS;
+
+    FileStatusStats(List<String> args) {
+      super(args);
+    }
+
+    String getOpName() {
+      return OP_FILE_STATUS_NAME;
+    }
+
+    long executeOp(int daemonId, int inputIdx, String ignore) 
+    throws IOException {
+      long start = System.currentTimeMillis();
+      nameNode.getFileInfo(fileNames[daemonId][inputIdx]);
+      long end = System.currentTimeMillis();
+      return end-start;
+    }
+  }
+
   /**
    * Delete file statistics.
    * 
@@ -1101,6 +1131,7 @@ public class NNThroughputBenchmark {
         + "\n\t"    + OperationStatsBase.OP_ALL_USAGE
         + " | \n\t" + CreateFileStats.OP_CREATE_USAGE
         + " | \n\t" + OpenFileStats.OP_OPEN_USAGE
+        + " | \n\t" + FileStatusStats.OP_FILE_STATUS_USAGE
         + " | \n\t" + DeleteFileStats.OP_DELETE_USAGE
         + " | \n\t" + RenameFileStats.OP_RENAME_USAGE
         + " | \n\t" + BlockReportStats.OP_BLOCK_REPORT_USAGE
@@ -1134,6 +1165,10 @@ public class NNThroughputBenchmark {
         opStat = bench.new OpenFileStats(args);
         ops.add(opStat);
       }
+      if(runAll || FileStatusStats.OP_FILE_STATUS_NAME.equals(type)) {
+        opStat = bench.new FileStatusStats(args);
+        ops.add(opStat);
+      }
       if(runAll || DeleteFileStats.OP_DELETE_NAME.equals(type)) {
         opStat = bench.new DeleteFileStats(args);
         ops.add(opStat);
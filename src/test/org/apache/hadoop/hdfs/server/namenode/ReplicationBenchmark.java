@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.FSConstants.DatanodeReportType;
+import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
+
+/**
+ * ReplicationBenchmark
+ *   Synopsis: ReplicationBenchmark [-racks n] [-nodesPerRack n]
+ *        [-files n] [-streams n] [-hardLimit n] [-multiplier n]
+ *
+ *   Measures how fast the name node restores the replication of the
+ *   blocks of a cluster after it loses a rack.  The data nodes run on
+ *   {@link SimulatedFSDataset}, so the time goes to scheduling the
+ *   replication work rather than to moving data.  The files have one
+ *   block and three replicas each.  All data nodes of the first rack
+ *   are stopped; the benchmark reports how long the name node takes to
+ *   declare them dead and then to bring every block back to three
+ *   replicas.
+ */
+public class ReplicationBenchmark {
+  static final String USAGE = "Usage: ReplicationBenchmark"
+    + " [-racks n] [-nodesPerRack n] [-files n] [-streams n]"
+    + " [-hardLimit n] [-multiplier n]";
+
+  private static final short REPLICATION = 3;
+
+  /** The number of replicas missing from the given files. */
+  private static int getMissingReplicas(FileSystem fs, Path[] files)
+      throws IOException {
+    int missing = 0;
+    for (LocatedFileStatus stat : fs.getLocatedFileStatus(files)) {
+      for (BlockLocation location : stat.getBlockLocations()) {
+        missing += Math.max(0, REPLICATION - location.getHosts().length);
+      }
+    }
+    return missing;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int racks = 3;
+    int nodesPerRack = 4;
+    int files = 1000;
+    int streams = 2;
+    int hardLimit = 4;
+    float multiplier = 2;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-racks") && i + 1 < args.length) {
+        racks = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-nodesPerRack") && i + 1 < args.length) {
+        nodesPerRack = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-files") && i + 1 < args.length) {
+        files = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-streams") && i + 1 < args.length) {
+        streams = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-hardLimit") && i + 1 < args.length) {
+        hardLimit = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-multiplier") && i + 1 < args.length) {
+        multiplier = Float.parseFloat(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+    if (racks < 2) {
+      System.err.println("At least two racks are needed.");
+      System.exit(-1);
+    }
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(SimulatedFSDataset.CONFIG_PROPERTY_SIMULATED, true);
+    conf.setInt("dfs.heartbeat.interval", 1);
+    conf.setInt("heartbeat.recheck.interval", 1000);
+    conf.setInt("dfs.replication.interval", 1);
+    conf.setInt("dfs.max-repl-streams", streams);
+    conf.setInt("dfs.max-repl-streams.hard-limit", hardLimit);
+    conf.setFloat("dfs.replication.work.multiplier.per.iteration", multiplier);
+
+    int numDataNodes = racks * nodesPerRack;
+    String[] rackNames = new String[numDataNodes];
+    for (int i = 0; i < numDataNodes; i++) {
+      rackNames[i] = "/rack" + (i / nodesPerRack);
+    }
+    MiniDFSCluster cluster =
+      new MiniDFSCluster(conf, numDataNodes, true, rackNames);
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      Path[] paths = new Path[files];
+      for (int i = 0; i < files; i++) {
+        paths[i] = new Path("/bench/file" + i);
+        DFSTestUtil.createFile(fs, paths[i], 1024, REPLICATION, i);
+      }
+      while (getMissingReplicas(fs, paths) > 0) {
+        Thread.sleep(500);
+      }
+
+      // lose the first rack
+      FSNamesystem namesystem = cluster.getNameNode().getNamesystem();
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < nodesPerRack; i++) {
+        cluster.stopDataNode(0);
+      }
+      while (namesystem.getNumberOfDatanodes(DatanodeReportType.LIVE)
+             > numDataNodes - nodesPerRack) {
+        Thread.sleep(100);
+      }
+      long detected = System.currentTimeMillis();
+      int lost = getMissingReplicas(fs, paths);
+      while (getMissingReplicas(fs, paths) > 0) {
+        Thread.sleep(100);
+      }
+      long restored = System.currentTimeMillis();
+
+      System.out.println("--- Re-replication after the loss of a rack ---");
+      System.out.println("# racks:          " + racks);
+      System.out.println("# nodes per rack: " + nodesPerRack);
+      System.out.println("# files:          " + files);
+      System.out.println("# replicas lost:  " + lost);
+      System.out.println("detection (ms):   " + (detected - start));
+      System.out.println("recovery (ms):    " + (restored - detected));
+      if (restored > detected) {
+        System.out.println("replicas/sec:     "
+                           + (long)(lost * 1000.0 / (restored - detected)));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
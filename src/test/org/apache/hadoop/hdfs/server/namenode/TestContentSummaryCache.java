@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UnixUserGroupInformation;
+
+/**
+ * Test that the content summaries maintained for every directory match
+ * the ones computed by walking the namespace.
+ */
+public class TestContentSummaryCache extends TestCase {
+  static final int BLOCK_SIZE = 1024;
+
+  /** Compute the summary of a subtree without the maintained summaries. */
+  private static long[] walk(INode node) {
+    if (!node.isDirectory()) {
+      return node.computeContentSummary(new long[4]);
+    }
+    long[] summary = new long[] {0, 0, 1, 0};
+    for (INode child : ((INodeDirectory)node).getChildren()) {
+      long[] childSummary = walk(child);
+      for (int i = 0; i < summary.length; i++) {
+        summary[i] += childSummary[i];
+      }
+    }
+    return summary;
+  }
+
+  /** Check the maintained summary of every directory under dir. */
+  private static void checkSummaries(INodeDirectory dir) {
+    assertTrue(dir.isSummaryMaintained());
+    long[] expected = walk(dir);
+    long[] actual = dir.computeContentSummary(new long[4]);
+    assertTrue("expected " + Arrays.toString(expected) + " but was "
+               + Arrays.toString(actual) + " for " + dir.getLocalName(),
+               Arrays.equals(expected, actual));
+    for (INode child : dir.getChildren()) {
+      if (child.isDirectory()) {
+        checkSummaries((INodeDirectory)child);
+      }
+    }
+  }
+
+  private static void checkSummaries(MiniDFSCluster cluster) {
+    FSNamesystem namesystem = cluster.getNameNode().getNamesystem();
+    namesystem.readLock();
+    try {
+      checkSummaries(namesystem.dir.rootDir);
+    } finally {
+      namesystem.readUnlock();
+    }
+  }
+
+  public void testMaintainedSummaries() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean("dfs.namenode.content.summary.cached", true);
+    conf.setLong("dfs.block.size", BLOCK_SIZE);
+    conf.setBoolean("dfs.support.append", true);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 2, true, null);
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      checkSummaries(cluster);
+
+      // create
+      Path a = new Path("/a");
+      for (int i = 0; i < 5; i++) {
+        DFSTestUtil.createFile(fs, new Path(a, "b/file" + i),
+                               BLOCK_SIZE * i + 100, (short)2, i);
+      }
+      fs.mkdirs(new Path(a, "c/d/e"));
+      DFSTestUtil.createFile(fs, new Path(a, "c/d/file"), 3000, (short)1, 0);
+      checkSummaries(cluster);
+      ContentSummary summary = fs.getContentSummary(a);
+      assertEquals(6, summary.getFileCount());
+      assertEquals(5, summary.getDirectoryCount());
+      assertEquals(5 * 100 + 10 * BLOCK_SIZE + 3000, summary.getLength());
+
+      // a file being written
+      FSDataOutputStream out = fs.create(new Path(a, "c/open"), (short)2);
+      out.write(new byte[BLOCK_SIZE + 10]);
+      out.sync();
+      checkSummaries(cluster);
+      out.write(new byte[BLOCK_SIZE]);
+      out.close();
+      checkSummaries(cluster);
+
+      // append, replication, quota
+      out = fs.append(new Path(a, "b/file1"));
+      out.write(new byte[BLOCK_SIZE]);
+      out.close();
+      fs.setReplication(new Path(a, "b/file2"), (short)1);
+      ((DistributedFileSystem)fs).setQuota(new Path(a, "c"), 100, -1);
+      checkSummaries(cluster);
+
+      // rename and delete
+      fs.rename(new Path(a, "c/d"), new Path("/x"));
+      fs.rename(new Path(a, "b/file3"), new Path("/x/e/file3"));
+      fs.delete(new Path(a, "b/file4"), false);
+      fs.delete(new Path(a, "c"), true);
+      checkSummaries(cluster);
+    } finally {
+      cluster.shutdown();
+    }
+
+    // the summaries are computed again when the namenode restarts
+    cluster = new MiniDFSCluster(conf, 2, false, null);
+    try {
+      cluster.waitActive();
+      checkSummaries(cluster);
+      FileSystem fs = cluster.getFileSystem();
+      assertEquals(2, fs.getContentSummary(new Path("/x")).getFileCount());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /** Access to the subtree is only checked if configured so. */
+  public void testSubtreePermission() throws IOException {
+    testSubtreePermission(true);
+    testSubtreePermission(false);
+  }
+
+  private void testSubtreePermission(boolean checkSubtree)
+      throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean("dfs.namenode.content.summary.cached", true);
+    conf.setBoolean("dfs.namenode.content.summary.permission.subtree",
+                    checkSubtree);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    FileSystem otherFs = null;
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      Path dir = new Path("/p");
+      Path privateDir = new Path(dir, "private");
+      DFSTestUtil.createFile(fs, new Path(privateDir, "file"), BLOCK_SIZE,
+                             (short)1, 0);
+      fs.setPermission(dir, new FsPermission((short)0755));
+      fs.setPermission(privateDir, new FsPermission((short)0700));
+
+      Configuration otherConf = new Configuration(conf);
+      UnixUserGroupInformation.saveToConf(otherConf,
+          UnixUserGroupInformation.UGI_PROPERTY_NAME,
+          new UnixUserGroupInformation("alien", new String[] {"alien"}));
+      otherFs = FileSystem.get(fs.getUri(), otherConf);
+      try {
+        ContentSummary summary = otherFs.getContentSummary(dir);
+        assertFalse("Summed up a subtree that may not be read", checkSubtree);
+        assertEquals(1, summary.getFileCount());
+      } catch (AccessControlException e) {
+        assertTrue(checkSubtree);
+      }
+    } finally {
+      if (otherFs != null) {
+        otherFs.close();
+      }
+      cluster.shutdown();
+    }
+  }
+}
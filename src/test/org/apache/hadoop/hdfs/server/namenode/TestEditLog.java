@@ -34,6 +34,7 @@ import org.apache.hadoop.hdfs.server.namenode.FSEditLog.EditLogFileInputStream;
 import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
 import org.apache.hadoop.hdfs.server.namenode.FSImage.NameNodeDirType;
 import org.apache.hadoop.hdfs.server.namenode.FSImage.NameNodeFile;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 
 /**
  * This class tests the creation and validation of a checkpoint.
@@ -84,6 +85,27 @@ public class TestEditLog extends TestCase {
    * Tests transaction logging in dfs.
    */
   public void testEditLog() throws IOException {
+    testEditLog(0, false);
+  }
+
+  /**
+   * Tests transaction logging with a group commit window and the edit
+   * streams synced in parallel.
+   */
+  public void testEditLogGroupCommit() throws IOException {
+    testEditLog(2, true);
+  }
+
+  private static int countSyncs(NameNodeMetrics metrics) {
+    return metrics.syncsUnder1ms.getCurrentIntervalValue() +
+           metrics.syncs1To10ms.getCurrentIntervalValue() +
+           metrics.syncs10To100ms.getCurrentIntervalValue() +
+           metrics.syncs100To1000ms.getCurrentIntervalValue() +
+           metrics.syncsOver1000ms.getCurrentIntervalValue();
+  }
+
+  private void testEditLog(long syncBatchWindow, boolean parallelSync
+                           ) throws IOException {
 
     // start a cluster 
 
@@ -116,7 +138,16 @@ public class TestEditLog extends TestCase {
     // set small size of flush buffer
     editLog.setBufferCapacity(2048);
     editLog.close();
+    editLog.setSyncParameters(syncBatchWindow, parallelSync);
     editLog.open();
+
+    // the metrics of the namenode of the cluster are still registered
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    assertNotNull(metrics);
+    int syncsBefore = countSyncs(metrics);
+    int batchedBefore =
+      metrics.transactionsBatchedInSync.getCurrentIntervalValue();
+    metrics.syncBatchSize.resetMinMax();
   
     // Create threads and make them run transactions concurrently.
     Thread threadId[] = new Thread[numThreads];
@@ -134,6 +165,23 @@ public class TestEditLog extends TestCase {
         i--;      // retry 
       }
     } 
+
+    // every sync is counted in a latency bucket
+    int numSyncs = countSyncs(metrics) - syncsBefore;
+    int numBatched = metrics.transactionsBatchedInSync.getCurrentIntervalValue()
+                     - batchedBefore;
+    int numLogSyncs = numThreads * numberTransactions;
+    System.out.println("Synced " + numLogSyncs + " logSync calls in " +
+                       numSyncs + " syncs, " + numBatched + " batched");
+    assertTrue(numSyncs > 0);
+    assertEquals(numLogSyncs, numSyncs + numBatched);
+    if (syncBatchWindow > 0) {
+      // the handlers waiting in the window are synced together
+      assertTrue("No logSync call was batched", numBatched > 0);
+      assertTrue(numSyncs < numLogSyncs);
+      assertTrue("Largest sync had " + metrics.syncBatchSize.getMaxTime() +
+                 " transactions", metrics.syncBatchSize.getMaxTime() > 2);
+    }
     
     editLog.close();
 
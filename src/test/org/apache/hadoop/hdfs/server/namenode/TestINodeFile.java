@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+
+/**
+ * Tests the packed fields of {@link INodeFile} and the children array
+ * of {@link INodeDirectory}.
+ */
+public class TestINodeFile extends TestCase {
+  static final short BLOCKBITS = 48;
+  static final long BLKSIZE_MAXVALUE = ~(0xffffL << BLOCKBITS);
+
+  private final PermissionStatus perm = new PermissionStatus(
+      "userName", "groupName", FsPermission.getDefault());
+
+  public void testReplication() {
+    for (short replication = 1; replication < 600; replication += 7) {
+      INodeFile inf = new INodeFile(perm, 0, replication, 0L, 0L, 128L);
+      assertEquals("True has to be returned in this case", replication,
+                   inf.getReplication());
+      assertEquals(128L, inf.getPreferredBlockSize());
+    }
+    INodeFile inf = new INodeFile(perm, 0, Short.MAX_VALUE, 0L, 0L,
+                                  BLKSIZE_MAXVALUE);
+    assertEquals(Short.MAX_VALUE, inf.getReplication());
+    assertEquals(BLKSIZE_MAXVALUE, inf.getPreferredBlockSize());
+    inf.setReplication((short)3);
+    assertEquals(3, inf.getReplication());
+    assertEquals(BLKSIZE_MAXVALUE, inf.getPreferredBlockSize());
+  }
+
+  public void testReplicationBelowLowerBound() {
+    try {
+      new INodeFile(perm, 0, (short)0, 0L, 0L, 128L);
+      fail("IllegalArgumentException expected");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new INodeFile(perm, 0, (short)-1, 0L, 0L, 128L);
+      fail("IllegalArgumentException expected");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  public void testPreferredBlockSizeAboveUpperBound() {
+    try {
+      new INodeFile(perm, 0, (short)3, 0L, 0L, BLKSIZE_MAXVALUE + 1);
+      fail("IllegalArgumentException expected");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new INodeFile(perm, 0, (short)3, 0L, 0L, -1L);
+      fail("IllegalArgumentException expected");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  /**
+   * Add, look up and remove children in random order and check that
+   * the directory keeps them sorted.
+   */
+  public void testChildren() {
+    INodeDirectory dir = new INodeDirectory("dir", perm);
+    assertNull(dir.getChildrenRaw());
+    assertEquals(0, dir.getChildren().size());
+
+    final int n = 100;
+    for (int i = 0; i < n; i++) {
+      int k = (i * 37) % n;  // 37 and n are coprime
+      INodeFile f = new INodeFile(perm, 0, (short)1, 0L, 0L, 1L);
+      f.setLocalName("f" + (1000 + k));
+      assertSame(f, dir.addChild(f, false));
+      assertSame(dir, f.getParent());
+      // a second child with the same name is rejected
+      INodeFile dup = new INodeFile(perm, 0, (short)1, 0L, 0L, 1L);
+      dup.setLocalName("f" + (1000 + k));
+      assertNull(dir.addChild(dup, false));
+    }
+    checkChildren(dir, 0, n, 1);
+
+    // remove the odd ones
+    for (int k = 1; k < n; k += 2) {
+      INode child = dir.getChild("f" + (1000 + k));
+      assertNotNull(child);
+      assertSame(child, dir.removeChild(child));
+      assertNull(dir.getChild("f" + (1000 + k)));
+    }
+    checkChildren(dir, 0, n, 2);
+
+    // replace and copy
+    INodeFile f = new INodeFile(perm, 0, (short)2, 0L, 0L, 1L);
+    f.setLocalName("f1000");
+    dir.replaceChild(f);
+    assertSame(f, dir.getChild("f1000"));
+    INodeDirectory copy = new INodeDirectory(dir);
+    checkChildren(copy, 0, n, 2);
+    assertSame(copy, f.getParent());
+  }
+
+  private static void checkChildren(INodeDirectory dir,
+                                    int from, int to, int step) {
+    List<INode> children = dir.getChildren();
+    assertEquals((to - from + step - 1) / step, children.size());
+    int i = 0;
+    for (int k = from; k < to; k += step) {
+      assertEquals("f" + (1000 + k), children.get(i++).getLocalName());
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+
+import junit.framework.TestCase;
+
+/**
+ * Test that replicas deleted by datanodes are removed from the blocks map
+ * by incremental block reports, without waiting for a full block report.
+ */
+public class TestIncrementalBlockReports extends TestCase {
+  static final long TIMEOUT = 60000L;
+
+  public void testDeletedReplicaIsReported() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.setLong("dfs.blockreport.intervalMsec", 60 * 60 * 1000L);
+    conf.setInt("dfs.replication.interval", 1);
+    final MiniDFSCluster cluster = new MiniDFSCluster(conf, 2, true, null);
+    try {
+      final FSNamesystem namesystem = cluster.getNameNode().namesystem;
+      final FileSystem fs = cluster.getFileSystem();
+
+      // populate the cluster with a one block file on both datanodes
+      final Path FILE_PATH = new Path("/testfile");
+      DFSTestUtil.createFile(fs, FILE_PATH, 1L, (short)2, 1L);
+      DFSTestUtil.waitReplication(fs, FILE_PATH, (short)2);
+      Block block = DFSTestUtil.getFirstBlock(fs, FILE_PATH);
+      assertEquals(2, numNodes(namesystem, block));
+
+      // the excess replica is invalidated; only an incremental report
+      // can tell the name node that it is gone before the next full report
+      fs.setReplication(FILE_PATH, (short)1);
+      long start = System.currentTimeMillis();
+      while (numNodes(namesystem, block) != 1) {
+        assertTrue("Deleted replica was not reported",
+                   System.currentTimeMillis() - start < TIMEOUT);
+        Thread.sleep(500);
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static int numNodes(FSNamesystem namesystem, Block block) {
+    namesystem.readLock();
+    try {
+      return namesystem.blocksMap.numNodes(block);
+    } finally {
+      namesystem.readUnlock();
+    }
+  }
+}
@@ -61,8 +61,11 @@ public class TestNodeCount extends TestCase {
       // check if excessive replica is detected
       NumberReplicas num = null;
       do {
-       synchronized (namesystem) {
+       namesystem.readLock();
+       try {
          num = namesystem.countNodes(block);
+       } finally {
+         namesystem.readUnlock();
        }
       } while (num.excessReplicas() == 0);
       
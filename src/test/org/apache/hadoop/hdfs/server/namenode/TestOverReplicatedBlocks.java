@@ -54,9 +54,19 @@ public class TestOverReplicatedBlocks extends TestCase {
       Block block = DFSTestUtil.getFirstBlock(fs, fileName);
       TestDatanodeBlockScanner.corruptReplica(block.getBlockName(), 0);
       DataNodeProperties dnProps = cluster.stopDataNode(0);
-      // remove block scanner log to trigger block scanning
-      File scanLog = new File(System.getProperty("test.build.data"),
-          "dfs/data/data1/current/dncp_block_verification.log.curr");
+      // remove the block scanner log of the volume holding the replica
+      // to trigger block scanning
+      File dataDir = new File(System.getProperty("test.build.data"),
+          "dfs/data");
+      File volumeDir = null;
+      for (int i = 1; i <= 2; i++) {
+        File dir = new File(dataDir, "data" + i + "/current");
+        if (new File(dir, block.getBlockName()).exists()) {
+          volumeDir = dir;
+        }
+      }
+      assertNotNull("No replica of " + block + " on datanode 0", volumeDir);
+      File scanLog = new File(volumeDir, "dncp_block_verification.log.curr");
       //wait for one minute for deletion to succeed;
       for(int i=0; !scanLog.delete(); i++) {
         assertTrue("Could not delete log file in one minute", i < 60);
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
+
+/**
+ * Test that the replication work queued for the sources, and the
+ * transfers they are asked to run at a time, respect the limits on
+ * their outgoing streams, by priority.
+ */
+public class TestReplicationWork extends TestCase {
+  private static final int NUM_FILES = 10;
+  private static final int SOFT_LIMIT = 2;
+  private static final int HARD_LIMIT = 4;
+
+  private MiniDFSCluster cluster;
+  private Configuration conf;
+  /** the transfers handed out by the last heartbeat */
+  private BlockCommand lastTransfers;
+
+  protected void setUp() throws Exception {
+    conf = new Configuration();
+    conf.setInt("dfs.max-repl-streams", SOFT_LIMIT);
+    conf.setInt("dfs.max-repl-streams.hard-limit", HARD_LIMIT);
+    conf.setFloat("dfs.replication.work.multiplier.per.iteration", 10);
+    // the work is computed by the test, and the queues drained by nobody
+    conf.setInt("dfs.replication.interval", 1000);
+    conf.setInt("dfs.heartbeat.interval", 1000);
+  }
+
+  protected void tearDown() throws Exception {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Create the files with the given replication, add a datanode and
+   * raise the replication of the files by one.
+   */
+  private FSNamesystem underReplicate(int numDataNodes, short replication)
+      throws IOException {
+    cluster = new MiniDFSCluster(conf, numDataNodes, true, null);
+    cluster.waitActive();
+    FileSystem fs = cluster.getFileSystem();
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path("/test/file" + i), 1024,
+                             replication, i);
+    }
+    cluster.startDataNodes(conf, 1, true, null, null);
+    cluster.waitActive();
+    for (int i = 0; i < NUM_FILES; i++) {
+      fs.setReplication(new Path("/test/file" + i), (short)(replication + 1));
+    }
+    return cluster.getNameNode().getNamesystem();
+  }
+
+  /** @return the replication work queued for the datanode */
+  private int getQueued(FSNamesystem namesystem, DataNode dn)
+      throws IOException {
+    return namesystem.getDatanode(dn.dnRegistration)
+        .getNumberOfBlocksToBeReplicated();
+  }
+
+  /**
+   * Send a heartbeat of the datanode with the given transfers in progress.
+   * @return the number of transfers the datanode is asked to start
+   */
+  private int heartbeat(FSNamesystem namesystem, DataNode dn,
+                        int xmitsInProgress) throws IOException {
+    DatanodeDescriptor dd = namesystem.getDatanode(dn.dnRegistration);
+    DatanodeCommand[] cmds = namesystem.handleHeartbeat(dn.dnRegistration,
+        dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0,
+        xmitsInProgress);
+    int transfers = 0;
+    lastTransfers = null;
+    if (cmds != null) {
+      for (DatanodeCommand cmd : cmds) {
+        if (cmd.getAction() == DatanodeProtocol.DNA_TRANSFER) {
+          lastTransfers = (BlockCommand)cmd;
+          transfers += lastTransfers.getBlocks().length;
+        }
+      }
+    }
+    return transfers;
+  }
+
+  /** Blocks with a single live replica may use the hard limit. */
+  public void testHighestPriority() throws IOException {
+    FSNamesystem namesystem = underReplicate(1, (short)1);
+    DataNode source = cluster.getDataNodes().get(0);
+    assertEquals(HARD_LIMIT, namesystem.computeDatanodeWork());
+    assertEquals(HARD_LIMIT, getQueued(namesystem, source));
+
+    // the queue of the source is full until it takes the work
+    assertEquals(0, namesystem.computeDatanodeWork());
+
+    // the source runs up to the hard limit of transfers at a time
+    assertEquals(HARD_LIMIT - 1, heartbeat(namesystem, source, 1));
+    BlockCommand started = lastTransfers;
+    assertEquals(0, heartbeat(namesystem, source, HARD_LIMIT));
+    assertEquals(1, getQueued(namesystem, source));
+
+    // the transfers in progress still count against the limit
+    assertEquals(0, namesystem.computeDatanodeWork());
+    assertEquals(1, getQueued(namesystem, source));
+
+    // until their targets receive the blocks
+    namesystem.blockReceived(started.getTargets()[0][0],
+                             started.getBlocks()[0], null);
+    assertEquals(1, namesystem.computeDatanodeWork());
+    assertEquals(2, getQueued(namesystem, source));
+  }
+
+  /** Other blocks stay within the soft limit of every source. */
+  public void testLowerPriority() throws IOException {
+    FSNamesystem namesystem = underReplicate(2, (short)2);
+    assertEquals(2 * SOFT_LIMIT, namesystem.computeDatanodeWork());
+    for (int i = 0; i < 2; i++) {
+      DataNode source = cluster.getDataNodes().get(i);
+      assertEquals(SOFT_LIMIT, getQueued(namesystem, source));
+    }
+
+    // the sources run up to the soft limit of transfers at a time
+    DataNode first = cluster.getDataNodes().get(0);
+    DataNode second = cluster.getDataNodes().get(1);
+    assertEquals(SOFT_LIMIT, heartbeat(namesystem, first, 0));
+    assertEquals(SOFT_LIMIT - 1, heartbeat(namesystem, second, 1));
+    assertEquals(0, heartbeat(namesystem, second, SOFT_LIMIT));
+  }
+}
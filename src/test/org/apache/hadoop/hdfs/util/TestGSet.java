@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test {@link LightWeightGSet} against {@link HashMap}.
+ */
+public class TestGSet extends TestCase {
+  private static final Random ran = new Random();
+
+  /** An element keyed by an integer id. */
+  private static class IntElement implements LightWeightGSet.LinkedElement {
+    private final int id;
+    private final int value;
+    private LightWeightGSet.LinkedElement next;
+
+    IntElement(int id, int value) {
+      this.id = id;
+      this.value = value;
+    }
+
+    public boolean equals(Object obj) {
+      return obj instanceof IntElement && id == ((IntElement)obj).id;
+    }
+
+    public int hashCode() {
+      return id;
+    }
+
+    public LightWeightGSet.LinkedElement getNext() {
+      return next;
+    }
+
+    public void setNext(LightWeightGSet.LinkedElement e) {
+      next = e;
+    }
+
+    public String toString() {
+      return id + "=" + value;
+    }
+  }
+
+  public void testExceptionCases() {
+    final GSet<IntElement, IntElement> gset
+        = new LightWeightGSet<IntElement, IntElement>(16);
+    try {
+      gset.contains(null);
+      fail();
+    } catch(NullPointerException e) {
+    }
+    try {
+      gset.get(null);
+      fail();
+    } catch(NullPointerException e) {
+    }
+    try {
+      gset.put(null);
+      fail();
+    } catch(NullPointerException e) {
+    }
+    try {
+      gset.remove(null);
+      fail();
+    } catch(NullPointerException e) {
+    }
+
+    gset.put(new IntElement(1, 1));
+    gset.put(new IntElement(2, 2));
+    try {
+      for(IntElement e : gset) {
+        gset.put(new IntElement(e.id + 100, 0));
+      }
+      fail();
+    } catch(ConcurrentModificationException e) {
+    }
+    try {
+      Iterator<IntElement> i = gset.iterator();
+      i.next();
+      i.remove();
+      fail();
+    } catch(UnsupportedOperationException e) {
+    }
+  }
+
+  /** Random puts, gets and removes must agree with a HashMap. */
+  public void testRandomOperations() {
+    // a small array so that the collision lists get long
+    for(int length : new int[]{1, 64, 1024}) {
+      final GSet<IntElement, IntElement> gset
+          = new LightWeightGSet<IntElement, IntElement>(length);
+      final Map<Integer, IntElement> map = new HashMap<Integer, IntElement>();
+      for(int i = 0; i < 10000; i++) {
+        final int id = ran.nextInt(2000);
+        final IntElement key = new IntElement(id, -1);
+        switch(ran.nextInt(3)) {
+        case 0:
+          final IntElement e = new IntElement(id, i);
+          assertSame(map.put(id, e), gset.put(e));
+          break;
+        case 1:
+          assertSame(map.get(id), gset.get(key));
+          assertEquals(map.containsKey(id), gset.contains(key));
+          break;
+        default:
+          assertSame(map.remove(id), gset.remove(key));
+        }
+        assertEquals(map.size(), gset.size());
+      }
+
+      int count = 0;
+      for(IntElement e : gset) {
+        assertSame(map.get(e.id), e);
+        count++;
+      }
+      assertEquals(map.size(), count);
+    }
+  }
+
+  public void testComputeCapacity() {
+    final boolean is32 = "32".equals(System.getProperty("sun.arch.data.model"));
+    final int refSize = is32? 4: 8;
+    // 2% of 1GB
+    int c = LightWeightGSet.computeCapacity(1L << 30, 2.0, "test");
+    assertEquals(Integer.highestOneBit(c), c);
+    assertTrue(c * refSize <= (1L << 30) * 2 / 100 * 2);
+    assertTrue(c * refSize >= (1L << 30) * 2 / 100 / 2);
+
+    // limits
+    assertEquals(1 << 30, LightWeightGSet.computeCapacity(Long.MAX_VALUE,
+        100.0, "test"));
+    assertEquals(1, LightWeightGSet.computeCapacity(1L, 100.0, "test"));
+    assertEquals(0, LightWeightGSet.computeCapacity(1L << 30, 0.0, "test"));
+    try {
+      LightWeightGSet.computeCapacity(1L << 30, 101.0, "test");
+      fail();
+    } catch(IllegalArgumentException e) {
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.net.NetUtils;
+
+/**
+ * AsyncCallBenchmark
+ *   Synopsis: AsyncCallBenchmark [-handlers numHandlers]
+ *        [-threads numSyncCallers] [-window outstandingAsyncCalls]
+ *        [-connections connectionsPerServer] [-payload bytes]
+ *        [-time seconds]
+ *
+ *   Compares the throughput of an echo server, in calls per second,
+ *   when a single client is driven by blocking callers, one call
+ *   outstanding per thread, and when it is driven by a single thread
+ *   that keeps a window of asynchronous calls outstanding.
+ */
+public class AsyncCallBenchmark {
+  static final String USAGE = "Usage: AsyncCallBenchmark"
+    + " [-handlers numHandlers] [-threads numSyncCallers]"
+    + " [-window outstandingAsyncCalls]"
+    + " [-connections connectionsPerServer]"
+    + " [-payload bytes] [-time seconds]";
+
+  private static abstract class Caller extends Thread {
+    protected final Client client;
+    protected final InetSocketAddress addr;
+    protected final BytesWritable param;
+    protected final AtomicLong calls;
+    protected volatile boolean done = false;
+    protected volatile IOException error = null;
+
+    Caller(Client client, InetSocketAddress addr, int payload,
+           AtomicLong calls) {
+      this.client = client;
+      this.addr = addr;
+      this.param = new BytesWritable(new byte[payload]);
+      this.calls = calls;
+    }
+  }
+
+  /** Makes one blocking call after another. */
+  private static class SyncCaller extends Caller {
+    SyncCaller(Client client, InetSocketAddress addr, int payload,
+               AtomicLong calls) {
+      super(client, addr, payload, calls);
+    }
+
+    public void run() {
+      try {
+        while (!done) {
+          client.call(param, addr, null, null);
+          calls.incrementAndGet();
+        }
+      } catch (IOException e) {
+        error = e;
+      } catch (InterruptedException e) {
+        error = new IOException(e.toString());
+      }
+    }
+  }
+
+  /** Keeps up to window asynchronous calls outstanding. */
+  private static class AsyncCaller extends Caller implements Client.Callback {
+    private final int window;
+    private final Semaphore outstanding;
+
+    AsyncCaller(Client client, InetSocketAddress addr, int payload,
+                AtomicLong calls, int window) {
+      super(client, addr, payload, calls);
+      this.window = window;
+      this.outstanding = new Semaphore(window);
+    }
+
+    public void onSuccess(Writable value) {
+      calls.incrementAndGet();
+      outstanding.release();
+    }
+
+    public void onFailure(IOException e) {
+      error = e;
+      done = true;
+      outstanding.release();
+    }
+
+    public void run() {
+      try {
+        while (!done) {
+          outstanding.acquire();
+          client.asyncCall(param, addr, null, null, this);
+        }
+        outstanding.acquire(window);            // wait for the stragglers
+      } catch (InterruptedException e) {
+        error = new IOException(e.toString());
+      }
+    }
+  }
+
+  /**
+   * Run the benchmark with blocking callers if window is 0, or with one
+   * asynchronous caller otherwise.
+   * @return calls per second
+   */
+  static double run(int handlers, int threads, int window, int connections,
+                    int payload, int seconds) throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("ipc.client.connections.per.server", connections);
+    Server server = new RPCCallBenchmark.EchoServer(handlers, conf);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+
+    Client client = new Client(BytesWritable.class, conf);
+    AtomicLong calls = new AtomicLong();
+    Caller[] callers;
+    if (window == 0) {
+      callers = new Caller[threads];
+      for (int i = 0; i < threads; i++) {
+        callers[i] = new SyncCaller(client, addr, payload, calls);
+      }
+    } else {
+      callers = new Caller[] {
+        new AsyncCaller(client, addr, payload, calls, window) };
+    }
+    for (Caller caller : callers) {
+      caller.start();
+    }
+    try {
+      // warm up, then measure
+      Thread.sleep(Math.min(2000, seconds * 1000L));
+      long startCalls = calls.get();
+      long start = System.currentTimeMillis();
+      Thread.sleep(seconds * 1000L);
+      long elapsed = System.currentTimeMillis() - start;
+      return (calls.get() - startCalls) * 1000.0 / elapsed;
+    } finally {
+      for (Caller caller : callers) {
+        caller.done = true;
+      }
+      for (Caller caller : callers) {
+        caller.join();
+        if (caller.error != null) {
+          throw caller.error;
+        }
+      }
+      client.stop();
+      server.stop();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int handlers = 10;
+    int threads = 100;
+    int window = 100;
+    int connections = 1;
+    int payload = 100;
+    int seconds = 10;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-handlers") && i + 1 < args.length) {
+        handlers = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-window") && i + 1 < args.length) {
+        window = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-connections") && i + 1 < args.length) {
+        connections = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-payload") && i + 1 < args.length) {
+        payload = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-time") && i + 1 < args.length) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+    if (window < 1) {
+      System.err.println(USAGE);
+      System.exit(-1);
+    }
+
+    System.out.println("--- Sync vs async RPC call throughput ---");
+    System.out.println("# handlers:    " + handlers);
+    System.out.println("# connections: " + connections);
+    System.out.println("Payload bytes: " + payload);
+    double sync = run(handlers, threads, 0, connections, payload, seconds);
+    System.out.println("Sync,  " + threads + " threads:\tcalls/sec: "
+                       + (long)sync);
+    double async = run(handlers, 1, window, connections, payload, seconds);
+    System.out.println("Async, window " + window + ":\tcalls/sec: "
+                       + (long)async);
+  }
+}
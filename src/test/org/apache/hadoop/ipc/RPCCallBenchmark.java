@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.net.NetUtils;
+
+/**
+ * RPCCallBenchmark
+ *   Synopsis: RPCCallBenchmark [-readers r1,r2,...] [-handlers numHandlers]
+ *        [-clients numConnections] [-threads numCallers]
+ *        [-payload bytes] [-time seconds]
+ *
+ *   Measures the throughput of an echo server, in calls per second,
+ *   for each of the given numbers of server reader threads.
+ *   Every client has its own connection to the server, and the callers
+ *   are spread over the clients.
+ */
+public class RPCCallBenchmark {
+  static final String USAGE = "Usage: RPCCallBenchmark"
+    + " [-readers r1,r2,...] [-handlers numHandlers]"
+    + " [-clients numConnections] [-threads numCallers]"
+    + " [-payload bytes] [-time seconds]";
+
+  static class EchoServer extends Server {
+    EchoServer(int handlerCount, Configuration conf) throws IOException {
+      super("0.0.0.0", 0, BytesWritable.class, handlerCount, conf);
+    }
+
+    @Override
+    public Writable call(Class<?> protocol, Writable param, long receiveTime)
+        throws IOException {
+      return param;
+    }
+  }
+
+  private static class Caller extends Thread {
+    private final Client client;
+    private final InetSocketAddress addr;
+    private final BytesWritable param;
+    private final AtomicLong calls;
+    private volatile boolean done = false;
+    private IOException error = null;
+
+    Caller(Client client, InetSocketAddress addr, int payload,
+           AtomicLong calls) {
+      this.client = client;
+      this.addr = addr;
+      this.param = new BytesWritable(new byte[payload]);
+      this.calls = calls;
+    }
+
+    public void run() {
+      try {
+        while (!done) {
+          client.call(param, addr);
+          calls.incrementAndGet();
+        }
+      } catch (IOException e) {
+        error = e;
+      } catch (InterruptedException e) {
+        error = new IOException(e.toString());
+      }
+    }
+  }
+
+  /**
+   * Run the benchmark with the given number of readers.
+   * @return calls per second
+   */
+  static double run(int readers, int handlers, int clients, int threads,
+                    int payload, int seconds) throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("ipc.server.read.threadpool.size", readers);
+    Server server = new EchoServer(handlers, conf);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+
+    Client[] clientList = new Client[clients];
+    for (int i = 0; i < clients; i++) {
+      clientList[i] = new Client(BytesWritable.class, conf);
+    }
+    AtomicLong calls = new AtomicLong();
+    Caller[] callers = new Caller[threads];
+    for (int i = 0; i < threads; i++) {
+      callers[i] = new Caller(clientList[i % clients], addr, payload, calls);
+      callers[i].start();
+    }
+    try {
+      // warm up, then measure
+      Thread.sleep(Math.min(2000, seconds * 1000L));
+      long startCalls = calls.get();
+      long start = System.currentTimeMillis();
+      Thread.sleep(seconds * 1000L);
+      long elapsed = System.currentTimeMillis() - start;
+      return (calls.get() - startCalls) * 1000.0 / elapsed;
+    } finally {
+      for (Caller caller : callers) {
+        caller.done = true;
+      }
+      for (Caller caller : callers) {
+        caller.join();
+        if (caller.error != null) {
+          throw caller.error;
+        }
+      }
+      for (Client client : clientList) {
+        client.stop();
+      }
+      server.stop();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String readers = "1,2,4,8";
+    int handlers = 10;
+    int clients = 100;
+    int threads = 200;
+    int payload = 100;
+    int seconds = 10;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-readers") && i + 1 < args.length) {
+        readers = args[++i];
+      } else if (args[i].equals("-handlers") && i + 1 < args.length) {
+        handlers = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-clients") && i + 1 < args.length) {
+        clients = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-payload") && i + 1 < args.length) {
+        payload = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-time") && i + 1 < args.length) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+
+    System.out.println("--- RPC call throughput ---");
+    System.out.println("# handlers:    " + handlers);
+    System.out.println("# connections: " + clients);
+    System.out.println("# callers:     " + threads);
+    System.out.println("Payload bytes: " + payload);
+    for (String r : readers.split(",")) {
+      int numReaders = Integer.parseInt(r.trim());
+      double rate = run(numReaders, handlers, clients, threads, payload,
+                        seconds);
+      System.out.println("Readers: " + numReaders + "\tcalls/sec: "
+                         + (long)rate);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+
+/** Unit tests for {@link FairCallQueue}. */
+public class TestFairCallQueue extends TestCase {
+  private static class TestCall implements Schedulable {
+    private final String user;
+    private int level;
+
+    TestCall(String user) {
+      this.user = user;
+    }
+
+    public String getUserName() {
+      return user;
+    }
+
+    public int getPriorityLevel() {
+      return level;
+    }
+
+    public void setPriorityLevel(int level) {
+      this.level = level;
+    }
+  }
+
+  private static FairCallQueue<TestCall> newQueue(int capacity) {
+    Configuration conf = new Configuration();
+    conf.setInt("ipc.server.callqueue.priority.levels", 4);
+    conf.setLong("ipc.server.callqueue.decay.period.ms", 60000);
+    return new FairCallQueue<TestCall>(capacity, conf);
+  }
+
+  /** A user making most of the calls gets the lowest priority. */
+  public void testPriorityLevels() throws Exception {
+    FairCallQueue<TestCall> queue = newQueue(1000);
+    for (int i = 0; i < 100; i++) {
+      queue.put(new TestCall("heavy"));
+    }
+    TestCall light = new TestCall("light");
+    queue.put(light);
+    assertEquals(0, light.getPriorityLevel());
+    assertEquals(100, queue.size(3));
+    assertEquals(101, queue.size());
+    assertEquals(1, queue.size(0));
+  }
+
+  /** Higher priority levels are served more often, but all are served. */
+  public void testWeightedRoundRobin() throws Exception {
+    FairCallQueue<TestCall> queue = newQueue(1000);
+    for (int i = 0; i < 200; i++) {
+      queue.put(new TestCall("heavy"));
+    }
+    for (int i = 0; i < 20; i++) {
+      queue.put(new TestCall("user" + i));
+    }
+    // the 20 light calls are all taken among the first 8 + 1 + 8 + 1 + ...
+    int taken = 0;
+    int lightTaken = 0;
+    while (lightTaken < 20) {
+      TestCall call = queue.take();
+      taken++;
+      if (!call.getUserName().equals("heavy")) {
+        lightTaken++;
+      }
+    }
+    assertTrue("Light calls waited behind " + taken + " calls", taken < 40);
+    assertEquals(220 - taken, queue.size());
+    // the heavy calls are still all served
+    while (queue.poll() != null) {
+      taken++;
+    }
+    assertEquals(220, taken);
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  /** Empty levels are skipped without using up the turns of other levels. */
+  public void testEmptyLevelsAreSkipped() throws Exception {
+    FairCallQueue<TestCall> queue = newQueue(1000);
+    for (int i = 0; i < 200; i++) {
+      queue.put(new TestCall("heavy"));
+    }
+    for (int i = 0; i < 20; i++) {
+      queue.put(new TestCall("user" + i));
+    }
+    // levels 1 and 2 are empty: 8 light calls, 1 heavy call, and so on
+    StringBuilder order = new StringBuilder();
+    for (int i = 0; i < 22; i++) {
+      order.append(queue.take().getUserName().equals("heavy") ? 'h' : 'l');
+    }
+    assertEquals("llllllllhllllllllhllll", order.toString());
+  }
+
+  /** A full level rejects calls without affecting the other levels. */
+  public void testFullLevel() throws Exception {
+    FairCallQueue<TestCall> queue = newQueue(40);
+    int accepted = 0;
+    for (int i = 0; i < 20; i++) {
+      if (queue.offer(new TestCall("heavy"))) {
+        accepted++;
+      }
+    }
+    assertEquals(10, accepted);
+    assertTrue(queue.offer(new TestCall("light")));
+    assertEquals(11, queue.size());
+  }
+}
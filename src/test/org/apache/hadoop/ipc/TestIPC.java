@@ -26,6 +26,9 @@ import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.net.NetUtils;
 
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 
@@ -141,6 +144,99 @@ public class TestIPC extends TestCase {
     testSerial(3, false, 2, 5, 100);
   }
 
+  public void testSerialWithMultipleReaders() throws Exception {
+    conf.setInt("ipc.server.read.threadpool.size", 3);
+    try {
+      testSerial(3, false, 4, 8, 100);
+    } finally {
+      conf.setInt("ipc.server.read.threadpool.size", 1);
+    }
+  }
+
+  public void testSerialWithFairCallQueue() throws Exception {
+    conf.set("ipc.server.callqueue.impl", FairCallQueue.class.getName());
+    conf.setBoolean("ipc.server.backoff.enable", true);
+    try {
+      testSerial(3, false, 2, 5, 100);
+    } finally {
+      conf.set("ipc.server.callqueue.impl",
+               java.util.concurrent.LinkedBlockingQueue.class.getName());
+      conf.setBoolean("ipc.server.backoff.enable", false);
+    }
+  }
+
+  public void testSerialWithStripedConnections() throws Exception {
+    conf.setInt("ipc.client.connections.per.server", 3);
+    try {
+      testSerial(3, false, 2, 5, 100);
+    } finally {
+      conf.setInt("ipc.client.connections.per.server", 1);
+    }
+  }
+
+  public void testAsync() throws Exception {
+    Server server = new TestServer(3, false);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      final AtomicInteger succeeded = new AtomicInteger();
+      final AtomicInteger failed = new AtomicInteger();
+      Client.Callback callback = new Client.Callback() {
+        public void onSuccess(Writable value) {
+          succeeded.incrementAndGet();
+        }
+        public void onFailure(IOException e) {
+          failed.incrementAndGet();
+        }
+      };
+
+      // keep all the calls outstanding before collecting any of them
+      int callCount = 200;
+      LongWritable[] params = new LongWritable[callCount];
+      Future<?>[] futures = new Future<?>[callCount];
+      for (int i = 0; i < callCount; i++) {
+        params[i] = new LongWritable(RANDOM.nextLong());
+        futures[i] = client.asyncCall(params[i], addr, null, null,
+                                      i % 2 == 0 ? callback : null);
+      }
+      for (int i = 0; i < callCount; i++) {
+        assertEquals(params[i], futures[i].get());
+        assertTrue(futures[i].isDone());
+      }
+      assertEquals(callCount / 2, succeeded.get());
+      assertEquals(0, failed.get());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  public void testAsyncConnectFailure() throws Exception {
+    Client client = new Client(LongWritable.class, conf);
+    InetSocketAddress address = new InetSocketAddress("127.0.0.1", 10);
+    final IOException[] reported = new IOException[1];
+    Future<Writable> future = client.asyncCall(
+        new LongWritable(RANDOM.nextLong()), address, null, null,
+        new Client.Callback() {
+          public void onSuccess(Writable value) {
+          }
+          public void onFailure(IOException e) {
+            reported[0] = e;
+          }
+        });
+    try {
+      future.get();
+      fail("Expected an exception to have been thrown");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+      assertTrue(e.getCause().getMessage().contains(address.toString()));
+      assertNotNull(reported[0]);
+    } finally {
+      client.stop();
+    }
+  }
+
   public void testSerial(int handlerCount, boolean handlerSleep, 
                          int clientCount, int callerCount, int callCount)
     throws Exception {
@@ -55,6 +55,8 @@ public class TestRPC extends TestCase {
 
   public TestRPC(String name) { super(name); }
 	
+  public static enum TestEnum { ONE, TWO }
+
   public interface TestProtocol extends VersionedProtocol {
     public static final long versionID = 1L;
     
@@ -63,6 +65,9 @@ public class TestRPC extends TestCase {
     String echo(String value) throws IOException;
     String[] echo(String[] value) throws IOException;
     Writable echo(Writable value) throws IOException;
+    UTF8[] echo(UTF8[] values) throws IOException;
+    long[] echo(long[] values) throws IOException;
+    TestEnum echo(TestEnum value) throws IOException;
     int add(int v1, int v2) throws IOException;
     int add(int[] values) throws IOException;
     int error() throws IOException;
@@ -100,6 +105,13 @@ public class TestRPC extends TestCase {
     public Writable echo(Writable writable) {
       return writable;
     }
+
+    public UTF8[] echo(UTF8[] values) { return values; }
+
+    public long[] echo(long[] values) { return values; }
+
+    public TestEnum echo(TestEnum value) { return value; }
+
     public int add(int v1, int v2) {
       return v1 + v2;
     }
@@ -130,6 +142,15 @@ public class TestRPC extends TestCase {
     }
   }
 
+  /** A protocol overloading a method it inherits. */
+  public interface TestSubProtocol extends TestProtocol {
+    String ping(String value) throws IOException;
+  }
+
+  public class TestSubImpl extends TestImpl implements TestSubProtocol {
+    public String ping(String value) { return value; }
+  }
+
   //
   // an object that does a bunch of transactions
   //
@@ -261,6 +282,16 @@ public class TestRPC extends TestCase {
     utf8Result = (UTF8)proxy.echo((UTF8)null);
     assertEquals(utf8Result, null);
 
+    UTF8[] utf8s = new UTF8[] {new UTF8("a"), null, new UTF8("b")};
+    assertTrue(Arrays.equals(utf8s, proxy.echo(utf8s)));
+
+    long[] longs = new long[] {1L, -1L, Long.MAX_VALUE};
+    assertTrue(Arrays.equals(longs, proxy.echo(longs)));
+    assertTrue(Arrays.equals(new long[0], proxy.echo(new long[0])));
+
+    assertEquals(TestEnum.TWO, proxy.echo(TestEnum.TWO));
+    assertEquals(null, proxy.echo((TestEnum)null));
+
     int intResult = proxy.add(1, 2);
     assertEquals(intResult, 3);
 
@@ -315,6 +346,23 @@ public class TestRPC extends TestCase {
     }
   }
   
+  public void testOverloadedInheritedMethod() throws Exception {
+    Server server = RPC.getServer(new TestSubImpl(), ADDRESS, 0, conf);
+    TestSubProtocol proxy = null;
+    try {
+      server.start();
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      proxy = (TestSubProtocol)RPC.getProxy(
+          TestSubProtocol.class, TestProtocol.versionID, addr, conf);
+      proxy.ping();
+      assertEquals("foo", proxy.ping("foo"));
+      assertEquals("bar", proxy.echo("bar"));
+    } finally {
+      server.stop();
+      if (proxy != null) RPC.stopProxy(proxy);
+    }
+  }
+
   public void testStandaloneClient() throws IOException {
     try {
       RPC.waitForProxy(TestProtocol.class,
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.lib.CombineFileInputFormat;
+
+/**
+ * ListStatusBenchmark
+ *   Synopsis: ListStatusBenchmark [-files n] [-dirs n] [-size fileBytes]
+ *        [-threads n,n,...] [-rounds n]
+ *
+ *   Creates the given number of files, spread over the given number of
+ *   directories, on a MiniDFSCluster, and measures how long the splits of
+ *   a job reading all of them take to compute with TextInputFormat and
+ *   with CombineFileInputFormat, for each number of listing threads
+ *   (mapred.input.list.status.num.threads).  Each measurement is the
+ *   average of the given number of rounds, after one warm up round.
+ */
+public class ListStatusBenchmark {
+  static final String USAGE = "Usage: ListStatusBenchmark"
+    + " [-files n] [-dirs n] [-size fileBytes] [-threads n,n,...]"
+    + " [-rounds n]";
+
+  /** A CombineFileInputFormat that only computes splits. */
+  static class SplitsOnlyCombineFileInputFormat
+      extends CombineFileInputFormat<LongWritable, Text> {
+    public RecordReader<LongWritable, Text> getRecordReader(InputSplit split,
+        JobConf job, Reporter reporter) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static long timeSplits(JobConf conf, InputFormat<?, ?> format,
+                                 int rounds) throws IOException {
+    format.getSplits(conf, 1);                    // warm up
+    long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      format.getSplits(conf, 1);
+    }
+    return (System.nanoTime() - start) / rounds / 1000000;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int files = 100000;
+    int dirs = 100;
+    long size = 0;
+    String threads = "1,2,4,8,16";
+    int rounds = 3;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-files") && i + 1 < args.length) {
+        files = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-dirs") && i + 1 < args.length) {
+        dirs = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-size") && i + 1 < args.length) {
+        size = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = args[++i];
+      } else if (args[i].equals("-rounds") && i + 1 < args.length) {
+        rounds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+
+    JobConf conf = new JobConf();
+    conf.setInt("dfs.namenode.handler.count", 40);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 3, true, null);
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      System.out.println("Creating " + files + " files in " + dirs
+                         + " directories...");
+      for (int i = 0; i < files; i++) {
+        Path file = new Path("/bench/dir" + (i % dirs) + "/file" + i);
+        if (size == 0) {
+          fs.create(file).close();
+        } else {
+          DFSTestUtil.createFile(fs, file, size, (short)1, i);
+        }
+      }
+      FileInputFormat.setInputPaths(conf, "/bench/dir*");
+
+      System.out.println("--- Split computation, " + files + " files ---");
+      System.out.println(String.format("%-8s %14s %14s", "threads",
+                                       "text (ms)", "combine (ms)"));
+      for (String t : threads.split(",")) {
+        int numThreads = Integer.parseInt(t.trim());
+        JobConf job = new JobConf(conf);
+        job.setInt(FileInputFormat.LIST_STATUS_NUM_THREADS, numThreads);
+        TextInputFormat text = new TextInputFormat();
+        text.configure(job);
+        long textMillis = timeSplits(job, text, rounds);
+        long combineMillis = timeSplits(job,
+            new SplitsOnlyCombineFileInputFormat(), rounds);
+        System.out.println(String.format("%-8d %14d %14d",
+                                         numThreads, textMillis, combineMillis));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
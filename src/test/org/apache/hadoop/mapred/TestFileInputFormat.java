@@ -18,6 +18,7 @@
 package org.apache.hadoop.mapred;
 
 import java.io.DataOutputStream;
+import java.io.IOException;
 
 import junit.framework.TestCase;
 
@@ -25,6 +26,7 @@ import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 
 public class TestFileInputFormat extends TestCase {
@@ -86,4 +88,61 @@ public class TestFileInputFormat extends TestCase {
     }
   }
 
+  private static InputSplit[] getSplits(JobConf conf, int numThreads)
+      throws IOException {
+    JobConf job = new JobConf(conf);
+    job.setInt(FileInputFormat.LIST_STATUS_NUM_THREADS, numThreads);
+    TextInputFormat inFormat = new TextInputFormat();
+    inFormat.configure(job);
+    return inFormat.getSplits(job, 1);
+  }
+
+  public void testMultiThreadedListStatus() throws Exception {
+    JobConf conf = new JobConf();
+    conf.setInt("dfs.ls.limit", 5);
+    MiniDFSCluster dfs = null;
+    try {
+      dfs = new MiniDFSCluster(conf, 2, true, null);
+      FileSystem fs = dfs.getFileSystem();
+      for (int d = 0; d < 4; d++) {
+        for (int f = 0; f < 12; f++) {
+          DFSTestUtil.createFile(fs, new Path("/multi/dir" + d + "/file" + f),
+                                 100 * (f + 1), (short)2, f);
+        }
+      }
+      DFSTestUtil.createFile(fs, new Path("/multi/single"), 1000, (short)2, 0);
+      FileInputFormat.setInputPaths(conf, "/multi/dir*,/multi/single,/multi/dir2");
+
+      // the splits do not depend on the number of threads
+      InputSplit[] expected = getSplits(conf, 1);
+      assertEquals(4 * 12 + 1 + 12, expected.length);
+      for (int numThreads : new int[] {2, 8}) {
+        InputSplit[] splits = getSplits(conf, numThreads);
+        assertEquals(expected.length, splits.length);
+        for (int i = 0; i < splits.length; i++) {
+          FileSplit e = (FileSplit)expected[i];
+          FileSplit s = (FileSplit)splits[i];
+          assertEquals(e.getPath(), s.getPath());
+          assertEquals(e.getStart(), s.getStart());
+          assertEquals(e.getLength(), s.getLength());
+          assertEquals(2, s.getLocations().length);
+        }
+      }
+
+      // a missing input path fails the listing on any number of threads
+      FileInputFormat.addInputPath(conf, new Path("/multi/nonexistent"));
+      for (int numThreads : new int[] {1, 4}) {
+        try {
+          getSplits(conf, numThreads);
+          fail("Listed a missing input path with " + numThreads + " threads");
+        } catch (InvalidInputException e) {
+          assertEquals(1, e.getProblems().size());
+        }
+      }
+    } finally {
+      if (dfs != null) {
+        dfs.shutdown();
+      }
+    }
+  }
 }
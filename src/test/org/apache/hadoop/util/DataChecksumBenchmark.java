@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * DataChecksumBenchmark
+ *   Synopsis: DataChecksumBenchmark [-size packetBytes]
+ *        [-bytesPerChecksum n] [-iterations n]
+ *
+ *   Measures how fast packets of data are verified against their
+ *   checksums, in MB/s:
+ *   <ul>
+ *   <li>one chunk at a time with update() and compare(), the way
+ *   BlockReceiver used to verify packets,</li>
+ *   <li>with verifyChunkedSums on heap buffers, and</li>
+ *   <li>with verifyChunkedSums on direct buffers,</li>
+ *   </ul>
+ *   for CRC32 and CRC32C.  Each measurement is preceded by a warm up
+ *   round of the same length.
+ */
+public class DataChecksumBenchmark {
+  static final String USAGE = "Usage: DataChecksumBenchmark"
+    + " [-size packetBytes] [-bytesPerChecksum n] [-iterations n]";
+
+  private static abstract class Verifier {
+    final String name;
+    Verifier(String name) {
+      this.name = name;
+    }
+    abstract void verify() throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int size = 64 * 1024;
+    int bytesPerChecksum = 512;
+    int iterations = 20000;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-size") && i + 1 < args.length) {
+        size = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-bytesPerChecksum") && i + 1 < args.length) {
+        bytesPerChecksum = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-iterations") && i + 1 < args.length) {
+        iterations = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(USAGE);
+        System.exit(-1);
+      }
+    }
+
+    final byte[] data = new byte[size];
+    new Random(0).nextBytes(data);
+    final int numChunks = (size + bytesPerChecksum - 1) / bytesPerChecksum;
+    final ByteBuffer directData = ByteBuffer.allocateDirect(size);
+    directData.put(data);
+    directData.flip();
+
+    System.out.println("--- Checksum verification, " + size + " byte packets, "
+                       + bytesPerChecksum + " bytes per checksum ---");
+    for (final int type : new int[] {DataChecksum.CHECKSUM_CRC32,
+                                     DataChecksum.CHECKSUM_CRC32C}) {
+      final DataChecksum checksum =
+        DataChecksum.newDataChecksum(type, bytesPerChecksum);
+      final int checksumSize = checksum.getChecksumSize();
+      final byte[] sums = new byte[numChunks * checksumSize];
+      checksum.calculateChunkedSums(data, 0, size, sums, 0);
+      final ByteBuffer directSums = ByteBuffer.allocateDirect(sums.length);
+      directSums.put(sums);
+      directSums.flip();
+      final int bpc = bytesPerChecksum;
+
+      Verifier[] verifiers = {
+        new Verifier("per chunk") {
+          void verify() throws Exception {
+            for (int off = 0, sumOff = 0; off < data.length;
+                 off += bpc, sumOff += checksumSize) {
+              checksum.update(data, off, Math.min(bpc, data.length - off));
+              if (!checksum.compare(sums, sumOff)) {
+                throw new Exception("checksum mismatch at " + off);
+              }
+              checksum.reset();
+            }
+          }
+        },
+        new Verifier("bulk, heap") {
+          void verify() throws Exception {
+            checksum.verifyChunkedSums(ByteBuffer.wrap(data),
+                                       ByteBuffer.wrap(sums), "bench", 0);
+          }
+        },
+        new Verifier("bulk, direct") {
+          void verify() throws Exception {
+            checksum.verifyChunkedSums(directData, directSums, "bench", 0);
+          }
+        }
+      };
+
+      String typeName = type == DataChecksum.CHECKSUM_CRC32 ? "CRC32" : "CRC32C";
+      for (Verifier verifier : verifiers) {
+        for (int i = 0; i < iterations; i++) {  // warm up
+          verifier.verify();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          verifier.verify();
+        }
+        long elapsed = System.nanoTime() - start;
+        double mbPerSec = (double)size * iterations * 1000.0 / elapsed;
+        System.out.println(String.format("%-7s %-13s %8.1f MB/s",
+                                         typeName, verifier.name, mbPerSec));
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.ChecksumException;
+
+public class TestDataChecksum extends TestCase {
+  private static final int BYTES_PER_CHECKSUM = 512;
+  private static final int DATA_LEN = 10 * BYTES_PER_CHECKSUM + 77;
+  private static final int NUM_CHUNKS = 11;
+
+  public void testPureJavaCrc32C() throws Exception {
+    // the check value of CRC-32C
+    byte[] b = "123456789".getBytes("US-ASCII");
+    PureJavaCrc32C crc = new PureJavaCrc32C();
+    crc.update(b, 0, b.length);
+    assertEquals(0xE3069283L, crc.getValue());
+
+    crc.reset();
+    for (byte x : b) {
+      crc.update(x);
+    }
+    assertEquals(0xE3069283L, crc.getValue());
+
+    // updates in pieces of every length give the same value
+    byte[] data = new byte[100];
+    new Random(0).nextBytes(data);
+    crc.reset();
+    crc.update(data, 0, data.length);
+    long expected = crc.getValue();
+    for (int split = 0; split <= data.length; split++) {
+      crc.reset();
+      crc.update(data, 0, split);
+      crc.update(data, split, data.length - split);
+      assertEquals(expected, crc.getValue());
+    }
+  }
+
+  public void testChunkedSums() throws Exception {
+    for (int type : new int[] {DataChecksum.CHECKSUM_CRC32,
+                               DataChecksum.CHECKSUM_CRC32C}) {
+      checkChunkedSums(DataChecksum.newDataChecksum(type, BYTES_PER_CHECKSUM));
+    }
+  }
+
+  private void checkChunkedSums(DataChecksum checksum) throws Exception {
+    byte[] data = new byte[DATA_LEN];
+    new Random(0).nextBytes(data);
+    byte[] sums = new byte[NUM_CHUNKS * checksum.getChecksumSize()];
+    checksum.calculateChunkedSums(data, 0, data.length, sums, 0);
+
+    // the bulk checksums match the chunk by chunk ones
+    for (int i = 0; i < NUM_CHUNKS; i++) {
+      int off = i * BYTES_PER_CHECKSUM;
+      checksum.update(data, off, Math.min(BYTES_PER_CHECKSUM, DATA_LEN - off));
+      assertTrue(checksum.compare(sums, i * checksum.getChecksumSize()));
+      checksum.reset();
+    }
+
+    // direct buffers give the same checksums
+    ByteBuffer directData = ByteBuffer.allocateDirect(DATA_LEN);
+    directData.put(data);
+    directData.flip();
+    ByteBuffer directSums = ByteBuffer.allocateDirect(sums.length);
+    checksum.calculateChunkedSums(directData, directSums);
+    byte[] directSumBytes = new byte[sums.length];
+    directSums.get(directSumBytes);
+    assertTrue(Arrays.equals(sums, directSumBytes));
+    assertEquals(0, directData.position());
+
+    checksum.verifyChunkedSums(ByteBuffer.wrap(data), ByteBuffer.wrap(sums),
+                               "test", 0);
+    directSums.rewind();
+    checksum.verifyChunkedSums(directData, directSums, "test", 0);
+
+    // a corrupt byte is reported at the start of its chunk
+    data[3 * BYTES_PER_CHECKSUM + 5]++;
+    directData.put(3 * BYTES_PER_CHECKSUM + 5, data[3 * BYTES_PER_CHECKSUM + 5]);
+    try {
+      checksum.verifyChunkedSums(ByteBuffer.wrap(data), ByteBuffer.wrap(sums),
+                                 "test", 1000);
+      fail("Corrupt chunk was not detected");
+    } catch (ChecksumException ce) {
+      assertEquals(1000 + 3 * BYTES_PER_CHECKSUM, ce.getPos());
+    }
+    try {
+      checksum.verifyChunkedSums(directData, directSums, "test", 1000);
+      fail("Corrupt chunk was not detected");
+    } catch (ChecksumException ce) {
+      assertEquals(1000 + 3 * BYTES_PER_CHECKSUM, ce.getPos());
+    }
+  }
+}
@@ -42,6 +42,7 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsShell;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.io.LongWritable;
@@ -1052,10 +1053,11 @@ public class DistCp implements Tool {
         Stack<FileStatus> pathstack = new Stack<FileStatus>();
         for(pathstack.push(srcfilestat); !pathstack.empty(); ) {
           FileStatus cur = pathstack.pop();
-          FileStatus[] children = srcfs.listStatus(cur.getPath());
-          for(int i = 0; i < children.length; i++) {
+          RemoteIterator<FileStatus> children =
+            srcfs.listStatusIterator(cur.getPath());
+          while (children.hasNext()) {
             boolean skipfile = false;
-            final FileStatus child = children[i]; 
+            final FileStatus child = children.next();
             final String dst = makeRelative(root, child.getPath());
             ++srcCount;
 
@@ -1221,7 +1223,10 @@ public class DistCp implements Tool {
       for(lsrstack.push(dstroot); !lsrstack.isEmpty(); ) {
         final FileStatus status = lsrstack.pop();
         if (status.isDir()) {
-          for(FileStatus child : dstfs.listStatus(status.getPath())) {
+          RemoteIterator<FileStatus> children =
+            dstfs.listStatusIterator(status.getPath());
+          while (children.hasNext()) {
+            FileStatus child = children.next();
             String relative = makeRelative(dstroot.getPath(), child.getPath());
             writer.append(new Text(relative), child);
             lsrstack.push(child);